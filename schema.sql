@@ -37,6 +37,20 @@ CREATE TABLE `accounts` (
   CONSTRAINT `accounts_ibfk_3` FOREIGN KEY (`promoted_by`) REFERENCES `accounts` (`id`) ON DELETE SET NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+--
+-- Table structure for table `actor_refresh_queue`
+--
+
+CREATE TABLE `actor_refresh_queue` (
+  `actor_id` int NOT NULL,
+  `domain` varchar(100) NOT NULL,
+  `priority` tinyint unsigned NOT NULL,
+  `attempts` int unsigned NOT NULL DEFAULT '0',
+  `next_attempt_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`actor_id`),
+  KEY `next_attempt_at` (`next_attempt_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 --
 -- Table structure for table `announcements`
 --
@@ -216,6 +230,20 @@ CREATE TABLE `bookmarks_user` (
   CONSTRAINT `bookmarks_user_ibfk_1` FOREIGN KEY (`owner_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+--
+-- Table structure for table `collection_crawl_state`
+--
+
+CREATE TABLE `collection_crawl_state` (
+  `collection_id` varchar(300) CHARACTER SET ascii COLLATE ascii_general_ci NOT NULL,
+  `task_type` varchar(100) NOT NULL,
+  `next_page` varchar(300) CHARACTER SET ascii COLLATE ascii_general_ci NOT NULL,
+  `processed_items` int unsigned NOT NULL,
+  `updated_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`collection_id`,`task_type`),
+  KEY `updated_at` (`updated_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 --
 -- Table structure for table `comments`
 --
@@ -303,6 +331,21 @@ CREATE TABLE `email_codes` (
   CONSTRAINT `email_codes_ibfk_1` FOREIGN KEY (`account_id`) REFERENCES `accounts` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+--
+-- Table structure for table `email_outbox`
+--
+
+CREATE TABLE `email_outbox` (
+  `id` bigint unsigned NOT NULL AUTO_INCREMENT,
+  `recipient` varchar(300) NOT NULL,
+  `message` mediumblob NOT NULL,
+  `attempts` int unsigned NOT NULL DEFAULT '0',
+  `next_attempt_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `created_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  KEY `next_attempt_at` (`next_attempt_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 --
 -- Table structure for table `fasp_debug_callbacks`
 --
@@ -619,6 +662,34 @@ CREATE TABLE `mail_privacy_grants` (
   CONSTRAINT `mail_privacy_grants_ibfk_2` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+--
+-- Table structure for table `maintenance_job_leases`
+--
+
+CREATE TABLE `maintenance_job_leases` (
+  `job` varchar(100) NOT NULL,
+  `node_id` varchar(300) NOT NULL,
+  `expires_at` timestamp NOT NULL,
+  PRIMARY KEY (`job`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+--
+-- Table structure for table `maintenance_job_runs`
+--
+
+CREATE TABLE `maintenance_job_runs` (
+  `id` bigint unsigned NOT NULL AUTO_INCREMENT,
+  `job` varchar(100) NOT NULL,
+  `node` varchar(300) NOT NULL,
+  `started_at` timestamp NOT NULL,
+  `duration` bigint unsigned NOT NULL,
+  `outcome` tinyint unsigned NOT NULL,
+  `error` text,
+  PRIMARY KEY (`id`),
+  KEY `job` (`job`),
+  KEY `started_at` (`started_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 --
 -- Table structure for table `media_cache`
 --
@@ -1070,6 +1141,7 @@ CREATE TABLE `user_data_exports` (
   `size` bigint unsigned NOT NULL DEFAULT '0',
   `file_id` bigint DEFAULT NULL,
   `requested_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `progress` json DEFAULT NULL,
   PRIMARY KEY (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
@@ -0,0 +1,51 @@
+package smithereen;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Loads recorded fixtures for benchmarks. These come from src/jmh/resources or, when shared with tests, from src/test/resources.
+ */
+public class BenchmarkFixtures{
+	public static InputStream open(String path){
+		InputStream in=BenchmarkFixtures.class.getResourceAsStream(path);
+		if(in==null)
+			throw new IllegalArgumentException("Fixture "+path+" not found");
+		return in;
+	}
+
+	public static byte[] readBytes(String path){
+		try(InputStream in=open(path)){
+			return in.readAllBytes();
+		}catch(IOException x){
+			throw new UncheckedIOException(x);
+		}
+	}
+
+	public static String readString(String path){
+		return new String(readBytes(path), StandardCharsets.UTF_8);
+	}
+
+	public static JsonElement readJson(String path){
+		return JsonParser.parseString(readString(path));
+	}
+
+	/**
+	 * @return non-empty lines that don't start with '#'
+	 */
+	public static List<String> readLines(String path){
+		try(BufferedReader reader=new BufferedReader(new InputStreamReader(open(path), StandardCharsets.UTF_8))){
+			return reader.lines().filter(l->!l.isBlank() && !l.startsWith("#")).toList();
+		}catch(IOException x){
+			throw new UncheckedIOException(x);
+		}
+	}
+}
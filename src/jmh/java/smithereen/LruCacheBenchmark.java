@@ -0,0 +1,79 @@
+package smithereen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One cache shared by all benchmark threads, the way the caches in controllers and storage classes are. Keys are
+ * skewed so that a small set of hot entries gets most of the traffic, and the key space is twice the cache size so
+ * there are misses and evictions too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class LruCacheBenchmark{
+	@Param({"500", "5000"})
+	public int cacheSize;
+
+	private LruCache<Integer, Object> cache;
+	private final Object value=new Object();
+
+	@Setup
+	public void fillCache(){
+		cache=new LruCache<>(cacheSize);
+		for(int i=0;i<cacheSize;i++)
+			cache.put(i, value);
+	}
+
+	private int nextKey(){
+		ThreadLocalRandom rand=ThreadLocalRandom.current();
+		// 80% of requests go to the hottest 10% of keys
+		if(rand.nextInt(10)<8)
+			return rand.nextInt(cacheSize/10);
+		return rand.nextInt(cacheSize*2);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object getUncontended(){
+		return cache.get(nextKey());
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object getContended(){
+		return cache.get(nextKey());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(6)
+	public Object mixedGet(){
+		return cache.get(nextKey());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public Object mixedPut(){
+		return cache.put(nextKey(), value);
+	}
+}
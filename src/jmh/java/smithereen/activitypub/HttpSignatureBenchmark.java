@@ -0,0 +1,120 @@
+package smithereen.activitypub;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+import smithereen.activitypub.objects.Actor;
+import smithereen.jsonld.JLDProcessor;
+import smithereen.model.ForeignUser;
+import spark.Request;
+
+/**
+ * Verifies the Signature header of a recorded Mastodon inbox delivery. The actor is passed as the hint so no network
+ * or database lookups happen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class HttpSignatureBenchmark{
+	private static final String KEY_ID="https://mastodon.social/users/grishka#main-key";
+
+	private Actor actor;
+	private PrivateKey privateKey;
+	private byte[] body;
+	private FakeRequest request;
+
+	@Setup
+	public void loadFixtures() throws Exception{
+		KeyFactory kf=KeyFactory.getInstance("RSA");
+		privateKey=kf.generatePrivate(new PKCS8EncodedKeySpec(BenchmarkFixtures.readBytes("/ld-signature/private_key.der")));
+		actor=(ForeignUser) ForeignUser.parse(JLDProcessor.convertToLocalContext(BenchmarkFixtures.readJson("/ld-signature/mastodon_actor.json").getAsJsonObject()));
+		actor.publicKey=kf.generatePublic(new X509EncodedKeySpec(BenchmarkFixtures.readBytes("/ld-signature/public_key.der")));
+		body=BenchmarkFixtures.readBytes("/ld-signature/mastodon_signed_create.json");
+	}
+
+	/**
+	 * Signatures are only accepted within 5 minutes of the Date header, so the request is re-signed for every iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void signRequest() throws Exception{
+		Map<String, String> headers=new HashMap<>();
+		headers.put("host", "smithereen.example");
+		headers.put("date", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+		headers.put("digest", "SHA-256="+Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body)));
+		headers.put("content-type", "application/activity+json");
+		String signedHeaders="(request-target) host date digest content-type";
+		StringBuilder sigStr=new StringBuilder("(request-target): post /users/1/inbox");
+		for(String header:signedHeaders.substring(signedHeaders.indexOf(' ')+1).split(" ")){
+			sigStr.append('\n').append(header).append(": ").append(headers.get(header));
+		}
+		Signature sig=Signature.getInstance("SHA256withRSA");
+		sig.initSign(privateKey);
+		sig.update(sigStr.toString().getBytes(StandardCharsets.UTF_8));
+		headers.put("signature", "keyId=\""+KEY_ID+"\",algorithm=\"rsa-sha256\",headers=\""+signedHeaders+"\",signature=\""+Base64.getEncoder().encodeToString(sig.sign())+"\"");
+		request=new FakeRequest("POST", "/users/1/inbox", headers);
+	}
+
+	@Benchmark
+	public Actor verifyHttpSignature() throws Exception{
+		return ActivityPub.verifyHttpSignature(request, actor);
+	}
+
+	private static class FakeRequest extends Request{
+		private final String method, path;
+		private final Map<String, String> headers;
+
+		private FakeRequest(String method, String path, Map<String, String> headers){
+			this.method=method;
+			this.path=path;
+			this.headers=headers;
+		}
+
+		@Override
+		public String requestMethod(){
+			return method;
+		}
+
+		@Override
+		public String pathInfo(){
+			return path;
+		}
+
+		@Override
+		public String queryString(){
+			return null;
+		}
+
+		@Override
+		public String headers(String header){
+			return headers.get(header.toLowerCase());
+		}
+	}
+}
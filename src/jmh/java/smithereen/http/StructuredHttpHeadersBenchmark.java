@@ -0,0 +1,94 @@
+package smithereen.http;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+
+/**
+ * Each invocation goes through all headers of one kind from the fixture: RFC 9421 signatures and content digests as
+ * used by FASP, client hints, and the RFC 8941 examples.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class StructuredHttpHeadersBenchmark{
+	private List<String> dictionaries, lists, items;
+	private List<Map<String, StructuredHttpHeaders.ItemOrInnerList>> parsedDictionaries;
+	private List<List<StructuredHttpHeaders.ItemOrInnerList>> parsedLists;
+	private List<StructuredHttpHeaders.Item> parsedItems;
+
+	@Setup
+	public void loadFixtures(){
+		JsonObject fixtures=BenchmarkFixtures.readJson("/fixtures/http/structured_headers.json").getAsJsonObject();
+		dictionaries=strings(fixtures, "dictionary");
+		lists=strings(fixtures, "list");
+		items=strings(fixtures, "item");
+		parsedDictionaries=dictionaries.stream().map(StructuredHttpHeaders::parseDictionary).toList();
+		parsedLists=lists.stream().map(StructuredHttpHeaders::parseList).toList();
+		parsedItems=items.stream().map(StructuredHttpHeaders::parseItem).toList();
+	}
+
+	private static List<String> strings(JsonObject obj, String key){
+		ArrayList<String> result=new ArrayList<>();
+		for(JsonElement el:obj.getAsJsonArray(key))
+			result.add(el.getAsString());
+		return result;
+	}
+
+	@Benchmark
+	public void parseDictionary(Blackhole bh){
+		for(String header:dictionaries)
+			bh.consume(StructuredHttpHeaders.parseDictionary(header));
+	}
+
+	@Benchmark
+	public void parseList(Blackhole bh){
+		for(String header:lists)
+			bh.consume(StructuredHttpHeaders.parseList(header));
+	}
+
+	@Benchmark
+	public void parseItem(Blackhole bh){
+		for(String header:items)
+			bh.consume(StructuredHttpHeaders.parseItem(header));
+	}
+
+	@Benchmark
+	public void serializeDictionary(Blackhole bh){
+		for(Map<String, StructuredHttpHeaders.ItemOrInnerList> dict:parsedDictionaries)
+			bh.consume(StructuredHttpHeaders.serialize(dict));
+	}
+
+	@Benchmark
+	public void serializeList(Blackhole bh){
+		for(List<StructuredHttpHeaders.ItemOrInnerList> list:parsedLists)
+			bh.consume(StructuredHttpHeaders.serialize(list));
+	}
+
+	@Benchmark
+	public void serializeItem(Blackhole bh){
+		for(StructuredHttpHeaders.Item item:parsedItems)
+			bh.consume(StructuredHttpHeaders.serialize(item));
+	}
+}
@@ -0,0 +1,57 @@
+package smithereen.jsonld;
+
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+
+/**
+ * Measures what it costs to bring an incoming activity into the local context, i.e. what ActivityPub.fetchRemoteObject
+ * and the inbox handler do for every document. With contextCache=false the memoized active contexts are dropped before
+ * every invocation, which is how it worked before they were cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class JLDNormalizationBenchmark{
+	@Param({"mastodon_create_note", "smithereen_create_post"})
+	public String fixture;
+
+	@Param({"true", "false"})
+	public boolean contextCache;
+
+	private JsonObject activity;
+
+	@Setup(Level.Trial)
+	public void loadFixture(){
+		activity=BenchmarkFixtures.readJson("/fixtures/activitypub/"+fixture+".json").getAsJsonObject();
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareCache(){
+		if(!contextCache)
+			JLDProcessor.evictProcessedContexts();
+	}
+
+	@Benchmark
+	public JsonObject convertToLocalContext(){
+		return JLDProcessor.convertToLocalContext(activity);
+	}
+}
@@ -0,0 +1,58 @@
+package smithereen.jsonld;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class JLDProcessorBenchmark{
+	@Param({"mastodon_create_note", "smithereen_create_post"})
+	public String fixture;
+
+	private JsonObject activity;
+	private JsonArray expanded;
+	private JsonElement context;
+
+	@Setup
+	public void loadFixture(){
+		activity=BenchmarkFixtures.readJson("/fixtures/activitypub/"+fixture+".json").getAsJsonObject();
+		context=activity.get("@context");
+		expanded=JLDProcessor.expandToArray(activity);
+	}
+
+	@Benchmark
+	public JsonArray expand(){
+		return JLDProcessor.expandToArray(activity);
+	}
+
+	@Benchmark
+	public JsonObject compact(){
+		return JLDProcessor.compact(expanded, context);
+	}
+
+	@Benchmark
+	public JsonObject compactToLocalContext(){
+		return JLDProcessor.compactToLocalContext(expanded);
+	}
+}
@@ -0,0 +1,58 @@
+package smithereen.jsonld;
+
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+import smithereen.model.ForeignUser;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class LinkedDataSignaturesBenchmark{
+	private JsonObject unsigned, signedCreate;
+	private PrivateKey privateKey;
+	private PublicKey mastodonKey;
+
+	@Setup
+	public void loadFixtures() throws Exception{
+		unsigned=BenchmarkFixtures.readJson("/ld-signature/00a-unsigned_payload.json").getAsJsonObject();
+		signedCreate=BenchmarkFixtures.readJson("/ld-signature/mastodon_signed_create.json").getAsJsonObject();
+		privateKey=KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(BenchmarkFixtures.readBytes("/ld-signature/private_key.der")));
+		ForeignUser actor=(ForeignUser) ForeignUser.parse(JLDProcessor.convertToLocalContext(BenchmarkFixtures.readJson("/ld-signature/mastodon_actor.json").getAsJsonObject()));
+		mastodonKey=actor.publicKey;
+		if(!LinkedDataSignatures.verify(signedCreate, mastodonKey))
+			throw new IllegalStateException("Fixture signature doesn't verify");
+	}
+
+	@Benchmark
+	public JsonObject sign(){
+		JsonObject obj=unsigned.deepCopy();
+		LinkedDataSignatures.sign(obj, privateKey, "https://example.com/user#main-key");
+		return obj;
+	}
+
+	@Benchmark
+	public boolean verify(){
+		return LinkedDataSignatures.verify(signedCreate, mastodonKey);
+	}
+}
@@ -0,0 +1,44 @@
+package smithereen.jsonld;
+
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class URDNA2015Benchmark{
+	@Param({"/ld-signature/00a-unsigned_payload.json", "/ld-signature/mastodon_signed_create.json", "/ld-signature/mastodon_actor.json"})
+	public String fixture;
+
+	private JsonObject document;
+
+	@Setup
+	public void loadFixture(){
+		document=BenchmarkFixtures.readJson(fixture).getAsJsonObject();
+		// The signature isn't part of the signed data
+		document.remove("signature");
+	}
+
+	@Benchmark
+	public String canonicalize(){
+		return URDNA2015.canonicalize(document, null);
+	}
+}
@@ -0,0 +1,106 @@
+package smithereen.templates;
+
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.pebbletemplates.pebble.template.PebbleTemplate;
+import smithereen.BenchmarkFixtures;
+import smithereen.Config;
+import smithereen.jsonld.JLDProcessor;
+import smithereen.model.ForeignUser;
+import smithereen.model.User;
+
+/**
+ * Renders templates that show lists of users. The users are made from a recorded Mastodon actor without an avatar so
+ * that the media cache isn't involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class TemplatesBenchmark{
+	@Param({"en", "ru"})
+	public String locale;
+
+	private Map<String, Object> userGridModel, quickSearchModel;
+	private PebbleTemplate userGrid, quickSearch;
+	private Locale _locale;
+
+	@Setup
+	public void prepare() throws Exception{
+		Config.domain="smithereen.example";
+		_locale=Locale.forLanguageTag(locale);
+		JsonObject actorJson=BenchmarkFixtures.readJson("/ld-signature/mastodon_actor.json").getAsJsonObject();
+		actorJson.remove("icon");
+		Map<Integer, User> users=new HashMap<>();
+		List<Integer> ids=new ArrayList<>();
+		for(int i=1;i<=30;i++){
+			JsonObject obj=actorJson.deepCopy();
+			String id="https://mastodon.social/users/user"+i;
+			obj.addProperty("id", id);
+			obj.addProperty("preferredUsername", "user"+i);
+			obj.getAsJsonObject("publicKey").addProperty("id", id+"#main-key");
+			obj.getAsJsonObject("publicKey").addProperty("owner", id);
+			ForeignUser user=(ForeignUser) ForeignUser.parse(JLDProcessor.convertToLocalContext(obj));
+			user.id=i;
+			users.put(i, user);
+			ids.add(i);
+		}
+
+		userGridModel=new HashMap<>();
+		userGridModel.put("items", ids);
+		userGridModel.put("users", users);
+		userGridModel.put("groups", Map.of());
+		userGridModel.put("summary", "30 friends");
+		userGridModel.put("totalItems", 300);
+		userGridModel.put("paginationOffset", 60);
+		userGridModel.put("paginationPerPage", 30);
+		userGridModel.put("paginationUrlPrefix", "/users/1/friends?offset=");
+		userGridModel.put("avatarPhotos", Map.of());
+
+		quickSearchModel=new HashMap<>();
+		quickSearchModel.put("users", users.values().stream().limit(10).toList());
+		quickSearchModel.put("groups", List.of());
+		quickSearchModel.put("externalObjects", List.of());
+		quickSearchModel.put("avaSize", 30);
+
+		userGrid=Templates.getTemplate("user_grid");
+		quickSearch=Templates.getTemplate("quick_search_results");
+	}
+
+	@Benchmark
+	public String renderUserGrid() throws IOException{
+		StringWriter writer=new StringWriter();
+		userGrid.evaluate(writer, userGridModel, _locale);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public String renderQuickSearchResults() throws IOException{
+		StringWriter writer=new StringWriter();
+		quickSearch.evaluate(writer, quickSearchModel, _locale);
+		return writer.toString();
+	}
+}
@@ -0,0 +1,67 @@
+package smithereen.text;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+import smithereen.Config;
+
+/**
+ * The three passes post text goes through: sanitizing incoming remote HTML, turning what a local user typed into
+ * post HTML, and preparing stored HTML for display. Mentions aren't resolved, so none of this touches the database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class TextProcessorBenchmark{
+	private String remoteHTML, localHTML, localMarkdown, sanitizedRemoteHTML, processedLocalHTML;
+
+	@Setup
+	public void loadFixtures(){
+		Config.domain="smithereen.example";
+		remoteHTML=BenchmarkFixtures.readString("/fixtures/text/remote_post.html");
+		localHTML=BenchmarkFixtures.readString("/fixtures/text/local_post.html");
+		localMarkdown=BenchmarkFixtures.readString("/fixtures/text/local_post.md");
+		sanitizedRemoteHTML=TextProcessor.sanitizeHTML(remoteHTML, URI.create("https://mastodon.example/users/alice/statuses/113456789012345678"));
+		processedLocalHTML=TextProcessor.preprocessPostText(localMarkdown, null, FormattedTextFormat.MARKDOWN);
+	}
+
+	@Benchmark
+	public String sanitizeHTML(){
+		return TextProcessor.sanitizeHTML(remoteHTML, URI.create("https://mastodon.example/users/alice/statuses/113456789012345678"));
+	}
+
+	@Benchmark
+	public String preprocessPostTextHTML(){
+		return TextProcessor.preprocessPostText(localHTML, null, FormattedTextFormat.HTML);
+	}
+
+	@Benchmark
+	public String preprocessPostTextMarkdown(){
+		return TextProcessor.preprocessPostText(localMarkdown, null, FormattedTextFormat.MARKDOWN);
+	}
+
+	@Benchmark
+	public String postprocessRemotePostHTMLForDisplay(){
+		return TextProcessor.postprocessPostHTMLForDisplay(sanitizedRemoteHTML, false, false);
+	}
+
+	@Benchmark
+	public String postprocessLocalPostHTMLForDisplay(){
+		return TextProcessor.postprocessPostHTMLForDisplay(processedLocalHTML, false, false);
+	}
+}
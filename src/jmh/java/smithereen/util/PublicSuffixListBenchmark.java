@@ -0,0 +1,65 @@
+package smithereen.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import smithereen.BenchmarkFixtures;
+
+/**
+ * Uses the public suffix list rules that apply to the hostnames in the fixture, filtered the same way as when the list is
+ * downloaded in updateIfNeeded(). Every lookup checks every rule, so the list is padded with rules that match none of
+ * the hostnames up to about the size of the real one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class PublicSuffixListBenchmark{
+	private static final int FULL_LIST_RULE_COUNT=9500;
+
+	private List<String> domains;
+
+	@Setup
+	public void loadFixtures(){
+		ArrayList<String> lines=BenchmarkFixtures.readLines("/fixtures/public_suffix_list.dat").stream().filter(l->!l.startsWith("/")).collect(Collectors.toCollection(ArrayList::new));
+		for(int i=lines.size();i<FULL_LIST_RULE_COUNT;i++){
+			lines.add(switch(i%3){
+				case 0 -> "tld"+i;
+				case 1 -> "com.tld"+i;
+				default -> "*.city"+i+".tld"+i;
+			});
+		}
+		PublicSuffixList.update(lines);
+		domains=BenchmarkFixtures.readLines("/fixtures/http/domains.txt");
+	}
+
+	/**
+	 * Looks up the registered domain of every hostname in the fixture once.
+	 */
+	@Benchmark
+	public void getRegisteredDomain(Blackhole bh){
+		for(String domain:domains)
+			bh.consume(PublicSuffixList.getRegisteredDomain(domain));
+	}
+
+	@Benchmark
+	public boolean isSameRegisteredDomain(){
+		return PublicSuffixList.isSameRegisteredDomain("files.mastodon.social", "mastodon.social");
+	}
+}
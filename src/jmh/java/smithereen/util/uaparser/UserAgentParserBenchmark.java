@@ -0,0 +1,42 @@
+package smithereen.util.uaparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import smithereen.BenchmarkFixtures;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class UserAgentParserBenchmark{
+	private List<String> userAgents;
+
+	@Setup
+	public void loadFixtures(){
+		userAgents=BenchmarkFixtures.readLines("/fixtures/http/user_agents.txt");
+	}
+
+	/**
+	 * Parses every user agent in the fixture once.
+	 */
+	@Benchmark
+	public void parse(Blackhole bh){
+		for(String ua:userAgents)
+			bh.consume(UserAgentParser.parse(ua));
+	}
+}
@@ -2,6 +2,7 @@ open module smithereen.server{
 	requires java.net.http;
 	requires java.sql;
 	requires java.desktop; // image stuff for captcha
+	requires jdk.jfr; // virtual thread pinning diagnostics
 
 	requires com.google.gson;
 	requires com.sun.jna;
@@ -1,6 +1,7 @@
 package smithereen;
 
 import smithereen.activitypub.ActivityPubWorker;
+import smithereen.controllers.ActorRefreshWorker;
 import smithereen.controllers.BoardController;
 import smithereen.controllers.BookmarksController;
 import smithereen.controllers.CommentsController;
@@ -42,6 +43,7 @@ public class ApplicationContext{
 	private final FASPController faspController;
 	private final BoardController boardController;
 	private final UserDataExportWorker userDataExportWorker;
+	private final ActorRefreshWorker actorRefreshWorker;
 
 	public ApplicationContext(){
 		wallController=new WallController(this);
@@ -64,6 +66,7 @@ public class ApplicationContext{
 		faspController=new FASPController(this);
 		boardController=new BoardController(this);
 		userDataExportWorker=new UserDataExportWorker(this);
+		actorRefreshWorker=new ActorRefreshWorker(this);
 	}
 
 	public WallController getWallController(){
@@ -145,4 +148,8 @@ public class ApplicationContext{
 	public UserDataExportWorker getUserDataExportWorker(){
 		return userDataExportWorker;
 	}
+
+	public ActorRefreshWorker getActorRefreshWorker(){
+		return actorRefreshWorker;
+	}
 }
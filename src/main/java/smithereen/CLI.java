@@ -6,6 +6,7 @@ import java.sql.SQLException;
 
 import smithereen.model.Account;
 import smithereen.model.User;
+import smithereen.storage.QuickSearchIndex;
 import smithereen.storage.SessionStorage;
 import smithereen.storage.UserStorage;
 
@@ -75,4 +76,16 @@ public class CLI{
 			x.printStackTrace();
 		}
 	}
+
+	public static void rebuildSearchIndex(){
+		try{
+			int threads=Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Config.dbMaxConnections-1));
+			System.out.println("Rebuilding the quick search index using "+threads+" threads...");
+			long start=System.currentTimeMillis();
+			QuickSearchIndex.rebuild(threads);
+			System.out.println(E_FG_GREEN+"Done"+E_RESET+" in "+(System.currentTimeMillis()-start)+" ms");
+		}catch(SQLException x){
+			x.printStackTrace();
+		}
+	}
 }
@@ -66,6 +66,7 @@ public class Config{
 	public static String staticFilesPath;
 	public static String uploadUrlPath;
 	public static String mediaCacheUrlPath;
+	public static File jsonldContextCachePath;
 	public static final boolean DEBUG=System.getProperty("smithereen.debug")!=null || System.getenv("SMITHEREEN_DEBUG")!=null;
 
 	public static String imgproxyLocalUploads;
@@ -99,6 +100,7 @@ public class Config{
 	public static String smtpUsername;
 	public static String smtpPassword;
 	public static boolean smtpUseTLS;
+	public static int emailNotificationDigestMinutes;
 
 	public static PrivateKey serviceActorPrivateKey;
 	public static PublicKey serviceActorPublicKey;
@@ -132,6 +134,8 @@ public class Config{
 		mediaCacheFileSizeLimit=Utils.parseFileSize(props.getProperty("media_cache.file_size_limit"));
 		uploadUrlPath=props.getProperty("upload.url_path");
 		mediaCacheUrlPath=props.getProperty("media_cache.url_path");
+		String contextCachePath=props.getProperty("jsonld.context_cache_path");
+		jsonldContextCachePath=StringUtils.isNotEmpty(contextCachePath) ? new File(contextCachePath) : null;
 
 		useHTTP=Boolean.parseBoolean(props.getProperty("use_http_scheme.i_know_what_i_am_doing", "false"));
 		localURI=URI.create("http"+(useHTTP ? "" : "s")+"://"+domain+"/");
@@ -211,6 +215,7 @@ public class Config{
 			smtpUsername=dbValues.get("Mail_SMTP_Username");
 			smtpPassword=dbValues.get("Mail_SMTP_Password");
 			smtpUseTLS=Utils.parseIntOrDefault(dbValues.get("Mail_SMTP_UseTLS"), 0)==1;
+			emailNotificationDigestMinutes=Utils.parseIntOrDefault(dbValues.get("Mail_NotificationDigestMinutes"), 5);
 
 			String pkey=dbValues.get("ServiceActorPrivateKey");
 			try{
@@ -18,6 +18,7 @@ package smithereen;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Static library version of {@link android.util.LruCache}. Used to write apps
@@ -28,6 +29,8 @@ import java.util.Map;
  */
 public class LruCache<K, V> {
 	private final LinkedHashMap<K, V> map;
+	// Not synchronized so that virtual threads don't pin their carrier while waiting for it
+	private final ReentrantLock lock = new ReentrantLock();
 
 	/** Size of this cache in units. Not necessarily the number of elements. */
 	private int size;
@@ -62,8 +65,11 @@ public class LruCache<K, V> {
 			throw new IllegalArgumentException("maxSize <= 0");
 		}
 
-		synchronized (this) {
+		lock.lock();
+		try {
 			this.maxSize = maxSize;
+		} finally {
+			lock.unlock();
 		}
 		trimToSize(maxSize);
 	}
@@ -80,13 +86,16 @@ public class LruCache<K, V> {
 		}
 
 		V mapValue;
-		synchronized (this) {
+		lock.lock();
+		try {
 			mapValue = map.get(key);
 			if (mapValue != null) {
 				hitCount++;
 				return mapValue;
 			}
 			missCount++;
+		} finally {
+			lock.unlock();
 		}
 
         /*
@@ -101,7 +110,8 @@ public class LruCache<K, V> {
 			return null;
 		}
 
-		synchronized (this) {
+		lock.lock();
+		try {
 			createCount++;
 			mapValue = map.put(key, createdValue);
 
@@ -111,6 +121,8 @@ public class LruCache<K, V> {
 			} else {
 				size += safeSizeOf(key, createdValue);
 			}
+		} finally {
+			lock.unlock();
 		}
 
 		if (mapValue != null) {
@@ -134,13 +146,16 @@ public class LruCache<K, V> {
 		}
 
 		V previous;
-		synchronized (this) {
+		lock.lock();
+		try {
 			putCount++;
 			size += safeSizeOf(key, value);
 			previous = map.put(key, value);
 			if (previous != null) {
 				size -= safeSizeOf(key, previous);
 			}
+		} finally {
+			lock.unlock();
 		}
 
 		if (previous != null) {
@@ -162,7 +177,8 @@ public class LruCache<K, V> {
 		while (true) {
 			K key;
 			V value;
-			synchronized (this) {
+			lock.lock();
+			try {
 				if (size < 0 || (map.isEmpty() && size != 0)) {
 					throw new IllegalStateException(getClass().getName()
 							+ ".sizeOf() is reporting inconsistent results!");
@@ -178,6 +194,8 @@ public class LruCache<K, V> {
 				map.remove(key);
 				size -= safeSizeOf(key, value);
 				evictionCount++;
+			} finally {
+				lock.unlock();
 			}
 
 			entryRemoved(true, key, value, null);
@@ -195,11 +213,14 @@ public class LruCache<K, V> {
 		}
 
 		V previous;
-		synchronized (this) {
+		lock.lock();
+		try {
 			previous = map.remove(key);
 			if (previous != null) {
 				size -= safeSizeOf(key, previous);
 			}
+		} finally {
+			lock.unlock();
 		}
 
 		if (previous != null) {
@@ -276,8 +297,13 @@ public class LruCache<K, V> {
 	 * of entries in the cache. For all other caches, this returns the sum of
 	 * the sizes of the entries in this cache.
 	 */
-	public synchronized final int size() {
-		return size;
+	public final int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -285,59 +311,99 @@ public class LruCache<K, V> {
 	 * number of entries in the cache. For all other caches, this returns the
 	 * maximum sum of the sizes of the entries in this cache.
 	 */
-	public synchronized final int maxSize() {
-		return maxSize;
+	public final int maxSize() {
+		lock.lock();
+		try {
+			return maxSize;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * Returns the number of times {@link #get} returned a value that was
 	 * already present in the cache.
 	 */
-	public synchronized final int hitCount() {
-		return hitCount;
+	public final int hitCount() {
+		lock.lock();
+		try {
+			return hitCount;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * Returns the number of times {@link #get} returned null or required a new
 	 * value to be created.
 	 */
-	public synchronized final int missCount() {
-		return missCount;
+	public final int missCount() {
+		lock.lock();
+		try {
+			return missCount;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * Returns the number of times {@link #create(Object)} returned a value.
 	 */
-	public synchronized final int createCount() {
-		return createCount;
+	public final int createCount() {
+		lock.lock();
+		try {
+			return createCount;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * Returns the number of times {@link #put} was called.
 	 */
-	public synchronized final int putCount() {
-		return putCount;
+	public final int putCount() {
+		lock.lock();
+		try {
+			return putCount;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * Returns the number of values that have been evicted.
 	 */
-	public synchronized final int evictionCount() {
-		return evictionCount;
+	public final int evictionCount() {
+		lock.lock();
+		try {
+			return evictionCount;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * Returns a copy of the current contents of the cache, ordered from least
 	 * recently accessed to most recently accessed.
 	 */
-	public synchronized final Map<K, V> snapshot() {
-		return new LinkedHashMap<K, V>(map);
+	public final Map<K, V> snapshot() {
+		lock.lock();
+		try {
+			return new LinkedHashMap<K, V>(map);
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	@Override public synchronized final String toString() {
-		int accesses = hitCount + missCount;
-		int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
-		return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
-				maxSize, hitCount, missCount, hitPercent);
+	@Override public final String toString() {
+		lock.lock();
+		try {
+			int accesses = hitCount + missCount;
+			int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+			return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+					maxSize, hitCount, missCount, hitPercent);
+		} finally {
+			lock.unlock();
+		}
 	}
 }
\ No newline at end of file
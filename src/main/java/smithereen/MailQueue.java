@@ -0,0 +1,293 @@
+package smithereen;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import smithereen.storage.EmailOutboxStorage;
+import smithereen.util.MaintenanceScheduler;
+
+/**
+ * Sends emails over a few long-lived SMTP connections, one per sender thread, instead of connecting for every message.
+ * <p>
+ * Every message is first saved to the email_outbox table and only deleted from there once the SMTP server accepts it,
+ * so nothing is lost if the server restarts or the SMTP server is unavailable for a while. Failed messages are retried
+ * with exponential backoff. At most {@link #QUEUE_CAPACITY} messages are kept in memory; when more than that are
+ * waiting, the rest stay in the database until {@link #loadDueEmails()} picks them up.
+ * <p>
+ * Several servers may share the outbox, so a server claims a message in the database before queueing it and again right
+ * before sending it. The claim expires after {@link #CLAIM_DURATION} in case the server goes away.
+ */
+public class MailQueue{
+	private static final Logger LOG=LoggerFactory.getLogger(MailQueue.class);
+	private static final int QUEUE_CAPACITY=500;
+	private static final int MAX_ATTEMPTS=10;
+	private static final Duration MAX_RETRY_DELAY=Duration.ofHours(6);
+	private static final Duration IDLE_CONNECTION_TIMEOUT=Duration.ofSeconds(30);
+	private static final Duration CLAIM_DURATION=Duration.ofMinutes(15);
+
+	private final Supplier<Session> sessionSupplier;
+	private final LinkedBlockingQueue<QueuedEmail> queue=new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+	// IDs of messages that are in the queue or being sent right now, so that they aren't loaded again from the database
+	private final Set<Long> queuedIDs=ConcurrentHashMap.newKeySet();
+	private final ArrayList<Thread> senderThreads=new ArrayList<>();
+	private volatile int sessionGeneration;
+	private volatile boolean stopped;
+
+	/**
+	 * @param sessionSupplier where to get the session with the current SMTP settings
+	 * @param connectionCount how many SMTP connections to use at most
+	 */
+	public MailQueue(Supplier<Session> sessionSupplier, int connectionCount){
+		this.sessionSupplier=sessionSupplier;
+		for(int i=0;i<connectionCount;i++){
+			senderThreads.add(Thread.ofPlatform().name("MailSender-"+i).daemon().unstarted(this::runSender));
+		}
+	}
+
+	public void start(){
+		for(Thread t:senderThreads){
+			t.start();
+		}
+	}
+
+	public void stop(){
+		stopped=true;
+		for(Thread t:senderThreads){
+			t.interrupt();
+		}
+		for(Thread t:senderThreads){
+			try{
+				t.join(5000);
+			}catch(InterruptedException ignore){}
+		}
+	}
+
+	/**
+	 * Saves the message to the outbox and queues it for sending. Never blocks on the SMTP server.
+	 */
+	public void enqueue(MimeMessage msg) throws MessagingException, IOException{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		msg.writeTo(out);
+		byte[] data=out.toByteArray();
+		long id;
+		try{
+			id=EmailOutboxStorage.putEmail(String.join(", ", Arrays.stream(msg.getAllRecipients()).map(Object::toString).toList()), data, MaintenanceScheduler.NODE_ID, Instant.now().plus(CLAIM_DURATION));
+		}catch(SQLException x){
+			LOG.warn("Failed to save an email to the outbox, it won't be retried if sending fails", x);
+			if(!queue.offer(new QueuedEmail(0, data, 0)))
+				LOG.error("Mail queue is full, dropping an email to {}", (Object)msg.getAllRecipients());
+			return;
+		}
+		queuedIDs.add(id);
+		if(!queue.offer(new QueuedEmail(id, data, 0))){
+			// It's in the database, it will be sent once some queue drains
+			queuedIDs.remove(id);
+			releaseClaim(id);
+			LOG.debug("Mail queue is full, email {} will be sent later", id);
+		}
+	}
+
+	/**
+	 * Queues messages from the outbox that are due for sending, e.g. ones that failed earlier, ones left over from before
+	 * a restart, or ones that didn't fit into the queue.
+	 */
+	public void loadDueEmails(){
+		int capacity=queue.remainingCapacity();
+		if(capacity==0 || stopped)
+			return;
+		try{
+			List<EmailOutboxStorage.OutboxEmail> emails=EmailOutboxStorage.getDueEmails(capacity+queuedIDs.size());
+			for(EmailOutboxStorage.OutboxEmail email:emails){
+				if(!queuedIDs.add(email.id()))
+					continue;
+				if(!EmailOutboxStorage.tryClaimEmail(email.id(), MaintenanceScheduler.NODE_ID, Instant.now().plus(CLAIM_DURATION))){
+					// Another server got to it first
+					queuedIDs.remove(email.id());
+					continue;
+				}
+				if(!queue.offer(new QueuedEmail(email.id(), email.message(), email.attempts()))){
+					queuedIDs.remove(email.id());
+					releaseClaim(email.id());
+					break;
+				}
+			}
+		}catch(SQLException x){
+			LOG.warn("Failed to load emails from the outbox", x);
+		}
+	}
+
+	/**
+	 * Makes the sender threads reconnect using the new session, e.g. because SMTP settings were changed.
+	 */
+	public void resetConnections(){
+		sessionGeneration++;
+	}
+
+	public int getQueuedCount(){
+		return queue.size();
+	}
+
+	private void runSender(){
+		Transport transport=null;
+		int generation=0;
+		while(!stopped){
+			QueuedEmail email;
+			try{
+				email=queue.poll(IDLE_CONNECTION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+			}catch(InterruptedException x){
+				break;
+			}
+			if(email==null){
+				if(transport!=null){
+					LOG.trace("Closing idle SMTP connection");
+					closeQuietly(transport);
+					transport=null;
+				}
+				continue;
+			}
+			// The claim may have expired while the message was waiting in the queue
+			if(!renewClaim(email)){
+				LOG.debug("Not sending email {} because another server claimed it", email.id);
+				queuedIDs.remove(email.id);
+				continue;
+			}
+			try{
+				Session session=sessionSupplier.get();
+				MimeMessage msg=new MimeMessage(session, new ByteArrayInputStream(email.message));
+				// isConnected() sends NOOP, so this also catches connections that the server closed on its end
+				if(transport!=null && (generation!=sessionGeneration || !transport.isConnected())){
+					closeQuietly(transport);
+					transport=null;
+				}
+				if(transport==null){
+					generation=sessionGeneration;
+					transport=session.getTransport("smtp");
+					transport.connect();
+				}
+				LOG.trace("Sending email {} to {}, subject {}", email.id, msg.getAllRecipients(), msg.getSubject());
+				transport.sendMessage(msg, msg.getAllRecipients());
+				onSent(email);
+			}catch(SendFailedException x){
+				if(isTemporaryFailure(x)){
+					LOG.warn("SMTP server temporarily refused email {}, will retry", email.id, x);
+					onFailed(email);
+				}else{
+					// The server rejected the recipients, trying again won't help
+					LOG.warn("SMTP server rejected email {}", email.id, x);
+					onSent(email);
+				}
+			}catch(MessagingException x){
+				LOG.warn("Failed to send email {}", email.id, x);
+				closeQuietly(transport);
+				transport=null;
+				onFailed(email);
+			}
+		}
+		closeQuietly(transport);
+	}
+
+	private boolean renewClaim(QueuedEmail email){
+		if(email.id==0)
+			return true;
+		try{
+			return EmailOutboxStorage.tryClaimEmail(email.id, MaintenanceScheduler.NODE_ID, Instant.now().plus(CLAIM_DURATION));
+		}catch(SQLException x){
+			LOG.warn("Failed to renew the claim on email {}, sending it anyway", email.id, x);
+			return true;
+		}
+	}
+
+	private void releaseClaim(long id){
+		try{
+			EmailOutboxStorage.releaseEmail(id);
+		}catch(SQLException x){
+			LOG.warn("Failed to release the claim on email {}, it will be sent once the claim expires", id, x);
+		}
+	}
+
+	private void onSent(QueuedEmail email){
+		if(email.id==0)
+			return;
+		try{
+			EmailOutboxStorage.deleteEmail(email.id);
+		}catch(SQLException x){
+			LOG.error("Failed to delete sent email {} from the outbox", email.id, x);
+		}
+		queuedIDs.remove(email.id);
+	}
+
+	private void onFailed(QueuedEmail email){
+		if(email.id==0)
+			return;
+		int attempts=email.attempts+1;
+		try{
+			if(attempts>=MAX_ATTEMPTS){
+				LOG.error("Giving up on email {} after {} attempts", email.id, attempts);
+				EmailOutboxStorage.deleteEmail(email.id);
+			}else{
+				Duration delay=Duration.ofMinutes(1L << Math.min(attempts-1, 20));
+				if(delay.compareTo(MAX_RETRY_DELAY)>0)
+					delay=MAX_RETRY_DELAY;
+				EmailOutboxStorage.setEmailNextAttempt(email.id, attempts, Instant.now().plus(delay));
+			}
+		}catch(SQLException x){
+			LOG.error("Failed to update email {} in the outbox", email.id, x);
+		}
+		queuedIDs.remove(email.id);
+	}
+
+	/**
+	 * A 4xx reply (e.g. greylisting or a full mailbox) or a valid recipient that wasn't sent to means it's worth trying again later.
+	 * A 5xx reply for every recipient means it isn't.
+	 */
+	private static boolean isTemporaryFailure(SendFailedException x){
+		Address[] unsent=x.getValidUnsentAddresses();
+		if(unsent!=null && unsent.length>0)
+			return true;
+		for(Exception e=x;e!=null;e=e instanceof MessagingException me ? me.getNextException() : null){
+			if(e instanceof SMTPAddressFailedException afx && afx.getReturnCode()/100==4)
+				return true;
+			if(e instanceof SMTPSendFailedException sfx && sfx.getReturnCode()/100==4)
+				return true;
+		}
+		return false;
+	}
+
+	private static void closeQuietly(Transport transport){
+		if(transport==null)
+			return;
+		try{
+			transport.close();
+		}catch(MessagingException ignore){}
+	}
+
+	/**
+	 * @param id the ID in the email_outbox table, or 0 if it couldn't be saved there
+	 */
+	private record QueuedEmail(long id, byte[] message, int attempts){}
+}
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -20,13 +22,14 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -65,11 +68,16 @@ import spark.utils.StringUtils;
 public class Mailer{
 	private static Mailer instance;
 	private static final Logger LOG=LoggerFactory.getLogger(Mailer.class);
+	private static final int SMTP_CONNECTION_COUNT=2;
 
-	private Session session;
+	private volatile Session session;
 	private PebbleEngine templateEngine;
+	private final MailQueue queue;
+	// Notification emails that arrived too soon after the previous one, to be sent together in one digest email
+	private final HashMap<Integer, PendingNotificationDigest> pendingNotificationDigests=new HashMap<>();
+	private final LruCache<Integer, Instant> lastNotificationEmailTimes=new LruCache<>(1000);
 
-	public static Mailer getInstance(){
+	public static synchronized Mailer getInstance(){
 		if(instance==null){
 			instance=new Mailer();
 		}
@@ -79,6 +87,8 @@ public class Mailer{
 	private Mailer(){
 		updateSession();
 		templateEngine=Templates.makeEngineInstance("email");
+		queue=new MailQueue(()->session, SMTP_CONNECTION_COUNT);
+		queue.start();
 	}
 
 	public void updateSession(){
@@ -100,6 +110,37 @@ public class Mailer{
 				}
 			});
 		}
+		if(queue!=null)
+			queue.resetConnections();
+	}
+
+	/**
+	 * Queues emails from the outbox that are due to be sent or retried.
+	 */
+	public void processOutbox(){
+		queue.loadDueEmails();
+	}
+
+	/**
+	 * Sends all pending notification digests to the outbox right away and stops the SMTP connections.
+	 */
+	public static void shutDown(){
+		Mailer mailer;
+		synchronized(Mailer.class){
+			mailer=instance;
+		}
+		if(mailer==null)
+			return;
+		List<Integer> accountIDs;
+		synchronized(mailer.pendingNotificationDigests){
+			accountIDs=new ArrayList<>(mailer.pendingNotificationDigests.keySet());
+		}
+		for(int id:accountIDs){
+			mailer.sendNotificationDigest(id);
+		}
+		LOG.info("Stopping SMTP connections");
+		mailer.queue.stop();
+		LOG.info("Stopped");
 	}
 
 	private static Lang getEmailLang(Request req, Account account){
@@ -343,9 +384,9 @@ public class Mailer{
 		String plaintext=self.user.getFullName()+",\n\n";
 		String subject;
 		String templateName;
+		String url;
 
-		String unsubscribeKey="a="+self.id+"&t="+type.ordinal()+"&e="+URLEncoder.encode(self.email, StandardCharsets.UTF_8);
-		String unsubscribeURL=Config.localURI("/settings/notifications/emailUnsubscribe/"+Base64.getUrlEncoder().withoutPadding().encodeToString(CryptoUtils.aesGcmEncrypt(unsubscribeKey.getBytes(StandardCharsets.UTF_8), Config.emailUnsubscribeKey))).toString();
+		String unsubscribeURL=getUnsubscribeURL(self, type);
 		params.put("unsubscribeURL", unsubscribeURL);
 
 		switch(type){
@@ -354,10 +395,11 @@ public class Mailer{
 				params.put("req", req);
 				templateName="friend_request";
 				subject=TextProcessor.stripHTML(l.get("notification_content_friend_request", Map.of("name", actor.getFullName(), "gender", actor.gender)), false);
+				url=Config.localURI("/my/incomingFriendRequests").toString();
 				plaintext+=l.get("email_friend_request_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", Config.localURI("/my/incomingFriendRequests").toString()
+						"url", url
 				));
 			}
 			case MAIL -> {
@@ -365,10 +407,11 @@ public class Mailer{
 				params.put("msg", msg);
 				templateName="mail_message";
 				subject=TextProcessor.stripHTML(l.get("notification_content_mail_message", Map.of("name", actor.getFullName(), "gender", actor.gender)), false);
+				url=Config.localURI("/my/mail/messages/"+msg.encodedID).toString();
 				plaintext+=l.get("email_mail_message_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", Config.localURI("/my/mail/messages/"+msg.encodedID).toString()
+						"url", url
 				));
 			}
 			case PHOTO_TAG -> {
@@ -376,10 +419,11 @@ public class Mailer{
 				params.put("photo", photo);
 				templateName="photo_tag";
 				subject=TextProcessor.stripHTML(l.get("notification_content_photo_tag", Map.of("name", actor.getFullName(), "gender", actor.gender)), false);
+				url=Config.localURI("/photos/newTags").toString();
 				plaintext+=l.get("email_photo_tag_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", Config.localURI("/photos/newTags").toString()
+						"url", url
 				));
 			}
 			case WALL_POST -> {
@@ -389,10 +433,11 @@ public class Mailer{
 				params.put("headerText", l.get("notification_title_wall_post"));
 				templateName="wall_post";
 				subject=TextProcessor.stripHTML(l.get("notification_content_wall_post", Map.of("name", actor.getFullName(), "gender", actor.gender)), false);
+				url=post.getInternalURL().toString();
 				plaintext+=l.get("email_wall_post_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", post.getInternalURL().toString()
+						"url", url
 				));
 			}
 			case WALL_COMMENT -> {
@@ -404,10 +449,11 @@ public class Mailer{
 				params.put("headerText", l.get("notification_title_comment"));
 				templateName="wall_post";
 				subject=l.get("email_wall_comment_subject", Map.of("name", actor.getFullName(), "gender", actor.gender));
+				url=comment.getInternalURL().toString();
 				plaintext+=l.get("email_wall_comment_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", comment.getInternalURL().toString()
+						"url", url
 				));
 			}
 			case PHOTO_COMMENT -> {
@@ -419,10 +465,11 @@ public class Mailer{
 				params.put("headerText", l.get("notification_title_comment"));
 				templateName="photo_comment";
 				subject=TextProcessor.stripHTML(l.get("notification_content_comment_photo", Map.of("name", actor.getFullName(), "gender", actor.gender)), false);
+				url=photo.getAbsoluteURL();
 				plaintext+=l.get("email_photo_comment_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", photo.getAbsoluteURL()
+						"url", url
 				));
 			}
 			case COMMENT_REPLY -> {
@@ -460,10 +507,11 @@ public class Mailer{
 				subject=l.get("email_comment_reply_subject", Map.of("name", actor.getFullName(), "gender", actor.gender));
 				params.put("users", ctx.getUsersController().getUsers(needUsers));
 				params.put("groups", ctx.getGroupsController().getGroupsByIdAsMap(needGroups));
+				url=plo.getInternalURL().toString();
 				plaintext+=l.get("email_photo_comment_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", plo.getInternalURL().toString()
+						"url", url
 				));
 			}
 			case MENTION -> {
@@ -473,10 +521,11 @@ public class Mailer{
 				needUsers.add(plo.authorID);
 				boolean isComment=plo instanceof Comment || plo.getReplyLevel()>0;
 				subject=l.get(isComment ? "email_mention_comment_subject" : "email_mention_post_subject", Map.of("name", actor.getFullName(), "gender", actor.gender));
+				url=plo.getInternalURL().toString();
 				plaintext+=l.get(isComment ? "email_mention_comment_plaintext" : "email_mention_post_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
-						"url", plo.getInternalURL().toString()
+						"url", url
 				));
 				templateName=switch(plo){
 					case Post post -> {
@@ -514,19 +563,91 @@ public class Mailer{
 				templateName="group_invite";
 				params.put("group", group);
 				subject=l.get(group.isEvent() ? "email_event_invite_subject" : "email_group_invite_subject", Map.of("name", actor.getFullName(), "gender", actor.gender));
+				url=Config.localURI(group.isEvent() ? "/my/events/invites" : "/my/groups/invites").toString();
 				plaintext+=l.get(group.isEvent() ? "email_event_invite_plaintext" : "email_group_invite_plaintext", Map.of(
 						"name", actor.getCompleteName(),
 						"gender", actor.gender,
 						"groupName", group.name,
-						"url", Config.localURI(group.isEvent() ? "/my/events/invites" : "/my/groups/invites").toString()
+						"url", url
 				));
 			}
 			default -> throw new IllegalStateException(type.toString());
 		}
 
-		plaintext+="\n\n______\n"+l.get("email_unsubscribe_footer_plaintext", Map.of("url", unsubscribeURL));
+		NotificationEmail email=new NotificationEmail(type, subject, plaintext, url, templateName, params, l.getLocale(), unsubscribeURL);
+		if(!addToNotificationDigest(self, email))
+			sendNotificationEmail(self.email, email);
+	}
+
+	private void sendNotificationEmail(String to, NotificationEmail email){
+		String plaintext=email.plaintext+"\n\n______\n"+Lang.get(email.locale).get("email_unsubscribe_footer_plaintext", Map.of("url", email.unsubscribeURL));
+		send(to, email.subject, plaintext, email.templateName, email.templateParams, email.locale, email.unsubscribeURL);
+	}
+
+	/**
+	 * If this account was sent a notification email less than {@link Config#emailNotificationDigestMinutes} ago,
+	 * holds this one back to be sent together with any others that follow, once that time has passed.
+	 * @return true if the email will be sent later as part of a digest, false if it should be sent now
+	 */
+	private boolean addToNotificationDigest(Account self, NotificationEmail email){
+		if(Config.emailNotificationDigestMinutes<=0)
+			return false;
+		Instant now=Instant.now();
+		synchronized(pendingNotificationDigests){
+			PendingNotificationDigest digest=pendingNotificationDigests.get(self.id);
+			if(digest==null){
+				Instant lastSent=lastNotificationEmailTimes.get(self.id);
+				Instant digestTime=lastSent==null ? null : lastSent.plus(Config.emailNotificationDigestMinutes, ChronoUnit.MINUTES);
+				if(digestTime==null || digestTime.isBefore(now)){
+					lastNotificationEmailTimes.put(self.id, now);
+					return false;
+				}
+				digest=new PendingNotificationDigest();
+				pendingNotificationDigests.put(self.id, digest);
+				BackgroundTaskRunner.getInstance().submitDelayed(BackgroundTaskRunner.Lane.INTERACTIVE, ()->sendNotificationDigest(self.id), Duration.between(now, digestTime).toMillis(), TimeUnit.MILLISECONDS);
+			}
+			digest.account=self;
+			digest.emails.add(email);
+			return true;
+		}
+	}
 
-		send(self.email, subject, plaintext, templateName, params, l.getLocale(), unsubscribeURL);
+	private void sendNotificationDigest(int accountID){
+		PendingNotificationDigest digest;
+		synchronized(pendingNotificationDigests){
+			digest=pendingNotificationDigests.remove(accountID);
+			if(digest==null)
+				return;
+			lastNotificationEmailTimes.put(accountID, Instant.now());
+		}
+		Account self=digest.account;
+		if(digest.emails.size()==1){
+			sendNotificationEmail(self.email, digest.emails.getFirst());
+			return;
+		}
+		Lang l=Lang.get(self.prefs.locale);
+		int count=digest.emails.size();
+		// One-click unsubscribe from a digest that mixes several types turns off all notification emails
+		Set<EmailNotificationType> types=digest.emails.stream().map(NotificationEmail::type).collect(Collectors.toSet());
+		String unsubscribeURL=types.size()==1 ? digest.emails.getFirst().unsubscribeURL : getUnsubscribeURL(self, null);
+		StringBuilder plaintext=new StringBuilder(self.user.getFullName());
+		plaintext.append(",\n\n");
+		plaintext.append(l.get("email_notification_digest_plaintext", Map.of("count", count)));
+		plaintext.append('\n');
+		for(NotificationEmail email:digest.emails){
+			plaintext.append("\n- ");
+			plaintext.append(email.subject);
+			plaintext.append("\n  ");
+			plaintext.append(email.url);
+		}
+		plaintext.append("\n\n______\n");
+		plaintext.append(l.get("email_unsubscribe_footer_plaintext", Map.of("url", unsubscribeURL)));
+		send(self.email, l.get("email_notification_digest_subject", Map.of("count", count, "serverName", Config.serverDisplayName)), plaintext.toString(), "notification_digest", Map.of(
+				"self", self.user,
+				"count", count,
+				"notifications", digest.emails,
+				"unsubscribeURL", unsubscribeURL
+		), l.getLocale(), unsubscribeURL);
 	}
 
 	private void send(String to, String subject, String plaintext, String templateName, Map<String, Object> templateParams, Locale templateLocale){
@@ -564,7 +685,7 @@ public class Mailer{
 
 			msg.setContent(multipart);
 
-			BackgroundTaskRunner.getInstance().submit(new SendRunnable(msg));
+			queue.enqueue(msg);
 		}catch(MessagingException|IOException x){
 			LOG.error("Exception while creating an email", x);
 		}
@@ -574,15 +695,28 @@ public class Mailer{
 		return Utils.randomAlphanumericString(64);
 	}
 
+	/**
+	 * @param type the notification type to unsubscribe from, or null to unsubscribe from all notification emails
+	 */
+	private static String getUnsubscribeURL(Account self, EmailNotificationType type){
+		String unsubscribeKey="a="+self.id+(type==null ? "" : "&t="+type.ordinal())+"&e="+URLEncoder.encode(self.email, StandardCharsets.UTF_8);
+		return Config.localURI("/settings/notifications/emailUnsubscribe/"+Base64.getUrlEncoder().withoutPadding().encodeToString(CryptoUtils.aesGcmEncrypt(unsubscribeKey.getBytes(StandardCharsets.UTF_8), Config.emailUnsubscribeKey))).toString();
+	}
+
 	public static UnsubscribeLinkData decodeUnsubscribeLink(String key, ApplicationContext ctx){
 		byte[] data=Base64.getUrlDecoder().decode(key);
 		String paramsStr=new String(CryptoUtils.aesGcmDecrypt(data, Config.emailUnsubscribeKey), StandardCharsets.UTF_8);
 		Map<String, String> params=UriBuilder.parseQueryString(paramsStr);
 		int accountID=Utils.safeParseInt(params.get("a"));
-		int typeIndex=Utils.parseIntOrDefault(params.get("t"), -1);
-		if(typeIndex<0 || typeIndex>=EmailNotificationType.values().length)
-			throw new IllegalArgumentException();
-		EmailNotificationType type=EmailNotificationType.values()[typeIndex];
+		EmailNotificationType type;
+		if(params.containsKey("t")){
+			int typeIndex=Utils.parseIntOrDefault(params.get("t"), -1);
+			if(typeIndex<0 || typeIndex>=EmailNotificationType.values().length)
+				throw new IllegalArgumentException();
+			type=EmailNotificationType.values()[typeIndex];
+		}else{
+			type=null;
+		}
 		try{
 			Account account=ctx.getUsersController().getAccountOrThrow(accountID);
 			if(!Objects.equals(account.email, params.get("e")))
@@ -606,25 +740,15 @@ public class Mailer{
 		}, timeZone, false) : shortTitle;
 	}
 
+	/**
+	 * @param type null if this link unsubscribes from all notification emails
+	 */
 	public record UnsubscribeLinkData(Account account, EmailNotificationType type){}
 
-	private static class SendRunnable implements Runnable{
+	public record NotificationEmail(EmailNotificationType type, String subject, String plaintext, String url, String templateName, Map<String, Object> templateParams, Locale locale, String unsubscribeURL){}
 
-		private final MimeMessage msg;
-
-		public SendRunnable(MimeMessage msg){
-			this.msg=msg;
-		}
-
-		@Override
-		public void run(){
-			try{
-				LOG.trace("Sending email to {}, subject {}", msg.getAllRecipients(), msg.getSubject());
-				Transport.send(msg);
-				LOG.trace("Sent email to {}", (Object) msg.getAllRecipients());
-			}catch(MessagingException x){
-				LOG.error("Exception while sending an email", x);
-			}
-		}
+	private static class PendingNotificationDigest{
+		private Account account;
+		private final ArrayList<NotificationEmail> emails=new ArrayList<>();
 	}
 }
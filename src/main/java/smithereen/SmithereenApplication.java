@@ -1,5 +1,8 @@
 package smithereen;
 
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,7 +13,9 @@ import java.io.StringWriter;
 import java.net.InetAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.security.Security;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
@@ -23,13 +28,16 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import io.pebbletemplates.pebble.template.PebbleTemplate;
 import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpSessionEvent;
 import jakarta.servlet.http.HttpSessionListener;
+import smithereen.activitypub.ActivityHandlerStats;
 import smithereen.activitypub.ActivityPub;
+import smithereen.activitypub.SerializerContext;
 import smithereen.activitypub.objects.ActivityPubObject;
 import smithereen.activitypub.objects.Actor;
 import smithereen.controllers.GroupsController;
@@ -47,6 +55,8 @@ import smithereen.exceptions.UnauthorizedRequestException;
 import smithereen.exceptions.UserActionNotAllowedException;
 import smithereen.exceptions.UserContentUnavailableException;
 import smithereen.exceptions.UserErrorException;
+import smithereen.http.ExtendedHttpClient;
+import smithereen.jsonld.JLDProcessor;
 import smithereen.lang.Lang;
 import smithereen.model.Account;
 import smithereen.model.ForeignGroup;
@@ -102,8 +112,12 @@ import smithereen.routes.admin.AdminUsersRoutes;
 import smithereen.sparkext.ActivityPubCollectionPageResponse;
 import smithereen.sparkext.ExtendedStreamingSerializer;
 import smithereen.storage.DatabaseSchemaUpdater;
+import smithereen.storage.FederationStorage;
+import smithereen.storage.FollowGraph;
 import smithereen.storage.GroupStorage;
+import smithereen.storage.MaintenanceJobStorage;
 import smithereen.storage.MediaStorageUtils;
+import smithereen.storage.QuickSearchIndex;
 import smithereen.storage.SessionStorage;
 import smithereen.storage.UserStorage;
 import smithereen.storage.sql.DatabaseConnectionManager;
@@ -113,9 +127,13 @@ import smithereen.text.TextProcessor;
 import smithereen.util.BackgroundTaskRunner;
 import smithereen.util.FloodControl;
 import smithereen.util.JsonObjectBuilder;
+import smithereen.util.JsonStringEscapingWriter;
 import smithereen.util.MaintenanceScheduler;
+import smithereen.util.NamedMutexCollection;
 import smithereen.util.PublicSuffixList;
+import smithereen.util.SingleFlight;
 import smithereen.util.TopLevelDomainList;
+import smithereen.util.VirtualThreadPinningMonitor;
 import spark.Filter;
 import spark.Request;
 import spark.Response;
@@ -131,6 +149,7 @@ public class SmithereenApplication{
 	private static final ApplicationContext context;
 	private static HashMap<String, Integer> accountIdsBySession=new HashMap<>();
 	private static HashMap<Integer, Set<HttpSession>> sessionsByAccount=new HashMap<>();
+	private static final ReentrantLock sessionMapsLock=new ReentrantLock();
 	private static HashMap<String, String> notFoundPages=new HashMap<>();
 	private static HashMap<String, String> serverErrorPages=new HashMap<>();
 
@@ -164,6 +183,10 @@ public class SmithereenApplication{
 		}
 
 		System.setProperty("user.timezone", "UTC");
+		// Federation keeps talking to the same servers, there's no need to resolve their names again every 30 seconds.
+		// This needs to happen before anything resolves a host name.
+		if(Security.getProperty("networkaddress.cache.ttl")==null)
+			Security.setProperty("networkaddress.cache.ttl", "300");
 
 		try{
 			Config.load(args[0]);
@@ -177,6 +200,8 @@ public class SmithereenApplication{
 		if(args.length>1){
 			if(args[1].equalsIgnoreCase("init_admin")){
 				CLI.initializeAdmin();
+			}else if(args[1].equalsIgnoreCase("rebuild_search_index")){
+				CLI.rebuildSearchIndex();
 			}else{
 				System.err.println("Unknown argument: '"+args[1]+"'");
 				System.exit(1);
@@ -191,6 +216,8 @@ public class SmithereenApplication{
 		ipAddress(Config.serverIP);
 		port(Config.serverPort);
 		useVirtualThreadPool();
+		if(Config.DEBUG || System.getProperty("smithereen.debugVirtualThreadPinning")!=null)
+			VirtualThreadPinningMonitor.start(Duration.ofMillis(20));
 		if(Config.staticFilesPath!=null)
 			externalStaticFileLocation(Config.staticFilesPath);
 		else
@@ -220,10 +247,7 @@ public class SmithereenApplication{
 						response.cookie("/", "psid", psid, 10*365*24*60*60, false);
 						SessionInfo info=sessionInfo(request);
 						if(info.account!=null){
-							synchronized(SmithereenApplication.class){
-								accountIdsBySession.put(request.session().id(), info.account.id);
-								sessionsByAccount.computeIfAbsent(info.account.id, HashSet::new).add(request.session().raw());
-							}
+							addAccountSession(info.account.id, request);
 						}
 					}
 				}
@@ -244,7 +268,7 @@ public class SmithereenApplication{
 						info.account.lastActive=Instant.now();
 						info.userAgentHash=uaHash;
 						info.ip=ip;
-						BackgroundTaskRunner.getInstance().submit(()->{
+						BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.INTERACTIVE, ()->{
 							try{
 								SessionStorage.setLastActive(info.account.id, request.cookie("psid"), info.account.lastActive, ip, ua, uaHash);
 							}catch(SQLException x){
@@ -456,6 +480,7 @@ public class SmithereenApplication{
 					postRequiringPermissionWithCSRF("/:id/respond", UserRole.Permission.MANAGE_INVITES, AdminSignupInvitesRoutes::respondToSignupRequest);
 				});
 				getRequiringPermission("/other", UserRole.Permission.MANAGE_SERVER_SETTINGS, AdminGeneralRoutes::otherSettings);
+				getRequiringPermission("/maintenance", UserRole.Permission.MANAGE_SERVER_SETTINGS, AdminGeneralRoutes::maintenanceJobs);
 				postRequiringPermissionWithCSRF("/updateEmailSettings", UserRole.Permission.MANAGE_SERVER_SETTINGS, AdminGeneralRoutes::saveEmailSettings);
 				postRequiringPermissionWithCSRF("/sendTestEmail", UserRole.Permission.MANAGE_SERVER_SETTINGS, AdminGeneralRoutes::sendTestEmail);
 				postRequiringPermissionWithCSRF("/updateExportSettings", UserRole.Permission.MANAGE_SERVER_SETTINGS, AdminGeneralRoutes::saveUserExportSettings);
@@ -1120,8 +1145,8 @@ public class SmithereenApplication{
 		responseTypeSerializer(ActivityPubObject.class, (out, obj, req, resp) -> {
 			resp.raw().setCharacterEncoding(null);
 			resp.type(ActivityPub.CONTENT_TYPE);
-			OutputStreamWriter writer=new OutputStreamWriter(out, StandardCharsets.UTF_8);
-			gson.toJson(obj.asRootActivityPubObject(context(req), ()->{
+			JsonWriter writer=gson.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			obj.writeRootActivityPubObject(writer, new SerializerContext(context(req), ()->{
 				if(req.headers("signature")!=null){
 					try{
 						Actor requester=ActivityPub.verifyHttpSignature(req, null);
@@ -1134,29 +1159,33 @@ public class SmithereenApplication{
 					}
 				}
 				return null;
-			}), writer);
+			}));
 			writer.flush();
 		});
 
 		responseTypeSerializer(RenderedTemplateResponse.class, (out, obj, req, resp) -> {
 			OutputStreamWriter writer=new OutputStreamWriter(out, StandardCharsets.UTF_8);
 			if(req.queryParams("_al")!=null && !isMobile(req)){
-				// TODO figure out how to stream these
-				String js=obj.renderBlock("bottomScripts");
+				// Blocks are rendered straight into the JSON string values, everything else is small and comes after them
+				resp.header("Content-Type", "application/json");
+				JsonStringEscapingWriter escapingWriter=new JsonStringEscapingWriter(writer);
+				writer.write("{\"h\":\"");
+				obj.renderBlockToWriter("outerContent", escapingWriter);
+				writer.write("\",\"s\":\"");
 				Set<String> k=req.attribute("jsLang");
 				if(k!=null){
 					Lang l=lang(req);
-					js="addLang({"+k.stream().map(key->"\""+key+"\":"+l.getAsJS(key)).collect(Collectors.joining(","))+"});\n"+js;
+					escapingWriter.write("addLang({"+k.stream().map(key->"\""+key+"\":"+l.getAsJS(key)).collect(Collectors.joining(","))+"});\n");
 				}
+				obj.renderBlockToWriter("bottomScripts", escapingWriter);
 				if(obj.get("headerBackHref") instanceof String headerBackHref && !headerBackHref.isEmpty()){
-					js+="\nshowHeaderBack(\""+TextProcessor.escapeJS(headerBackHref)+"\", \""+TextProcessor.escapeJS((String) obj.get("headerBackTitle"))+"\");";
+					escapingWriter.write("\nshowHeaderBack(\""+TextProcessor.escapeJS(headerBackHref)+"\", \""+TextProcessor.escapeJS((String) obj.get("headerBackTitle"))+"\");");
 				}else{
-					js+="\nhideHeaderBack();";
+					escapingWriter.write("\nhideHeaderBack();");
 				}
+				writer.write('"');
 
 				JsonObjectBuilder alResp=new JsonObjectBuilder()
-						.add("h", obj.renderBlock("outerContent"))
-						.add("s", js)
 						.add("t", (String) obj.get("title"));
 				String redirURL=req.attribute("alFinalURL");
 				if(StringUtils.isNotEmpty(redirURL)){
@@ -1174,8 +1203,13 @@ public class SmithereenApplication{
 					}
 					alResp.add("sc", scripts);
 				}
-				resp.header("Content-Type", "application/json");
-				gson.toJson(alResp.build(), writer);
+				for(Map.Entry<String, JsonElement> e:alResp.build().entrySet()){
+					if(e.getValue().isJsonNull())
+						continue;
+					writer.write(",\""+e.getKey()+"\":");
+					gson.toJson(e.getValue(), writer);
+				}
+				writer.write('}');
 			}else{
 				obj.renderToWriter(writer);
 			}
@@ -1191,7 +1225,8 @@ public class SmithereenApplication{
 		addServletEventListener(new HttpSessionListener(){
 			@Override
 			public void sessionDestroyed(HttpSessionEvent se){
-				synchronized(SmithereenApplication.class){
+				sessionMapsLock.lock();
+				try{
 					String sid=se.getSession().getId();
 					int accountID=accountIdsBySession.getOrDefault(sid, 0);
 					if(accountID==0)
@@ -1202,26 +1237,47 @@ public class SmithereenApplication{
 					sessions.remove(se.getSession());
 					if(sessions.isEmpty())
 						sessionsByAccount.remove(accountID);
+				}finally{
+					sessionMapsLock.unlock();
 				}
 			}
 		});
 
-		MaintenanceScheduler.runDaily(()->{
+		MaintenanceScheduler.runDaily("dailyCleanup", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.ONE_NODE, ()->{
 			try{
 				SessionStorage.deleteExpiredEmailCodes();
 			}catch(SQLException ignore){}
-			FloodControl.PASSWORD_RESET.gc();
-			TopLevelDomainList.updateIfNeeded();
-			PublicSuffixList.updateIfNeeded();
+			try{
+				FederationStorage.deleteStaleCollectionCrawlStates();
+			}catch(SQLException ignore){}
+			try{
+				MaintenanceJobStorage.deleteJobRunsOlderThan(Instant.now().minus(7, ChronoUnit.DAYS));
+			}catch(SQLException ignore){}
 			UsersController.doPendingAccountDeletions(context);
 			GroupsController.doPendingGroupDeletions(context);
 			ModerationController.deleteResolvedViolationReportFiles();
 			context.getUserDataExportWorker().expireExports();
 		});
-		MaintenanceScheduler.runPeriodically(DatabaseConnectionManager::closeUnusedConnections, 10, TimeUnit.MINUTES);
-		MaintenanceScheduler.runPeriodically(MailController::deleteRestorableMessages, 1, TimeUnit.HOURS);
-		MaintenanceScheduler.runPeriodically(MediaStorageUtils::deleteAbandonedFiles, 1, TimeUnit.HOURS);
+		// These only update this server's memory
+		MaintenanceScheduler.runDaily("dailyNodeUpkeep", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.EVERY_NODE, ()->{
+			FloodControl.PASSWORD_RESET.gc();
+			TopLevelDomainList.updateIfNeeded();
+			PublicSuffixList.updateIfNeeded();
+			JLDProcessor.pruneRemoteContextCache();
+		});
+		MaintenanceScheduler.runPeriodically("closeUnusedConnections", MaintenanceScheduler.Lane.FREQUENT, MaintenanceScheduler.Scope.EVERY_NODE, DatabaseConnectionManager::closeUnusedConnections, 10, TimeUnit.MINUTES);
+		MaintenanceScheduler.runPeriodically("deleteRestorableMessages", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.ONE_NODE, MailController::deleteRestorableMessages, 1, TimeUnit.HOURS);
+		MaintenanceScheduler.runPeriodically("deleteAbandonedFiles", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.ONE_NODE, MediaStorageUtils::deleteAbandonedFiles, 1, TimeUnit.HOURS);
+		MaintenanceScheduler.runPeriodically("processEmailOutbox", MaintenanceScheduler.Lane.FREQUENT, MaintenanceScheduler.Scope.ONE_NODE, ()->Mailer.getInstance().processOutbox(), 1, TimeUnit.MINUTES);
+		MaintenanceScheduler.runPeriodically("logRuntimeStats", MaintenanceScheduler.Lane.REPORTING, MaintenanceScheduler.Scope.EVERY_NODE, SmithereenApplication::logRuntimeStats, 1, TimeUnit.DAYS);
+		// Rebuilding periodically makes sure that anything the incremental updates missed doesn't stay wrong for long
+		MaintenanceScheduler.runPeriodically("rebuildFollowGraph", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.EVERY_NODE, FollowGraph::loadInBackground, 1, TimeUnit.DAYS);
+		// Also picks up the strings rewritten by the rebuild_search_index command
+		MaintenanceScheduler.runPeriodically("reloadQuickSearchIndex", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.EVERY_NODE, QuickSearchIndex::loadInBackground, 1, TimeUnit.DAYS);
 		context.getUsersController().loadPresenceFromDatabase();
+		QuickSearchIndex.loadInBackground();
+		FollowGraph.loadInBackground();
+		context.getUserDataExportWorker().resumeUnfinishedExports();
 
 		Runtime.getRuntime().addShutdownHook(new Thread(()->{
 			context.getFriendsController().doPendingHintsUpdates();
@@ -1234,6 +1290,9 @@ public class SmithereenApplication{
 			try{
 				context.getActivityPubWorker().shutDown();
 			}catch(NoClassDefFoundError ignore){}
+			try{
+				Mailer.shutDown();
+			}catch(NoClassDefFoundError ignore){}
 			try{
 				MaintenanceScheduler.shutDown();
 			}catch(NoClassDefFoundError ignore){}
@@ -1427,18 +1486,44 @@ public class SmithereenApplication{
 		}
 	}
 
-	public static synchronized void invalidateAllSessionsForAccount(int id){
-		Set<HttpSession> sessions=sessionsByAccount.get(id);
-		if(sessions==null)
-			return;
-		for(HttpSession session:new HashSet<>(sessions)){
+	public static void invalidateAllSessionsForAccount(int id){
+		Set<HttpSession> sessions;
+		sessionMapsLock.lock();
+		try{
+			sessions=sessionsByAccount.get(id);
+			if(sessions==null)
+				return;
+			sessions=new HashSet<>(sessions);
+		}finally{
+			sessionMapsLock.unlock();
+		}
+		// Invalidation waits for Jetty's session lock and calls the listener above, so don't hold ours while doing it
+		for(HttpSession session:sessions){
 			session.invalidate();
 		}
 	}
 
-	public static synchronized void addAccountSession(int accountID, Request req){
-		accountIdsBySession.put(req.session().id(), accountID);
-		sessionsByAccount.computeIfAbsent(accountID, HashSet::new).add(req.session().raw());
+	public static void addAccountSession(int accountID, Request req){
+		String sessionID=req.session().id();
+		HttpSession session=req.session().raw();
+		sessionMapsLock.lock();
+		try{
+			accountIdsBySession.put(sessionID, accountID);
+			sessionsByAccount.computeIfAbsent(accountID, HashSet::new).add(session);
+		}finally{
+			sessionMapsLock.unlock();
+		}
+	}
+
+	/**
+	 * The single place where the in-memory counters kept by various subsystems get written to the log
+	 */
+	private static void logRuntimeStats(){
+		ExtendedHttpClient.logStats();
+		SingleFlight.logStats();
+		NamedMutexCollection.logStats();
+		BackgroundTaskRunner.logStats();
+		ActivityHandlerStats.logSummary();
 	}
 
 	private static void prerenderErrorPages(){
@@ -0,0 +1,91 @@
+package smithereen.activitypub;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts invocations and measures latency of incoming activity handlers, per handler class.
+ */
+public class ActivityHandlerStats{
+	private static final Logger LOG=LoggerFactory.getLogger(ActivityHandlerStats.class);
+	private static final long SLOW_HANDLER_THRESHOLD=TimeUnit.SECONDS.toNanos(10);
+	/**
+	 * Bucket i counts invocations that took less than 2^i milliseconds, the last one counts everything slower
+	 */
+	public static final int HISTOGRAM_BUCKETS=18;
+
+	private static final ConcurrentHashMap<Class<?>, HandlerStats> stats=new ConcurrentHashMap<>();
+
+	public static void record(Class<?> handlerClass, long durationNanos, boolean failed){
+		HandlerStats s=stats.computeIfAbsent(handlerClass, k->new HandlerStats());
+		s.count.increment();
+		if(failed)
+			s.failures.increment();
+		s.totalNanos.add(durationNanos);
+		s.maxNanos.accumulate(durationNanos);
+		long millis=TimeUnit.NANOSECONDS.toMillis(durationNanos);
+		int bucket=millis==0 ? 0 : Math.min(HISTOGRAM_BUCKETS-1, 64-Long.numberOfLeadingZeros(millis));
+		s.histogram.incrementAndGet(bucket);
+		if(durationNanos>SLOW_HANDLER_THRESHOLD)
+			LOG.warn("{} took {} ms to handle an activity", handlerClass.getSimpleName(), millis);
+	}
+
+	/**
+	 * @return all handlers that were invoked at least once, the ones that took the most time in total first
+	 */
+	public static List<HandlerTiming> getSnapshot(){
+		return stats.entrySet().stream()
+				.map(e->{
+					HandlerStats s=e.getValue();
+					long[] histogram=new long[HISTOGRAM_BUCKETS];
+					for(int i=0;i<HISTOGRAM_BUCKETS;i++)
+						histogram[i]=s.histogram.get(i);
+					return new HandlerTiming(e.getKey().getSimpleName(), s.count.sum(), s.failures.sum(), s.totalNanos.sum(), s.maxNanos.get(), histogram);
+				})
+				.sorted(Comparator.comparingLong(HandlerTiming::totalNanos).reversed())
+				.toList();
+	}
+
+	public static void logSummary(){
+		if(!LOG.isInfoEnabled())
+			return;
+		for(HandlerTiming t:getSnapshot()){
+			LOG.info("{}: {} calls, {} failed, {} ms total, {} ms average, p50 <{} ms, p95 <{} ms, p99 <{} ms, {} ms max", t.handler(), t.count(), t.failures(),
+					TimeUnit.NANOSECONDS.toMillis(t.totalNanos()), TimeUnit.NANOSECONDS.toMillis(t.totalNanos()/Math.max(1, t.count())),
+					t.getPercentileMillis(50), t.getPercentileMillis(95), t.getPercentileMillis(99), TimeUnit.NANOSECONDS.toMillis(t.maxNanos()));
+		}
+	}
+
+	private static class HandlerStats{
+		private final LongAdder count=new LongAdder(), failures=new LongAdder(), totalNanos=new LongAdder();
+		private final LongAccumulator maxNanos=new LongAccumulator(Math::max, 0);
+		private final AtomicLongArray histogram=new AtomicLongArray(HISTOGRAM_BUCKETS);
+	}
+
+	public record HandlerTiming(String handler, long count, long failures, long totalNanos, long maxNanos, long[] histogram){
+		/**
+		 * @return the upper bound of the histogram bucket that contains the percentile, or the maximum if it's in the last bucket
+		 */
+		public long getPercentileMillis(int percentile){
+			long total=0;
+			for(long c:histogram)
+				total+=c;
+			long target=(total*percentile+99)/100;
+			long seen=0;
+			for(int i=0;i<histogram.length-1;i++){
+				seen+=histogram[i];
+				if(seen>=target)
+					return 1L << i;
+			}
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos)+1;
+		}
+	}
+}
@@ -75,6 +75,7 @@ import smithereen.exceptions.FederationException;
 import smithereen.exceptions.InternalServerErrorException;
 import smithereen.exceptions.ObjectNotFoundException;
 import smithereen.exceptions.ObjectNotFoundExceptionWithFallback;
+import smithereen.exceptions.UnsuccessfulResponseException;
 import smithereen.exceptions.UnsupportedRemoteObjectTypeException;
 import smithereen.exceptions.UserActionNotAllowedException;
 import smithereen.http.ExtendedHttpClient;
@@ -111,15 +112,46 @@ public class ActivityPub{
 	// Make the whole thing more responsive while activities are sent out to many servers at once by running that on a separate platform thread pool.
 	private static final ExecutorService serializerSignerExecutor=Executors.newCachedThreadPool(Thread.ofPlatform().name("ActivityPubSerializerSigner", 0).factory());
 
+	/**
+	 * For fetching objects, WebFinger and anything else a user might be waiting for
+	 */
 	public static final HttpClient httpClient;
+	/**
+	 * For sending activities to inboxes, so that a delivery backlog doesn't slow down fetches
+	 */
+	public static final HttpClient deliveryHttpClient;
+	/**
+	 * For downloading media files
+	 */
+	public static final HttpClient mediaHttpClient;
 	private static LruCache<String, String> domainRedirects=new LruCache<>(100);
 	private static final ZoneId GMT_TIMEZONE=ZoneId.of("GMT");
 	private static final DateTimeFormatter HTTP_DATE_FORMATTER;
 
 	static{
 		httpClient=ExtendedHttpClient.newBuilder()
+				.name("fetch")
+				.version(HttpClient.Version.HTTP_2)
 				.followRedirects(HttpClient.Redirect.NORMAL)
 				.connectTimeout(Duration.ofSeconds(15))
+				.maxConcurrentRequestsPerHost(8)
+				.maxResponseBodySize(10*1024*1024)
+				.build();
+		deliveryHttpClient=ExtendedHttpClient.newBuilder()
+				.name("delivery")
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofSeconds(15))
+				.maxConcurrentRequestsPerHost(8)
+				.maxResponseBodySize(1024*1024)
+				.build();
+		mediaHttpClient=ExtendedHttpClient.newBuilder()
+				.name("media")
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofSeconds(15))
+				.maxConcurrentRequestsPerHost(6)
+				.maxResponseBodySize(100*1024*1024)
 				.build();
 
 		Map<Long, String> dow = new HashMap<>();
@@ -169,10 +201,20 @@ public class ActivityPub{
 	}
 
 	public static ActivityPubObject fetchRemoteObject(URI _uri, Actor signer, JsonObject actorToken, ApplicationContext ctx, boolean acceptHTML) throws IOException{
-		return fetchRemoteObjectInternal(_uri, signer, actorToken, ctx, true, acceptHTML);
+		return fetchRemoteObjectInternal(_uri, signer, actorToken, ctx, true, acceptHTML, null, null).object();
+	}
+
+	/**
+	 * Same as {@link #fetchRemoteObject(URI, Actor, JsonObject, ApplicationContext, boolean)}, but makes a conditional
+	 * request if validators from a previous fetch are given, and returns the response validators along with the object.
+	 * @return a result with a null object if the server responded with 304 Not Modified
+	 */
+	public static RemoteObjectFetchResult fetchRemoteObject(URI _uri, Actor signer, JsonObject actorToken, ApplicationContext ctx, boolean acceptHTML, String etag, String lastModified) throws IOException{
+		return fetchRemoteObjectInternal(_uri, signer, actorToken, ctx, true, acceptHTML, etag, lastModified);
 	}
 
-	private static ActivityPubObject fetchRemoteObjectInternal(URI _uri, Actor signer, JsonObject actorToken, ApplicationContext ctx, boolean tryHTML, boolean acceptHTML) throws IOException{
+	private static RemoteObjectFetchResult fetchRemoteObjectInternal(URI _uri, Actor signer, JsonObject actorToken, ApplicationContext ctx, boolean tryHTML, boolean acceptHTML,
+																	 String etag, String lastModified) throws IOException{
 		LOG.trace("Fetching remote object from {}", _uri);
 		URI uri;
 		String token;
@@ -209,6 +251,10 @@ public class ActivityPub{
 			builder.header("Authorization", "Bearer "+token);
 		else if(actorToken!=null)
 			builder.header("Authorization", "ActivityPubActorToken "+actorToken);
+		if(etag!=null)
+			builder.header("If-None-Match", etag);
+		if(lastModified!=null)
+			builder.header("If-Modified-Since", lastModified);
 		signRequest(builder, uri, signer==null ? ServiceActor.getInstance() : signer, null, "get");
 		HttpResponse<InputStream> resp;
 		try{
@@ -216,6 +262,11 @@ public class ActivityPub{
 		}catch(InterruptedException x){
 			throw new RuntimeException(x);
 		}
+		if(resp.statusCode()==304 && (etag!=null || lastModified!=null)){
+			resp.body().close();
+			LOG.trace("{} not modified", uri);
+			return new RemoteObjectFetchResult(null, null, etag, lastModified);
+		}
 		if(resp.statusCode()/100!=2){
 			if(Config.DEBUG){
 				StringBuilder sb=new StringBuilder();
@@ -232,7 +283,7 @@ public class ActivityPub{
 					while(in.skip(8192)>0L);
 				}
 			}
-			throw new ObjectNotFoundException("Response is not successful: remote server returned "+resp.statusCode()+" for GET "+uri);
+			throw new UnsuccessfulResponseException("Response is not successful: remote server returned "+resp.statusCode()+" for GET "+uri, resp.statusCode());
 		}
 		HttpContentType contentType=HttpContentType.from(resp.headers());
 		try(InputStream in=resp.body()){
@@ -247,7 +298,7 @@ public class ActivityPub{
 						LOG.trace("Will follow redirect: {}", url);
 						if(StringUtils.isNotEmpty(url)){
 							try{
-								return fetchRemoteObjectInternal(UriBuilder.parseAndEncode(url), signer, actorToken, ctx, false, false);
+								return fetchRemoteObjectInternal(UriBuilder.parseAndEncode(url), signer, actorToken, ctx, false, false, null, null);
 							}catch(URISyntaxException x){
 								throw new ObjectNotFoundExceptionWithFallback("Failed to parse URL from <link rel=\"alternate\"> on HTML page at "+uri, x, htmlDocument);
 							}
@@ -269,7 +320,7 @@ public class ActivityPub{
 					throw new UnsupportedRemoteObjectTypeException("Unsupported object type "+converted.get("type"));
 				if(obj.activityPubID!=null && !Utils.uriHostMatches(obj.activityPubID, uri))
 					throw new BadRequestException("Domain in object ID ("+obj.activityPubID+") doesn't match domain in its URI ("+uri+")");
-				return obj;
+				return new RemoteObjectFetchResult(obj, converted, resp.headers().firstValue("ETag").orElse(null), resp.headers().firstValue("Last-Modified").orElse(null));
 			}catch(JLDException|JsonParseException x){
 				LOG.error("Exception while parsing or converting remote object", x);
 				throw new IOException(x);
@@ -404,7 +455,7 @@ public class ActivityPub{
 				.timeout(Duration.ofSeconds(30))
 				.build();
 		try{
-			HttpResponse<String> resp=httpClient.send(req, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> resp=deliveryHttpClient.send(req, HttpResponse.BodyHandlers.ofString());
 			LOG.debug("Post activity response: {}", resp);
 			if(resp.statusCode()/100!=2){
 				LOG.debug("Response body: {}", resp.body());
@@ -839,4 +890,11 @@ public class ActivityPub{
 		}
 		throw new ObjectNotFoundException("Failed to resolve remote interaction URI");
 	}
+
+	/**
+	 * @param object the parsed object, or null if the server responded with 304 Not Modified
+	 * @param json the document the object was parsed from, converted to the local JSON-LD context
+	 */
+	public record RemoteObjectFetchResult(ActivityPubObject object, JsonObject json, String etag, String lastModified){
+	}
 }
@@ -6,13 +6,12 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -113,6 +112,7 @@ import smithereen.storage.GroupStorage;
 import smithereen.storage.PostStorage;
 import smithereen.storage.UserStorage;
 import smithereen.util.NamedMutexCollection;
+import smithereen.util.SingleFlight;
 import smithereen.util.UriBuilder;
 import spark.utils.StringUtils;
 
@@ -132,24 +132,20 @@ public class ActivityPubWorker{
 	private final ExecutorService executor=Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ActivityPubWorker-", 0).factory());
 	private final ScheduledExecutorService retryExecutor=Executors.newSingleThreadScheduledExecutor();
 	private final Random rand=new Random();
-	private final NamedMutexCollection mutex=new NamedMutexCollection();
+	private final NamedMutexCollection mutex=new NamedMutexCollection("ActivityPubWorker mutexes");
 
-	private final HashSet<Integer> scheduledActorUpdates=new HashSet<>();
+	private final Set<Integer> scheduledActorUpdates=ConcurrentHashMap.newKeySet();
 	private final ConcurrentHashMap<Integer, Instant> lastActorUpdates=new ConcurrentHashMap<>();
 
-	// These must be accessed from synchronized(this)
-	private final HashMap<URI, Future<List<Post>>> fetchingWallReplyThreads=new HashMap<>();
-	private final HashMap<URI, List<Consumer<List<Post>>>> afterFetchWallReplyThreadActions=new HashMap<>();
-	private final HashMap<URI, Future<Post>> fetchingAllWallReplies=new HashMap<>();
-	private final HashMap<URI, Future<List<CommentReplyParent>>> fetchingCommentReplyThreads=new HashMap<>();
-	private final HashMap<URI, List<Consumer<List<CommentReplyParent>>>> afterFetchCommentReplyThreadActions=new HashMap<>();
-	private final HashMap<URI, Future<CommentReplyParent>> fetchingAllCommentReplies=new HashMap<>();
-	private final HashSet<URI> fetchingRelationshipCollectionsActors=new HashSet<>();
-	private final HashSet<URI> fetchingContentCollectionsActors=new HashSet<>();
-	private final HashMap<URI, Future<List<Post>>> fetchingRepostChains=new HashMap<>();
-	private final HashMap<URI, Future<Void>> fetchingPhotoAlbums=new HashMap<>();
-	private final HashMap<URI, Future<Void>> fetchingBoardTopics=new HashMap<>();
-	private final HashMap<URI, Future<Void>> fetchingUserPinnedPosts=new HashMap<>();
+	private final SingleFlight<URI, List<Post>> wallReplyThreadFetches=new SingleFlight<>("Wall reply thread fetches", Duration.ofMinutes(5));
+	private final SingleFlight<URI, Post> allWallRepliesFetches=new SingleFlight<>("Wall reply tree fetches", Duration.ofMinutes(30));
+	private final SingleFlight<URI, List<CommentReplyParent>> commentReplyThreadFetches=new SingleFlight<>("Comment reply thread fetches", Duration.ofMinutes(5));
+	private final SingleFlight<URI, Void> relationshipCollectionsFetches=new SingleFlight<>("Relationship collection fetches", Duration.ofHours(2));
+	private final SingleFlight<URI, Void> contentCollectionsFetches=new SingleFlight<>("Content collection fetches", Duration.ofHours(2));
+	private final SingleFlight<URI, List<Post>> repostChainFetches=new SingleFlight<>("Repost chain fetches", Duration.ofMinutes(5));
+	private final SingleFlight<URI, Void> photoAlbumFetches=new SingleFlight<>("Photo album fetches", Duration.ofMinutes(30));
+	private final SingleFlight<URI, Void> boardTopicFetches=new SingleFlight<>("Board topic fetches", Duration.ofMinutes(30));
+	private final SingleFlight<URI, Void> userPinnedPostsFetches=new SingleFlight<>("Pinned post fetches", Duration.ofMinutes(10));
 
 	private final ApplicationContext context;
 
@@ -1262,21 +1258,20 @@ public class ActivityPubWorker{
 
 	// endregion
 
-	public synchronized Future<List<Post>> fetchWallReplyThread(NoteOrQuestion post){
-		return fetchingWallReplyThreads.computeIfAbsent(post.activityPubID, (uri)->executor.submit(new FetchWallReplyThreadRunnable(this, afterFetchWallReplyThreadActions, context, fetchingWallReplyThreads, post)));
+	public Future<List<Post>> fetchWallReplyThread(NoteOrQuestion post){
+		return wallReplyThreadFetches.run(post.activityPubID, executor, new FetchWallReplyThreadRunnable(context, post));
 	}
 
-	public synchronized Future<List<Post>> fetchWallReplyThreadAndThen(NoteOrQuestion post, Consumer<List<Post>> action){
-		afterFetchWallReplyThreadActions.computeIfAbsent(post.activityPubID, (uri)->new ArrayList<>()).add(action);
-		return fetchWallReplyThread(post);
+	public Future<List<Post>> fetchWallReplyThreadAndThen(NoteOrQuestion post, Consumer<List<Post>> action){
+		return wallReplyThreadFetches.runAndThen(post.activityPubID, executor, new FetchWallReplyThreadRunnable(context, post), action);
 	}
 
-	public synchronized Future<Post> fetchAllReplies(Post post){
-		return fetchingAllWallReplies.computeIfAbsent(post.getActivityPubID(), (uri)->executor.submit(new FetchAllWallRepliesTask(this, context, fetchingAllWallReplies, post)));
+	public Future<Post> fetchAllReplies(Post post){
+		return allWallRepliesFetches.run(post.getActivityPubID(), executor, new FetchAllWallRepliesTask(this, context, post));
 	}
 
-	public synchronized Future<List<CommentReplyParent>> fetchCommentReplyThread(NoteOrQuestion post){
-		return fetchingCommentReplyThreads.computeIfAbsent(post.activityPubID, (uri)->executor.submit(new FetchCommentReplyThreadRunnable(this, afterFetchCommentReplyThreadActions, context, fetchingCommentReplyThreads, post)));
+	public Future<List<CommentReplyParent>> fetchCommentReplyThread(NoteOrQuestion post){
+		return commentReplyThreadFetches.run(post.activityPubID, executor, new FetchCommentReplyThreadRunnable(context, post));
 	}
 
 	/**
@@ -1284,15 +1279,14 @@ public class ActivityPubWorker{
 	 * For users, that's friends. For groups, that's members and tentative members.
 	 * @param actor the remote actor
 	 */
-	public synchronized void fetchActorRelationshipCollections(Actor actor){
+	public void fetchActorRelationshipCollections(Actor actor){
 		LOG.debug("Fetching relationship collections for actor {}", actor.activityPubID);
 		actor.ensureRemote();
-		if(fetchingRelationshipCollectionsActors.contains(actor.activityPubID)){
+		if(relationshipCollectionsFetches.isRunning(actor.activityPubID)){
 			LOG.trace("Another fetch is already in progress for relationship collections of {}", actor.activityPubID);
 			return;
 		}
-		fetchingRelationshipCollectionsActors.add(actor.activityPubID);
-		executor.submit(new FetchActorRelationshipCollectionsTask(this, context, fetchingRelationshipCollectionsActors, actor));
+		relationshipCollectionsFetches.run(actor.activityPubID, executor, new FetchActorRelationshipCollectionsTask(this, context, actor));
 	}
 
 	/**
@@ -1300,31 +1294,30 @@ public class ActivityPubWorker{
 	 * Currently, that's only the wall with all comments.
 	 * @param actor the remote actor
 	 */
-	public synchronized void fetchActorContentCollections(Actor actor){
+	public void fetchActorContentCollections(Actor actor){
 		LOG.debug("Fetching content collections for actor {}", actor.activityPubID);
 		actor.ensureRemote();
-		if(fetchingContentCollectionsActors.contains(actor.activityPubID)){
+		if(contentCollectionsFetches.isRunning(actor.activityPubID)){
 			LOG.trace("Another fetch is already in progress for content collections of {}", actor.activityPubID);
 			return;
 		}
-		fetchingContentCollectionsActors.add(actor.activityPubID);
-		executor.submit(new FetchActorContentCollectionsTask(this, context, fetchingAllWallReplies, fetchingContentCollectionsActors, actor, fetchingPhotoAlbums));
+		contentCollectionsFetches.run(actor.activityPubID, executor, new FetchActorContentCollectionsTask(this, context, actor));
 	}
 
-	public synchronized Future<List<Post>> fetchRepostChain(NoteOrQuestion topLevelPost){
-		return fetchingRepostChains.computeIfAbsent(topLevelPost.activityPubID, uri->executor.submit(new FetchRepostChainTask(this, context, fetchingRepostChains, topLevelPost)));
+	public Future<List<Post>> fetchRepostChain(NoteOrQuestion topLevelPost){
+		return repostChainFetches.run(topLevelPost.activityPubID, executor, new FetchRepostChainTask(this, context, topLevelPost));
 	}
 
-	public synchronized Future<Void> fetchPhotoAlbumContents(ActivityPubPhotoAlbum album, PhotoAlbum nativeAlbum){
-		return fetchingPhotoAlbums.computeIfAbsent(album.activityPubID, uri->executor.submit(new FetchPhotoAlbumPhotosTask(context, album, nativeAlbum, this, fetchingPhotoAlbums)));
+	public Future<Void> fetchPhotoAlbumContents(ActivityPubPhotoAlbum album, PhotoAlbum nativeAlbum){
+		return photoAlbumFetches.run(album.activityPubID, executor, new FetchPhotoAlbumPhotosTask(context, album, nativeAlbum, this));
 	}
 
-	public synchronized Future<Void> fetchBoardTopicComments(ActivityPubBoardTopic topic, BoardTopic nativeTopic){
-		return fetchingBoardTopics.computeIfAbsent(topic.activityPubID, uri->executor.submit(new FetchBoardTopicCommentsTask(context, topic, nativeTopic, this, fetchingBoardTopics)));
+	public Future<Void> fetchBoardTopicComments(ActivityPubBoardTopic topic, BoardTopic nativeTopic){
+		return boardTopicFetches.run(topic.activityPubID, executor, new FetchBoardTopicCommentsTask(context, topic, nativeTopic, this));
 	}
 
-	public synchronized Future<Void> fetchUserPinnedPosts(ForeignUser user){
-		return fetchingUserPinnedPosts.computeIfAbsent(user.activityPubID, uri->executor.submit(new FetchUserPinnedPostsTask(context, user, fetchingUserPinnedPosts, this)));
+	public Future<Void> fetchUserPinnedPosts(ForeignUser user){
+		return userPinnedPostsFetches.run(user.activityPubID, executor, new FetchUserPinnedPostsTask(context, user, this));
 	}
 
 	public <R, T extends Callable<R>> List<Future<R>> invokeAll(Collection<T> tasks){
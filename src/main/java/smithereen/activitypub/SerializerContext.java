@@ -3,6 +3,7 @@ package smithereen.activitypub;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 import java.util.function.Supplier;
 
@@ -32,6 +33,10 @@ public class SerializerContext{
 	}
 
 	public void addSchema(String schema){
+		for(JsonElement el:context){
+			if(el instanceof JsonPrimitive p && p.getAsString().equals(schema))
+				return;
+		}
 		context.add(schema);
 	}
 
@@ -39,6 +44,8 @@ public class SerializerContext{
 		if(additionalContext==null){
 			additionalContext=new JsonObject();
 			context.add(additionalContext);
+		}else if(additionalContext.get(key) instanceof JsonPrimitive existing && existing.getAsString().equals(value)){
+			return;
 		}
 		additionalContext.addProperty(key, value);
 	}
@@ -61,6 +68,8 @@ public class SerializerContext{
 		if(additionalContext==null){
 			additionalContext=new JsonObject();
 			context.add(additionalContext);
+		}else if(isSameDefinition(additionalContext.get(key), id, "@type", type)){
+			return;
 		}
 		JsonObject o=new JsonObject();
 		o.addProperty("@id", id);
@@ -72,6 +81,8 @@ public class SerializerContext{
 		if(additionalContext==null){
 			additionalContext=new JsonObject();
 			context.add(additionalContext);
+		}else if(isSameDefinition(additionalContext.get(key), id, "@container", type)){
+			return;
 		}
 		JsonObject o=new JsonObject();
 		o.addProperty("@id", id);
@@ -79,6 +90,13 @@ public class SerializerContext{
 		additionalContext.add(key, o);
 	}
 
+	// Every item in a collection page adds the same aliases, so repeated definitions shouldn't allocate anything
+	private static boolean isSameDefinition(JsonElement existing, String id, String attr, String value){
+		return existing instanceof JsonObject o && o.size()==2
+				&& o.get("@id") instanceof JsonPrimitive p1 && p1.getAsString().equals(id)
+				&& o.get(attr) instanceof JsonPrimitive p2 && p2.getAsString().equals(value);
+	}
+
 	public JsonElement getJLDContext(){
 		if(context.size()==1)
 			return context.get(0);
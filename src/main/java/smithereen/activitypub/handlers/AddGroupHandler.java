@@ -29,7 +29,7 @@ public class AddGroupHandler extends ActivityTypeHandler<ForeignUser, Add, Group
 
 			if(object instanceof ForeignGroup foreignGroup){
 				// Verify that the group in question does indeed have this user as its member
-				BackgroundTaskRunner.getInstance().submit(()->{
+				BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.FEDERATION, ()->{
 					boolean tentative=foreignGroup.isEvent() && foreignGroup.tentativeMembers!=null && activity.tentative;
 					Group.MembershipState state=context.appContext.getGroupsController().getUserMembershipState(foreignGroup, actor);
 					if((state==Group.MembershipState.TENTATIVE_MEMBER && tentative) || (state==Group.MembershipState.MEMBER && !tentative))
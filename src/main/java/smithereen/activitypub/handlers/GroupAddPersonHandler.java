@@ -24,7 +24,7 @@ public class GroupAddPersonHandler extends ActivityTypeHandler<ForeignGroup, Add
 				context.appContext.getObjectLinkResolver().storeOrUpdateRemoteObject(object, object);
 
 			if(object instanceof ForeignUser foreignUser && foreignUser.getGroupsURL()!=null){
-				BackgroundTaskRunner.getInstance().submit(()->{
+				BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.FEDERATION, ()->{
 					try{
 						context.appContext.getObjectLinkResolver().ensureObjectIsInCollection(foreignUser, foreignUser.getGroupsURL(), actor.activityPubID);
 						context.appContext.getGroupsController().joinGroup(actor, object, target.equals(actor.tentativeMembers), true);
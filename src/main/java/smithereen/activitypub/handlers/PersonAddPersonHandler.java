@@ -27,7 +27,7 @@ public class PersonAddPersonHandler extends ActivityTypeHandler<ForeignUser, Add
 
 			if(object instanceof ForeignUser foreignUser && foreignUser.getFriendsURL()!=null){
 				// Verify that the target user does indeed have the actor as their friend
-				BackgroundTaskRunner.getInstance().submit(()->{
+				BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.FEDERATION, ()->{
 					try{
 						context.appContext.getObjectLinkResolver().ensureObjectIsInCollection(foreignUser, foreignUser.getFriendsURL(), actor.activityPubID);
 						context.appContext.getFriendsController().storeFriendship(actor, object, true);
@@ -1,16 +1,21 @@
 package smithereen.activitypub.objects;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
+import smithereen.Utils;
 import smithereen.activitypub.SerializerContext;
 import smithereen.activitypub.ParserContext;
 
-public class ActivityPubCollection extends ActivityPubObject{
+public class ActivityPubCollection extends ActivityPubObject implements Cloneable{
 
 	public long totalItems=-1;
 	public URI current;
@@ -45,6 +50,48 @@ public class ActivityPubCollection extends ActivityPubObject{
 		return obj;
 	}
 
+	@Override
+	protected void writeActivityPubObjectFields(JsonWriter writer, SerializerContext serializerContext) throws IOException{
+		// The embedded first page and the items are streamed one at a time so that the size of a page doesn't matter.
+		// Everything else, including the fields of subclasses, comes from a copy that doesn't have them.
+		ActivityPubCollection withoutItems=shallowClone();
+		withoutItems.items=null;
+		if(first!=null && first.object!=null)
+			withoutItems.first=null;
+		for(Map.Entry<String, JsonElement> e:withoutItems.asActivityPubObject(new JsonObject(), serializerContext).entrySet()){
+			writer.name(e.getKey());
+			Utils.gson.toJson(e.getValue(), writer);
+		}
+		if(first!=null && first.object!=null){
+			writer.name("first");
+			writer.beginObject();
+			first.object.writeActivityPubObjectFields(writer, serializerContext);
+			writer.endObject();
+		}
+		if(items!=null){
+			writer.name(ordered ? "orderedItems" : "items");
+			writer.beginArray();
+			for(LinkOrObject item:items){
+				if(item.link!=null){
+					writer.value(item.link.toString());
+				}else{
+					writer.beginObject();
+					item.object.writeActivityPubObjectFields(writer, serializerContext);
+					writer.endObject();
+				}
+			}
+			writer.endArray();
+		}
+	}
+
+	private ActivityPubCollection shallowClone(){
+		try{
+			return (ActivityPubCollection) super.clone();
+		}catch(CloneNotSupportedException x){
+			throw new RuntimeException(x);
+		}
+	}
+
 	@Override
 	public void validate(@Nullable URI parentID, String propertyName){
 		super.validate(parentID, propertyName);
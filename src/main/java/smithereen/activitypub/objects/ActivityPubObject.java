@@ -4,11 +4,13 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Instant;
@@ -107,6 +109,27 @@ public abstract class ActivityPubObject{
 		return obj;
 	}
 
+	/**
+	 * Serializes this object as the root of a document straight into a writer, without building the whole tree in memory first.
+	 * Subclasses that contain many items override {@link #writeActivityPubObjectFields(JsonWriter, SerializerContext)}
+	 * to stream them.
+	 */
+	public void writeRootActivityPubObject(JsonWriter writer, SerializerContext serializerContext) throws IOException{
+		writer.beginObject();
+		writeActivityPubObjectFields(writer, serializerContext);
+		// Written last because serializing objects adds aliases to the context
+		writer.name("@context");
+		Utils.gson.toJson(serializerContext.getJLDContext(), writer);
+		writer.endObject();
+	}
+
+	protected void writeActivityPubObjectFields(JsonWriter writer, SerializerContext serializerContext) throws IOException{
+		for(Map.Entry<String, JsonElement> e:asActivityPubObject(new JsonObject(), serializerContext).entrySet()){
+			writer.name(e.getKey());
+			Utils.gson.toJson(e.getValue(), writer);
+		}
+	}
+
 	public JsonObject asActivityPubObject(JsonObject obj, SerializerContext serializerContext){
 		if(obj==null)
 			obj=new JsonObject();
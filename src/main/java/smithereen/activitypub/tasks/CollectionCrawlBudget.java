@@ -0,0 +1,44 @@
+package smithereen.activitypub.tasks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Limits how fast all collection crawls combined can fetch pages, so that discovering something with a lot of
+ * collections to go through doesn't take up all the federation capacity of this server.
+ */
+public class CollectionCrawlBudget{
+	private static final int MAX_CONCURRENT_PAGE_FETCHES=16;
+	private static final int MAX_PAGE_FETCHES_PER_SECOND=20;
+	private static final long PAGE_FETCH_INTERVAL=TimeUnit.SECONDS.toNanos(1)/MAX_PAGE_FETCHES_PER_SECOND;
+
+	private static final Semaphore permits=new Semaphore(MAX_CONCURRENT_PAGE_FETCHES, true);
+	private static long nextPageFetchTime;
+
+	public static <T> T fetchPage(Supplier<T> fetch){
+		try{
+			waitForTurn();
+			permits.acquire();
+		}catch(InterruptedException x){
+			throw new RuntimeException(x);
+		}
+		try{
+			return fetch.get();
+		}finally{
+			permits.release();
+		}
+	}
+
+	private static void waitForTurn() throws InterruptedException{
+		long delay;
+		synchronized(CollectionCrawlBudget.class){
+			long now=System.nanoTime();
+			long fetchTime=nextPageFetchTime-now>0 ? nextPageFetchTime : now;
+			nextPageFetchTime=fetchTime+PAGE_FETCH_INTERVAL;
+			delay=fetchTime-now;
+		}
+		if(delay>0)
+			TimeUnit.NANOSECONDS.sleep(delay);
+	}
+}
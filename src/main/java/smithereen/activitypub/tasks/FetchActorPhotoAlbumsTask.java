@@ -3,11 +3,8 @@ package smithereen.activitypub.tasks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Future;
 
 import smithereen.ApplicationContext;
 import smithereen.activitypub.ActivityPubWorker;
@@ -24,15 +21,13 @@ public class FetchActorPhotoAlbumsTask extends ForwardPaginatingCollectionTask{
 	private final ActivityPubWorker apw;
 	private final ApplicationContext context;
 	private final Actor actor;
-	private final HashMap<URI, Future<Void>> fetchingPhotoAlbums;
 	private final Set<Long> seenAlbums=new HashSet<>();
 
-	public FetchActorPhotoAlbumsTask(ActivityPubWorker apw, ApplicationContext context, Actor actor, HashMap<URI, Future<Void>> fetchingPhotoAlbums){
+	public FetchActorPhotoAlbumsTask(ActivityPubWorker apw, ApplicationContext context, Actor actor){
 		super(context, actor.getPhotoAlbumsURL());
 		this.apw=apw;
 		this.context=context;
 		this.actor=actor;
-		this.fetchingPhotoAlbums=fetchingPhotoAlbums;
 		maxItems=PhotosController.MAX_ALBUMS_PER_OWNER;
 	}
 
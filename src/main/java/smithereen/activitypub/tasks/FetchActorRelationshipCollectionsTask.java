@@ -3,9 +3,7 @@ package smithereen.activitypub.tasks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -22,13 +20,11 @@ public class FetchActorRelationshipCollectionsTask extends NoResultCallable{
 	private final Actor actor;
 	private final ActivityPubWorker apw;
 	private final ApplicationContext context;
-	private final HashSet<URI> fetchingRelationshipCollectionsActors;
 
-	public FetchActorRelationshipCollectionsTask(ActivityPubWorker apw, ApplicationContext context, HashSet<URI> fetchingRelationshipCollectionsActors, Actor actor){
+	public FetchActorRelationshipCollectionsTask(ActivityPubWorker apw, ApplicationContext context, Actor actor){
 		this.actor=actor;
 		this.apw=apw;
 		this.context=context;
-		this.fetchingRelationshipCollectionsActors=fetchingRelationshipCollectionsActors;
 	}
 
 	@Override
@@ -54,9 +50,6 @@ public class FetchActorRelationshipCollectionsTask extends NoResultCallable{
 		}catch(Throwable x){
 			LOG.warn("Error fetching relationship collections for {}", actor.activityPubID, x);
 		}
-		synchronized(apw){
-			fetchingRelationshipCollectionsActors.remove(actor.activityPubID);
-		}
 		LOG.debug("Done fetching relationship collections for {}", actor.activityPubID);
 	}
 }
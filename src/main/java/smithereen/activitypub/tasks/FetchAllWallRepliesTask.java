@@ -5,7 +5,6 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -29,7 +28,6 @@ public class FetchAllWallRepliesTask implements Callable<Post>{
 
 	private final ActivityPubWorker apw;
 	protected final ApplicationContext context;
-	private final HashMap<URI, Future<Post>> fetchingAllReplies;
 	protected Post post;
 	/**
 	 * This keeps track of all the posts we've seen in this comment thread, to prevent a DoS via infinite recursion.
@@ -37,16 +35,15 @@ public class FetchAllWallRepliesTask implements Callable<Post>{
 	 */
 	protected final Set<URI> seenPosts;
 
-	public FetchAllWallRepliesTask(ActivityPubWorker apw, ApplicationContext context, HashMap<URI, Future<Post>> fetchingAllReplies, Post post, Set<URI> seenPosts){
+	public FetchAllWallRepliesTask(ActivityPubWorker apw, ApplicationContext context, Post post, Set<URI> seenPosts){
 		this.post=post;
 		this.seenPosts=seenPosts;
 		this.apw=apw;
 		this.context=context;
-		this.fetchingAllReplies=fetchingAllReplies;
 	}
 
-	public FetchAllWallRepliesTask(ActivityPubWorker apw, ApplicationContext context, HashMap<URI, Future<Post>> fetchingAllReplies, Post post){
-		this(apw, context, fetchingAllReplies, post, new HashSet<>());
+	public FetchAllWallRepliesTask(ActivityPubWorker apw, ApplicationContext context, Post post){
+		this(apw, context, post, new HashSet<>());
 		if(post.getReplyLevel()>0)
 			throw new IllegalArgumentException("This constructor is only for top-level posts");
 	}
@@ -54,55 +51,48 @@ public class FetchAllWallRepliesTask implements Callable<Post>{
 	@Override
 	public Post call() throws Exception{
 		LOG.debug("Started fetching full reply tree for post {}", post.getActivityPubID());
-		try{
-			if(post.activityPubReplies==null){
-				if(!post.isLocal()){
-					return post;
-				}
-			}else{
-				Actor owner=context.getWallController().getContentAuthorAndOwner(post).owner();
+		if(post.activityPubReplies==null){
+			if(!post.isLocal()){
+				return post;
+			}
+		}else{
+			Actor owner=context.getWallController().getContentAuthorAndOwner(post).owner();
 
-				ActivityPubCollection collection;
-				collection=context.getObjectLinkResolver().resolve(post.activityPubReplies, ActivityPubCollection.class, true, false, false, owner, true);
-				collection.validate(post.getActivityPubID(), "replies");
-				LOG.trace("collection: {}", collection);
-				if(collection.first==null){
-					LOG.warn("Post {} doesn't have replies.first", post.getActivityPubID());
-					return post;
-				}
-				CollectionPage page;
-				if(collection.first.link!=null){
-					page=context.getObjectLinkResolver().resolve(collection.first.link, CollectionPage.class, true, false, false, owner, false);
-					page.validate(post.getActivityPubID(), "replies.first");
-				}else if(collection.first.object instanceof CollectionPage){
-					page=(CollectionPage) collection.first.object;
-				}else{
-					LOG.warn("Post {} doesn't have a correct CollectionPage in replies.first", post.getActivityPubID());
-					return post;
-				}
-				LOG.trace("first page: {}", page);
-				if(page.items!=null && !page.items.isEmpty()){
-					doOneCollectionPage(page.items);
-				}
-				while(page.next!=null){
-					LOG.trace("getting next page: {}", page.next);
-					try{
-						page=context.getObjectLinkResolver().resolve(page.next, CollectionPage.class, true, false, false, owner, false);
-						if(page.items==null){ // you're supposed to not return the "next" field when there are no more pages, but mastodon still does...
-							LOG.debug("done fetching replies because page.items is empty");
-							break;
-						}
-						doOneCollectionPage(page.items);
-					}catch(ObjectNotFoundException x){
-						LOG.warn("Failed to get replies collection page for post {}: {}", post.getActivityPubID(), x.toString());
-						return post;
-					}
-				}
+			ActivityPubCollection collection;
+			collection=CollectionCrawlBudget.fetchPage(()->context.getObjectLinkResolver().resolve(post.activityPubReplies, ActivityPubCollection.class, true, false, false, owner, true));
+			collection.validate(post.getActivityPubID(), "replies");
+			LOG.trace("collection: {}", collection);
+			if(collection.first==null){
+				LOG.warn("Post {} doesn't have replies.first", post.getActivityPubID());
+				return post;
+			}
+			CollectionPage page;
+			if(collection.first.link!=null){
+				page=CollectionCrawlBudget.fetchPage(()->context.getObjectLinkResolver().resolve(collection.first.link, CollectionPage.class, true, false, false, owner, false));
+				page.validate(post.getActivityPubID(), "replies.first");
+			}else if(collection.first.object instanceof CollectionPage){
+				page=(CollectionPage) collection.first.object;
+			}else{
+				LOG.warn("Post {} doesn't have a correct CollectionPage in replies.first", post.getActivityPubID());
+				return post;
 			}
-		}finally{
-			if(post.getReplyLevel()==0){
-				synchronized(apw){
-					fetchingAllReplies.remove(post.getActivityPubID());
+			LOG.trace("first page: {}", page);
+			if(page.items!=null && !page.items.isEmpty()){
+				doOneCollectionPage(page.items);
+			}
+			while(page.next!=null){
+				LOG.trace("getting next page: {}", page.next);
+				try{
+					URI nextPage=page.next;
+					page=CollectionCrawlBudget.fetchPage(()->context.getObjectLinkResolver().resolve(nextPage, CollectionPage.class, true, false, false, owner, false));
+					if(page.items==null){ // you're supposed to not return the "next" field when there are no more pages, but mastodon still does...
+						LOG.debug("done fetching replies because page.items is empty");
+						break;
+					}
+					doOneCollectionPage(page.items);
+				}catch(ObjectNotFoundException x){
+					LOG.warn("Failed to get replies collection page for post {}: {}", post.getActivityPubID(), x.toString());
+					return post;
 				}
 			}
 		}
@@ -125,7 +115,7 @@ public class FetchAllWallRepliesTask implements Callable<Post>{
 					}
 					seenPosts.add(item.link);
 				}
-				FetchWallPostAndRepliesTask subtask=new FetchWallPostAndRepliesTask(apw, context, fetchingAllReplies, item.link, this.post, seenPosts);
+				FetchWallPostAndRepliesTask subtask=new FetchWallPostAndRepliesTask(apw, context, item.link, this.post, seenPosts);
 				subtasks.add(apw.submitTask(subtask));
 			}else if(item.object instanceof NoteOrQuestion noq){
 				synchronized(seenPosts){
@@ -143,7 +133,7 @@ public class FetchAllWallRepliesTask implements Callable<Post>{
 				context.getWallController().loadAndPreprocessRemotePostMentions(post, noq);
 				PostStorage.putForeignWallPost(post);
 				LOG.trace("got post: {}", post);
-				FetchAllWallRepliesTask subtask=new FetchAllWallRepliesTask(apw, context, fetchingAllReplies, post, seenPosts);
+				FetchAllWallRepliesTask subtask=new FetchAllWallRepliesTask(apw, context, post, seenPosts);
 				subtasks.add(apw.submitTask(subtask));
 			}else{
 				LOG.warn("reply object isn't a post: {}", item.object);
@@ -1,20 +1,17 @@
 package smithereen.activitypub.tasks;
 
 import java.net.URI;
-import java.util.HashMap;
-import java.util.concurrent.Future;
 
 import smithereen.ApplicationContext;
 import smithereen.activitypub.ActivityPubWorker;
 import smithereen.activitypub.objects.Actor;
 import smithereen.activitypub.objects.NoteOrQuestion;
-import smithereen.model.Post;
 
 public class FetchAndProcessWallPostTask extends ProcessWallPostTask{
 	private final URI postID;
 
-	public FetchAndProcessWallPostTask(ActivityPubWorker apw, ApplicationContext context, HashMap<URI, Future<Post>> fetchingAllReplies, Actor owner, URI postID){
-		super(apw, context, fetchingAllReplies, owner);
+	public FetchAndProcessWallPostTask(ActivityPubWorker apw, ApplicationContext context, Actor owner, URI postID){
+		super(apw, context, owner);
 		this.postID=postID;
 	}
 
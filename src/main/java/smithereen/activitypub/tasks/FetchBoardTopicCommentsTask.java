@@ -3,10 +3,6 @@ package smithereen.activitypub.tasks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.util.HashMap;
-import java.util.concurrent.Future;
-
 import smithereen.ApplicationContext;
 import smithereen.activitypub.ActivityPubWorker;
 import smithereen.activitypub.objects.ActivityPubBoardTopic;
@@ -20,30 +16,17 @@ import smithereen.model.comments.Comment;
 public class FetchBoardTopicCommentsTask extends ForwardPaginatingCollectionTask{
 	private static final Logger LOG=LoggerFactory.getLogger(FetchBoardTopicCommentsTask.class);
 	private final ActivityPubWorker apw;
-	private final HashMap<URI, Future<Void>> fetchingBoardTopics;
 	private final BoardTopic nativeTopic;
 	private final ActivityPubBoardTopic topic;
 
-	public FetchBoardTopicCommentsTask(ApplicationContext context, ActivityPubBoardTopic collection, BoardTopic nativeTopic, ActivityPubWorker apw, HashMap<URI, Future<Void>> fetchingBoardTopics){
+	public FetchBoardTopicCommentsTask(ApplicationContext context, ActivityPubBoardTopic collection, BoardTopic nativeTopic, ActivityPubWorker apw){
 		super(context, collection);
 		topic=collection;
 		this.apw=apw;
-		this.fetchingBoardTopics=fetchingBoardTopics;
 		this.nativeTopic=nativeTopic;
 		maxItems=PhotosController.MAX_PHOTOS_PER_ALBUM;
 	}
 
-	@Override
-	protected void compute(){
-		try{
-			super.compute();
-		}finally{
-			synchronized(apw){
-				fetchingBoardTopics.remove(collectionID);
-			}
-		}
-	}
-
 	@Override
 	protected void doOneCollectionPage(ActivityPubCollection page){
 		try{
@@ -38,4 +38,9 @@ public class FetchGroupMembersTask extends ForwardPaginatingCollectionTask{
 			throw new InternalServerErrorException(x);
 		}
 	}
+
+	@Override
+	protected boolean isResumable(){
+		return true;
+	}
 }
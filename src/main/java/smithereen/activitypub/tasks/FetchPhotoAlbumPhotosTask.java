@@ -3,12 +3,9 @@ package smithereen.activitypub.tasks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Future;
 
 import smithereen.ApplicationContext;
 import smithereen.activitypub.ActivityPubWorker;
@@ -24,40 +21,32 @@ import smithereen.storage.utils.Pair;
 public class FetchPhotoAlbumPhotosTask extends ForwardPaginatingCollectionTask{
 	private static final Logger LOG=LoggerFactory.getLogger(FetchPhotoAlbumPhotosTask.class);
 	private final ActivityPubWorker apw;
-	private final HashMap<URI, Future<Void>> fetchingPhotoAlbums;
 	private final PhotoAlbum nativeAlbum;
 	private final ActivityPubPhotoAlbum album;
 	private final Set<Long> seenPhotos=new HashSet<>();
 
-	public FetchPhotoAlbumPhotosTask(ApplicationContext context, ActivityPubPhotoAlbum collection, PhotoAlbum nativeAlbum, ActivityPubWorker apw, HashMap<URI, Future<Void>> fetchingPhotoAlbums){
+	public FetchPhotoAlbumPhotosTask(ApplicationContext context, ActivityPubPhotoAlbum collection, PhotoAlbum nativeAlbum, ActivityPubWorker apw){
 		super(context, collection);
 		album=collection;
 		this.apw=apw;
-		this.fetchingPhotoAlbums=fetchingPhotoAlbums;
 		this.nativeAlbum=nativeAlbum;
 		maxItems=PhotosController.MAX_PHOTOS_PER_ALBUM;
 	}
 
 	@Override
 	protected void compute(){
-		try{
-			super.compute();
-			if(album.preview!=null && album.preview.link!=null){
-				long newCoverID=context.getPhotosController().getPhotoIdByActivityPubId(album.preview.link);
-				if(newCoverID!=0 && newCoverID!=nativeAlbum.coverID){
-					nativeAlbum.coverID=newCoverID;
-					context.getObjectLinkResolver().storeOrUpdateRemoteObject(nativeAlbum, album);
-				}
-			}
-			PhotoAlbum finalAlbum=context.getPhotosController().getAlbumIgnoringPrivacy(nativeAlbum.id);
-			if(finalAlbum.numPhotos>seenPhotos.size()){
-				context.getPhotosController().deleteRemotePhotosNotInSet(finalAlbum, seenPhotos);
-			}
-		}finally{
-			synchronized(apw){
-				fetchingPhotoAlbums.remove(collectionID);
+		super.compute();
+		if(album.preview!=null && album.preview.link!=null){
+			long newCoverID=context.getPhotosController().getPhotoIdByActivityPubId(album.preview.link);
+			if(newCoverID!=0 && newCoverID!=nativeAlbum.coverID){
+				nativeAlbum.coverID=newCoverID;
+				context.getObjectLinkResolver().storeOrUpdateRemoteObject(nativeAlbum, album);
 			}
 		}
+		PhotoAlbum finalAlbum=context.getPhotosController().getAlbumIgnoringPrivacy(nativeAlbum.id);
+		if(finalAlbum.numPhotos>seenPhotos.size()){
+			context.getPhotosController().deleteRemotePhotosNotInSet(finalAlbum, seenPhotos);
+		}
 	}
 
 	@Override
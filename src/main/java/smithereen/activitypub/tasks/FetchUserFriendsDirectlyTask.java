@@ -28,4 +28,9 @@ public class FetchUserFriendsDirectlyTask extends ForwardPaginatingCollectionTas
 				.map(lo->new FetchAndStoreOneUserFolloweeTask(context, user, lo.link, ForeignUser.class))
 				.toList());
 	}
+
+	@Override
+	protected boolean isResumable(){
+		return true;
+	}
 }
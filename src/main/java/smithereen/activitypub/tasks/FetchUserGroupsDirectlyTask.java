@@ -29,4 +29,9 @@ public class FetchUserGroupsDirectlyTask extends ForwardPaginatingCollectionTask
 				.map(lo->new FetchAndStoreOneUserFolloweeTask(context, user, lo.link, ForeignGroup.class))
 				.toList());
 	}
+
+	@Override
+	protected boolean isResumable(){
+		return true;
+	}
 }
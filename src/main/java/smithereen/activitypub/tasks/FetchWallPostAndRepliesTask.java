@@ -1,9 +1,7 @@
 package smithereen.activitypub.tasks;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Set;
-import java.util.concurrent.Future;
 
 import smithereen.ApplicationContext;
 import smithereen.activitypub.ActivityPubWorker;
@@ -15,8 +13,8 @@ public class FetchWallPostAndRepliesTask extends FetchAllWallRepliesTask{
 	private final URI postID;
 	private final Post parentPost;
 
-	public FetchWallPostAndRepliesTask(ActivityPubWorker apw, ApplicationContext context, HashMap<URI, Future<Post>> fetchingAllReplies, URI postID, Post parentPost, Set<URI> seenPosts){
-		super(apw, context, fetchingAllReplies, null, seenPosts);
+	public FetchWallPostAndRepliesTask(ActivityPubWorker apw, ApplicationContext context, URI postID, Post parentPost, Set<URI> seenPosts){
+		super(apw, context, null, seenPosts);
 		this.postID=postID;
 		this.parentPost=parentPost;
 	}
@@ -4,20 +4,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.sql.SQLException;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import smithereen.ApplicationContext;
 import smithereen.activitypub.objects.ActivityPubCollection;
 import smithereen.activitypub.objects.CollectionPage;
 import smithereen.exceptions.FederationException;
+import smithereen.storage.FederationStorage;
 import smithereen.util.NoResultCallable;
 
 /**
  * Base class for tasks that deal with collections. Handles paginating through a collection.
+ * The next page is fetched while the current one is being processed.
  */
 public abstract class ForwardPaginatingCollectionTask extends NoResultCallable{
 	protected static final Logger LOG=LoggerFactory.getLogger(ForwardPaginatingCollectionTask.class);
+	private static final ExecutorService pagePrefetchExecutor=Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("CollectionPagePrefetch-", 0).factory());
+	private static final ConcurrentHashMap<String, CompletableFuture<Void>> runningCrawls=new ConcurrentHashMap<>();
 
 	protected final URI collectionID;
 	protected final ApplicationContext context;
@@ -38,9 +49,34 @@ public abstract class ForwardPaginatingCollectionTask extends NoResultCallable{
 
 	@Override
 	protected void compute(){
+		if(!isResumable()){
+			crawl();
+			return;
+		}
+		String crawlKey=getClass().getSimpleName()+" "+collectionID;
+		CompletableFuture<Void> crawlFuture=new CompletableFuture<>();
+		CompletableFuture<Void> runningCrawl=runningCrawls.putIfAbsent(crawlKey, crawlFuture);
+		if(runningCrawl!=null){
+			LOG.trace("Collection {} is already being fetched by another {}, waiting for it to finish", collectionID, getClass().getSimpleName());
+			try{
+				runningCrawl.get();
+			}catch(InterruptedException x){
+				throw new RuntimeException(x);
+			}catch(ExecutionException ignore){}
+			return;
+		}
+		try{
+			crawl();
+		}finally{
+			runningCrawls.remove(crawlKey, crawlFuture);
+			crawlFuture.complete(null);
+		}
+	}
+
+	private void crawl(){
 		if(collection==null){
 			LOG.trace("Fetching collection {}", collectionID);
-			collection=context.getObjectLinkResolver().resolve(collectionID, ActivityPubCollection.class, true, false, false);
+			collection=CollectionCrawlBudget.fetchPage(()->context.getObjectLinkResolver().resolve(collectionID, ActivityPubCollection.class, true, false, false));
 		}
 		totalItems=Math.min(collection.totalItems, maxItems);
 		onCollectionLoaded();
@@ -54,34 +90,89 @@ public abstract class ForwardPaginatingCollectionTask extends NoResultCallable{
 		}else{
 			if(collection.first==null)
 				throw new FederationException("neither collection.first nor collection.items are not present");
-			if(collection.first.object!=null)
-				processCollectionPage(collection.first.requireObject());
-			else
-				loadNextCollectionPage(collection.first.link);
+			FederationStorage.CollectionCrawlState savedState=isResumable() ? getSavedCrawlState() : null;
+			CollectionPage page;
+			if(savedState!=null){
+				LOG.debug("Resuming fetching collection {} from page {} after {} items", collectionID, savedState.nextPage(), savedState.processedItems());
+				processedItems=savedState.processedItems();
+				page=loadCollectionPage(savedState.nextPage());
+			}else if(collection.first.object!=null){
+				page=collection.first.requireObject();
+			}else{
+				page=loadCollectionPage(collection.first.link);
+			}
+			processCollectionPages(page);
 		}
 	}
 
-	private void loadNextCollectionPage(URI id){
+	private CollectionPage loadCollectionPage(URI id){
 		LOG.trace("Fetching page {} for collection {}", id, collectionID);
-		CollectionPage page=context.getObjectLinkResolver().resolve(id, CollectionPage.class, true, false, false);
-		processCollectionPage(page);
+		return CollectionCrawlBudget.fetchPage(()->context.getObjectLinkResolver().resolve(id, CollectionPage.class, true, false, false));
 	}
 
-	private void processCollectionPage(CollectionPage page){
-		if(page.items==null || page.items.isEmpty()){
-			LOG.trace("Finished processing collection {} because items array was null or empty", collectionID);
-			return;
+	private void processCollectionPages(CollectionPage page){
+		while(true){
+			if(page.items==null || page.items.isEmpty()){
+				LOG.trace("Finished processing collection {} because items array was null or empty", collectionID);
+				break;
+			}
+			Future<CollectionPage> nextPage=null;
+			if(page.next==null){
+				LOG.trace("Finished processing collection {} because there are no next pages", collectionID);
+			}else if(totalItems>=0 && processedItems+page.items.size()>=totalItems){
+				LOG.trace("Finished processing collection {} because item count limit {} was reached", collectionID, totalItems);
+			}else{
+				URI nextPageID=page.next;
+				nextPage=pagePrefetchExecutor.submit(()->loadCollectionPage(nextPageID));
+			}
+			try{
+				doOneCollectionPage(page);
+			}catch(RuntimeException x){
+				if(nextPage!=null)
+					nextPage.cancel(true);
+				throw x;
+			}
+			processedItems+=page.items.size();
+			if(nextPage==null)
+				break;
+			if(isResumable())
+				saveCrawlState(page.next);
+			try{
+				page=nextPage.get();
+			}catch(InterruptedException x){
+				throw new RuntimeException(x);
+			}catch(ExecutionException x){
+				if(x.getCause() instanceof RuntimeException rx)
+					throw rx;
+				throw new RuntimeException(x.getCause());
+			}
 		}
-		doOneCollectionPage(page);
-		processedItems+=page.items.size();
-		if(totalItems>=0 && processedItems>=totalItems){
-			LOG.trace("Finished processing collection {} because item count limit {} was reached", collectionID, totalItems);
-			return;
+		if(isResumable())
+			deleteCrawlState();
+	}
+
+	private FederationStorage.CollectionCrawlState getSavedCrawlState(){
+		try{
+			return FederationStorage.getCollectionCrawlState(collectionID, getClass().getSimpleName());
+		}catch(SQLException x){
+			LOG.warn("Failed to load saved state for collection {}", collectionID, x);
+			return null;
 		}
-		if(page.next!=null){
-			loadNextCollectionPage(page.next);
-		}else{
-			LOG.trace("Finished processing collection {} because there are no next pages", collectionID);
+	}
+
+	private void saveCrawlState(URI nextPage){
+		try{
+			FederationStorage.saveCollectionCrawlState(collectionID, getClass().getSimpleName(), nextPage, (int)processedItems);
+		}catch(SQLException x){
+			LOG.warn("Failed to save state for collection {}", collectionID, x);
+		}
+	}
+
+	private void deleteCrawlState(){
+		try{
+			FederationStorage.deleteCollectionCrawlState(collectionID, getClass().getSimpleName());
+		}catch(SQLException x){
+			LOG.warn("Failed to delete saved state for collection {}", collectionID, x);
 		}
 	}
 
@@ -89,4 +180,13 @@ public abstract class ForwardPaginatingCollectionTask extends NoResultCallable{
 
 	protected void onCollectionLoaded(){
 	}
+
+	/**
+	 * Return true if this task only stores the items it encounters and doesn't need to see the entire collection in
+	 * one go. Such tasks save their progress after every page and continue from where they left off if they fail and
+	 * are started again later, and only one of them at a time runs for any given collection.
+	 */
+	protected boolean isResumable(){
+		return false;
+	}
 }
@@ -3,10 +3,7 @@ package smithereen.activitypub.tasks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
-import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Future;
 
 import smithereen.ApplicationContext;
 import smithereen.activitypub.ActivityPubWorker;
@@ -22,18 +19,16 @@ public class ProcessWallPostTask extends NoResultCallable{
 	protected final ApplicationContext context;
 	protected NoteOrQuestion post;
 	protected final Actor owner;
-	private final HashMap<URI, Future<Post>> fetchingAllReplies;
 
-	public ProcessWallPostTask(ActivityPubWorker apw, ApplicationContext context, HashMap<URI, Future<Post>> fetchingAllReplies, NoteOrQuestion post, Actor owner){
+	public ProcessWallPostTask(ActivityPubWorker apw, ApplicationContext context, NoteOrQuestion post, Actor owner){
 		this.post=post;
 		this.owner=owner;
 		this.apw=apw;
 		this.context=context;
-		this.fetchingAllReplies=fetchingAllReplies;
 	}
 
-	public ProcessWallPostTask(ActivityPubWorker apw, ApplicationContext context, HashMap<URI, Future<Post>> fetchingAllReplies, Actor owner){
-		this(apw, context, fetchingAllReplies, null, owner);
+	public ProcessWallPostTask(ActivityPubWorker apw, ApplicationContext context, Actor owner){
+		this(apw, context, null, owner);
 	}
 
 	@Override
@@ -48,7 +43,7 @@ public class ProcessWallPostTask extends NoResultCallable{
 			}
 			context.getWallController().loadAndPreprocessRemotePostMentions(nativePost, post);
 			context.getObjectLinkResolver().storeOrUpdateRemoteObject(nativePost, post);
-			apw.submitTask(new FetchAllWallRepliesTask(apw, context, fetchingAllReplies, nativePost)).get();
+			apw.fetchAllReplies(nativePost).get();
 		}catch(Exception x){
 			LOG.debug("Error processing post {}", post.activityPubID, x);
 		}
@@ -0,0 +1,190 @@
+package smithereen.controllers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import smithereen.ApplicationContext;
+import smithereen.activitypub.objects.Actor;
+import smithereen.activitypub.objects.ForeignActor;
+import smithereen.exceptions.ObjectNotFoundException;
+import smithereen.storage.FederationStorage;
+import smithereen.util.MaintenanceScheduler;
+
+/**
+ * Refreshes remote user and group profiles that haven't been updated in a while, in the background and in batches,
+ * so that nothing that's handling a request has to wait for a remote server.
+ */
+public class ActorRefreshWorker{
+	private static final Logger LOG=LoggerFactory.getLogger(ActorRefreshWorker.class);
+	private static final int BATCH_SIZE=100;
+	private static final int MAX_PER_DOMAIN_PER_BATCH=5;
+	private static final int MAX_ATTEMPTS=5;
+	private static final Duration RETRY_BASE_DELAY=Duration.ofMinutes(15);
+	private static final Duration QUEUED_ACTOR_TTL=Duration.ofMinutes(15);
+
+	private final ApplicationContext context;
+	private final ExecutorService executor=Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ActorRefreshWorker-", 0).factory());
+	/**
+	 * Actors that this node has recently put into the queue, so that every incoming activity from a stale actor doesn't result in a database write.
+	 * The refresh itself may happen on another node, which can't remove the entry here, so entries expire after {@link #QUEUED_ACTOR_TTL}.
+	 */
+	private final ConcurrentHashMap<Integer, QueuedActor> queuedActors=new ConcurrentHashMap<>();
+
+	public ActorRefreshWorker(ApplicationContext context){
+		this.context=context;
+		MaintenanceScheduler.runPeriodically("refreshDueActors", MaintenanceScheduler.Lane.FREQUENT, MaintenanceScheduler.Scope.ONE_NODE, this::refreshDueActors, 1, TimeUnit.MINUTES);
+		MaintenanceScheduler.runPeriodically("pruneQueuedActors", MaintenanceScheduler.Lane.HOUSEKEEPING, MaintenanceScheduler.Scope.EVERY_NODE, ()->queuedActors.values().removeIf(QueuedActor::isExpired), 10, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Queues a refresh for an actor that has received an activity, with a higher priority if any local users follow it.
+	 */
+	public void scheduleRefreshIfNeeded(Actor actor){
+		if(!(actor instanceof ForeignActor fa) || !fa.needUpdate())
+			return;
+		// The entry is put before the task is submitted so that a burst of activities from the same actor only queues it once
+		QueuedActor entry=reserve(actor.getOwnerID(), Priority.DEFAULT);
+		if(entry!=null)
+			submitEnqueue(actor, entry, true);
+	}
+
+	/**
+	 * Queues a refresh for an actor whose profile a local user is looking at.
+	 */
+	public void scheduleRefreshIfNeeded(Actor actor, Priority priority){
+		if(!(actor instanceof ForeignActor fa) || !fa.needUpdate())
+			return;
+		QueuedActor entry=reserve(actor.getOwnerID(), priority);
+		if(entry!=null)
+			submitEnqueue(actor, entry, false);
+	}
+
+	/**
+	 * Atomically puts the actor into queuedActors unless it's already there, unexpired, with the same or a higher priority.
+	 * @return the new entry if the actor needs to be written to the queue, null otherwise
+	 */
+	private QueuedActor reserve(int actorID, Priority priority){
+		QueuedActor newEntry=new QueuedActor(priority, Instant.now());
+		QueuedActor entry=queuedActors.compute(actorID, (id, existing)->existing!=null && !existing.isExpired() && existing.priority.ordinal()>=priority.ordinal() ? existing : newEntry);
+		return entry==newEntry ? newEntry : null;
+	}
+
+	/**
+	 * Writes the refresh to the queue in the background. The caller has already put the actor into queuedActors,
+	 * and it's taken back out if this fails, so that a later activity can try again.
+	 * @param pickPriority whether to raise the priority if any local users follow the actor
+	 */
+	private void submitEnqueue(Actor actor, QueuedActor entry, boolean pickPriority){
+		int actorID=actor.getOwnerID();
+		try{
+			executor.submit(()->{
+				QueuedActor actualEntry=entry;
+				try{
+					if(pickPriority && FederationStorage.isActorFollowedLocally(actorID)){
+						actualEntry=new QueuedActor(Priority.FOLLOWED, entry.queuedAt);
+						queuedActors.replace(actorID, entry, actualEntry);
+					}
+					LOG.trace("Queueing a refresh for {} with priority {}", actor.activityPubID, actualEntry.priority);
+					FederationStorage.enqueueActorRefresh(actorID, actor.domain, actualEntry.priority.ordinal());
+				}catch(SQLException x){
+					LOG.warn("Failed to queue a refresh for {}", actor.activityPubID, x);
+					queuedActors.remove(actorID, actualEntry);
+				}
+			});
+		}catch(RejectedExecutionException x){
+			queuedActors.remove(actorID, entry);
+		}
+	}
+
+	private void refreshDueActors(){
+		try{
+			List<QueuedRefresh> batch=FederationStorage.getDueActorRefreshes(MAX_PER_DOMAIN_PER_BATCH, BATCH_SIZE);
+			if(batch.isEmpty())
+				return;
+			LOG.debug("Refreshing {} remote actors", batch.size());
+			ArrayList<Future<?>> futures=new ArrayList<>();
+			for(QueuedRefresh refresh:batch){
+				futures.add(executor.submit(()->doRefresh(refresh)));
+			}
+			for(Future<?> f:futures){
+				try{
+					f.get();
+				}catch(ExecutionException x){
+					LOG.warn("Failed to refresh remote actor", x.getCause());
+				}
+			}
+		}catch(Throwable x){
+			LOG.error("Failed to refresh remote actors", x);
+		}
+	}
+
+	private void doRefresh(QueuedRefresh refresh){
+		try{
+			Actor actor;
+			try{
+				actor=refresh.actorID()>0 ? context.getUsersController().getUserOrThrow(refresh.actorID()) : context.getGroupsController().getGroupOrThrow(-refresh.actorID());
+			}catch(ObjectNotFoundException x){
+				LOG.trace("Actor {} was deleted before it could be refreshed", refresh.actorID());
+				FederationStorage.deleteActorRefresh(refresh.actorID());
+				queuedActors.remove(refresh.actorID());
+				return;
+			}
+			// It could've been updated some other way since it was queued, e.g. by an Update{Person} activity
+			if(actor instanceof ForeignActor fa && fa.needUpdate()){
+				try{
+					context.getObjectLinkResolver().resolve(actor.activityPubID, Actor.class, true, true, true);
+				}catch(ObjectNotFoundException x){
+					int attempts=refresh.attempts()+1;
+					if(attempts<MAX_ATTEMPTS){
+						LOG.debug("Failed to refresh {}, will retry (attempt {})", actor.activityPubID, attempts, x);
+						FederationStorage.postponeActorRefresh(refresh.actorID(), attempts, Instant.now().plus(RETRY_BASE_DELAY.multipliedBy(1L << refresh.attempts())));
+						return;
+					}
+					LOG.debug("Giving up on refreshing {} after {} attempts", actor.activityPubID, attempts, x);
+				}
+			}
+			FederationStorage.deleteActorRefresh(refresh.actorID());
+			queuedActors.remove(refresh.actorID());
+		}catch(SQLException x){
+			LOG.warn("Failed to refresh actor {}", refresh.actorID(), x);
+		}
+	}
+
+	/**
+	 * In the order of increasing importance
+	 */
+	public enum Priority{
+		DEFAULT,
+		FOLLOWED,
+		VIEWED
+	}
+
+	private record QueuedActor(Priority priority, Instant queuedAt){
+		private boolean isExpired(){
+			return queuedAt.plus(QUEUED_ACTOR_TTL).isBefore(Instant.now());
+		}
+	}
+
+	/**
+	 * @param actorID a user ID, or a negative group ID
+	 */
+	public record QueuedRefresh(int actorID, String domain, int attempts){
+		public static QueuedRefresh fromResultSet(ResultSet res) throws SQLException{
+			return new QueuedRefresh(res.getInt("actor_id"), res.getString("domain"), res.getInt("attempts"));
+		}
+	}
+}
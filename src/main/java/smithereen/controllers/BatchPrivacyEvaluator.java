@@ -0,0 +1,148 @@
+package smithereen.controllers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import smithereen.exceptions.InternalServerErrorException;
+import smithereen.model.ForeignUser;
+import smithereen.model.Post;
+import smithereen.model.PrivacySetting;
+import smithereen.model.User;
+import smithereen.model.friends.FriendshipStatus;
+import smithereen.storage.UserStorage;
+
+/**
+ * Evaluates privacy rules for one viewer against many users' content, e.g. a page of posts or comments.
+ * Relationships between the viewer and the users (friendship and follow states, blocks, mutual friends) are loaded
+ * for all the users at once, the first time any of them is needed, with one query per kind of relationship.
+ * Users that weren't passed in upfront still work, they just cost an extra query each.
+ * <p>
+ * Instances are cheap and not thread-safe, create one per request via {@link PrivacyController#getBatchEvaluator(User, Collection)}.
+ */
+public class BatchPrivacyEvaluator{
+	private final User self;
+	private final Set<Integer> userIDs;
+	private Map<Integer, FriendshipStatus> friendshipStatuses;
+	private Set<Integer> friendshipStatusesLoadedFor;
+	private Set<Integer> blockingUsers;
+	private Set<Integer> blocksLoadedFor;
+	private Set<Integer> usersWithMutualFriends;
+	private Set<Integer> mutualFriendsLoadedFor;
+
+	BatchPrivacyEvaluator(@Nullable User self, Collection<Integer> userIDs){
+		this.self=self;
+		this.userIDs=new HashSet<>(userIDs);
+	}
+
+	public boolean checkUserPrivacy(@NotNull User owner, @NotNull PrivacySetting setting){
+		// Logged-out users are only allowed for "everyone"
+		if(self==null)
+			return setting.baseRule==PrivacySetting.Rule.EVERYONE;
+		// You can always do everything with objects you own
+		if(self.id==owner.id)
+			return true;
+		// Denied users are always denied regardless of the base rule
+		if(setting.exceptUsers.contains(self.id) || setting.exceptListUsers.contains(self.id))
+			return false;
+
+		if(setting.baseRule!=PrivacySetting.Rule.EVERYONE && isBlockedBy(owner.id))
+			return false;
+
+		// Allowed users are always allowed
+		if(setting.allowUsers.contains(self.id) || setting.allowListUsers.contains(self.id))
+			return true;
+
+		return switch(setting.baseRule){
+			case EVERYONE -> true;
+			case NONE -> false;
+			case FRIENDS -> getFriendshipStatus(owner.id)==FriendshipStatus.FRIENDS;
+			case FOLLOWERS -> {
+				FriendshipStatus status=getFriendshipStatus(owner.id);
+				yield status==FriendshipStatus.FOLLOWING || status==FriendshipStatus.FRIENDS;
+			}
+			case FOLLOWING -> {
+				FriendshipStatus status=getFriendshipStatus(owner.id);
+				yield status==FriendshipStatus.FOLLOWED_BY || status==FriendshipStatus.FRIENDS;
+			}
+			case FRIENDS_OF_FRIENDS -> hasMutualFriends(owner.id);
+		};
+	}
+
+	public boolean checkPostPrivacy(@NotNull Post post){
+		if(post.privacy==Post.Privacy.PUBLIC)
+			return true;
+		if(self==null)
+			return false;
+		if(post.privacy==Post.Privacy.FOLLOWERS_AND_MENTIONED && post.mentionedUserIDs.contains(self.id))
+			return true;
+		FriendshipStatus status=getFriendshipStatus(post.authorID);
+		return switch(post.privacy){
+			case FOLLOWERS_ONLY, FOLLOWERS_AND_MENTIONED -> status==FriendshipStatus.FOLLOWING || status==FriendshipStatus.FRIENDS;
+			case FRIENDS_ONLY -> status==FriendshipStatus.FRIENDS;
+			case PUBLIC -> throw new IllegalStateException(); // unreachable
+		};
+	}
+
+	private FriendshipStatus getFriendshipStatus(int userID){
+		try{
+			if(friendshipStatuses==null){
+				friendshipStatuses=new HashMap<>(UserStorage.getSimpleFriendshipStatuses(self.id, userIDs));
+				friendshipStatusesLoadedFor=new HashSet<>(userIDs);
+			}
+			if(friendshipStatusesLoadedFor.add(userID))
+				friendshipStatuses.putAll(UserStorage.getSimpleFriendshipStatuses(self.id, Set.of(userID)));
+			return friendshipStatuses.getOrDefault(userID, FriendshipStatus.NONE);
+		}catch(SQLException x){
+			throw new InternalServerErrorException(x);
+		}
+	}
+
+	private boolean isBlockedBy(int userID){
+		try{
+			if(blockingUsers==null){
+				blockingUsers=new HashSet<>(loadBlockingUsers(userIDs));
+				blocksLoadedFor=new HashSet<>(userIDs);
+			}
+			if(blocksLoadedFor.add(userID))
+				blockingUsers.addAll(loadBlockingUsers(Set.of(userID)));
+			return blockingUsers.contains(userID);
+		}catch(SQLException x){
+			throw new InternalServerErrorException(x);
+		}
+	}
+
+	private Set<Integer> loadBlockingUsers(Collection<Integer> ids) throws SQLException{
+		Set<Integer> result=UserStorage.getUsersBlockingUser(self.id, ids);
+		if(self instanceof ForeignUser){
+			Set<Integer> blockingDomain=UserStorage.getUsersBlockingDomain(self.domain, ids);
+			if(!blockingDomain.isEmpty()){
+				result=new HashSet<>(result);
+				result.addAll(blockingDomain);
+			}
+		}
+		return result;
+	}
+
+	private boolean hasMutualFriends(int userID){
+		try{
+			if(usersWithMutualFriends==null){
+				HashSet<Integer> ids=new HashSet<>(userIDs);
+				ids.remove(self.id);
+				usersWithMutualFriends=new HashSet<>(UserStorage.getUsersWithMutualFriends(self.id, ids));
+				mutualFriendsLoadedFor=ids;
+			}
+			if(mutualFriendsLoadedFor.add(userID))
+				usersWithMutualFriends.addAll(UserStorage.getUsersWithMutualFriends(self.id, Set.of(userID)));
+			return usersWithMutualFriends.contains(userID);
+		}catch(SQLException x){
+			throw new InternalServerErrorException(x);
+		}
+	}
+}
@@ -51,7 +51,7 @@ public class FriendsController{
 
 	public FriendsController(ApplicationContext ctx){
 		this.ctx=ctx;
-		MaintenanceScheduler.runPeriodically(this::doPendingHintsUpdates, 10, TimeUnit.MINUTES);
+		MaintenanceScheduler.runPeriodically("flushFriendHintsUpdates", MaintenanceScheduler.Lane.FREQUENT, MaintenanceScheduler.Scope.EVERY_NODE, this::doPendingHintsUpdates, 10, TimeUnit.MINUTES);
 	}
 
 	public PaginatedList<FriendRequest> getIncomingFriendRequests(User self, int offset, int count){
@@ -96,7 +96,7 @@ public class GroupsController{
 
 	public GroupsController(ApplicationContext context){
 		this.context=context;
-		MaintenanceScheduler.runPeriodically(this::doPendingHintsUpdates, 10, TimeUnit.MINUTES);
+		MaintenanceScheduler.runPeriodically("flushGroupHintsUpdates", MaintenanceScheduler.Lane.FREQUENT, MaintenanceScheduler.Scope.EVERY_NODE, this::doPendingHintsUpdates, 10, TimeUnit.MINUTES);
 	}
 
 	public Group createGroup(@NotNull User admin, @NotNull String name, @Nullable String description){
@@ -310,7 +310,7 @@ public class GroupsController{
 
 			context.getActivityPubWorker().sendUpdateGroupActivity(group);
 			if(group.isEvent()){
-				BackgroundTaskRunner.getInstance().submit(()->{
+				BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, ()->{
 					try{
 						IntStream memberIDs=GroupStorage.getAllMembersAsStream(group.id);
 						synchronized(eventRemindersCache){
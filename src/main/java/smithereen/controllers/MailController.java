@@ -161,7 +161,7 @@ public class MailController{
 				MailMessage msg=MailStorage.getMessage(self.id, id, false);
 				context.getActivityPubWorker().sendDirectMessage(self, msg);
 			}
-			BackgroundTaskRunner.getInstance().submit(()->{
+			BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.INTERACTIVE, ()->{
 				Set<User> usersToGrant=to.stream()
 						.filter(u->!context.getPrivacyController().checkUserPrivacy(u, self, self.getPrivacySetting(UserPrivacySettingKey.PRIVATE_MESSAGES)))
 						.collect(Collectors.toSet());
@@ -10,12 +10,14 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -37,6 +39,7 @@ import smithereen.model.feed.GroupsNewsfeedTypeFilter;
 import smithereen.model.feed.NewsfeedEntry;
 import smithereen.model.filtering.FilterContext;
 import smithereen.model.filtering.WordFilter;
+import smithereen.model.filtering.WordFilterMatcher;
 import smithereen.model.groups.GroupFeatureState;
 import smithereen.model.photos.Photo;
 import smithereen.model.photos.PhotoAlbum;
@@ -54,7 +57,8 @@ public class NewsfeedController{
 	private final ApplicationContext context;
 	private final LruCache<FriendsFeedCacheKey, CachedFeed> friendsNewsFeedCache=new LruCache<>(100);
 	private final LruCache<GroupsFeedCacheKey, CachedFeed> groupsNewsFeedCache=new LruCache<>(100);
-	private final LruCache<Integer, List<WordFilter>> userWordFilters=new LruCache<>(100);
+	private final ReentrantLock feedCacheLock=new ReentrantLock();
+	private final LruCache<Integer, UserWordFilters> userWordFilters=new LruCache<>(100);
 
 	public NewsfeedController(ApplicationContext context){
 		this.context=context;
@@ -65,7 +69,8 @@ public class NewsfeedController{
 		try{
 			FriendsFeedCacheKey cacheKey=new FriendsFeedCacheKey(self.user.id, EnumSet.copyOf(filter));
 			CachedFeed cache;
-			synchronized(this){
+			feedCacheLock.lock();
+			try{
 				cache=friendsNewsFeedCache.get(cacheKey);
 				if(cache!=null && !cache.timeZone.equals(timeZone))
 					cache=null;
@@ -75,11 +80,13 @@ public class NewsfeedController{
 					cache.timeZone=timeZone;
 					friendsNewsFeedCache.put(cacheKey, cache);
 				}
+			}finally{
+				feedCacheLock.unlock();
 			}
 
 			int startIndex=-1;
-			//noinspection SynchronizationOnLocalVariableOrMethodParameter
-			synchronized(cache){
+			cache.lock.lock();
+			try{
 				if(startFrom>0){
 					int i=0;
 					outer:
@@ -118,7 +125,8 @@ public class NewsfeedController{
 					Set<Integer> needPosts=newPage.stream().filter(e->e.type==NewsfeedEntry.Type.POST).map(e->(int) e.objectID).collect(Collectors.toSet());
 					if(!needPosts.isEmpty()){
 						Map<Integer, Post> posts=context.getWallController().getPosts(needPosts);
-						Set<Integer> inaccessiblePosts=posts.values().stream().filter(p->!context.getPrivacyController().checkPostPrivacy(self.user, p)).map(p->p.id).collect(Collectors.toSet());
+						BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self.user, posts.values().stream().map(p->p.authorID).collect(Collectors.toSet()));
+						Set<Integer> inaccessiblePosts=posts.values().stream().filter(p->!privacy.checkPostPrivacy(p)).map(p->p.id).collect(Collectors.toSet());
 						newPage.removeIf(e->e.type==NewsfeedEntry.Type.POST && inaccessiblePosts.contains((int) e.objectID));
 					}
 
@@ -152,8 +160,9 @@ public class NewsfeedController{
 						Set<Long> needAlbums=photos.values().stream().map(p->p.albumID).collect(Collectors.toSet());
 						Map<Long, PhotoAlbum> albums=context.getPhotosController().getAlbumsIgnoringPrivacy(needAlbums);
 						Map<Integer, User> owners=context.getUsersController().getUsers(albums.values().stream().map(a->a.ownerID).filter(id->id>0).collect(Collectors.toSet()));
+						BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self.user, owners.keySet());
 						Set<Long> inaccessibleAlbums=albums.values().stream()
-								.filter(a->!context.getPrivacyController().checkUserPrivacy(self.user, owners.get(a.ownerID), a.viewPrivacy))
+								.filter(a->!privacy.checkUserPrivacy(owners.get(a.ownerID), a.viewPrivacy))
 								.map(a->a.id)
 								.collect(Collectors.toSet());
 						newPage.removeIf(e->(e.type==NewsfeedEntry.Type.ADD_PHOTO) && (!photos.containsKey(e.objectID) || inaccessibleAlbums.contains(photos.get(e.objectID).albumID)));
@@ -184,6 +193,8 @@ public class NewsfeedController{
 						i++;
 					}
 				}
+			}finally{
+				cache.lock.unlock();
 			}
 
 			if(startIndex!=-1 && startIndex+offset<cache.feed.size()){
@@ -271,7 +282,8 @@ public class NewsfeedController{
 		try{
 			GroupsFeedCacheKey cacheKey=new GroupsFeedCacheKey(self.user.id, EnumSet.copyOf(filter));
 			CachedFeed cache;
-			synchronized(this){
+			feedCacheLock.lock();
+			try{
 				cache=groupsNewsFeedCache.get(cacheKey);
 				if(cache!=null && !cache.timeZone.equals(timeZone))
 					cache=null;
@@ -281,11 +293,13 @@ public class NewsfeedController{
 					cache.timeZone=timeZone;
 					groupsNewsFeedCache.put(cacheKey, cache);
 				}
+			}finally{
+				feedCacheLock.unlock();
 			}
 
 			int startIndex=-1;
-			//noinspection SynchronizationOnLocalVariableOrMethodParameter
-			synchronized(cache){
+			cache.lock.lock();
+			try{
 				if(startFrom>0){
 					int i=0;
 					outer:
@@ -361,6 +375,8 @@ public class NewsfeedController{
 						i++;
 					}
 				}
+			}finally{
+				cache.lock.unlock();
 			}
 
 			if(startIndex!=-1 && startIndex+offset<cache.feed.size()){
@@ -454,8 +470,9 @@ public class NewsfeedController{
 				}
 				Set<Integer> inaccessibleOwners=new HashSet<>();
 				if(!needUsers.isEmpty()){
+					BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self.user, needUsers);
 					for(User u:context.getUsersController().getUsers(needUsers).values()){
-						if(!context.getPrivacyController().checkUserPrivacy(self.user, u, UserPrivacySettingKey.WALL_OTHERS_POSTS))
+						if(!privacy.checkUserPrivacy(u, u.getPrivacySetting(UserPrivacySettingKey.WALL_OTHERS_POSTS)))
 							inaccessibleOwners.add(u.id);
 					}
 				}
@@ -483,6 +500,7 @@ public class NewsfeedController{
 				Map<Long, PhotoAlbum> albums=context.getPhotosController().getAlbumsIgnoringPrivacy(new HashSet<>(albumsIDs.values()));
 				Map<Integer, User> ownerUsers=context.getUsersController().getUsers(albums.values().stream().map(a->a.ownerID).filter(id->id>0).collect(Collectors.toSet()));
 				Map<Integer, Group> ownerGroups=context.getGroupsController().getGroupsByIdAsMap(albums.values().stream().map(a->a.ownerID).filter(id->id<0).map(id->-id).collect(Collectors.toSet()));
+				BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self.user, ownerUsers.keySet());
 				Set<Long> accessibleAlbums=albums.values().stream()
 						.filter(a->{
 							if(a.ownerID<0){
@@ -492,7 +510,7 @@ public class NewsfeedController{
 								if(g.accessType!=Group.AccessType.OPEN)
 									return context.getPrivacyController().canUserAccessGroupContent(self.user, g);
 							}
-							return context.getPrivacyController().checkUserPrivacy(self.user, ownerUsers.get(a.ownerID), a.viewPrivacy);
+							return privacy.checkUserPrivacy(ownerUsers.get(a.ownerID), a.viewPrivacy);
 						})
 						.map(a->a.id)
 						.collect(Collectors.toSet());
@@ -535,15 +553,29 @@ public class NewsfeedController{
 	// region Word filters
 
 	public List<WordFilter> getWordFilters(User self, boolean includeExpired){
-		if(!includeExpired){
-			List<WordFilter> filters=userWordFilters.get(self.id);
-			if(filters!=null)
-				return filters;
+		if(!includeExpired)
+			return getActiveWordFilters(self).filters();
+		try{
+			return NewsfeedStorage.getUserWordFilters(self.id, true);
+		}catch(SQLException x){
+			throw new InternalServerErrorException(x);
 		}
+	}
+
+	private UserWordFilters getActiveWordFilters(User self){
+		UserWordFilters filters=userWordFilters.get(self.id);
+		if(filters!=null)
+			return filters;
 		try{
-			List<WordFilter> filters=NewsfeedStorage.getUserWordFilters(self.id, includeExpired);
-			if(!includeExpired)
-				userWordFilters.put(self.id, filters);
+			List<WordFilter> list=NewsfeedStorage.getUserWordFilters(self.id, false);
+			EnumMap<FilterContext, WordFilterMatcher> matchers=new EnumMap<>(FilterContext.class);
+			for(FilterContext context:FilterContext.values()){
+				List<WordFilter> contextFilters=list.stream().filter(f->f.contexts.contains(context)).toList();
+				if(!contextFilters.isEmpty())
+					matchers.put(context, new WordFilterMatcher(contextFilters));
+			}
+			filters=new UserWordFilters(list, matchers);
+			userWordFilters.put(self.id, filters);
 			return filters;
 		}catch(SQLException x){
 			throw new InternalServerErrorException(x);
@@ -594,41 +626,34 @@ public class NewsfeedController{
 	}
 
 	public void applyFiltersToPosts(User self, FilterContext context, Collection<PostViewModel> posts){
-		List<WordFilter> filters=getWordFilters(self, false);
-		if(filters.isEmpty())
-			return;
-
-		List<WordFilter> filteredFilters=filters.stream().filter(f->f.contexts.contains(context)).toList();
-		if(filteredFilters.isEmpty())
+		WordFilterMatcher matcher=getActiveWordFilters(self).matchers().get(context);
+		if(matcher==null)
 			return;
 
-		postLoop:
 		for(PostViewModel post:posts){
-			if(StringUtils.isNotEmpty(post.post.text)){
-				for(WordFilter filter:filteredFilters){
-					if(filter.regex.matcher(post.post.text).find()){
-						post.matchedFilter=filter;
-						continue postLoop;
-					}
-				}
-			}
-			if(post.repost!=null){
+			WordFilter filter=null;
+			if(StringUtils.isNotEmpty(post.post.text))
+				filter=matcher.findMatchingFilter(post.post.text);
+			if(filter==null && post.repost!=null){
 				PostViewModel repost=post.repost.post();
-				if(StringUtils.isNotEmpty(repost.post.text)){
-					for(WordFilter filter:filteredFilters){
-						if(filter.regex.matcher(repost.post.text).find()){
-							post.matchedFilter=filter;
-							continue postLoop;
-						}
-					}
-				}
+				if(StringUtils.isNotEmpty(repost.post.text))
+					filter=matcher.findMatchingFilter(repost.post.text);
 			}
+			if(filter!=null)
+				post.matchedFilter=filter;
 		}
 	}
 
 	// endregion
 
+	/**
+	 * @param matchers one for each context that has any filters
+	 */
+	private record UserWordFilters(List<WordFilter> filters, EnumMap<FilterContext, WordFilterMatcher> matchers){}
+
 	private static class CachedFeed{
+		// Held while loading more entries from the database, so it can't be a monitor without pinning virtual threads
+		public final ReentrantLock lock=new ReentrantLock();
 		public ZoneId timeZone;
 		public ArrayList<NewsfeedEntry> feed=new ArrayList<>();
 		public int realOffset;
@@ -643,7 +643,7 @@ public class NotificationsController{
 			LOG.warn("Expected actor to be user here but got {} ({}, {}) instead", actor.getClass(), actor.getLocalID(), actor.activityPubID);
 			return;
 		}
-		BackgroundTaskRunner.getInstance().submit(()->{
+		BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.INTERACTIVE, ()->{
 			try{
 				Mailer.getInstance().sendNotification(account, context, type, object, relatedObject, user);
 			}catch(Throwable x){
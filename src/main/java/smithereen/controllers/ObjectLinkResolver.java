@@ -7,7 +7,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.URI;
+import java.net.http.HttpTimeoutException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
@@ -17,8 +19,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,6 +46,7 @@ import smithereen.activitypub.tasks.FetchCollectionTotalTask;
 import smithereen.exceptions.FederationException;
 import smithereen.exceptions.InternalServerErrorException;
 import smithereen.exceptions.ObjectNotFoundException;
+import smithereen.exceptions.UnsuccessfulResponseException;
 import smithereen.exceptions.UnsupportedRemoteObjectTypeException;
 import smithereen.model.ActorStatus;
 import smithereen.model.ForeignGroup;
@@ -65,6 +72,7 @@ import smithereen.storage.PostStorage;
 import smithereen.storage.UserStorage;
 import smithereen.text.TextProcessor;
 import smithereen.util.NamedMutexCollection;
+import smithereen.util.SingleFlight;
 import smithereen.util.UriBuilder;
 import smithereen.util.XTEA;
 
@@ -85,8 +93,50 @@ public class ObjectLinkResolver{
 	private static final Logger LOG=LoggerFactory.getLogger(ObjectLinkResolver.class);
 
 	private final HashMap<URI, ActorToken> actorTokensCache=new HashMap<>();
-	private final NamedMutexCollection actorTokenMutexes=new NamedMutexCollection();
+	private final NamedMutexCollection actorTokenMutexes=new NamedMutexCollection("Actor token mutexes");
 	private final LruCache<URI, ForeignUser> serviceActorCache=new LruCache<>(200);
+	/**
+	 * ETag and Last-Modified of remote objects, to make refetches conditional
+	 */
+	private final LruCache<URI, FetchValidators> fetchValidators=new LruCache<>(10_000);
+	/**
+	 * Same for actors, kept separately because they're refetched periodically and posts and comments would otherwise push them out
+	 */
+	private final LruCache<URI, FetchValidators> actorFetchValidators=new LruCache<>(20_000);
+	/**
+	 * Documents fetched in the last few seconds. An incoming burst of activities often references the same objects.
+	 */
+	private final LruCache<URI, RecentlyFetchedDocument> recentlyFetchedDocuments=new LruCache<>(500);
+	private static final long RECENTLY_FETCHED_TTL=30_000;
+	/**
+	 * Fetches that are currently in progress, for other threads to wait on instead of sending the same request again
+	 */
+	private final SingleFlight<URI, ActivityPub.RemoteObjectFetchResult> inFlightFetches=new SingleFlight<>("Remote object fetches", null);
+	private static final long IN_FLIGHT_FETCH_WAIT_TIMEOUT=60;
+	/**
+	 * URIs that returned an error or timed out, so we don't retry them every time they're mentioned
+	 */
+	private final LruCache<URI, FailedFetch> failedFetches=new LruCache<>(5000);
+	/**
+	 * For 404 and 410, the object is gone
+	 */
+	private static final long FAILED_FETCH_TTL=10*60_000;
+	/**
+	 * For timeouts, connection errors and other status codes, which may well be temporary
+	 */
+	private static final long FAILED_FETCH_RETRY_TTL=60_000;
+	/**
+	 * Hosts that haven't been fetched from in a while get evicted. Hosts with fetches in progress are the most recently
+	 * used ones, so they stay.
+	 */
+	private final LruCache<String, Semaphore> fetchPermitsPerHost=new LruCache<>(1000){
+		@Override
+		protected Semaphore create(String key){
+			return new Semaphore(MAX_CONCURRENT_FETCHES_PER_HOST);
+		}
+	};
+	private static final int MAX_CONCURRENT_FETCHES_PER_HOST=4;
+	private static final long FETCH_PERMIT_WAIT_TIMEOUT=15;
 
 	private final ApplicationContext context;
 
@@ -193,7 +243,32 @@ public class ObjectLinkResolver{
 		if(!Config.isLocal(link)){
 			if(allowFetching){
 				try{
-					ActivityPubObject obj=ActivityPub.fetchRemoteObject(_link, null, actorToken, context, acceptHTML);
+					ActivityPubObject obj;
+					// Responses for bearcaps and actor tokens depend on who's asking, don't cache those
+					boolean cacheable=actorToken==null && link==_link;
+					RecentlyFetchedDocument recent=cacheable && !forceRefetch ? recentlyFetchedDocuments.get(link) : null;
+					if(recent!=null && System.currentTimeMillis()-recent.fetchedAt()<RECENTLY_FETCHED_TTL){
+						LOG.trace("Using recently fetched copy of {}", link);
+						obj=ActivityPubObject.parse(recent.json());
+					}else{
+						FetchValidators validators=forceRefetch && cacheable ? getFetchValidators(link) : null;
+						T existing=null;
+						if(validators!=null){
+							try{
+								existing=resolveLocally(link, expectedType);
+							}catch(ObjectNotFoundException ignore){}
+						}
+						ActivityPub.RemoteObjectFetchResult result=fetchRemoteObject(_link, link, actorToken, acceptHTML, cacheable, existing!=null ? validators : null);
+						if(result.object()==null){
+							LOG.debug("{} was not modified since last fetch", link);
+							// Another thread made a conditional request for this object, so it's already stored
+							if(existing==null)
+								return resolveLocally(link, expectedType);
+							setRemoteObjectUpToDate(existing);
+							return existing;
+						}
+						obj=result.object();
+					}
 					if(obj instanceof NoteOrQuestion noq && !allowStorage && expectedType.isAssignableFrom(NoteOrQuestion.class)){
 						User author=resolve(noq.attributedTo, User.class, allowFetching, true, false);
 						if(author.banStatus==UserBanStatus.SUSPENDED)
@@ -225,6 +300,122 @@ public class ObjectLinkResolver{
 		throw new ObjectNotFoundException("Invalid local URI");
 	}
 
+	/**
+	 * Fetches a remote object, making sure that there's only one request in flight for any given URI, that URIs that
+	 * recently failed to load aren't requested again, and that no single server gets too many concurrent requests.
+	 */
+	private ActivityPub.RemoteObjectFetchResult fetchRemoteObject(URI _link, URI link, JsonObject actorToken, boolean acceptHTML, boolean cacheable, FetchValidators validators) throws IOException{
+		if(!cacheable)
+			return fetchRemoteObjectWithHostLimit(_link, link, actorToken, acceptHTML, null);
+
+		FailedFetch failure=failedFetches.get(link);
+		if(failure!=null){
+			if(failure.expiresAt()>System.currentTimeMillis()){
+				LOG.trace("Not fetching {} because it recently failed to load: {}", link, failure.message());
+				switch(failure.statusCode()){
+					case FailedFetch.TIMEOUT -> throw new HttpTimeoutException(failure.message());
+					case FailedFetch.CONNECTION_FAILED -> throw new ConnectException(failure.message());
+					default -> throw new UnsuccessfulResponseException(failure.message(), failure.statusCode());
+				}
+			}
+			failedFetches.remove(link);
+		}
+
+		// HTML responses depend on acceptHTML, don't share those with other threads
+		if(acceptHTML)
+			return fetchRemoteObjectAndRememberResult(link, acceptHTML, validators);
+
+		// The fetch runs on the thread of the caller that starts it, the others wait for it
+		boolean[] startedHere={false};
+		CompletableFuture<ActivityPub.RemoteObjectFetchResult> future=inFlightFetches.run(link, Runnable::run, ()->{
+			startedHere[0]=true;
+			return fetchRemoteObjectAndRememberResult(link, acceptHTML, validators);
+		});
+		if(!startedHere[0])
+			LOG.trace("Waiting for an already running fetch of {}", link);
+		ActivityPub.RemoteObjectFetchResult result;
+		try{
+			result=future.get(IN_FLIGHT_FETCH_WAIT_TIMEOUT, TimeUnit.SECONDS);
+		}catch(InterruptedException x){
+			throw new RuntimeException(x);
+		}catch(TimeoutException x){
+			throw new HttpTimeoutException("Timed out waiting for another fetch of "+link);
+		}catch(ExecutionException x){
+			switch(x.getCause()){
+				case IOException iox -> throw iox;
+				case RuntimeException rx -> throw rx;
+				default -> throw new RuntimeException(x.getCause());
+			}
+		}
+		if(startedHere[0] || result.object()==null)
+			return result;
+		// Every caller gets its own copy because objects get modified while being converted and stored
+		return new ActivityPub.RemoteObjectFetchResult(ActivityPubObject.parse(result.json()), result.json(), result.etag(), result.lastModified());
+	}
+
+	private ActivityPub.RemoteObjectFetchResult fetchRemoteObjectAndRememberResult(URI link, boolean acceptHTML, FetchValidators validators) throws IOException{
+		ActivityPub.RemoteObjectFetchResult result;
+		try{
+			result=fetchRemoteObjectWithHostLimit(link, link, null, acceptHTML, validators);
+		}catch(UnsuccessfulResponseException x){
+			// Gone for good or at least for a while. Anything else might be a temporary problem on their end.
+			boolean notFound=x.statusCode==404 || x.statusCode==410;
+			failedFetches.put(link, new FailedFetch(x.statusCode, x.getMessage(), System.currentTimeMillis()+(notFound ? FAILED_FETCH_TTL : FAILED_FETCH_RETRY_TTL)));
+			throw x;
+		}catch(HttpTimeoutException x){
+			failedFetches.put(link, new FailedFetch(FailedFetch.TIMEOUT, x.getMessage(), System.currentTimeMillis()+FAILED_FETCH_RETRY_TTL));
+			throw x;
+		}catch(ConnectException x){
+			failedFetches.put(link, new FailedFetch(FailedFetch.CONNECTION_FAILED, x.getMessage(), System.currentTimeMillis()+FAILED_FETCH_RETRY_TTL));
+			throw x;
+		}
+		if(result.object()!=null){
+			LruCache<URI, FetchValidators> validatorsCache=result.object() instanceof Actor ? actorFetchValidators : fetchValidators;
+			if(result.etag()!=null || result.lastModified()!=null)
+				validatorsCache.put(link, new FetchValidators(result.etag(), result.lastModified()));
+			else
+				validatorsCache.remove(link);
+			recentlyFetchedDocuments.put(link, new RecentlyFetchedDocument(result.json(), System.currentTimeMillis()));
+		}
+		return result;
+	}
+
+	private FetchValidators getFetchValidators(URI link){
+		FetchValidators validators=actorFetchValidators.get(link);
+		return validators!=null ? validators : fetchValidators.get(link);
+	}
+
+	private ActivityPub.RemoteObjectFetchResult fetchRemoteObjectWithHostLimit(URI _link, URI link, JsonObject actorToken, boolean acceptHTML, FetchValidators validators) throws IOException{
+		Semaphore permits=fetchPermitsPerHost.get(String.valueOf(link.getAuthority()));
+		try{
+			if(!permits.tryAcquire(FETCH_PERMIT_WAIT_TIMEOUT, TimeUnit.SECONDS))
+				throw new IOException("Too many concurrent requests to "+link.getAuthority());
+		}catch(InterruptedException x){
+			throw new RuntimeException(x);
+		}
+		try{
+			if(validators!=null)
+				return ActivityPub.fetchRemoteObject(_link, null, actorToken, context, acceptHTML, validators.etag(), validators.lastModified());
+			return ActivityPub.fetchRemoteObject(_link, null, actorToken, context, acceptHTML, null, null);
+		}finally{
+			permits.release();
+		}
+	}
+
+	private void setRemoteObjectUpToDate(Object obj){
+		try{
+			if(obj instanceof ForeignUser fu){
+				UserStorage.setForeignUserLastUpdated(fu);
+				fu.lastUpdated=Instant.now();
+			}else if(obj instanceof ForeignGroup fg){
+				GroupStorage.setForeignGroupLastUpdated(fg);
+				fg.lastUpdated=Instant.now();
+			}
+		}catch(SQLException x){
+			throw new InternalServerErrorException(x);
+		}
+	}
+
 	@NotNull
 	public <T extends ActivityPubObject> T resolve(URI _link, Class<T> expectedType, boolean allowFetching, boolean allowStorage, boolean forceRefetch, JsonObject actorToken, boolean bypassCollectionCheck){
 		Class<?> nativeType;
@@ -757,4 +948,16 @@ public class ObjectLinkResolver{
 			return new ObjectTypeAndID(ObjectType.fromID(res.getInt("object_type")), res.getLong("object_id"));
 		}
 	}
+
+	private record FetchValidators(String etag, String lastModified){}
+
+	private record RecentlyFetchedDocument(JsonObject json, long fetchedAt){}
+
+	/**
+	 * @param statusCode the HTTP status code, or one of the constants if there was no response
+	 */
+	private record FailedFetch(int statusCode, String message, long expiresAt){
+		public static final int TIMEOUT=0;
+		public static final int CONNECTION_FAILED=-1;
+	}
 }
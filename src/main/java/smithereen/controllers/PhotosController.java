@@ -127,7 +127,10 @@ public class PhotosController{
 			}
 			return switch(owner){
 				case User user when self!=null && user.id==self.id -> albums;
-				case User user -> albums.stream().filter(a->context.getPrivacyController().checkUserPrivacy(self, user, a.viewPrivacy)).toList();
+				case User user -> {
+					BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self, List.of(user.id));
+					yield albums.stream().filter(a->privacy.checkUserPrivacy(user, a.viewPrivacy)).toList();
+				}
 				default -> albums;
 			};
 		}catch(SQLException x){
@@ -283,10 +286,11 @@ public class PhotosController{
 			return Map.of();
 		Map<Integer, User> users=context.getUsersController().getUsers(albums.values().stream().filter(a->a.ownerID>0).map(a->a.ownerID).collect(Collectors.toSet()));
 		Map<Integer, Group> groups=context.getGroupsController().getGroupsByIdAsMap(albums.values().stream().filter(a->a.ownerID<0).map(a->-a.ownerID).collect(Collectors.toSet()));
+		BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self, users.keySet());
 		return albums.values().stream()
 				.filter(a->{
 					if(a.ownerID>0){
-						return context.getPrivacyController().checkUserPrivacy(self, users.get(a.ownerID), a.viewPrivacy);
+						return privacy.checkUserPrivacy(users.get(a.ownerID), a.viewPrivacy);
 					}else{
 						return context.getPrivacyController().canUserAccessGroupContent(self, groups.get(-a.ownerID));
 					}
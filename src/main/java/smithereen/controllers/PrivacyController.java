@@ -37,7 +37,6 @@ import smithereen.exceptions.UserErrorException;
 import smithereen.model.Account;
 import smithereen.model.ForeignGroup;
 import smithereen.model.ForeignUser;
-import smithereen.model.friends.FriendshipStatus;
 import smithereen.model.Group;
 import smithereen.model.MessagesPrivacyGrant;
 import smithereen.model.OwnedContentObject;
@@ -211,37 +210,16 @@ public class PrivacyController{
 	}
 
 	public boolean checkUserPrivacy(@Nullable User self, @NotNull User owner, @NotNull PrivacySetting setting){
-		// Logged-out users are only allowed for "everyone"
-		if(self==null)
-			return setting.baseRule==PrivacySetting.Rule.EVERYONE;
-		// You can always do everything with objects you own
-		if(self.id==owner.id)
-			return true;
-		// Denied users are always denied regardless of the base rule
-		if(setting.exceptUsers.contains(self.id) || setting.exceptListUsers.contains(self.id))
-			return false;
-
-		if(isUserBlocked(self, owner) && setting.baseRule!=PrivacySetting.Rule.EVERYONE)
-			return false;
-
-		// Allowed users are always allowed
-		if(setting.allowUsers.contains(self.id) || setting.allowListUsers.contains(self.id))
-			return true;
+		return new BatchPrivacyEvaluator(self, List.of(owner.id)).checkUserPrivacy(owner, setting);
+	}
 
-		return switch(setting.baseRule){
-			case EVERYONE -> true;
-			case NONE -> false;
-			case FRIENDS -> context.getFriendsController().getSimpleFriendshipStatus(self, owner)==FriendshipStatus.FRIENDS;
-			case FOLLOWERS -> {
-				FriendshipStatus status=context.getFriendsController().getSimpleFriendshipStatus(self, owner);
-				yield status==FriendshipStatus.FOLLOWING || status==FriendshipStatus.FRIENDS;
-			}
-			case FOLLOWING -> {
-				FriendshipStatus status=context.getFriendsController().getSimpleFriendshipStatus(self, owner);
-				yield status==FriendshipStatus.FOLLOWED_BY || status==FriendshipStatus.FRIENDS;
-			}
-			case FRIENDS_OF_FRIENDS -> context.getFriendsController().getMutualFriendsCount(self, owner)>0;
-		};
+	/**
+	 * Use this instead of calling {@link #checkUserPrivacy(User, User, PrivacySetting)} or {@link #checkPostPrivacy(User, Post)}
+	 * in a loop, so that the relationships between {@code self} and all the users involved are loaded at once.
+	 * @param userIDs the owners and authors of the objects that will be checked
+	 */
+	public BatchPrivacyEvaluator getBatchEvaluator(@Nullable User self, Collection<Integer> userIDs){
+		return new BatchPrivacyEvaluator(self, userIDs);
 	}
 
 	public void enforceUserPrivacy(@Nullable User self, @NotNull User owner, @NotNull UserPrivacySettingKey key){
@@ -399,18 +377,7 @@ public class PrivacyController{
 	}
 
 	public boolean checkPostPrivacy(@Nullable User self, Post post){
-		if(post.privacy==Post.Privacy.PUBLIC)
-			return true;
-		if(self==null)
-			return false;
-		if(post.privacy==Post.Privacy.FOLLOWERS_AND_MENTIONED && post.mentionedUserIDs.contains(self.id))
-			return true;
-		FriendshipStatus status=context.getFriendsController().getSimpleFriendshipStatus(self, context.getUsersController().getUserOrThrow(post.authorID));
-		return switch(post.privacy){
-			case FOLLOWERS_ONLY, FOLLOWERS_AND_MENTIONED -> status==FriendshipStatus.FOLLOWING || status==FriendshipStatus.FRIENDS;
-			case FRIENDS_ONLY -> status==FriendshipStatus.FRIENDS;
-			case PUBLIC -> throw new IllegalStateException(); // unreachable
-		};
+		return new BatchPrivacyEvaluator(self, List.of(post.authorID)).checkPostPrivacy(post);
 	}
 
 	public void enforcePostPrivacy(@Nullable User self, Post post){
@@ -419,12 +386,17 @@ public class PrivacyController{
 	}
 
 	public void filterPosts(@Nullable User self, Collection<Post> posts){
-		// TODO optimize this to avoid querying the same friendship states multiple times
-		posts.removeIf(post->!checkPostPrivacy(self, post));
+		if(posts.isEmpty())
+			return;
+		BatchPrivacyEvaluator evaluator=getBatchEvaluator(self, posts.stream().map(p->p.authorID).collect(Collectors.toSet()));
+		posts.removeIf(post->!evaluator.checkPostPrivacy(post));
 	}
 
 	public void filterPostViewModels(@Nullable User self, Collection<PostViewModel> posts){
-		posts.removeIf(post->!checkPostPrivacy(self, post.post));
+		if(posts.isEmpty())
+			return;
+		BatchPrivacyEvaluator evaluator=getBatchEvaluator(self, posts.stream().map(p->p.post.authorID).collect(Collectors.toSet()));
+		posts.removeIf(post->!evaluator.checkPostPrivacy(post.post));
 	}
 
 	private boolean canAccessBannedProfiles(@Nullable User self){
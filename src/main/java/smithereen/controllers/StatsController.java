@@ -27,7 +27,7 @@ public class StatsController{
 	public void incrementDaily(StatsType type, int objectID){
 		// TODO batch stats events somehow? Flush them to the DB every N minutes in one query?
 		LocalDate now=LocalDate.now(ZoneId.systemDefault());
-		BackgroundTaskRunner.getInstance().submit(()->{
+		BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, ()->{
 			try{
 				StatsStorage.incrementDaily(type, objectID, now);
 			}catch(SQLException x){
@@ -2,31 +2,48 @@ package smithereen.controllers;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -63,36 +80,88 @@ import smithereen.model.notifications.RealtimeNotification;
 import smithereen.model.photos.Photo;
 import smithereen.model.photos.PhotoAlbum;
 import smithereen.storage.CommentStorage;
+import smithereen.storage.LikeStorage;
+import smithereen.storage.MailStorage;
 import smithereen.storage.MediaStorage;
 import smithereen.storage.PhotoStorage;
 import smithereen.storage.PostStorage;
+import smithereen.storage.SessionStorage;
 import smithereen.storage.UserStorage;
 import smithereen.storage.media.MediaFileStorageDriver;
+import smithereen.storage.utils.Pair;
 import smithereen.util.JsonArrayBuilder;
 import smithereen.util.JsonObjectBuilder;
 import smithereen.util.UriBuilder;
 import smithereen.util.XTEA;
 
+/**
+ * Generates user data export archives.
+ * <p>
+ * An export is split into independent sections (wall, messages, likes, etc.) that are generated concurrently on a shared
+ * pool of {@link #MAX_CONCURRENT_SECTIONS} threads. Each export runs at most {@link #MAX_CONCURRENT_SECTIONS_PER_EXPORT}
+ * of its sections at a time, and long sections give up their thread every {@link #PAGES_PER_SLICE} pages, so one large
+ * account doesn't hold up everyone else's exports.
+ * <p>
+ * Sections write their JSON files into a work directory and save their position into the user_data_exports table after
+ * every page. If the server is restarted while an export is being generated, {@link #resumeUnfinishedExports()} picks
+ * it up from where it stopped. Once all sections are done, their files and the media files they reference are streamed
+ * into the zip archive.
+ */
 public class UserDataExportWorker{
 	private static final Logger LOG=LoggerFactory.getLogger(UserDataExportWorker.class);
+	private static final int MAX_CONCURRENT_SECTIONS=4;
+	private static final int MAX_CONCURRENT_SECTIONS_PER_EXPORT=2;
+	private static final int PAGES_PER_SLICE=20;
 
 	private final ApplicationContext context;
-	private ExecutorService executor=new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+	private final ThreadPoolExecutor executor=new ThreadPoolExecutor(MAX_CONCURRENT_SECTIONS, MAX_CONCURRENT_SECTIONS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
 			Thread.ofPlatform().name("UserDataExportWorker-", 0).factory());
 
 	public UserDataExportWorker(ApplicationContext context){
 		this.context=context;
+		executor.allowCoreThreadTimeOut(true);
 	}
 
 	public void startExport(Account account){
 		try{
 			long id=UserStorage.createUserDataExport(account.user.id);
-			executor.submit(()->doExport(account, id));
+			LOG.debug("Starting data export {} for user {}", id, account.user.id);
+			startJob(new ExportJob(account, id, new ExportProgress()));
 		}catch(SQLException x){
 			throw new InternalServerErrorException(x);
 		}
 	}
 
+	/**
+	 * Continues generating the exports that were interrupted by a server restart.
+	 */
+	public void resumeUnfinishedExports(){
+		try{
+			for(UserDataExport export:UserStorage.getUnfinishedUserDataExports()){
+				File workDir=getWorkDir(export.id);
+				Account account=SessionStorage.getAccountByUserID(export.userID);
+				if(account==null || export.requestedAt.isBefore(Instant.now().minus(Config.userExportRetentionDays, ChronoUnit.DAYS))){
+					UserStorage.updateUserDataExport(export.id, 0, UserDataExport.State.FAILED, 0);
+					deleteRecursively(workDir);
+					continue;
+				}
+				ExportProgress progress=null;
+				// The work directory is in the temporary directory, it might not have survived a reboot
+				if(workDir.isDirectory()){
+					String json=UserStorage.getUserDataExportProgress(export.id);
+					if(json!=null)
+						progress=Utils.gson.fromJson(json, ExportProgress.class);
+				}
+				if(progress==null)
+					progress=new ExportProgress();
+				LOG.info("Resuming data export {} for user {}", export.id, export.userID);
+				startJob(new ExportJob(account, export.id, progress));
+			}
+		}catch(Throwable x){
+			LOG.error("Failed to resume unfinished user data exports", x);
+		}
+	}
+
 	public void expireExports(){
 		try{
 			for(UserDataExport export:UserStorage.getUserDataExportsToExpire()){
@@ -104,179 +173,103 @@ public class UserDataExportWorker{
 		}
 	}
 
-	private void doExport(Account account, long id){
-		User user=account.user;
-		LOG.debug("Starting data export {} for user {}", id, user.id);
+	private void startJob(ExportJob job){
+		for(Section section:job.sections){
+			SectionProgress progress=job.progress.sections.get(section.name());
+			if(progress==null || !progress.done)
+				job.pendingSections.add(section);
+		}
+		int lanes=Math.min(MAX_CONCURRENT_SECTIONS_PER_EXPORT, job.pendingSections.size());
+		if(lanes==0){
+			executor.submit(()->finishExport(job));
+			return;
+		}
+		job.runningLanes.set(lanes);
+		for(int i=0;i<lanes;i++){
+			executor.submit(()->runNextSection(job));
+		}
+	}
+
+	/**
+	 * Runs (a slice of) the next pending section of the export and then puts itself at the end of the executor's queue,
+	 * so that sections of different exports take turns.
+	 */
+	private void runNextSection(ExportJob job){
+		Section section=job.pendingSections.pollFirst();
+		if(section==null){
+			if(job.runningLanes.decrementAndGet()==0)
+				finishExport(job);
+			return;
+		}
+		try{
+			if(!runSection(job, section))
+				job.pendingSections.addFirst(section);
+		}catch(Throwable x){
+			LOG.error("Failed to generate section {} of data export {} for user {}", section.name(), job.id, job.account.user.id, x);
+			job.failed=true;
+			job.pendingSections.clear();
+		}
+		executor.submit(()->runNextSection(job));
+	}
+
+	/**
+	 * @return true if the section is complete, false if it has more pages to write
+	 */
+	private boolean runSection(ExportJob job, Section section) throws IOException, SQLException{
+		File dir=new File(job.workDir, section.name());
+		File mediaFile=new File(job.workDir, section.name()+".media");
+		SectionProgress progress=job.progress.sections.get(section.name());
+		if(progress==null || !section.resumable()){
+			// Start over, throwing away anything that an interrupted run left behind
+			deleteRecursively(dir);
+			Files.deleteIfExists(mediaFile.toPath());
+			progress=new SectionProgress();
+			job.progress.sections.put(section.name(), progress);
+		}
+		if(!dir.exists() && !dir.mkdirs())
+			throw new IOException("Failed to create directory "+dir);
+		try(SectionWriter writer=new SectionWriter(job, section.name(), dir, mediaFile, progress)){
+			section.generator().generate(writer);
+			if(writer.sliceExhausted)
+				return false;
+		}
+		job.updateProgress(progress, p->p.done=true);
+		return true;
+	}
+
+	private void finishExport(ExportJob job){
+		User user=job.account.user;
 		try{
+			if(job.failed){
+				UserStorage.updateUserDataExport(job.id, 0, UserDataExport.State.FAILED, 0);
+				deleteRecursively(job.workDir);
+				return;
+			}
 			File archive=File.createTempFile("SmithereenUserExport", ".zip");
-			HashSet<MediaFileID> filesToInclude=new HashSet<>();
 			try(ZipOutputStream zos=new ZipOutputStream(new FileOutputStream(archive), StandardCharsets.UTF_8)){
-
-				// Actor itself
-				writeActivityPubObject(user, filesToInclude, zos, "actor");
-
-				// Friend lists
-				List<FriendList> friendLists=context.getFriendsController().getFriendLists(user);
-				writeJsonElement(friendLists.stream().map(fl->new JsonObjectBuilder().add("id", fl.id()).add("name", fl.name()).build()).collect(JsonArrayBuilder.COLLECTOR),
-						zos, "friendLists");
-
-				// Friends
-				writeLocalObjectRemoteLinkCollections(offset->{
-					PaginatedList<User> users=context.getFriendsController().getFriends(user, offset, 500, FriendsController.SortOrder.HINTS);
-					Map<Integer, BitSet> lists=context.getFriendsController().getFriendListsForUsers(user, user, users.list.stream().map(u->u.id).toList());
-					List<ActivityPubFriendLink> links=users.list.stream().map(u->{
-						ActivityPubFriendLink fl=new ActivityPubFriendLink();
-						fl.href=u.activityPubID;
-						BitSet userLists=lists.get(u.id);
-						fl.lists=userLists==null ? List.of() : userLists.stream().map(i->i+1).boxed().toList();
-						return fl;
-					}).toList();
-					return new PaginatedList<>(users, links);
-				}, filesToInclude, zos, user.getFriendsURL(), "friends", true);
-
-				// Followers
-				writeLinkCollections(offset->context.getFriendsController().getFollowers(user, offset, 500), filesToInclude, zos, user.getFollowersURL(), "followers", false);
-
-				// Following
-				writeLinkCollections(offset->context.getFriendsController().getFollows(user, offset, 500), filesToInclude, zos, user.getFollowersURL(), "follows", false);
-
-				// Groups
-				writeLinkCollections(offset->context.getGroupsController().getUserGroups(user, user, offset, 500), filesToInclude, zos, user.getGroupsURL(), "groups", true);
-
-				// Events
-				writeLinkCollections(offset->context.getGroupsController().getUserEvents(user, GroupsController.EventsType.ALL, offset, 500), filesToInclude, zos, user.getGroupsURL(), "events", false);
-
-				// Bookmarked users
-				writeLinkCollections(offset->{
-					PaginatedList<Integer> ids=context.getBookmarksController().getBookmarkedUsers(user, offset, 500);
-					Map<Integer, User> users=context.getUsersController().getUsers(ids.list);
-					return new PaginatedList<>(ids, ids.list.stream().map(users::get).filter(Objects::nonNull).toList());
-				}, filesToInclude, zos, null, "bookmarkedUsers", false);
-
-				// Bookmarked groups
-				writeLinkCollections(offset->{
-					PaginatedList<Integer> ids=context.getBookmarksController().getBookmarkedGroups(user, offset, 500);
-					return new PaginatedList<>(ids, context.getGroupsController().getGroupsByIdAsList(ids.list));
-				}, filesToInclude, zos, null, "bookmarkedGroups", false);
-
-				// Blocked users
-				writeLinkCollections(offset->{
-					List<User> users=context.getPrivacyController().getBlockedUsers(user);
-					return new PaginatedList<>(users, users.size(), 0, users.size());
-				}, filesToInclude, zos, null, "blockedUsers", false);
-
-				// Blocked domains
-				writeJsonElement(context.getPrivacyController().getBlockedDomains(user).stream().collect(JsonArrayBuilder.COLLECTOR), zos, "blockedDomains");
-
-				// Word filters
-				writeJsonElement(context.getNewsfeedController().getWordFilters(user, true).stream().map(wf->{
-					return new JsonObjectBuilder()
-							.add("id", wf.id)
-							.add("name", wf.name)
-							.add("contexts", wf.contexts.stream().map(c->c.toString().toLowerCase()).collect(JsonArrayBuilder.COLLECTOR))
-							.add("words", wf.words.stream().collect(JsonArrayBuilder.COLLECTOR))
-							.add("expires", wf.expiresAt.getEpochSecond())
-							.build();
-				}).collect(JsonArrayBuilder.COLLECTOR), zos, "wordFilters");
-
-				// Wall
-				writeLocalObjectRemoteLinkCollections(offset->{
-					PaginatedList<Post> posts=context.getWallController().getWallPosts(user, user, false, offset, 100);
-					return new PaginatedList<>(posts, posts.list.stream().map(p->NoteOrQuestion.fromNativePost(p, context)).toList());
-				}, filesToInclude, zos, user.getWallURL(), "wall", false);
-
-				// Wall comments
-				writeLocalObjectRemoteLinkCollections(offset->{
-					try{
-						PaginatedList<Post> posts=PostStorage.getWallComments(user.id, offset, 100);
-						return new PaginatedList<>(posts, posts.list.stream().map(p->{
-							try{
-								return NoteOrQuestion.fromNativePost(p, context);
-							}catch(ObjectNotFoundException x){
-								return null;
-							}
-						}).filter(Objects::nonNull).toList());
-					}catch(SQLException x){
-						throw new InternalServerErrorException(x);
+				LinkedHashSet<String> filesToInclude=new LinkedHashSet<>();
+				for(Section section:job.sections){
+					File[] files=new File(job.workDir, section.name()).listFiles();
+					if(files!=null){
+						Arrays.sort(files);
+						for(File file:files){
+							zos.putNextEntry(new ZipEntry(file.getName()));
+							Files.copy(file.toPath(), zos);
+							zos.closeEntry();
+						}
 					}
-				}, filesToInclude, zos, user.getWallCommentsURL(), "wallComments", false);
-
-				// Private messages
-				writeCollections(offset->{
-					PaginatedList<MailMessage> msgs=context.getMailController().getInbox(user, offset, 100);
-					return new PaginatedList<>(msgs, msgs.list.stream().map(m->NoteOrQuestion.fromNativeMessage(m, context)).toList());
-				}, LinkOrObject::new, filesToInclude, zos, null, "messagesInbox", false);
-				writeCollections(offset->{
-					PaginatedList<MailMessage> msgs=context.getMailController().getOutbox(user, offset, 100);
-					return new PaginatedList<>(msgs, msgs.list.stream().map(m->NoteOrQuestion.fromNativeMessage(m, context)).toList());
-				}, LinkOrObject::new, filesToInclude, zos, null, "messagesOutbox", false);
-
-				// Photo albums
-				writeLocalObjectRemoteLinkCollections(offset->{
-					List<PhotoAlbum> albums=context.getPhotosController().getAllAlbumsIgnoringPrivacy(user);
-					for(PhotoAlbum album:albums){
-						writeLocalObjectRemoteLinkCollections(albumOffset->{
-							PaginatedList<Photo> photos=context.getPhotosController().getAlbumPhotos(user, album, albumOffset, 100, false);
-							return new PaginatedList<>(photos, photos.list.stream().map(p->ActivityPubPhoto.fromNativePhoto(p, album, context)).toList());
-						}, filesToInclude, zos, album.getActivityPubID(), "photoAlbum"+album.getIdString()+"_", true);
-						writeLocalObjectRemoteLinkCollections(commentsOffset->{
-							PaginatedList<Comment> comments=context.getCommentsController().getPhotoAlbumComments(album, commentsOffset, 100);
-							return new PaginatedList<>(comments, comments.list.stream().map(p->NoteOrQuestion.fromNativeComment(p, context)).toList());
-						}, filesToInclude, zos, album.activityPubComments==null ? new UriBuilder(album.getActivityPubID()).appendPath("comments").build() : album.activityPubComments,
-								"photoAlbum"+album.getIdString()+"_comments", false);
+					File mediaFile=new File(job.workDir, section.name()+".media");
+					if(mediaFile.exists()){
+						// The same file can be referenced from many places
+						for(String line:Files.readAllLines(mediaFile.toPath())){
+							if(!line.isEmpty())
+								filesToInclude.add(line);
+						}
 					}
-					return new PaginatedList<>(albums.stream().map(pa->ActivityPubPhotoAlbum.fromNativeAlbum(pa, context)).toList(), albums.size(), 0, albums.size());
-				}, filesToInclude, zos, user.getPhotoAlbumsURL(), "photoAlbums", false);
-
-				// Tagged photos
-				writeLocalObjectRemoteLinkCollections(offset->{
-					PaginatedList<Photo> photos=context.getPhotosController().getUserTaggedPhotos(user, user, offset, 100);
-					Set<Long> needAlbums=photos.list.stream().map(p->p.albumID).collect(Collectors.toSet());
-					Map<Long, PhotoAlbum> albums=context.getPhotosController().getAlbumsIgnoringPrivacy(needAlbums);
-					return new PaginatedList<>(photos, photos.list.stream().map(p->ActivityPubPhoto.fromNativePhoto(p, albums.get(p.albumID), context)).toList());
-				}, filesToInclude, zos, user.getTaggedPhotosURL(), "taggedPhotos", false);
-
-				// Likes
-				writeLinkCollections(offset->{
-					PaginatedList<LikedObjectID> ids=context.getUserInteractionsController().getLikedObjects(user, offset, 500);
-					Set<Integer> needPosts=ids.list.stream().filter(lid->lid.type()==Like.ObjectType.POST).map(lid->(int)lid.id()).collect(Collectors.toSet());
-					Set<Long> needComments=ids.list.stream().filter(lid->lid.type()==Like.ObjectType.COMMENT).map(LikedObjectID::id).collect(Collectors.toSet());
-					Set<Long> needPhotos=ids.list.stream().filter(lid->lid.type()==Like.ObjectType.PHOTO).map(LikedObjectID::id).collect(Collectors.toSet());
-					try{
-						Map<Integer, URI> postIDs;
-						if(needPosts.isEmpty())
-							postIDs=Map.of();
-						else
-							postIDs=PostStorage.getActivityPubIDsByLocalIDs(needPosts);
-
-						Map<Long, URI> commentIDs;
-						if(needComments.isEmpty())
-							commentIDs=Map.of();
-						else
-							commentIDs=CommentStorage.getCommentActivityPubIDsByLocalIDs(needComments);
-
-						Map<Long, URI> photoIDs;
-						if(needPhotos.isEmpty())
-							photoIDs=Map.of();
-						else
-							photoIDs=PhotoStorage.getPhotoActivityPubIDsByLocalIDs(needPhotos);
-
-						List<ActivityPubLink> links=ids.list.stream().map(lid->{
-							ActivityPubLink l=new ActivityPubLink();
-							l.activityPubID=switch(lid.type()){
-								case POST -> postIDs.get((int)lid.id());
-								case COMMENT -> commentIDs.get(lid.id());
-								case PHOTO -> photoIDs.get(lid.id());
-							};
-							return l;
-						}).filter(l->l.activityPubID!=null).toList();
-						return new PaginatedList<>(ids, links);
-					}catch(SQLException x){
-						throw new InternalServerErrorException(x);
-					}
-				}, filesToInclude, zos, null, "likes", false);
+				}
 
-				for(MediaFileID fid:filesToInclude){
+				for(String line:filesToInclude){
+					MediaFileID fid=deserializeMediaFileID(line);
 					String fileName=Base64.getUrlEncoder().withoutPadding().encodeToString(fid.randomID())+"_"+
 							Base64.getUrlEncoder().withoutPadding().encodeToString(Utils.packLong(XTEA.obfuscateObjectID(fid.id(), ObfuscatedObjectIDType.MEDIA_FILE)))+
 							"."+fid.type().getFileExtension();
@@ -285,82 +278,422 @@ public class UserDataExportWorker{
 						Utils.copyBytes(in, zos);
 						zos.closeEntry();
 					}catch(IOException x){
-						LOG.warn("Failed to copy file {} to export {} for user {}", fid, id, user.id, x);
+						LOG.warn("Failed to copy file {} to export {} for user {}", fid, job.id, user.id, x);
 					}
 				}
 			}
 			MediaFileRecord record=MediaStorage.createMediaFileRecord(MediaFileType.USER_EXPORT_ARCHIVE, archive.length(), user.id, new UserDataArchiveMetadata());
-			UserDataExport export=UserStorage.getUserDataExport(id);
-			MediaFileStorageDriver.getInstance().storeFile(archive, record.id(), false, export.getUserFriendlyFileName(account));
-			UserStorage.updateUserDataExport(id, record.id().id(), UserDataExport.State.READY, record.size());
-			MediaStorage.createMediaFileReference(record.id().id(), id, MediaFileReferenceType.USER_EXPORT_ARCHIVE, user.id);
-			export=UserStorage.getUserDataExport(id);
+			UserDataExport export=UserStorage.getUserDataExport(job.id);
+			MediaFileStorageDriver.getInstance().storeFile(archive, record.id(), false, export.getUserFriendlyFileName(job.account));
+			UserStorage.updateUserDataExport(job.id, record.id().id(), UserDataExport.State.READY, record.size());
+			MediaStorage.createMediaFileReference(record.id().id(), job.id, MediaFileReferenceType.USER_EXPORT_ARCHIVE, user.id);
+			deleteRecursively(job.workDir);
+			export=UserStorage.getUserDataExport(job.id);
 			context.getNotificationsController().sendRealtimeNotifications(user, "exportReady"+System.currentTimeMillis(), RealtimeNotification.Type.EXPORT_READY, export, null, null);
-			LOG.debug("Data export {} for user {} finished", id, user.id);
+			LOG.debug("Data export {} for user {} finished", job.id, user.id);
 		}catch(Throwable x){
-			LOG.error("Failed to generate data export {} for user {}", id, user.id, x);
+			LOG.error("Failed to generate data export {} for user {}", job.id, user.id, x);
 			try{
-				UserStorage.updateUserDataExport(id, 0, UserDataExport.State.FAILED, 0);
-			}catch(SQLException xx){
-				LOG.error("Failed to update data export {} status", id, xx);
+				UserStorage.updateUserDataExport(job.id, 0, UserDataExport.State.FAILED, 0);
+				deleteRecursively(job.workDir);
+			}catch(SQLException|IOException xx){
+				LOG.error("Failed to update data export {} status", job.id, xx);
 			}
 		}
 	}
 
-	private void writeJsonElement(JsonElement el, ZipOutputStream zos, String name) throws IOException{
-		zos.putNextEntry(new ZipEntry(name+".json"));
-		zos.write(el.toString().getBytes(StandardCharsets.UTF_8));
-		zos.closeEntry();
+	private List<Section> getSections(User user){
+		ArrayList<Section> sections=new ArrayList<>();
+
+		// Actor itself
+		sections.add(new Section("actor", false, w->w.writeActivityPubObject(user, "actor")));
+
+		// Friend lists
+		sections.add(new Section("friendLists", false, w->{
+			List<FriendList> friendLists=context.getFriendsController().getFriendLists(user);
+			w.writeJsonElement(friendLists.stream().map(fl->new JsonObjectBuilder().add("id", fl.id()).add("name", fl.name()).build()).collect(JsonArrayBuilder.COLLECTOR), "friendLists");
+		}));
+
+		// Friends
+		sections.add(new Section("friends", false, w->w.writeLocalObjectRemoteLinkCollections(offset->{
+			PaginatedList<User> users=context.getFriendsController().getFriends(user, offset, 500, FriendsController.SortOrder.HINTS);
+			Map<Integer, BitSet> lists=context.getFriendsController().getFriendListsForUsers(user, user, users.list.stream().map(u->u.id).toList());
+			List<ActivityPubFriendLink> links=users.list.stream().map(u->{
+				ActivityPubFriendLink fl=new ActivityPubFriendLink();
+				fl.href=u.activityPubID;
+				BitSet userLists=lists.get(u.id);
+				fl.lists=userLists==null ? List.of() : userLists.stream().map(i->i+1).boxed().toList();
+				return fl;
+			}).toList();
+			return new PaginatedList<>(users, links);
+		}, user.getFriendsURL(), "friends", true)));
+
+		// Followers
+		sections.add(new Section("followers", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<Integer> ids=UserStorage.getNonMutualFollowerIDsAfterID(user.id, true, (int)cursor, 501, total);
+			return KeysetPage.of(ids, 500, id->id, page->getUsersInOrder(page));
+		}, obj->new LinkOrObject(obj.activityPubID), user.getFollowersURL(), false)));
+
+		// Following
+		sections.add(new Section("follows", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<Integer> ids=UserStorage.getNonMutualFollowerIDsAfterID(user.id, false, (int)cursor, 501, total);
+			return KeysetPage.of(ids, 500, id->id, page->getUsersInOrder(page));
+		}, obj->new LinkOrObject(obj.activityPubID), user.getFollowersURL(), false)));
+
+		// Groups
+		sections.add(new Section("groups", false, w->w.writeLinkCollections(offset->context.getGroupsController().getUserGroups(user, user, offset, 500), user.getGroupsURL(), "groups", true)));
+
+		// Events
+		sections.add(new Section("events", false, w->w.writeLinkCollections(offset->context.getGroupsController().getUserEvents(user, GroupsController.EventsType.ALL, offset, 500), user.getGroupsURL(), "events", false)));
+
+		// Bookmarked users
+		sections.add(new Section("bookmarkedUsers", false, w->w.writeLinkCollections(offset->{
+			PaginatedList<Integer> ids=context.getBookmarksController().getBookmarkedUsers(user, offset, 500);
+			Map<Integer, User> users=context.getUsersController().getUsers(ids.list);
+			return new PaginatedList<>(ids, ids.list.stream().map(users::get).filter(Objects::nonNull).toList());
+		}, null, "bookmarkedUsers", false)));
+
+		// Bookmarked groups
+		sections.add(new Section("bookmarkedGroups", false, w->w.writeLinkCollections(offset->{
+			PaginatedList<Integer> ids=context.getBookmarksController().getBookmarkedGroups(user, offset, 500);
+			return new PaginatedList<>(ids, context.getGroupsController().getGroupsByIdAsList(ids.list));
+		}, null, "bookmarkedGroups", false)));
+
+		// Blocked users
+		sections.add(new Section("blockedUsers", false, w->w.writeLinkCollections(offset->{
+			List<User> users=context.getPrivacyController().getBlockedUsers(user);
+			return new PaginatedList<>(users, users.size(), 0, users.size());
+		}, null, "blockedUsers", false)));
+
+		// Blocked domains
+		sections.add(new Section("blockedDomains", false, w->w.writeJsonElement(context.getPrivacyController().getBlockedDomains(user).stream().collect(JsonArrayBuilder.COLLECTOR), "blockedDomains")));
+
+		// Word filters
+		sections.add(new Section("wordFilters", false, w->w.writeJsonElement(context.getNewsfeedController().getWordFilters(user, true).stream().map(wf->{
+			return new JsonObjectBuilder()
+					.add("id", wf.id)
+					.add("name", wf.name)
+					.add("contexts", wf.contexts.stream().map(c->c.toString().toLowerCase()).collect(JsonArrayBuilder.COLLECTOR))
+					.add("words", wf.words.stream().collect(JsonArrayBuilder.COLLECTOR))
+					.add("expires", wf.expiresAt.getEpochSecond())
+					.build();
+		}).collect(JsonArrayBuilder.COLLECTOR), "wordFilters")));
+
+		// Wall
+		sections.add(new Section("wall", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<Post> posts=PostStorage.getAllWallPostsBeforeID(user.id, (int)cursor, 101, total);
+			return KeysetPage.of(posts, 100, p->p.id, page->page.stream().map(p->NoteOrQuestion.fromNativePost(p, context)).toList());
+		}, UserDataExportWorker::localObjectOrRemoteLink, user.getWallURL(), false)));
+
+		// Wall comments
+		sections.add(new Section("wallComments", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<Post> posts=PostStorage.getWallCommentsAfterID(user.id, (int)cursor, 101, total);
+			return KeysetPage.of(posts, 100, p->p.id, page->page.stream().map(p->{
+				try{
+					return NoteOrQuestion.fromNativePost(p, context);
+				}catch(ObjectNotFoundException x){
+					return null;
+				}
+			}).filter(Objects::nonNull).toList());
+		}, UserDataExportWorker::localObjectOrRemoteLink, user.getWallCommentsURL(), false)));
+
+		// Private messages
+		sections.add(new Section("messagesInbox", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<MailMessage> msgs=MailStorage.getMessagesBeforeID(user.id, false, cursor, 101, total);
+			return KeysetPage.of(msgs, 100, m->m.id, page->page.stream().map(m->NoteOrQuestion.fromNativeMessage(m, context)).toList());
+		}, LinkOrObject::new, null, false)));
+		sections.add(new Section("messagesOutbox", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<MailMessage> msgs=MailStorage.getMessagesBeforeID(user.id, true, cursor, 101, total);
+			return KeysetPage.of(msgs, 100, m->m.id, page->page.stream().map(m->NoteOrQuestion.fromNativeMessage(m, context)).toList());
+		}, LinkOrObject::new, null, false)));
+
+		// Photo albums
+		sections.add(new Section("photoAlbums", false, w->w.writeLocalObjectRemoteLinkCollections(offset->{
+			List<PhotoAlbum> albums=context.getPhotosController().getAllAlbumsIgnoringPrivacy(user);
+			for(PhotoAlbum album:albums){
+				w.writeLocalObjectRemoteLinkCollections(albumOffset->{
+					PaginatedList<Photo> photos=context.getPhotosController().getAlbumPhotos(user, album, albumOffset, 100, false);
+					return new PaginatedList<>(photos, photos.list.stream().map(p->ActivityPubPhoto.fromNativePhoto(p, album, context)).toList());
+				}, album.getActivityPubID(), "photoAlbum"+album.getIdString()+"_", true);
+				w.writeLocalObjectRemoteLinkCollections(commentsOffset->{
+					PaginatedList<Comment> comments=context.getCommentsController().getPhotoAlbumComments(album, commentsOffset, 100);
+					return new PaginatedList<>(comments, comments.list.stream().map(p->NoteOrQuestion.fromNativeComment(p, context)).toList());
+				}, album.activityPubComments==null ? new UriBuilder(album.getActivityPubID()).appendPath("comments").build() : album.activityPubComments,
+						"photoAlbum"+album.getIdString()+"_comments", false);
+			}
+			return new PaginatedList<>(albums.stream().map(pa->ActivityPubPhotoAlbum.fromNativeAlbum(pa, context)).toList(), albums.size(), 0, albums.size());
+		}, user.getPhotoAlbumsURL(), "photoAlbums", false)));
+
+		// Tagged photos
+		sections.add(new Section("taggedPhotos", false, w->w.writeLocalObjectRemoteLinkCollections(offset->{
+			PaginatedList<Photo> photos=context.getPhotosController().getUserTaggedPhotos(user, user, offset, 100);
+			Set<Long> needAlbums=photos.list.stream().map(p->p.albumID).collect(Collectors.toSet());
+			Map<Long, PhotoAlbum> albums=context.getPhotosController().getAlbumsIgnoringPrivacy(needAlbums);
+			return new PaginatedList<>(photos, photos.list.stream().map(p->ActivityPubPhoto.fromNativePhoto(p, albums.get(p.albumID), context)).toList());
+		}, user.getTaggedPhotosURL(), "taggedPhotos", false)));
+
+		// Likes
+		sections.add(new Section("likes", true, w->w.writeKeysetCollections((cursor, total)->{
+			List<Pair<Integer, LikedObjectID>> likes=LikeStorage.getLikedObjectIDsBeforeID(user.id, (int)cursor, 501, total);
+			return KeysetPage.of(likes, 500, Pair::first, page->{
+				List<LikedObjectID> ids=page.stream().map(Pair::second).toList();
+				Set<Integer> needPosts=ids.stream().filter(lid->lid.type()==Like.ObjectType.POST).map(lid->(int)lid.id()).collect(Collectors.toSet());
+				Set<Long> needComments=ids.stream().filter(lid->lid.type()==Like.ObjectType.COMMENT).map(LikedObjectID::id).collect(Collectors.toSet());
+				Set<Long> needPhotos=ids.stream().filter(lid->lid.type()==Like.ObjectType.PHOTO).map(LikedObjectID::id).collect(Collectors.toSet());
+				try{
+					Map<Integer, URI> postIDs;
+					if(needPosts.isEmpty())
+						postIDs=Map.of();
+					else
+						postIDs=PostStorage.getActivityPubIDsByLocalIDs(needPosts);
+
+					Map<Long, URI> commentIDs;
+					if(needComments.isEmpty())
+						commentIDs=Map.of();
+					else
+						commentIDs=CommentStorage.getCommentActivityPubIDsByLocalIDs(needComments);
+
+					Map<Long, URI> photoIDs;
+					if(needPhotos.isEmpty())
+						photoIDs=Map.of();
+					else
+						photoIDs=PhotoStorage.getPhotoActivityPubIDsByLocalIDs(needPhotos);
+
+					return ids.stream().map(lid->{
+						ActivityPubLink l=new ActivityPubLink();
+						l.activityPubID=switch(lid.type()){
+							case POST -> postIDs.get((int)lid.id());
+							case COMMENT -> commentIDs.get(lid.id());
+							case PHOTO -> photoIDs.get(lid.id());
+						};
+						return l;
+					}).filter(l->l.activityPubID!=null).toList();
+				}catch(SQLException x){
+					throw new InternalServerErrorException(x);
+				}
+			});
+		}, obj->new LinkOrObject(obj.activityPubID), null, false)));
+
+		return sections;
+	}
+
+	private List<User> getUsersInOrder(List<Integer> ids){
+		Map<Integer, User> users=context.getUsersController().getUsers(ids);
+		return ids.stream().map(users::get).filter(Objects::nonNull).toList();
 	}
 
-	private void writeActivityPubObject(ActivityPubObject obj, Set<MediaFileID> filesToInclude, ZipOutputStream zos, String name) throws IOException{
-		ExportSerializerContext serializerContext=new ExportSerializerContext(context);
-		writeJsonElement(obj.asRootActivityPubObject(serializerContext), zos, name);
-		filesToInclude.addAll(serializerContext.filesToInclude);
+	private static LinkOrObject localObjectOrRemoteLink(ActivityPubObject obj){
+		if(obj.activityPubID==null || Config.isLocal(obj.activityPubID))
+			return new LinkOrObject(obj);
+		else
+			return new LinkOrObject(obj.activityPubID);
 	}
 
-	private <T extends ActivityPubObject> void writeLinkCollections(PaginatedListGetter<T> listGetter, Set<MediaFileID> filesToInclude,
-																	ZipOutputStream zos, URI baseCollectionID, String name, boolean ordered) throws IOException{
-		writeCollections(listGetter, obj->new LinkOrObject(obj.activityPubID), filesToInclude, zos, baseCollectionID, name, ordered);
+	private static File getWorkDir(long exportID){
+		return new File(System.getProperty("java.io.tmpdir"), "SmithereenUserExport"+exportID);
 	}
 
-	private <T extends ActivityPubObject> void writeLocalObjectRemoteLinkCollections(PaginatedListGetter<T> listGetter, Set<MediaFileID> filesToInclude,
-																					 ZipOutputStream zos, URI baseCollectionID, String name, boolean ordered) throws IOException{
-		writeCollections(listGetter, obj->{
-			if(obj.activityPubID==null || Config.isLocal(obj.activityPubID))
-				return new LinkOrObject(obj);
-			else
-				return new LinkOrObject(obj.activityPubID);
-		}, filesToInclude, zos, baseCollectionID, name, ordered);
+	private static void deleteRecursively(File dir) throws IOException{
+		if(!dir.exists())
+			return;
+		try(Stream<Path> paths=Files.walk(dir.toPath())){
+			for(Path path:paths.sorted(Comparator.reverseOrder()).toList()){
+				Files.delete(path);
+			}
+		}
+	}
+
+	private static String serializeMediaFileID(MediaFileID fid){
+		return fid.id()+" "+Base64.getEncoder().encodeToString(fid.randomID())+" "+fid.originalOwnerID()+" "+fid.type();
+	}
+
+	private static MediaFileID deserializeMediaFileID(String s){
+		String[] parts=s.split(" ");
+		return new MediaFileID(Long.parseLong(parts[0]), Base64.getDecoder().decode(parts[1]), Integer.parseInt(parts[2]), MediaFileType.valueOf(parts[3]));
 	}
 
-	private <T extends ActivityPubObject> void writeCollections(PaginatedListGetter<T> listGetter, Function<T, LinkOrObject> converter,
-																Set<MediaFileID> filesToInclude, ZipOutputStream zos, URI baseCollectionID, String name, boolean ordered) throws IOException{
-		int offset=0, total, i=0;
-		do{
-			PaginatedList<T> list=listGetter.get(offset);
-			total=list.total;
-			offset+=list.perPage;
+	private interface PaginatedListGetter<T extends ActivityPubObject>{
+		PaginatedList<T> get(int offset) throws IOException;
+	}
+
+	private interface KeysetPageGetter<T extends ActivityPubObject>{
+		/**
+		 * @param cursor the cursor returned with the previous page, or 0 for the first page
+		 * @param total if not null, the total number of items needs to be put here
+		 */
+		KeysetPage<T> get(long cursor, int[] total) throws IOException, SQLException;
+	}
 
+	private interface SectionGenerator{
+		void generate(SectionWriter writer) throws IOException, SQLException;
+	}
+
+	/**
+	 * @param resumable whether the section consists of one {@link SectionWriter#writeKeysetCollections} call and can thus
+	 *                  be continued from its cursor. Other sections are regenerated from the beginning if interrupted.
+	 */
+	private record Section(String name, boolean resumable, SectionGenerator generator){}
+
+	/**
+	 * @param nextCursor where the next page starts, or 0 if this is the last page
+	 */
+	private record KeysetPage<T>(List<T> items, long nextCursor){
+		/**
+		 * @param rows up to {@code count+1} rows; the extra one is only used to know whether there's a next page
+		 */
+		private static <R, T> KeysetPage<T> of(List<R> rows, int count, ToLongFunction<R> keyGetter, Function<List<R>, List<T>> converter){
+			boolean hasMore=rows.size()>count;
+			if(hasMore)
+				rows=rows.subList(0, count);
+			return new KeysetPage<>(converter.apply(rows), hasMore ? keyGetter.applyAsLong(rows.getLast()) : 0);
+		}
+	}
+
+	private class ExportJob{
+		private final Account account;
+		private final long id;
+		private final File workDir;
+		private final ExportProgress progress;
+		private final List<Section> sections;
+		private final ConcurrentLinkedDeque<Section> pendingSections=new ConcurrentLinkedDeque<>();
+		private final AtomicInteger runningLanes=new AtomicInteger();
+		private volatile boolean failed;
+
+		private ExportJob(Account account, long id, ExportProgress progress){
+			this.account=account;
+			this.id=id;
+			this.progress=progress;
+			workDir=getWorkDir(id);
+			sections=getSections(account.user);
+		}
+
+		private void updateProgress(SectionProgress sectionProgress, Consumer<SectionProgress> update) throws SQLException{
+			synchronized(progress){
+				update.accept(sectionProgress);
+				UserStorage.setUserDataExportProgress(id, Utils.gson.toJson(progress));
+			}
+		}
+	}
+
+	/**
+	 * Persisted in user_data_exports.progress as JSON.
+	 */
+	private static class ExportProgress{
+		private ConcurrentHashMap<String, SectionProgress> sections=new ConcurrentHashMap<>();
+	}
+
+	private static class SectionProgress{
+		private boolean done;
+		private int pages;
+		private long cursor;
+		private int total;
+	}
+
+	private class SectionWriter implements Closeable{
+		private final ExportJob job;
+		private final String name;
+		private final File dir;
+		private final SectionProgress progress;
+		private final Writer mediaWriter;
+		private int pagesInThisSlice;
+		private boolean sliceExhausted;
+
+		private SectionWriter(ExportJob job, String name, File dir, File mediaFile, SectionProgress progress) throws IOException{
+			this.job=job;
+			this.name=name;
+			this.dir=dir;
+			this.progress=progress;
+			mediaWriter=new FileWriter(mediaFile, StandardCharsets.UTF_8, true);
+		}
+
+		@Override
+		public void close() throws IOException{
+			mediaWriter.close();
+		}
+
+		private void writeJsonElement(JsonElement el, String fileName) throws IOException{
+			try(Writer out=new OutputStreamWriter(new FileOutputStream(new File(dir, fileName+".json")), StandardCharsets.UTF_8)){
+				JsonWriter writer=Utils.gson.newJsonWriter(out);
+				Utils.gson.toJson(el, writer);
+				writer.flush();
+			}
+		}
+
+		private void writeActivityPubObject(ActivityPubObject obj, String fileName) throws IOException{
+			ExportSerializerContext serializerContext=new ExportSerializerContext(context);
+			try(Writer out=new OutputStreamWriter(new FileOutputStream(new File(dir, fileName+".json")), StandardCharsets.UTF_8)){
+				JsonWriter writer=Utils.gson.newJsonWriter(out);
+				obj.writeRootActivityPubObject(writer, serializerContext);
+				writer.flush();
+			}
+			for(MediaFileID fid:serializerContext.filesToInclude){
+				mediaWriter.write(serializeMediaFileID(fid)+"\n");
+			}
+			mediaWriter.flush();
+		}
+
+		private <T extends ActivityPubObject> void writeLinkCollections(PaginatedListGetter<T> listGetter, URI baseCollectionID, String name, boolean ordered) throws IOException{
+			writeCollections(listGetter, obj->new LinkOrObject(obj.activityPubID), baseCollectionID, name, ordered);
+		}
+
+		private <T extends ActivityPubObject> void writeLocalObjectRemoteLinkCollections(PaginatedListGetter<T> listGetter, URI baseCollectionID, String name, boolean ordered) throws IOException{
+			writeCollections(listGetter, UserDataExportWorker::localObjectOrRemoteLink, baseCollectionID, name, ordered);
+		}
+
+		private <T extends ActivityPubObject> void writeCollections(PaginatedListGetter<T> listGetter, Function<T, LinkOrObject> converter,
+																	URI baseCollectionID, String name, boolean ordered) throws IOException{
+			int offset=0, total, i=0;
+			do{
+				PaginatedList<T> list=listGetter.get(offset);
+				total=list.total;
+				offset+=list.perPage;
+				writeCollectionPage(list.list, converter, baseCollectionID, name, i, offset<total, total, ordered);
+				i++;
+			}while(offset<total);
+		}
+
+		/**
+		 * Writes the collection named after the section, continuing from the saved cursor. Returns early, setting
+		 * {@link #sliceExhausted}, after {@link #PAGES_PER_SLICE} pages.
+		 */
+		private <T extends ActivityPubObject> void writeKeysetCollections(KeysetPageGetter<T> pageGetter, Function<T, LinkOrObject> converter,
+																		 URI baseCollectionID, boolean ordered) throws IOException, SQLException{
+			while(true){
+				if(pagesInThisSlice==PAGES_PER_SLICE){
+					sliceExhausted=true;
+					return;
+				}
+				int[] total=progress.pages==0 ? new int[1] : null;
+				KeysetPage<T> page=pageGetter.get(progress.cursor, total);
+				int totalItems=total!=null ? total[0] : progress.total;
+				int i=progress.pages;
+				writeCollectionPage(page.items(), converter, baseCollectionID, name, i, page.nextCursor()!=0, totalItems, ordered);
+				pagesInThisSlice++;
+				job.updateProgress(progress, p->{
+					p.pages=i+1;
+					p.cursor=page.nextCursor();
+					p.total=totalItems;
+				});
+				if(page.nextCursor()==0)
+					return;
+			}
+		}
+
+		private <T extends ActivityPubObject> void writeCollectionPage(List<T> items, Function<T, LinkOrObject> converter, URI baseCollectionID, String name,
+																	   int index, boolean hasNext, int total, boolean ordered) throws IOException{
 			CollectionPage apPage=new CollectionPage(ordered);
 			apPage.partOf=baseCollectionID;
-			apPage.activityPubID=URI.create(name+i+".json");
-			if(offset<total){
-				apPage.next=URI.create(name+(i+1)+".json");
+			apPage.activityPubID=URI.create(name+index+".json");
+			if(hasNext){
+				apPage.next=URI.create(name+(index+1)+".json");
 			}
-			apPage.totalItems=list.total;
+			apPage.totalItems=total;
 			apPage.items=new ArrayList<>();
-			for(T item:list.list){
+			for(T item:items){
 				apPage.items.add(converter.apply(item));
 			}
-			writeActivityPubObject(apPage, filesToInclude, zos, name+i);
-
-			i++;
-		}while(offset<total);
-	}
-
-	private interface PaginatedListGetter<T extends ActivityPubObject>{
-		PaginatedList<T> get(int offset) throws IOException;
+			writeActivityPubObject(apPage, name+index);
+		}
 	}
 
 	public static class ExportSerializerContext extends SerializerContext{
@@ -196,10 +196,11 @@ public class UserInteractionsController{
 			Set<Long> needAlbums=objects.stream().map(o->((Photo)o).albumID).collect(Collectors.toSet());
 			Collection<PhotoAlbum> albums=context.getPhotosController().getAlbumsIgnoringPrivacy(needAlbums).values();
 			Map<Integer, User> users=context.getUsersController().getUsers(albums.stream().map(a->a.ownerID).filter(id->id>0).collect(Collectors.toSet()));
+			BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self, users.keySet());
 			Set<Long> commentableAlbums=albums.stream().filter(a->{
 				if(a.ownerID<0)
 					return !a.flags.contains(PhotoAlbum.Flag.GROUP_DISABLE_COMMENTING);
-				return context.getPrivacyController().checkUserPrivacy(self, users.get(a.ownerID), a.commentPrivacy);
+				return privacy.checkUserPrivacy(users.get(a.ownerID), a.commentPrivacy);
 			}).map(a->a.id).collect(Collectors.toSet());
 			for(T obj:objects){
 				if(!(obj instanceof Photo photo))
@@ -84,7 +84,7 @@ public class UsersController{
 
 	public UsersController(ApplicationContext context){
 		this.context=context;
-		MaintenanceScheduler.runPeriodically(this::doPendingPresenceUpdates, 1, TimeUnit.MINUTES);
+		MaintenanceScheduler.runPeriodically("flushPresenceUpdates", MaintenanceScheduler.Lane.FREQUENT, MaintenanceScheduler.Scope.EVERY_NODE, this::doPendingPresenceUpdates, 1, TimeUnit.MINUTES);
 	}
 
 	public User getUserOrThrow(int id){
@@ -866,7 +866,7 @@ public class UsersController{
 				UserStorage.updateExtendedFields(newUser, newUser.serializeProfileFields());
 
 			success=true;
-			BackgroundTaskRunner.getInstance().submit(()->performMove(oldUser, newUser));
+			BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.FEDERATION, ()->performMove(oldUser, newUser));
 		}catch(SQLException x){
 			throw new InternalServerErrorException(x);
 		}finally{
@@ -631,10 +631,11 @@ public class WallController{
 						ownerUserIDs.add(repost.ownerID);
 				}
 			}
+			BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self, ownerUserIDs);
 			Map<Integer, Boolean> canComment=context.getUsersController().getUsers(ownerUserIDs)
 					.entrySet()
 					.stream()
-					.collect(Collectors.toMap(Map.Entry::getKey, e->context.getPrivacyController().checkUserPrivacy(self, e.getValue(), UserPrivacySettingKey.WALL_COMMENTING)));
+					.collect(Collectors.toMap(Map.Entry::getKey, e->privacy.checkUserPrivacy(e.getValue(), e.getValue().getPrivacySetting(UserPrivacySettingKey.WALL_COMMENTING))));
 
 			if(!ownerGroupIDs.isEmpty()){
 				canComment=new HashMap<>(canComment);
@@ -696,7 +697,7 @@ public class WallController{
 			return;
 
 		if(post.poll.lastVoteTime.until(Instant.now(), ChronoUnit.MINUTES)>=5){
-			BackgroundTaskRunner.getInstance().submitDelayed(()->{
+			BackgroundTaskRunner.getInstance().submitDelayed(BackgroundTaskRunner.Lane.FEDERATION, ()->{
 				try{
 					// Get post again so the poll inside is up-to-date.
 					context.getActivityPubWorker().sendUpdatePostActivity(getPostOrThrow(post.id));
@@ -749,8 +750,9 @@ public class WallController{
 			}
 			PostStorage.ThreadedReplies tr=PostStorage.getRepliesThreaded(key, primaryOffset, primaryCount, secondaryCount, type==CommentViewType.TWO_LEVEL, reversed);
 
-			List<PostViewModel> posts=tr.posts().stream().filter(p->context.getPrivacyController().checkPostPrivacy(self, p)).map(PostViewModel::new).toList();
-			List<PostViewModel> replies=tr.replies().stream().filter(p->context.getPrivacyController().checkPostPrivacy(self, p)).map(PostViewModel::new).toList();
+			BatchPrivacyEvaluator privacy=context.getPrivacyController().getBatchEvaluator(self, Stream.of(tr.posts(), tr.replies()).flatMap(List::stream).map(p->p.authorID).collect(Collectors.toSet()));
+			List<PostViewModel> posts=tr.posts().stream().filter(privacy::checkPostPrivacy).map(PostViewModel::new).toList();
+			List<PostViewModel> replies=tr.replies().stream().filter(privacy::checkPostPrivacy).map(PostViewModel::new).toList();
 			Map<Integer, PostViewModel> postMap=Stream.of(posts, replies).flatMap(List::stream).collect(Collectors.toMap(p->p.post.id, Function.identity()));
 
 			for(PostViewModel post:replies){
@@ -31,4 +31,12 @@ public class DebugLog{
 		totalDatabaseQueryDuration+=durationNanos;
 		numDatabaseQueries++;
 	}
+
+	/**
+	 * Counts the queries made on another thread on behalf of this request.
+	 */
+	public void addQueriesFrom(DebugLog other){
+		totalDatabaseQueryDuration+=other.totalDatabaseQueryDuration;
+		numDatabaseQueries+=other.numDatabaseQueries;
+	}
 }
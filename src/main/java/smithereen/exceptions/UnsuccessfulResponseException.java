@@ -0,0 +1,18 @@
+package smithereen.exceptions;
+
+import java.io.Serial;
+
+/**
+ * A remote server responded with a non-2xx status code to a request for an object.
+ */
+public class UnsuccessfulResponseException extends ObjectNotFoundException{
+	@Serial
+	private static final long serialVersionUID=1L;
+
+	public final int statusCode;
+
+	public UnsuccessfulResponseException(String message, int statusCode){
+		super(message);
+		this.statusCode=statusCode;
+	}
+}
@@ -1,5 +1,8 @@
 package smithereen.http;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.net.Authenticator;
 import java.net.CookieHandler;
@@ -7,11 +10,20 @@ import java.net.ProxySelector;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.net.http.WebSocket;
 import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
@@ -20,13 +32,30 @@ import smithereen.BuildInfo;
 import smithereen.Config;
 
 public class ExtendedHttpClient extends HttpClient{
+	private static final Logger LOG=LoggerFactory.getLogger(ExtendedHttpClient.class);
+	private static final List<ExtendedHttpClient> namedClients=new CopyOnWriteArrayList<>();
+	private static final Duration DEFAULT_HOST_PERMIT_TIMEOUT=Duration.ofSeconds(30);
+
 	private final HttpClient realClient;
+	private final String name;
+	private final long maxResponseBodySize;
+	private final int maxConcurrentRequestsPerHost;
+	/**
+	 * Only contains hosts that have requests in flight or waiting for a permit, so that it doesn't grow with the number of hosts ever contacted
+	 */
+	private final ConcurrentHashMap<String, HostSemaphore> hostPermits=new ConcurrentHashMap<>();
+	private final LongAdder requests=new LongAdder(), failures=new LongAdder(), bytesReceived=new LongAdder(), totalNanos=new LongAdder();
 
-	ExtendedHttpClient(HttpClient realClient){
+	ExtendedHttpClient(HttpClient realClient, String name, long maxResponseBodySize, int maxConcurrentRequestsPerHost){
 		this.realClient=realClient;
+		this.name=name;
+		this.maxResponseBodySize=maxResponseBodySize;
+		this.maxConcurrentRequestsPerHost=maxConcurrentRequestsPerHost;
+		if(name!=null)
+			namedClients.add(this);
 	}
 
-	public static Builder newBuilder(){
+	public static ExtendedHttpClientBuilder newBuilder(){
 		return new ExtendedHttpClientBuilder(HttpClient.newBuilder());
 	}
 
@@ -77,17 +106,131 @@ public class ExtendedHttpClient extends HttpClient{
 
 	@Override
 	public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException{
-		return realClient.send(maybeAddUserAgent(request), responseBodyHandler);
+		PermitLease permit=null;
+		if(maxConcurrentRequestsPerHost>0)
+			permit=acquirePermit(request);
+		long startTime=System.nanoTime();
+		boolean failed=true;
+		try{
+			HttpResponse<T> resp=realClient.send(maybeAddUserAgent(request), wrapBodyHandler(responseBodyHandler, permit));
+			failed=false;
+			return resp;
+		}finally{
+			// On success, the permit is released once the body is read, see wrapBodyHandler()
+			if(failed && permit!=null)
+				permit.release();
+			recordRequest(startTime, failed);
+		}
 	}
 
 	@Override
 	public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler){
-		return realClient.sendAsync(maybeAddUserAgent(request), responseBodyHandler);
+		return sendAsync(request, responseBodyHandler, null);
 	}
 
 	@Override
 	public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler, HttpResponse.PushPromiseHandler<T> pushPromiseHandler){
-		return realClient.sendAsync(maybeAddUserAgent(request), responseBodyHandler, pushPromiseHandler);
+		if(maxConcurrentRequestsPerHost<=0)
+			return doSendAsync(request, responseBodyHandler, pushPromiseHandler, null);
+		PermitLease permit=tryAcquirePermit(request);
+		if(permit!=null)
+			return doSendAsync(request, responseBodyHandler, pushPromiseHandler, permit);
+		// Wait for a permit without blocking the caller
+		return CompletableFuture.supplyAsync(()->{
+			try{
+				return acquirePermit(request);
+			}catch(IOException|InterruptedException x){
+				throw new CompletionException(x);
+			}
+		}, r->Thread.ofVirtual().start(r)).thenCompose(p->doSendAsync(request, responseBodyHandler, pushPromiseHandler, p));
+	}
+
+	private <T> CompletableFuture<HttpResponse<T>> doSendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler, HttpResponse.PushPromiseHandler<T> pushPromiseHandler, PermitLease permit){
+		long startTime=System.nanoTime();
+		CompletableFuture<HttpResponse<T>> future;
+		try{
+			future=pushPromiseHandler==null ? realClient.sendAsync(maybeAddUserAgent(request), wrapBodyHandler(responseBodyHandler, permit))
+					: realClient.sendAsync(maybeAddUserAgent(request), wrapBodyHandler(responseBodyHandler, permit), pushPromiseHandler);
+		}catch(RuntimeException x){
+			if(permit!=null)
+				permit.release();
+			throw x;
+		}
+		return future.whenComplete((resp, x)->{
+			if(x!=null && permit!=null)
+				permit.release();
+			recordRequest(startTime, x!=null);
+		});
+	}
+
+	/**
+	 * The permit, if any, is held until the body subscriber completes, fails, or is cancelled (e.g. when the InputStream
+	 * from {@link HttpResponse.BodyHandlers#ofInputStream()} is closed), not just until the response headers arrive.
+	 */
+	private <T> HttpResponse.BodyHandler<T> wrapBodyHandler(HttpResponse.BodyHandler<T> handler, PermitLease permit){
+		return info->new SizeLimitingBodySubscriber<>(handler.apply(info), maxResponseBodySize, info.headers().firstValueAsLong("content-length").orElse(-1), bytesReceived,
+				permit==null ? null : permit::release);
+	}
+
+	private PermitLease acquirePermit(HttpRequest request) throws HttpTimeoutException, InterruptedException{
+		String host=String.valueOf(request.uri().getAuthority());
+		HostSemaphore semaphore=retainHostPermits(host);
+		boolean acquired=false;
+		try{
+			acquired=semaphore.tryAcquire(request.timeout().orElse(DEFAULT_HOST_PERMIT_TIMEOUT).toMillis(), TimeUnit.MILLISECONDS);
+		}finally{
+			if(!acquired)
+				disposeHostPermits(host);
+		}
+		if(!acquired)
+			throw new HttpTimeoutException("Too many concurrent requests to "+host);
+		return new PermitLease(host, semaphore);
+	}
+
+	/**
+	 * @return the permit, or null if there are none available right now
+	 */
+	private PermitLease tryAcquirePermit(HttpRequest request){
+		String host=String.valueOf(request.uri().getAuthority());
+		HostSemaphore semaphore=retainHostPermits(host);
+		if(semaphore.tryAcquire())
+			return new PermitLease(host, semaphore);
+		disposeHostPermits(host);
+		return null;
+	}
+
+	private HostSemaphore retainHostPermits(String host){
+		return hostPermits.compute(host, (k, semaphore)->{
+			if(semaphore==null)
+				semaphore=new HostSemaphore(maxConcurrentRequestsPerHost);
+			semaphore.users++;
+			return semaphore;
+		});
+	}
+
+	private void disposeHostPermits(String host){
+		hostPermits.computeIfPresent(host, (k, semaphore)->--semaphore.users==0 ? null : semaphore);
+	}
+
+	private void recordRequest(long startTime, boolean failed){
+		requests.increment();
+		if(failed)
+			failures.increment();
+		totalNanos.add(System.nanoTime()-startTime);
+	}
+
+	public Stats getStats(){
+		return new Stats(name, requests.sum(), failures.sum(), bytesReceived.sum(), totalNanos.sum());
+	}
+
+	public static void logStats(){
+		if(!LOG.isInfoEnabled())
+			return;
+		for(ExtendedHttpClient client:namedClients){
+			Stats s=client.getStats();
+			LOG.info("HTTP client {}: {} requests, {} failed, {} bytes received, {} ms average", s.name(), s.requests(), s.failures(), s.bytesReceived(),
+					TimeUnit.NANOSECONDS.toMillis(s.totalNanos()/Math.max(1, s.requests())));
+		}
 	}
 
 	@Override
@@ -127,4 +270,35 @@ public class ExtendedHttpClient extends HttpClient{
 				.header("User-Agent", "Smithereen/"+BuildInfo.VERSION+" (+https://"+Config.domain+"/)")
 				.build();
 	}
+
+	private static class HostSemaphore extends Semaphore{
+		/**
+		 * The number of requests holding or waiting for a permit. Only modified from inside ConcurrentHashMap.compute for this host.
+		 */
+		private int users;
+
+		private HostSemaphore(int permits){
+			super(permits);
+		}
+	}
+
+	private class PermitLease{
+		private final String host;
+		private final HostSemaphore semaphore;
+		private final AtomicBoolean released=new AtomicBoolean();
+
+		private PermitLease(String host, HostSemaphore semaphore){
+			this.host=host;
+			this.semaphore=semaphore;
+		}
+
+		private void release(){
+			if(released.compareAndSet(false, true)){
+				semaphore.release();
+				disposeHostPermits(host);
+			}
+		}
+	}
+
+	public record Stats(String name, long requests, long failures, long bytesReceived, long totalNanos){}
 }
@@ -0,0 +1,116 @@
+package smithereen.http;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Passes the response body through to another subscriber, failing it with an {@link IOException} as soon as the body
+ * turns out to be larger than the limit, without reading the rest of it.
+ * Optionally notifies someone when the body is done with, either because it was read to the end, or because of an error,
+ * or because the consumer cancelled the subscription.
+ */
+public class SizeLimitingBodySubscriber<T> implements HttpResponse.BodySubscriber<T>{
+	private final HttpResponse.BodySubscriber<T> parent;
+	private final long maxSize;
+	private final long declaredSize;
+	private final LongAdder byteCounter;
+	private final Runnable onFinished;
+	private Flow.Subscription subscription;
+	private long size;
+	private boolean failed;
+
+	public SizeLimitingBodySubscriber(HttpResponse.BodySubscriber<T> parent, long maxSize){
+		this(parent, maxSize, -1, null, null);
+	}
+
+	/**
+	 * @param maxSize the limit in bytes, or 0 to only count bytes
+	 * @param declaredSize the Content-Length of the response, or -1 if unknown
+	 * @param byteCounter will be incremented by the number of bytes received, can be null
+	 * @param onFinished called at least once when the body is done with, can be null
+	 */
+	public SizeLimitingBodySubscriber(HttpResponse.BodySubscriber<T> parent, long maxSize, long declaredSize, LongAdder byteCounter, Runnable onFinished){
+		this.parent=parent;
+		this.maxSize=maxSize;
+		this.declaredSize=declaredSize;
+		this.byteCounter=byteCounter;
+		this.onFinished=onFinished;
+	}
+
+	@Override
+	public CompletionStage<T> getBody(){
+		return parent.getBody();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription){
+		this.subscription=subscription;
+		if(onFinished==null){
+			parent.onSubscribe(subscription);
+		}else{
+			parent.onSubscribe(new Flow.Subscription(){
+				@Override
+				public void request(long n){
+					subscription.request(n);
+				}
+
+				@Override
+				public void cancel(){
+					subscription.cancel();
+					onFinished.run();
+				}
+			});
+		}
+		if(maxSize>0 && declaredSize>maxSize)
+			fail();
+	}
+
+	@Override
+	public void onNext(List<ByteBuffer> item){
+		if(failed)
+			return;
+		long itemSize=0;
+		for(ByteBuffer buf:item){
+			itemSize+=buf.remaining();
+		}
+		size+=itemSize;
+		if(byteCounter!=null)
+			byteCounter.add(itemSize);
+		if(maxSize>0 && size>maxSize){
+			fail();
+			return;
+		}
+		parent.onNext(item);
+	}
+
+	@Override
+	public void onError(Throwable throwable){
+		if(!failed)
+			parent.onError(throwable);
+		finished();
+	}
+
+	@Override
+	public void onComplete(){
+		if(!failed)
+			parent.onComplete();
+		finished();
+	}
+
+	private void fail(){
+		failed=true;
+		subscription.cancel();
+		parent.onError(new IOException("Response body is larger than "+maxSize+" bytes"));
+		finished();
+	}
+
+	private void finished(){
+		if(onFinished!=null)
+			onFinished.run();
+	}
+}
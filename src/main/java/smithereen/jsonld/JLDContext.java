@@ -1,8 +1,8 @@
 package smithereen.jsonld;
 
 import java.net.URI;
-import java.net.URL;
 import java.util.HashMap;
+import java.util.Objects;
 
 public class JLDContext implements Cloneable{
 
@@ -11,9 +11,32 @@ public class JLDContext implements Cloneable{
 	public HashMap<String, TermDefinition> termDefinitions=new HashMap<>();
 	public String vocabularyMapping;
 	public String defaultLanguage;
+	/**
+	 * Set when a remote context referenced from this one could not be dereferenced. Such contexts are not cached.
+	 */
+	public boolean incomplete;
 
 	@Override
 	public JLDContext clone(){
+		JLDContext c=shallowClone();
+		c.termDefinitions=new HashMap<>(termDefinitions);
+		return c;
+	}
+
+	/**
+	 * @return a copy of this context with a different base IRI that shares term definitions with this one
+	 */
+	public JLDContext withBaseIRI(URI baseIRI){
+		JLDContext c=shallowClone();
+		c.baseIRI=c.originalBaseIRI=baseIRI;
+		return c;
+	}
+
+	public boolean isEmpty(){
+		return termDefinitions.isEmpty() && vocabularyMapping==null && defaultLanguage==null && Objects.equals(baseIRI, originalBaseIRI);
+	}
+
+	private JLDContext shallowClone(){
 		try{
 			return (JLDContext) super.clone();
 		}catch(CloneNotSupportedException x){
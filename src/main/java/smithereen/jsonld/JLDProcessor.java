@@ -10,6 +10,7 @@ import com.google.gson.JsonPrimitive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -19,28 +20,42 @@ import java.net.URISyntaxException;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
+import smithereen.Config;
 import smithereen.LruCache;
 import smithereen.Utils;
 import smithereen.activitypub.ActivityPub;
 import smithereen.http.ExtendedHttpClient;
 import smithereen.http.ReaderBodyHandler;
+import smithereen.util.CryptoUtils;
 import smithereen.util.NamedMutexCollection;
 
 public class JLDProcessor{
 	private static final Logger LOG=LoggerFactory.getLogger(JLDProcessor.class);
 
 	private static final LruCache<String, JsonObject> schemaCache=new LruCache<>(100);
+	private static final LruCache<String, ProcessedContext> processedContextCache=new LruCache<>(200);
+	private static final ConcurrentHashMap<String, String> iriTerms=new ConcurrentHashMap<>();
+	private static final long REMOTE_CONTEXT_DISK_CACHE_TTL=30L*24*60*60*1000;
+	private static final int REMOTE_CONTEXT_DISK_CACHE_MAX_FILES=1000;
+	private static final long REMOTE_CONTEXT_DISK_CACHE_MAX_SIZE=50L*1024*1024;
 	private static final JsonObject inverseLocalContext;
 	private static final JLDContext localContext;
-	private static final NamedMutexCollection remoteContextFetchMutexes=new NamedMutexCollection();
+	private static final NamedMutexCollection remoteContextFetchMutexes=new NamedMutexCollection("JSON-LD context fetch mutexes");
 
 	private static final Comparator<String> SHORTEST_LEAST=(o1, o2)->{
 		if(o1.length()!=o2.length())
@@ -196,10 +211,9 @@ public class JLDProcessor{
 	}
 
 	public static JsonArray expandToArray(JsonElement src, URI baseURI){
-		JsonElement jcontext=null;
-		if(src.isJsonObject())
-			jcontext=src.getAsJsonObject().get("@context");
-		JLDContext context=updateContext(new JLDContext(), jcontext, new ArrayList<String>(), baseURI);
+		// The top-level @context, if any, is processed by expand() itself
+		JLDContext context=new JLDContext();
+		context.baseIRI=context.originalBaseIRI=baseURI;
 		Object result=expand(context, null, src);
 		if(result instanceof JsonArray)
 			return (JsonArray) result;
@@ -217,8 +231,9 @@ public class JLDProcessor{
 	}
 
 	public static JsonObject compact(JsonElement src, JsonElement context, boolean compactArrays, URI baseURI){
-		JLDContext localContext=updateContext(new JLDContext(), context, new ArrayList<>(), baseURI);
-		JsonObject inverseContext=createReverseContext(localContext);
+		ProcessedContext processed=getProcessedContext(context, baseURI);
+		JLDContext localContext=processed.context;
+		JsonObject inverseContext=processed.getInverseContext();
 		JsonElement _result=compact(localContext, inverseContext, null, src, compactArrays);
 		JsonObject result;
 		if(_result.isJsonObject())
@@ -269,17 +284,142 @@ public class JLDProcessor{
 	}
 
 	private static JsonObject loadRemoteContext(String url){
+		File cacheFile=Config.jsonldContextCachePath==null ? null : new File(Config.jsonldContextCachePath, Utils.byteArrayToHexString(CryptoUtils.sha256(url.getBytes(StandardCharsets.UTF_8)))+".jsonld");
+		if(cacheFile!=null && cacheFile.exists() && System.currentTimeMillis()-cacheFile.lastModified()<REMOTE_CONTEXT_DISK_CACHE_TTL){
+			try(Reader reader=Files.newBufferedReader(cacheFile.toPath())){
+				LOG.trace("Loaded remote context '{}' from disk cache", url);
+				return JsonParser.parseReader(reader).getAsJsonObject();
+			}catch(Exception x){
+				LOG.debug("Failed to read cached remote context '{}' from {}", url, cacheFile, x);
+			}
+		}
 		LOG.debug("Dereferencing remote context from '{}'", url);
+		JsonObject obj;
 		try{
 			HttpRequest req=HttpRequest.newBuilder(new URI(url)).timeout(Duration.ofSeconds(10)).build();
 			HttpResponse<Reader> resp=ActivityPub.httpClient.send(req, new ReaderBodyHandler());
 			try(Reader reader=resp.body()){
-				return JsonParser.parseReader(reader).getAsJsonObject();
+				obj=JsonParser.parseReader(reader).getAsJsonObject();
 			}
 		}catch(Exception x){
 			LOG.debug("Failed to load remote context from '{}'", url, x);
 			return null;
 		}
+		if(cacheFile!=null){
+			try{
+				Files.createDirectories(cacheFile.getParentFile().toPath());
+				File tmp=new File(cacheFile.getParentFile(), cacheFile.getName()+".tmp");
+				Files.writeString(tmp.toPath(), obj.toString());
+				Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}catch(IOException x){
+				LOG.warn("Failed to save remote context '{}' to {}", url, cacheFile, x);
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * Deletes expired remote contexts and leftover temporary files from the disk cache, and then the least recently
+	 * saved ones if there are still too many of them or they take up too much space.
+	 */
+	public static void pruneRemoteContextCache(){
+		if(Config.jsonldContextCachePath==null)
+			return;
+		File[] files=Config.jsonldContextCachePath.listFiles(File::isFile);
+		if(files==null)
+			return;
+		long now=System.currentTimeMillis();
+		ArrayList<File> remaining=new ArrayList<>();
+		int deleted=0;
+		for(File file:files){
+			// A .tmp file is only there for as long as it takes to write it, unless the server crashed while doing that
+			boolean tmp=file.getName().endsWith(".tmp");
+			if(now-file.lastModified()>=(tmp ? 60*60*1000 : REMOTE_CONTEXT_DISK_CACHE_TTL)){
+				if(file.delete())
+					deleted++;
+			}else if(!tmp){
+				remaining.add(file);
+			}
+		}
+		remaining.sort(Comparator.comparingLong(File::lastModified).reversed());
+		long totalSize=0;
+		for(int i=0;i<remaining.size();i++){
+			File file=remaining.get(i);
+			totalSize+=file.length();
+			if((i>=REMOTE_CONTEXT_DISK_CACHE_MAX_FILES || totalSize>REMOTE_CONTEXT_DISK_CACHE_MAX_SIZE) && file.delete())
+				deleted++;
+		}
+		if(deleted>0)
+			LOG.debug("Deleted {} files from the remote context cache", deleted);
+	}
+
+	/**
+	 * Drops all memoized active contexts. Only meant for benchmarks that measure the uncached path.
+	 */
+	static void evictProcessedContexts(){
+		processedContextCache.evictAll();
+	}
+
+	/**
+	 * Processes a context into an active context starting from an empty one, or returns a previously processed one if
+	 * an identical context was seen recently. Almost all incoming documents use one of a few context arrays, so this
+	 * saves creating all the term definitions over and over.
+	 */
+	private static ProcessedContext getProcessedContext(JsonElement context, URI baseURI){
+		StringBuilder sb=new StringBuilder();
+		appendCanonicalJson(sb, context);
+		String canonical=sb.toString();
+		// Relative @base values are resolved against the document URI, so those contexts can only be reused for the same document URI
+		boolean dependsOnBaseURI=canonical.contains("\"@base\"");
+		String key=Base64.getEncoder().encodeToString(CryptoUtils.sha256(canonical.getBytes(StandardCharsets.UTF_8)));
+		if(dependsOnBaseURI)
+			key+=" "+baseURI;
+		ProcessedContext processed=processedContextCache.get(key);
+		if(processed==null){
+			JLDContext activeContext=updateContext(new JLDContext(), context, new ArrayList<>(), baseURI);
+			processed=new ProcessedContext(activeContext);
+			if(!activeContext.incomplete)
+				processedContextCache.put(key, processed);
+			return processed;
+		}
+		if(!dependsOnBaseURI && !Objects.equals(processed.context.originalBaseIRI, baseURI))
+			return new ProcessedContext(processed.context.withBaseIRI(baseURI), processed);
+		return processed;
+	}
+
+	/**
+	 * Writes a JSON value with object keys sorted so that equivalent contexts produce identical strings.
+	 */
+	private static void appendCanonicalJson(StringBuilder sb, JsonElement el){
+		if(el==null || el.isJsonNull()){
+			sb.append("null");
+		}else if(el.isJsonPrimitive()){
+			sb.append(el);
+		}else if(el.isJsonArray()){
+			sb.append('[');
+			boolean first=true;
+			for(JsonElement item:el.getAsJsonArray()){
+				if(!first)
+					sb.append(',');
+				first=false;
+				appendCanonicalJson(sb, item);
+			}
+			sb.append(']');
+		}else{
+			JsonObject obj=el.getAsJsonObject();
+			ArrayList<String> keys=new ArrayList<>(obj.keySet());
+			Collections.sort(keys);
+			sb.append('{');
+			boolean first=true;
+			for(String key:keys){
+				if(!first)
+					sb.append(',');
+				first=false;
+				sb.append(new JsonPrimitive(key)).append(':');
+				appendCanonicalJson(sb, obj.get(key));
+			}
+			sb.append('}');
+		}
 	}
 
 	private static JsonObject dereferenceContext(String iri, boolean allowNetworking){
@@ -365,7 +505,8 @@ public class JLDProcessor{
 				if(deref!=null){
 					result=updateContext(result, deref.get("@context"), remoteContexts, baseURI, true);
 				}else{
-					System.err.println("Failed to dereference "+c);
+					LOG.debug("Failed to dereference {}", c);
+					result.incomplete=true;
 				}
 
 				continue;
@@ -669,7 +810,11 @@ public class JLDProcessor{
 			throw new JLDException("JsonObject expected here, found: "+element.getClass().getName());
 		JsonObject el=element.getAsJsonObject();
 		if(el.has("@context")){
-			activeContext=updateContext(activeContext, el.get("@context").isJsonNull() ? null : el.get("@context"), new ArrayList<>(), activeContext.originalBaseIRI);
+			JsonElement localContext=el.get("@context").isJsonNull() ? null : el.get("@context");
+			if(localContext!=null && activeContext.isEmpty())
+				activeContext=getProcessedContext(localContext, activeContext.originalBaseIRI).context;
+			else
+				activeContext=updateContext(activeContext, localContext, new ArrayList<>(), activeContext.originalBaseIRI);
 		}
 		JsonObject result=new JsonObject();
 		ArrayList<String> keys=new ArrayList<>(el.keySet());
@@ -1901,6 +2046,170 @@ public class JLDProcessor{
 		return allTriples;
 	}
 
+	/**
+	 * Converts a document to RDF for canonicalization. Unlike {@link #toRDF(JsonElement, URI)}, this walks the expanded
+	 * document directly instead of building a node map first, so quads come out in no particular order and blank node
+	 * labels depend on where they appear in the document. URDNA2015 doesn't care about either.
+	 * @return the quads, without duplicates
+	 */
+	static Collection<URDNA2015.Quad> toQuads(JsonElement input, URI baseURI){
+		QuadCollector collector=new QuadCollector();
+		for(JsonElement el:expandToArray(input, baseURI)){
+			if(el.isJsonObject() && isNodeObject(el.getAsJsonObject()))
+				collector.addNode(el.getAsJsonObject(), null, true);
+		}
+		return collector.quads;
+	}
+
+	/**
+	 * Serializes an IRI for N-Quads. Vocabulary IRIs (predicates and types) come from a small set, so these strings are shared.
+	 */
+	private static String iriTerm(String iri){
+		String term=iriTerms.get(iri);
+		if(term==null){
+			term="<"+iri+">";
+			if(iriTerms.size()<10_000)
+				iriTerms.put(iri, term);
+		}
+		return term;
+	}
+
+	/**
+	 * Same as {@code URI.create(iri).isAbsolute()}, but without parsing the entire IRI: checks whether it starts with a scheme.
+	 */
+	private static boolean isAbsoluteIRI(String iri){
+		int length=iri.length();
+		if(length==0 || !isAsciiLetter(iri.charAt(0)))
+			return false;
+		for(int i=1;i<length;i++){
+			char c=iri.charAt(i);
+			if(c==':')
+				return true;
+			if(!isAsciiLetter(c) && !(c>='0' && c<='9') && c!='+' && c!='-' && c!='.')
+				return false;
+		}
+		return false;
+	}
+
+	private static boolean isAsciiLetter(char c){
+		return (c>='a' && c<='z') || (c>='A' && c<='Z');
+	}
+
+	private static class QuadCollector{
+		private static final String RDF_TYPE=iriTerm(RDF.NS_RDF+"type");
+		private static final String RDF_FIRST=iriTerm(RDF.NS_RDF+"first");
+		private static final String RDF_REST=iriTerm(RDF.NS_RDF+"rest");
+		private static final String RDF_NIL=iriTerm(RDF.NS_RDF+"nil");
+
+		private final LinkedHashSet<URDNA2015.Quad> quads=new LinkedHashSet<>();
+		private final HashMap<String, String> blankNodeLabels=new HashMap<>();
+		private int blankNodeCounter;
+
+		private String newBlankNode(){
+			return "_:b"+(blankNodeCounter++);
+		}
+
+		private String nodeTerm(String id){
+			if(id.startsWith("_:"))
+				return blankNodeLabels.computeIfAbsent(id, k->newBlankNode());
+			if(!isAbsoluteIRI(id))
+				return null;
+			return "<"+id+">";
+		}
+
+		/**
+		 * @param graph the graph name as an N-Quads term, null for the default graph
+		 * @param emit whether to produce quads for this node. False for nodes in named graphs whose name isn't an absolute IRI.
+		 * @return the term that refers to this node, or null if its IRI is relative
+		 */
+		private String addNode(JsonObject node, String graph, boolean emit){
+			JsonElement id=node.get("@id");
+			String subject=id==null ? newBlankNode() : nodeTerm(id.getAsString());
+			boolean emitForSubject=emit && subject!=null;
+			for(Map.Entry<String, JsonElement> e:node.entrySet()){
+				String property=e.getKey();
+				JsonElement value=e.getValue();
+				switch(property){
+					case "@type" -> {
+						if(emitForSubject){
+							for(JsonElement type:value.isJsonArray() ? value.getAsJsonArray() : makeArray(value)){
+								String t=type.getAsString();
+								add(subject, RDF_TYPE, t.startsWith("_:") ? nodeTerm(t) : iriTerm(t), graph);
+							}
+						}
+					}
+					case "@reverse" -> {
+						for(Map.Entry<String, JsonElement> re:value.getAsJsonObject().entrySet()){
+							String predicate=!re.getKey().startsWith("_:") && isAbsoluteIRI(re.getKey()) ? iriTerm(re.getKey()) : null;
+							for(JsonElement item:re.getValue().isJsonArray() ? re.getValue().getAsJsonArray() : makeArray(re.getValue())){
+								String reverseSubject=addNode(item.getAsJsonObject(), graph, emit);
+								if(emitForSubject && predicate!=null && reverseSubject!=null)
+									add(reverseSubject, predicate, subject, graph);
+							}
+						}
+					}
+					case "@graph" -> {
+						for(JsonElement item:value.isJsonArray() ? value.getAsJsonArray() : makeArray(value)){
+							if(item.isJsonObject() && isNodeObject(item.getAsJsonObject()))
+								addNode(item.getAsJsonObject(), subject, subject!=null);
+						}
+					}
+					default -> {
+						if(isKeyword(property))
+							continue;
+						// Generalized RDF isn't produced, but nodes nested under such properties still need to be visited
+						String predicate=!property.startsWith("_:") && isAbsoluteIRI(property) ? iriTerm(property) : null;
+						boolean emitLink=emitForSubject && predicate!=null;
+						for(JsonElement item:value.isJsonArray() ? value.getAsJsonArray() : makeArray(value)){
+							if(!item.isJsonObject())
+								continue;
+							String object=objectTerm(item.getAsJsonObject(), graph, emit, emitLink);
+							if(emitLink && object!=null)
+								add(subject, predicate, object, graph);
+						}
+					}
+				}
+			}
+			return subject;
+		}
+
+		private String objectTerm(JsonObject item, String graph, boolean emit, boolean emitLink){
+			if(item.has("@value")){
+				return objectToRDF(item).toString();
+			}else if(item.has("@list")){
+				return listTerm(item.getAsJsonArray("@list"), graph, emit, emitLink);
+			}else{
+				return addNode(item, graph, emit);
+			}
+		}
+
+		private String listTerm(JsonArray list, String graph, boolean emit, boolean emitLink){
+			if(list.isEmpty())
+				return RDF_NIL;
+			String head=null, prev=null;
+			for(JsonElement item:list){
+				String node=emitLink ? newBlankNode() : null;
+				String object=objectTerm(item.getAsJsonObject(), graph, emit, emitLink);
+				if(!emitLink)
+					continue;
+				if(head==null)
+					head=node;
+				else
+					add(prev, RDF_REST, node, graph);
+				if(object!=null)
+					add(node, RDF_FIRST, object, graph);
+				prev=node;
+			}
+			if(prev!=null)
+				add(prev, RDF_REST, RDF_NIL, graph);
+			return head;
+		}
+
+		private void add(String subject, String predicate, String object, String graph){
+			quads.add(new URDNA2015.Quad(subject, predicate, object, graph));
+		}
+	}
+
 	public static JsonArray flatten(JsonElement element, URI baseURI){
 		JsonObject nodeMap=new JsonObject();
 		nodeMap.add("@default", new JsonObject());
@@ -1934,4 +2243,31 @@ public class JLDProcessor{
 		}
 		return flattened;
 	}
+
+	private static class ProcessedContext{
+		private final JLDContext context;
+		private final ProcessedContext parent;
+		private volatile JsonObject inverseContext;
+
+		private ProcessedContext(JLDContext context){
+			this(context, null);
+		}
+
+		/**
+		 * @param parent a processed context with the same term definitions whose inverse context can be shared
+		 */
+		private ProcessedContext(JLDContext context, ProcessedContext parent){
+			this.context=context;
+			this.parent=parent;
+		}
+
+		private JsonObject getInverseContext(){
+			if(parent!=null)
+				return parent.getInverseContext();
+			JsonObject inverse=inverseContext;
+			if(inverse==null)
+				inverseContext=inverse=createReverseContext(context);
+			return inverse;
+		}
+	}
 }
@@ -7,26 +7,57 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import smithereen.Utils;
 
 public class URDNA2015{
 
+	private static final ThreadLocal<MessageDigest> sha256=ThreadLocal.withInitial(()->{
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		}catch(NoSuchAlgorithmException x){
+			throw new RuntimeException(x);
+		}
+	});
+
 	public static List<RDFTriple> normalize(List<RDFTriple> input){
-		return new NormalizationState().normalize(input);
+		ArrayList<Quad> quads=new ArrayList<>(input.size());
+		for(RDFTriple t:input)
+			quads.add(Quad.of(t));
+		Map<String, String> canonicalIDs=issueCanonicalIdentifiers(quads);
+
+		ArrayList<RDFTriple> normalized=new ArrayList<>(input.size());
+		for(RDFTriple quad:input){
+			RDFTriple quadCopy=new RDFTriple(quad);
+			if(quadCopy.subject instanceof String s)
+				quadCopy.subject=canonicalIDs.get(s);
+			if(quadCopy.object instanceof String s)
+				quadCopy.object=canonicalIDs.get(s);
+			if(quadCopy.graphName instanceof String s)
+				quadCopy.graphName=canonicalIDs.get(s);
+			normalized.add(quadCopy);
+		}
+		return normalized;
 	}
 
 	public static String canonicalize(JsonObject json, URI baseURI){
-		List<RDFTriple> norm=normalize(JLDProcessor.toRDF(json, baseURI));
-		ArrayList<String> lines=new ArrayList<>(norm.size());
-		for(RDFTriple t:norm)
-			lines.add(t.toString());
-		Collections.sort(lines);
+		Collection<Quad> quads=JLDProcessor.toQuads(json, baseURI);
+		Map<String, String> canonicalIDs=issueCanonicalIdentifiers(quads);
+		ArrayList<String> lines=new ArrayList<>(quads.size());
 		StringBuilder sb=new StringBuilder();
+		for(Quad q:quads){
+			sb.setLength(0);
+			q.appendTo(sb, canonicalIDs, null);
+			lines.add(sb.toString());
+		}
+		Collections.sort(lines);
+		sb.setLength(0);
 		for(String line:lines){
 			sb.append(line);
 			sb.append('\n');
@@ -34,67 +65,107 @@ public class URDNA2015{
 		return sb.toString();
 	}
 
-	private static class NormalizationState{
-		public HashMap<String, ArrayList<RDFTriple>> blankNodeToQuadsMap=new HashMap<>();
-		public HashMap<String, ArrayList<String>> hashToBlankNodesMap=new HashMap<>();
-		public BlankNodeIssuer canonicalIssuer=new BlankNodeIssuer("_:c14n");
+	/**
+	 * Runs the canonical labeling algorithm.
+	 * @return a map from the input blank node identifiers to canonical ones
+	 */
+	private static Map<String, String> issueCanonicalIdentifiers(Collection<Quad> quads){
+		HashMap<String, ArrayList<Quad>> blankNodeToQuadsMap=new HashMap<>();
+		for(Quad quad:quads){
+			if(Quad.isBlankNode(quad.subject))
+				blankNodeToQuadsMap.computeIfAbsent(quad.subject, k->new ArrayList<>()).add(quad);
+			if(Quad.isBlankNode(quad.object))
+				blankNodeToQuadsMap.computeIfAbsent(quad.object, k->new ArrayList<>()).add(quad);
+			if(Quad.isBlankNode(quad.graph))
+				blankNodeToQuadsMap.computeIfAbsent(quad.graph, k->new ArrayList<>()).add(quad);
+		}
+		// Fast paths: nothing to relabel, or only one way to do it. Most LD signature options documents and many
+		// activities end up here.
+		if(blankNodeToQuadsMap.isEmpty())
+			return Map.of();
+		if(blankNodeToQuadsMap.size()==1)
+			return Map.of(blankNodeToQuadsMap.keySet().iterator().next(), "_:c14n0");
+		return new NormalizationState(blankNodeToQuadsMap).issueCanonicalIdentifiers();
+	}
+
+	/**
+	 * An RDF quad with every term already serialized the way it appears in N-Quads: {@code <iri>}, {@code _:label} or
+	 * a quoted literal. The graph is null for the default graph.
+	 */
+	record Quad(String subject, String predicate, String object, String graph){
+		static Quad of(RDFTriple t){
+			return new Quad(term(t.subject), term(t.predicate), term(t.object), t.graphName==null ? null : term(t.graphName));
+		}
 
-		private MessageDigest sha256;
+		static String term(Object o){
+			if(o instanceof URI)
+				return "<"+o+">";
+			return o.toString();
+		}
 
-		{
-			try{
-				sha256=MessageDigest.getInstance("SHA-256");
-			}catch(NoSuchAlgorithmException ignore){}
+		static boolean isBlankNode(String term){
+			return term!=null && term.charAt(0)=='_';
 		}
 
-		public List<RDFTriple> normalize(List<RDFTriple> input){
-			for(RDFTriple quad:input){
-				if(quad.object instanceof String){
-					String bnode=(String)quad.object;
-					if(!blankNodeToQuadsMap.containsKey(bnode))
-						blankNodeToQuadsMap.put(bnode, new ArrayList<>());
-					blankNodeToQuadsMap.get(bnode).add(quad);
-				}
-				if(quad.subject instanceof String){
-					String bnode=(String)quad.subject;
-					if(!blankNodeToQuadsMap.containsKey(bnode))
-						blankNodeToQuadsMap.put(bnode, new ArrayList<>());
-					blankNodeToQuadsMap.get(bnode).add(quad);
-				}
-				if(quad.graphName instanceof String){
-					String bnode=(String)quad.graphName;
-					if(!blankNodeToQuadsMap.containsKey(bnode))
-						blankNodeToQuadsMap.put(bnode, new ArrayList<>());
-					blankNodeToQuadsMap.get(bnode).add(quad);
-				}
+		/**
+		 * Appends this quad as an N-Quads line without the trailing line break. Blank nodes are replaced with their
+		 * labels from {@code labels}. If {@code ref} isn't null, it's replaced with {@code _:a} and any other blank node
+		 * with {@code _:z} instead, for first degree hashing.
+		 */
+		void appendTo(StringBuilder sb, Map<String, String> labels, String ref){
+			appendTerm(sb, subject, labels, ref);
+			sb.append(' ');
+			sb.append(predicate);
+			sb.append(' ');
+			appendTerm(sb, object, labels, ref);
+			if(graph!=null){
+				sb.append(' ');
+				appendTerm(sb, graph, labels, ref);
 			}
+			sb.append(" .");
+		}
 
-			ArrayList<String> nonNormalizedIdentifiers=new ArrayList<>(blankNodeToQuadsMap.keySet());
-			boolean simple=true;
-			while(simple){
-				simple=false;
-				hashToBlankNodesMap.clear();
-				for(String identifier:nonNormalizedIdentifiers){
-					String hash=hashFirstDegreeQuads(identifier);
-					if(!hashToBlankNodesMap.containsKey(hash))
-						hashToBlankNodesMap.put(hash, new ArrayList<>());
-					hashToBlankNodesMap.get(hash).add(identifier);
-				}
-				ArrayList<String> hashes=new ArrayList<>(hashToBlankNodesMap.keySet());
-				Collections.sort(hashes);
-				for(String hash:hashes){
-					ArrayList<String> idList=hashToBlankNodesMap.get(hash);
-					if(idList.size()>1)
-						continue;
-					canonicalIssuer.issue(idList.get(0));
-					nonNormalizedIdentifiers.remove(idList.get(0));
-					hashToBlankNodesMap.remove(hash);
-					simple=true;
-				}
+		private static void appendTerm(StringBuilder sb, String term, Map<String, String> labels, String ref){
+			if(!isBlankNode(term)){
+				sb.append(term);
+			}else if(ref!=null){
+				sb.append(term.equals(ref) ? "_:a" : "_:z");
+			}else{
+				sb.append(labels.get(term));
 			}
+		}
+	}
+
+	private static class NormalizationState{
+		private final HashMap<String, ArrayList<Quad>> blankNodeToQuadsMap;
+		private final HashMap<String, String> firstDegreeHashes=new HashMap<>();
+		private final BlankNodeIssuer canonicalIssuer=new BlankNodeIssuer("_:c14n");
+		private final MessageDigest sha256=URDNA2015.sha256.get();
+		private final StringBuilder lineBuilder=new StringBuilder();
+
+		private NormalizationState(HashMap<String, ArrayList<Quad>> blankNodeToQuadsMap){
+			this.blankNodeToQuadsMap=blankNodeToQuadsMap;
+		}
+
+		public Map<String, String> issueCanonicalIdentifiers(){
+			HashMap<String, ArrayList<String>> hashToBlankNodesMap=new HashMap<>();
+			for(String identifier:blankNodeToQuadsMap.keySet()){
+				hashToBlankNodesMap.computeIfAbsent(hashFirstDegreeQuads(identifier), k->new ArrayList<>()).add(identifier);
+			}
+			// First degree hashes don't change once computed, so a single pass over them in sorted order is equivalent
+			// to repeating it until no more unique hashes are found
 			ArrayList<String> hashes=new ArrayList<>(hashToBlankNodesMap.keySet());
 			Collections.sort(hashes);
+			ArrayList<String> sharedHashes=new ArrayList<>();
 			for(String hash:hashes){
+				ArrayList<String> idList=hashToBlankNodesMap.get(hash);
+				if(idList.size()>1){
+					sharedHashes.add(hash);
+					continue;
+				}
+				canonicalIssuer.issue(idList.getFirst());
+			}
+			for(String hash:sharedHashes){
 				ArrayList<String> idList=hashToBlankNodesMap.get(hash);
 				ArrayList<HashNResult> hashPathList=new ArrayList<>();
 				for(String id:idList){
@@ -104,70 +175,35 @@ public class URDNA2015{
 					tempIssuer.issue(id);
 					hashPathList.add(hashNDegreeQuads(id, tempIssuer));
 				}
-				hashPathList.sort(new Comparator<HashNResult>(){
-					@Override
-					public int compare(HashNResult o1, HashNResult o2){
-						return o1.hash.compareTo(o2.hash);
-					}
-				});
+				hashPathList.sort(Comparator.comparing(r->r.hash));
 				for(HashNResult result:hashPathList){
 					for(String existingID:result.issuer.issuedIdentifiersList){
 						canonicalIssuer.issue(existingID);
 					}
 				}
 			}
-
-			ArrayList<RDFTriple> normalized=new ArrayList<>();
-			for(RDFTriple quad:input){
-				RDFTriple quadCopy=new RDFTriple(quad);
-				if(quadCopy.subject instanceof String)
-					quadCopy.subject=canonicalIssuer.issue((String)quadCopy.subject);
-				if(quadCopy.object instanceof String)
-					quadCopy.object=canonicalIssuer.issue((String)quadCopy.object);
-				if(quadCopy.graphName instanceof String)
-					quadCopy.graphName=canonicalIssuer.issue((String)quadCopy.graphName);
-				normalized.add(quadCopy);
-			}
-
-			return normalized;
+			return canonicalIssuer.issuedIdentifiersMap;
 		}
 
 		private String hashFirstDegreeQuads(String refBlankNodeID){
-			ArrayList<String> nquads=new ArrayList<>();
-			ArrayList<RDFTriple> quads=blankNodeToQuadsMap.get(refBlankNodeID);
-			for(RDFTriple quad:quads){
-				RDFTriple _quad=quad;
-				if(quad.object instanceof String){
-					String bnode=(String)quad.object;
-					_quad=new RDFTriple(quad);
-					if(bnode.equals(refBlankNodeID))
-						_quad.object="_:a";
-					else
-						_quad.object="_:z";
-				}
-				if(quad.subject instanceof String){
-					String bnode=(String)quad.subject;
-					if(_quad==quad)
-						_quad=new RDFTriple(quad);
-					if(bnode.equals(refBlankNodeID))
-						_quad.subject="_:a";
-					else
-						_quad.subject="_:z";
-				}
-				if(quad.graphName instanceof String){
-					String bnode=(String)quad.graphName;
-					if(_quad==quad)
-						_quad=new RDFTriple(quad);
-					if(bnode.equals(refBlankNodeID))
-						_quad.graphName="_:a";
-					else
-						_quad.graphName="_:z";
-				}
-				String serialized=_quad.toString();
-				nquads.add(serialized);
+			String hash=firstDegreeHashes.get(refBlankNodeID);
+			if(hash!=null)
+				return hash;
+			ArrayList<Quad> quads=blankNodeToQuadsMap.get(refBlankNodeID);
+			ArrayList<String> nquads=new ArrayList<>(quads.size());
+			for(Quad quad:quads){
+				lineBuilder.setLength(0);
+				quad.appendTo(lineBuilder, null, refBlankNodeID);
+				nquads.add(lineBuilder.toString());
 			}
 			Collections.sort(nquads);
-			return hash(String.join("\n", nquads)+'\n');
+			for(String line:nquads){
+				sha256.update(line.getBytes(StandardCharsets.UTF_8));
+				sha256.update((byte)'\n');
+			}
+			hash=Utils.byteArrayToHexString(sha256.digest());
+			firstDegreeHashes.put(refBlankNodeID, hash);
+			return hash;
 		}
 
 		private <T> List<List<T>> listPermutations(List<T> list) {
@@ -193,34 +229,16 @@ public class URDNA2015{
 
 		private HashNResult hashNDegreeQuads(String identifier, BlankNodeIssuer issuer){
 			HashMap<String, ArrayList<String>> hashToRelatedBlankNodesMap=new HashMap<>();
-			ArrayList<RDFTriple> quads=blankNodeToQuadsMap.get(identifier);
-			for(RDFTriple quad:quads){
-				if(quad.subject instanceof String){
-					String bnode=(String)quad.subject;
-					if(!bnode.equals(identifier)){
-						String hash=hashRelatedBlankNode(bnode, quad, issuer, "s");
-						if(!hashToRelatedBlankNodesMap.containsKey(hash))
-							hashToRelatedBlankNodesMap.put(hash, new ArrayList<>());
-						hashToRelatedBlankNodesMap.get(hash).add(bnode);
-					}
+			ArrayList<Quad> quads=blankNodeToQuadsMap.get(identifier);
+			for(Quad quad:quads){
+				if(Quad.isBlankNode(quad.subject) && !quad.subject.equals(identifier)){
+					hashToRelatedBlankNodesMap.computeIfAbsent(hashRelatedBlankNode(quad.subject, quad, issuer, 's'), k->new ArrayList<>()).add(quad.subject);
 				}
-				if(quad.object instanceof String){
-					String bnode=(String)quad.object;
-					if(!bnode.equals(identifier)){
-						String hash=hashRelatedBlankNode(bnode, quad, issuer, "o");
-						if(!hashToRelatedBlankNodesMap.containsKey(hash))
-							hashToRelatedBlankNodesMap.put(hash, new ArrayList<>());
-						hashToRelatedBlankNodesMap.get(hash).add(bnode);
-					}
+				if(Quad.isBlankNode(quad.object) && !quad.object.equals(identifier)){
+					hashToRelatedBlankNodesMap.computeIfAbsent(hashRelatedBlankNode(quad.object, quad, issuer, 'o'), k->new ArrayList<>()).add(quad.object);
 				}
-				if(quad.graphName instanceof String){
-					String bnode=(String)quad.graphName;
-					if(!bnode.equals(identifier)){
-						String hash=hashRelatedBlankNode(bnode, quad, issuer, "g");
-						if(!hashToRelatedBlankNodesMap.containsKey(hash))
-							hashToRelatedBlankNodesMap.put(hash, new ArrayList<>());
-						hashToRelatedBlankNodesMap.get(hash).add(bnode);
-					}
+				if(Quad.isBlankNode(quad.graph) && !quad.graph.equals(identifier)){
+					hashToRelatedBlankNodesMap.computeIfAbsent(hashRelatedBlankNode(quad.graph, quad, issuer, 'g'), k->new ArrayList<>()).add(quad.graph);
 				}
 			}
 			StringBuilder dataToHash=new StringBuilder();
@@ -268,12 +286,12 @@ public class URDNA2015{
 				issuer=chosenIssuer;
 			}
 			HashNResult result=new HashNResult();
-			result.hash=hash(dataToHash.toString());
+			result.hash=hash(dataToHash);
 			result.issuer=issuer;
 			return result;
 		}
 
-		private String hashRelatedBlankNode(String related, RDFTriple quad, BlankNodeIssuer issuer, String position){
+		private String hashRelatedBlankNode(String related, Quad quad, BlankNodeIssuer issuer, char position){
 			String identifier;
 			if(canonicalIssuer.issuedIdentifiersMap.containsKey(related))
 				identifier=canonicalIssuer.issuedIdentifiersMap.get(related);
@@ -281,18 +299,16 @@ public class URDNA2015{
 				identifier=issuer.issuedIdentifiersMap.get(related);
 			else
 				identifier=hashFirstDegreeQuads(related);
-			StringBuilder input=new StringBuilder(position);
-			if(!"g".equals(position)){
-				input.append('<');
-				input.append(quad.predicate);
-				input.append('>');
-			}
-			input.append(identifier);
-			return hash(input.toString());
+			lineBuilder.setLength(0);
+			lineBuilder.append(position);
+			if(position!='g')
+				lineBuilder.append(quad.predicate);
+			lineBuilder.append(identifier);
+			return hash(lineBuilder);
 		}
 
-		private String hash(String src){
-			return Utils.byteArrayToHexString(sha256.digest(src.getBytes(StandardCharsets.UTF_8)));
+		private String hash(CharSequence src){
+			return Utils.byteArrayToHexString(sha256.digest(src.toString().getBytes(StandardCharsets.UTF_8)));
 		}
 
 		private static class HashNResult{
@@ -319,9 +335,10 @@ public class URDNA2015{
 		}
 
 		public String issue(String existingID){
-			if(issuedIdentifiersMap.containsKey(existingID))
-				return issuedIdentifiersMap.get(existingID);
-			String issuedID=identifierPrefix+identifierCounter;
+			String issuedID=issuedIdentifiersMap.get(existingID);
+			if(issuedID!=null)
+				return issuedID;
+			issuedID=identifierPrefix+identifierCounter;
 			issuedIdentifiersList.add(existingID);
 			issuedIdentifiersMap.put(existingID, issuedID);
 			identifierCounter++;
@@ -0,0 +1,26 @@
+package smithereen.model.admin;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+
+import smithereen.storage.DatabaseUtils;
+
+public record MaintenanceJobRun(long id, String job, String node, Instant startedAt, long durationMillis, Outcome outcome, String error){
+	public static MaintenanceJobRun fromResultSet(ResultSet res) throws SQLException{
+		return new MaintenanceJobRun(
+				res.getLong("id"),
+				res.getString("job"),
+				res.getString("node"),
+				DatabaseUtils.getInstant(res, "started_at"),
+				res.getLong("duration"),
+				Outcome.values()[res.getInt("outcome")],
+				res.getString("error")
+		);
+	}
+
+	public enum Outcome{
+		SUCCESS,
+		FAILED
+	}
+}
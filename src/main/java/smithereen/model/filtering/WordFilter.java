@@ -7,12 +7,9 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import smithereen.Utils;
 import smithereen.storage.DatabaseUtils;
-import smithereen.text.TextProcessor;
 
 public class WordFilter{
 	public final int id;
@@ -20,7 +17,6 @@ public class WordFilter{
 	public final List<String> words;
 	public final EnumSet<FilterContext> contexts;
 	public final Instant expiresAt;
-	public final Pattern regex;
 
 	public WordFilter(int id, String name, List<String> words, EnumSet<FilterContext> contexts, Instant expiresAt){
 		this.id=id;
@@ -28,7 +24,6 @@ public class WordFilter{
 		this.words=words;
 		this.contexts=contexts;
 		this.expiresAt=expiresAt;
-		this.regex=Pattern.compile("\\b("+words.stream().map(TextProcessor::escapeHTML).map(Pattern::quote).collect(Collectors.joining("|"))+")\\b", Pattern.CASE_INSENSITIVE);
 	}
 
 	public static WordFilter fromResultSet(ResultSet res) throws SQLException{
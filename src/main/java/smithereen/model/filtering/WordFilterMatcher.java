@@ -0,0 +1,188 @@
+package smithereen.model.filtering;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import smithereen.text.TextProcessor;
+
+/**
+ * Finds which of a user's word filters matches a text in a single pass over it, using an Aho-Corasick automaton built from
+ * the words of all of the filters.
+ * <p>
+ * A word matches the same way as {@code \b(word)\b} with the {@code CASE_INSENSITIVE}, {@code UNICODE_CASE} and
+ * {@code UNICODE_CHARACTER_CLASS} flags would: characters are compared after simple case folding, and the match must start and
+ * end at a word boundary, where word characters are letters, digits, combining marks and connector punctuation from any script.
+ * Words are HTML-escaped because post texts are HTML.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class WordFilterMatcher{
+	private final List<WordFilter> filters;
+	// Node 0 is the root. Transitions of each node are sorted by code point for binary search.
+	private final int[][] transitionCodePoints;
+	private final int[][] transitionTargets;
+	private final int[] failure;
+	/**
+	 * The nearest node down the failure chain, not counting the node itself, where a word ends, or -1
+	 */
+	private final int[] outputLink;
+	/**
+	 * The length in code points of the prefix this node stands for
+	 */
+	private final int[] depth;
+	/**
+	 * The lowest index of a filter that has the word ending at this node, or -1 if no word ends here
+	 */
+	private final int[] filterIndex;
+	/**
+	 * The lowest index of a filter that has an empty word, which matches at any word boundary, or -1
+	 */
+	private final int emptyWordFilterIndex;
+
+	public WordFilterMatcher(List<WordFilter> filters){
+		this.filters=List.copyOf(filters);
+		ArrayList<HashMap<Integer, Integer>> children=new ArrayList<>();
+		ArrayList<Integer> depths=new ArrayList<>(), filterIndices=new ArrayList<>();
+		children.add(new HashMap<>());
+		depths.add(0);
+		filterIndices.add(-1);
+		int emptyWordFilterIndex=-1;
+		for(int i=0;i<this.filters.size();i++){
+			for(String word:this.filters.get(i).words){
+				int node=0;
+				for(int cp:TextProcessor.escapeHTML(word).codePoints().toArray()){
+					int c=foldCase(cp);
+					Integer next=children.get(node).get(c);
+					if(next==null){
+						next=children.size();
+						children.add(new HashMap<>());
+						depths.add(depths.get(node)+1);
+						filterIndices.add(-1);
+						children.get(node).put(c, next);
+					}
+					node=next;
+				}
+				if(node==0){
+					if(emptyWordFilterIndex==-1)
+						emptyWordFilterIndex=i;
+				}else if(filterIndices.get(node)==-1){
+					filterIndices.set(node, i);
+				}
+			}
+		}
+		this.emptyWordFilterIndex=emptyWordFilterIndex;
+
+		int count=children.size();
+		transitionCodePoints=new int[count][];
+		transitionTargets=new int[count][];
+		failure=new int[count];
+		outputLink=new int[count];
+		depth=new int[count];
+		filterIndex=new int[count];
+		for(int i=0;i<count;i++){
+			HashMap<Integer, Integer> nodeChildren=children.get(i);
+			int[] codePoints=nodeChildren.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+			int[] targets=new int[codePoints.length];
+			for(int j=0;j<codePoints.length;j++){
+				targets[j]=nodeChildren.get(codePoints[j]);
+			}
+			transitionCodePoints[i]=codePoints;
+			transitionTargets[i]=targets;
+			depth[i]=depths.get(i);
+			filterIndex[i]=filterIndices.get(i);
+		}
+
+		// Failure links are computed breadth-first so that those of all shallower nodes are known
+		outputLink[0]=-1;
+		ArrayDeque<Integer> queue=new ArrayDeque<>();
+		queue.add(0);
+		while(!queue.isEmpty()){
+			int node=queue.poll();
+			for(Map.Entry<Integer, Integer> e:children.get(node).entrySet()){
+				int c=e.getKey(), child=e.getValue();
+				int fail=0;
+				if(node!=0){
+					int f=failure[node];
+					int next;
+					while((next=transition(f, c))==-1 && f!=0)
+						f=failure[f];
+					fail=Math.max(next, 0);
+				}
+				failure[child]=fail;
+				outputLink[child]=filterIndex[fail]!=-1 ? fail : outputLink[fail];
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @return the first filter, in the order they were passed to the constructor, that has a word matching somewhere in the text,
+	 * or null if none do
+	 */
+	public @Nullable WordFilter findMatchingFilter(String text){
+		int[] codePoints=text.codePoints().toArray();
+		int best=Integer.MAX_VALUE;
+		if(emptyWordFilterIndex!=-1){
+			for(int i=0;i<=codePoints.length;i++){
+				if(isBoundary(codePoints, i)){
+					best=emptyWordFilterIndex;
+					break;
+				}
+			}
+		}
+		int node=0;
+		for(int i=0;i<codePoints.length && best>0;i++){
+			int c=foldCase(codePoints[i]);
+			int next;
+			while((next=transition(node, c))==-1 && node!=0)
+				node=failure[node];
+			node=Math.max(next, 0);
+			int out=filterIndex[node]!=-1 ? node : outputLink[node];
+			if(out==-1 || !isBoundary(codePoints, i+1))
+				continue;
+			for(;out!=-1;out=outputLink[out]){
+				int index=filterIndex[out];
+				if(index<best && isBoundary(codePoints, i+1-depth[out])){
+					best=index;
+				}
+			}
+		}
+		return best==Integer.MAX_VALUE ? null : filters.get(best);
+	}
+
+	private int transition(int node, int codePoint){
+		int index=Arrays.binarySearch(transitionCodePoints[node], codePoint);
+		return index<0 ? -1 : transitionTargets[node][index];
+	}
+
+	/**
+	 * Same as what a case-insensitive {@link java.util.regex.Pattern} with {@code UNICODE_CASE} compares.
+	 */
+	private static int foldCase(int codePoint){
+		return Character.toLowerCase(Character.toUpperCase(codePoint));
+	}
+
+	/**
+	 * Whether there's a word boundary before the code point at {@code index}, the same way as {@code \b} with {@code UNICODE_CHARACTER_CLASS}.
+	 */
+	private static boolean isBoundary(int[] codePoints, int index){
+		boolean left=index>0 && isWordCharacter(codePoints[index-1]);
+		boolean right=index<codePoints.length && isWordCharacter(codePoints[index]);
+		return left!=right;
+	}
+
+	private static boolean isWordCharacter(int codePoint){
+		if(Character.isAlphabetic(codePoint))
+			return true;
+		return switch(Character.getType(codePoint)){
+			case Character.NON_SPACING_MARK, Character.ENCLOSING_MARK, Character.COMBINING_SPACING_MARK, Character.DECIMAL_DIGIT_NUMBER, Character.CONNECTOR_PUNCTUATION -> true;
+			default -> codePoint==0x200C || codePoint==0x200D; // join controls
+		};
+	}
+}
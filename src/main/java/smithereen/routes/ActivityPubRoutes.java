@@ -21,6 +21,8 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import smithereen.ApplicationContext;
@@ -28,6 +30,7 @@ import smithereen.BuildInfo;
 import smithereen.Config;
 import smithereen.Utils;
 import smithereen.activitypub.ActivityHandlerContext;
+import smithereen.activitypub.ActivityHandlerStats;
 import smithereen.activitypub.ActivityPub;
 import smithereen.activitypub.ActivityPubCache;
 import smithereen.activitypub.ActivityTypeHandler;
@@ -202,6 +205,13 @@ public class ActivityPubRoutes{
 	 */
 	private static final ArrayList<ActivityTypeOnlyHandlerRecord<?>> typeOnlyHandlers=new ArrayList<>();
 
+	/**
+	 * Records from typeHandlers that can possibly match a given (actor class, activity class, object class),
+	 * in registration order. Filled lazily as new class combinations are seen.
+	 */
+	private static final ConcurrentHashMap<HandlerDispatchKey, List<ActivityTypeHandlerRecord<?, ?, ?, ?, ?>>> typeHandlerIndex=new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Class<?>, Optional<ActivityTypeOnlyHandlerRecord<?>>> typeOnlyHandlerIndex=new ConcurrentHashMap<>();
+
 	public static void registerActivityHandlers(){
 		registerActivityHandler(ForeignUser.class, Create.class, NoteOrQuestion.class, new CreateNoteHandler());
 		registerActivityHandler(ForeignUser.class, Announce.class, NoteOrQuestion.class, new AnnounceNoteHandler());
@@ -910,23 +920,29 @@ public class ActivityPubRoutes{
 			resp.status(403);
 			return "This is a service actor and it's not supposed to send activities";
 		}
-		if(fa.needUpdate() && canUpdate){
-			try{
-				actor=ctx.getObjectLinkResolver().resolve(activity.actor.link, Actor.class, true, true, true);
-			}catch(ObjectNotFoundException x){
-				LOG.debug("Exception while refreshing remote actor {}", activity.actor.link, x);
-			}
-		}
-
 		Actor httpSigOwner;
 		try{
 			httpSigOwner=ActivityPub.verifyHttpSignature(req, actor);
 		}catch(Exception x){
-			LOG.warn("Exception while verifying HTTP signature on {} from {}: {}", getActivityType(activity), actor.activityPubID, x.toString());
-			if(Config.DEBUG)
-				LOG.debug("", x);
-			throw new UserActionNotAllowedException(x);
+			// Our copy of the actor might have a key that was rotated since, and this is the one case where the refresh can't wait
+			if(!fa.needUpdate() || !canUpdate){
+				LOG.warn("Exception while verifying HTTP signature on {} from {}: {}", getActivityType(activity), actor.activityPubID, x.toString());
+				if(Config.DEBUG)
+					LOG.debug("", x);
+				throw new UserActionNotAllowedException(x);
+			}
+			try{
+				actor=ctx.getObjectLinkResolver().resolve(activity.actor.link, Actor.class, true, true, true);
+				httpSigOwner=ActivityPub.verifyHttpSignature(req, actor);
+			}catch(Exception xx){
+				LOG.warn("Exception while verifying HTTP signature on {} from {} after refreshing the actor: {}", getActivityType(activity), actor.activityPubID, xx.toString());
+				if(Config.DEBUG)
+					LOG.debug("", xx);
+				throw new UserActionNotAllowedException(xx);
+			}
 		}
+		if(canUpdate)
+			ctx.getActorRefreshWorker().scheduleRefreshIfNeeded(actor);
 
 		// if the activity has an LD-signature, verify that and allow any (cached) user to sign the HTTP signature
 		// if it does not, the owner of the HTTP signature must match the actor
@@ -973,13 +989,19 @@ public class ActivityPubRoutes{
 			ctx.getModerationController().resetServerAvailability(server);
 		}
 
+		ActivityTypeHandler<?, ?, ?> matchedHandler=null;
+		long handlerStartTime=0;
+		boolean handlerFailed=true;
 		try{
 			// First, try matching by activity type only
-			for(ActivityTypeOnlyHandlerRecord r:typeOnlyHandlers){
-				if(r.activityClass.isInstance(activity)){
-					r.handler.handle(context, actor, activity, null);
-					return "";
-				}
+			Optional<ActivityTypeOnlyHandlerRecord<?>> typeOnlyHandler=typeOnlyHandlerIndex.computeIfAbsent(activity.getClass(),
+					ac->typeOnlyHandlers.stream().filter(r->r.activityClass.isAssignableFrom(ac)).findFirst());
+			if(typeOnlyHandler.isPresent()){
+				matchedHandler=typeOnlyHandler.get().handler;
+				handlerStartTime=System.nanoTime();
+				invokeHandler(matchedHandler, context, actor, activity, null);
+				handlerFailed=false;
+				return "";
 			}
 			if(activity.object==null){
 				// Something unsupported that doesn't have an object/link
@@ -1026,39 +1048,44 @@ public class ActivityPubRoutes{
 					aobj=ctx.getObjectLinkResolver().resolve(activity.object.link, ActivityPubObject.class, allowFetching, !allowFetching, false, collectionOwner, true);
 				}
 			}
-			for(ActivityTypeHandlerRecord r:typeHandlers){
-				if(r.actorClass.isInstance(actor)){
-					if(r.activityClass.isInstance(activity)){
-						if(r.nestedActivityClass!=null && aobj instanceof Activity nestedActivity && r.nestedActivityClass.isInstance(aobj)){
-							ActivityPubObject nestedObject;
-							if(nestedActivity.object.object!=null)
-								nestedObject=nestedActivity.object.object;
-							else
-								nestedObject=ctx.getObjectLinkResolver().resolve(nestedActivity.object.link);
-
-							if(r.doublyNestedActivityClass!=null && nestedObject instanceof Activity doublyNestedActivity && r.doublyNestedActivityClass.isInstance(nestedObject)){
-								ActivityPubObject doublyNestedObject;
-								if(doublyNestedActivity.object.object!=null)
-									doublyNestedObject=nestedActivity.object.object;
-								else
-									doublyNestedObject=ctx.getObjectLinkResolver().resolve(nestedActivity.object.link);
-
-								if(r.objectClass.isInstance(doublyNestedObject)){
-									LOG.debug("Found match: {}", r.handler.getClass().getName());
-									((DoublyNestedActivityTypeHandler)r.handler).handle(context, actor, activity, nestedActivity, doublyNestedActivity, doublyNestedObject);
-									return "";
-								}
-							}else if(r.objectClass.isInstance(nestedObject)){
-								LOG.debug("Found match: {}", r.handler.getClass().getName());
-								((NestedActivityTypeHandler)r.handler).handle(context, actor, activity, nestedActivity, nestedObject);
-								return "";
-							}
-						}else if(r.objectClass.isInstance(aobj)){
+			for(ActivityTypeHandlerRecord r:typeHandlerIndex.computeIfAbsent(new HandlerDispatchKey(actor.getClass(), activity.getClass(), aobj==null ? null : aobj.getClass()), ActivityPubRoutes::findCandidateHandlers)){
+				if(r.nestedActivityClass!=null && aobj instanceof Activity nestedActivity && r.nestedActivityClass.isInstance(aobj)){
+					ActivityPubObject nestedObject;
+					if(nestedActivity.object.object!=null)
+						nestedObject=nestedActivity.object.object;
+					else
+						nestedObject=ctx.getObjectLinkResolver().resolve(nestedActivity.object.link);
+
+					if(r.doublyNestedActivityClass!=null && nestedObject instanceof Activity doublyNestedActivity && r.doublyNestedActivityClass.isInstance(nestedObject)){
+						ActivityPubObject doublyNestedObject;
+						if(doublyNestedActivity.object.object!=null)
+							doublyNestedObject=nestedActivity.object.object;
+						else
+							doublyNestedObject=ctx.getObjectLinkResolver().resolve(nestedActivity.object.link);
+
+						if(r.objectClass.isInstance(doublyNestedObject)){
 							LOG.debug("Found match: {}", r.handler.getClass().getName());
-							r.handler.handle(context, actor, activity, aobj);
+							matchedHandler=r.handler;
+							handlerStartTime=System.nanoTime();
+							((DoublyNestedActivityTypeHandler)r.handler).handle(context, actor, activity, nestedActivity, doublyNestedActivity, doublyNestedObject);
+							handlerFailed=false;
 							return "";
 						}
+					}else if(r.objectClass.isInstance(nestedObject)){
+						LOG.debug("Found match: {}", r.handler.getClass().getName());
+						matchedHandler=r.handler;
+						handlerStartTime=System.nanoTime();
+						((NestedActivityTypeHandler)r.handler).handle(context, actor, activity, nestedActivity, nestedObject);
+						handlerFailed=false;
+						return "";
 					}
+				}else if(r.objectClass.isInstance(aobj)){
+					LOG.debug("Found match: {}", r.handler.getClass().getName());
+					matchedHandler=r.handler;
+					handlerStartTime=System.nanoTime();
+					r.handler.handle(context, actor, activity, aobj);
+					handlerFailed=false;
+					return "";
 				}
 			}
 		}catch(UserActionNotAllowedException x){
@@ -1071,6 +1098,9 @@ public class ActivityPubRoutes{
 			LOG.debug("Bad request", x);
 			resp.status(400);
 			return TextProcessor.escapeHTML(x.getMessage());
+		}finally{
+			if(matchedHandler!=null)
+				ActivityHandlerStats.record(matchedHandler.getClass(), System.nanoTime()-handlerStartTime, handlerFailed);
 		}/*catch(Exception x){
 			LOG.warn("Exception while processing an incoming activity", x);
 			throw new BadRequestException(x.toString());
@@ -1082,6 +1112,29 @@ public class ActivityPubRoutes{
 		return "";
 	}
 
+	/**
+	 * Narrows typeHandlers down to those whose actor, activity and either nested activity or object classes are compatible.
+	 * The rest of the matching depends on nested objects that may need to be fetched, so it still happens per activity.
+	 */
+	private static List<ActivityTypeHandlerRecord<?, ?, ?, ?, ?>> findCandidateHandlers(HandlerDispatchKey key){
+		// A null object (e.g. it failed to resolve) can't be an instance of anything, so nothing would match it
+		if(key.objectClass==null)
+			return List.of();
+		return typeHandlers.stream()
+				.filter(r->r.actorClass.isAssignableFrom(key.actorClass) && r.activityClass.isAssignableFrom(key.activityClass)
+						&& ((r.nestedActivityClass!=null && r.nestedActivityClass.isAssignableFrom(key.objectClass)) || r.objectClass.isAssignableFrom(key.objectClass)))
+				.toList();
+	}
+
+	/**
+	 * The handler was chosen by matching these exact objects against its classes, so the casts are safe
+	 */
+	@SuppressWarnings("unchecked")
+	private static <A extends Actor, T extends Activity, O extends ActivityPubObject> void invokeHandler(ActivityTypeHandler<A, T, O> handler, ActivityHandlerContext context,
+																										Actor actor, Activity activity, ActivityPubObject object) throws SQLException{
+		handler.handle(context, (A)actor, (T)activity, (O)object);
+	}
+
 	private static String getActivityType(ActivityPubObject obj){
 		String r=obj.getType();
 		if(obj instanceof Activity a && a.object!=null){
@@ -1362,4 +1415,7 @@ public class ActivityPubRoutes{
 
 	private record ActivityTypeOnlyHandlerRecord<T extends Activity>(@NotNull Class<T> activityClass, @NotNull ActivityTypeHandler<?, T, ?> handler){
 	}
+
+	private record HandlerDispatchKey(Class<?> actorClass, Class<?> activityClass, Class<?> objectClass){
+	}
 }
@@ -29,6 +29,7 @@ import smithereen.activitypub.objects.Actor;
 import smithereen.activitypub.objects.Image;
 import smithereen.activitypub.objects.LocalImage;
 import smithereen.activitypub.objects.PropertyValue;
+import smithereen.controllers.ActorRefreshWorker;
 import smithereen.controllers.GroupsController;
 import smithereen.controllers.ObjectLinkResolver;
 import smithereen.exceptions.ObjectNotFoundException;
@@ -66,6 +67,7 @@ import smithereen.templates.RenderedTemplateResponse;
 import smithereen.templates.Templates;
 import smithereen.text.TextProcessor;
 import smithereen.text.Whitelist;
+import smithereen.util.ParallelLoader;
 import smithereen.util.XTEA;
 import spark.Request;
 import spark.Response;
@@ -264,13 +266,56 @@ public class GroupsRoutes{
 				needUsers.add(group.banInfo.moderatorID());
 		}
 
-		// Public info: still visible for non-members in public groups
-		List<User> members=ctx.getGroupsController().getRandomMembersForProfile(group, false);
+		// Public info: still visible for non-members in public groups, loaded in parallel with the content
+		boolean mobile=isMobile(req);
+		CommentViewType viewType=self!=null ? self.prefs.commentViewType : CommentViewType.THREADED;
+		boolean loadCommentPreviews=req.attribute("mobile")==null;
+		boolean loadWall=canAccessContent && group.wallState!=GroupFeatureState.DISABLED;
+		boolean loadAlbums=canAccessContent && group.photosState!=GroupFeatureState.DISABLED;
+		boolean loadBoard=canAccessContent && group.boardState!=GroupFeatureState.DISABLED;
+		int offset=offset(req);
+		ParallelLoader.Subtask<List<User>> membersTask, tentativeMembersTask;
+		ParallelLoader.Subtask<List<GroupAdmin>> adminsTask;
+		ParallelLoader.Subtask<GroupWall> wallTask;
+		ParallelLoader.Subtask<GroupAlbums> albumsTask;
+		ParallelLoader.Subtask<PaginatedList<BoardTopic>> topicsTask;
+		ParallelLoader.Subtask<List<GroupLink>> linksTask;
+		ParallelLoader.Subtask<Photo> avatarPhotoTask;
+		try(ParallelLoader loader=new ParallelLoader()){
+			membersTask=loader.fork(()->ctx.getGroupsController().getRandomMembersForProfile(group, false));
+			tentativeMembersTask=group.isEvent() ? loader.fork(()->ctx.getGroupsController().getRandomMembersForProfile(group, true)) : null;
+			adminsTask=loader.fork(()->ctx.getGroupsController().getAdmins(group));
+			wallTask=loadWall ? loader.fork(()->loadGroupWall(ctx, self!=null ? self.user : null, group, offset, viewType, loadCommentPreviews)) : null;
+			albumsTask=loadAlbums ? loader.fork(()->{
+				PaginatedList<PhotoAlbum> albums;
+				if(mobile)
+					albums=ctx.getPhotosController().getMostRecentAlbums(group, self!=null ? self.user : null, 1, true);
+				else
+					albums=ctx.getPhotosController().getRandomAlbumsForProfile(group, self!=null ? self.user : null, 2);
+				return new GroupAlbums(albums, ctx.getPhotosController().getPhotosIgnoringPrivacy(albums.list.stream().map(a->a.coverID).filter(id->id!=0).collect(Collectors.toSet())));
+			}) : null;
+			topicsTask=loadBoard ? loader.fork(()->ctx.getBoardController().getTopicsIgnoringPrivacy(group, 0, 3, BoardTopicsSortOrder.UPDATED_DESC)) : null;
+			linksTask=canAccessContent ? loader.fork(()->ctx.getGroupsController().getLinks(group)) : null;
+			avatarPhotoTask=loader.fork(()->{
+				try{
+					return switch(group.getAvatarImage()){
+						case LocalImage li when li.photoID!=0 -> ctx.getPhotosController().getPhotoIgnoringPrivacy(li.photoID);
+						case Image img when img.photoApID!=null -> ctx.getObjectLinkResolver().resolveLocally(img.photoApID, Photo.class);
+						case null, default -> null;
+					};
+				}catch(ObjectNotFoundException x){
+					return null;
+				}
+			});
+			loader.join();
+		}
+
+		List<User> members=membersTask.get();
 		model.with("group", group).with("members", members);
-		if(group.isEvent())
-			model.with("tentativeMembers", ctx.getGroupsController().getRandomMembersForProfile(group, true));
+		if(tentativeMembersTask!=null)
+			model.with("tentativeMembers", tentativeMembersTask.get());
 		model.with("title", group.name);
-		List<GroupAdmin> admins=ctx.getGroupsController().getAdmins(group);
+		List<GroupAdmin> admins=adminsTask.get();
 		model.with("canAccessContent", canAccessContent);
 		for(GroupAdmin admin:admins){
 			needUsers.add(admin.userID);
@@ -279,16 +324,10 @@ public class GroupsRoutes{
 		int wallPostsCount=0;
 		if(canAccessContent){
 			// Wall posts
-			if(group.wallState!=GroupFeatureState.DISABLED){
-				int offset=offset(req);
-				PaginatedList<PostViewModel> wall=PostViewModel.wrap(ctx.getWallController().getWallPosts(self!=null ? self.user : null, group, false, offset, 20));
+			if(wallTask!=null){
+				GroupWall groupWall=wallTask.get();
+				PaginatedList<PostViewModel> wall=groupWall.wall();
 				wallPostsCount=wall.total;
-				ctx.getWallController().populateReposts(self!=null ? self.user : null, wall.list, 2);
-				CommentViewType viewType=self!=null ? self.prefs.commentViewType : CommentViewType.THREADED;
-				if(req.attribute("mobile")==null){
-					ctx.getWallController().populateCommentPreviews(self!=null ? self.user : null, wall.list, viewType);
-				}
-				Map<Integer, UserInteractions> interactions=ctx.getWallController().getUserInteractions(wall.list, self!=null ? self.user : null);
 				model.with("postCount", wall.total)
 						.paginate(wall, "/groups/"+group.id+"/wall?offset=", null)
 						.with("canPostOnWall", self!=null && switch(group.wallState){
@@ -297,26 +336,22 @@ public class GroupsRoutes{
 							case DISABLED -> false;
 						})
 						.with("canSeeOthersPosts", true);
-				model.with("postInteractions", interactions);
+				model.with("postInteractions", groupWall.interactions());
 				PostViewModel.collectActorIDs(wall.list, needUsers, needGroups);
 				model.with("maxReplyDepth", PostRoutes.getMaxReplyDepth(self)).with("commentViewType", viewType);
 			}
 
 			// Photo albums
-			if(group.photosState!=GroupFeatureState.DISABLED){
-				PaginatedList<PhotoAlbum> albums;
-				if(isMobile(req))
-					albums=ctx.getPhotosController().getMostRecentAlbums(group, self!=null ? self.user : null, 1, true);
-				else
-					albums=ctx.getPhotosController().getRandomAlbumsForProfile(group, self!=null ? self.user : null, 2);
-				model.with("albums", albums.list)
-						.with("photoAlbumCount", albums.total)
-						.with("covers", ctx.getPhotosController().getPhotosIgnoringPrivacy(albums.list.stream().map(a->a.coverID).filter(id->id!=0).collect(Collectors.toSet())));
+			if(albumsTask!=null){
+				GroupAlbums albums=albumsTask.get();
+				model.with("albums", albums.albums().list)
+						.with("photoAlbumCount", albums.albums().total)
+						.with("covers", albums.covers());
 			}
 
 			// Board topics
-			if(group.boardState!=GroupFeatureState.DISABLED){
-				PaginatedList<BoardTopic> topics=ctx.getBoardController().getTopicsIgnoringPrivacy(group, 0, 3, BoardTopicsSortOrder.UPDATED_DESC);
+			if(topicsTask!=null){
+				PaginatedList<BoardTopic> topics=topicsTask.get();
 				for(BoardTopic t:topics.list){
 					needUsers.add(t.lastCommentAuthorID);
 				}
@@ -324,7 +359,7 @@ public class GroupsRoutes{
 				model.with("canCreateTopics", self!=null && (group.boardState==GroupFeatureState.ENABLED_OPEN || (group.boardState==GroupFeatureState.ENABLED_RESTRICTED && adminLevel.isAtLeast(Group.AdminLevel.MODERATOR))));
 			}
 
-			List<GroupLink> links=ctx.getGroupsController().getLinks(group);
+			List<GroupLink> links=linksTask.get();
 			model.with("links", links);
 			for(GroupLink link:links){
 				if(link.object!=null){
@@ -345,6 +380,7 @@ public class GroupsRoutes{
 
 		if(group instanceof ForeignGroup)
 			model.with("noindex", true);
+		ctx.getActorRefreshWorker().scheduleRefreshIfNeeded(group, ActorRefreshWorker.Priority.VIEWED);
 
 		jsLangKey(req, "yes", "no", "delete_post", "delete_post_confirm", "delete_reply", "delete_reply_confirm", "remove_friend", "cancel", "delete");
 		Templates.addJsLangForNewPostForm(req);
@@ -400,21 +436,28 @@ public class GroupsRoutes{
 		}
 		model.with("profileFields", profileFields);
 
-		try{
-			Photo photo=switch(group.getAvatarImage()){
-				case LocalImage li when li.photoID!=0 -> ctx.getPhotosController().getPhotoIgnoringPrivacy(li.photoID);
-				case Image img when img.photoApID!=null -> ctx.getObjectLinkResolver().resolveLocally(img.photoApID, Photo.class);
-				case null, default -> null;
-			};
-			if(photo!=null){
-				model.with("avatarPvInfo", new PhotoViewerInlineData(0, "albums/"+XTEA.encodeObjectID(photo.albumID, ObfuscatedObjectIDType.PHOTO_ALBUM), photo.image.getURLsForPhotoViewer()))
-						.with("avatarPhoto", photo);
-			}
-		}catch(ObjectNotFoundException ignore){}
+		Photo photo=avatarPhotoTask.get();
+		if(photo!=null){
+			model.with("avatarPvInfo", new PhotoViewerInlineData(0, "albums/"+XTEA.encodeObjectID(photo.albumID, ObfuscatedObjectIDType.PHOTO_ALBUM), photo.image.getURLsForPhotoViewer()))
+					.with("avatarPhoto", photo);
+		}
 
 		return model;
 	}
 
+	private static GroupWall loadGroupWall(ApplicationContext ctx, @Nullable User self, Group group, int offset, CommentViewType viewType, boolean loadCommentPreviews){
+		PaginatedList<PostViewModel> wall=PostViewModel.wrap(ctx.getWallController().getWallPosts(self, group, false, offset, 20));
+		ctx.getWallController().populateReposts(self, wall.list, 2);
+		if(loadCommentPreviews){
+			ctx.getWallController().populateCommentPreviews(self, wall.list, viewType);
+		}
+		return new GroupWall(wall, ctx.getWallController().getUserInteractions(wall.list, self));
+	}
+
+	private record GroupWall(PaginatedList<PostViewModel> wall, Map<Integer, UserInteractions> interactions){}
+
+	private record GroupAlbums(PaginatedList<PhotoAlbum> albums, Map<Long, Photo> covers){}
+
 	public static Object join(Request req, Response resp, Account self, ApplicationContext ctx){
 		Group group=getGroup(req);
 		ctx.getGroupsController().joinGroup(group, self.user, "1".equals(req.queryParams("tentative")));
@@ -25,6 +25,7 @@ import smithereen.activitypub.objects.Actor;
 import smithereen.activitypub.objects.Image;
 import smithereen.activitypub.objects.LocalImage;
 import smithereen.activitypub.objects.PropertyValue;
+import smithereen.controllers.ActorRefreshWorker;
 import smithereen.controllers.FriendsController;
 import smithereen.controllers.ObjectLinkResolver;
 import smithereen.exceptions.ObjectNotFoundException;
@@ -33,6 +34,7 @@ import smithereen.lang.Lang;
 import smithereen.model.Account;
 import smithereen.model.CommentViewType;
 import smithereen.model.ForeignUser;
+import smithereen.model.Group;
 import smithereen.model.Post;
 import smithereen.model.UserBanInfo;
 import smithereen.model.UserBanStatus;
@@ -43,6 +45,7 @@ import smithereen.model.SessionInfo;
 import smithereen.model.SizedImage;
 import smithereen.model.User;
 import smithereen.model.UserInteractions;
+import smithereen.model.UserPresence;
 import smithereen.model.UserPrivacySettingKey;
 import smithereen.model.WebDeltaResponse;
 import smithereen.model.media.PhotoViewerInlineData;
@@ -53,6 +56,7 @@ import smithereen.templates.RenderedTemplateResponse;
 import smithereen.templates.Templates;
 import smithereen.text.TextProcessor;
 import smithereen.text.Whitelist;
+import smithereen.util.ParallelLoader;
 import smithereen.util.XTEA;
 import spark.Request;
 import spark.Response;
@@ -103,31 +107,94 @@ public class ProfileRoutes{
 		HashSet<Integer> needUsers=new HashSet<>(), needGroups=new HashSet<>();
 
 		boolean canSeeOthers=ctx.getPrivacyController().checkUserPrivacy(self!=null ? self.user : null, user, UserPrivacySettingKey.WALL_OTHERS_POSTS);
-		boolean canPost=canSeeOthers && self!=null && ctx.getPrivacyController().checkUserPrivacy(self.user, user, UserPrivacySettingKey.WALL_POSTING);
-		boolean canMessage=self!=null && ctx.getPrivacyController().checkUserPrivacy(self.user, user, UserPrivacySettingKey.PRIVATE_MESSAGES);
+		boolean mobile=isMobile(req);
+		CommentViewType viewType=self!=null ? self.prefs.commentViewType : CommentViewType.THREADED;
+		boolean loadCommentPreviews=req.attribute("mobile")==null;
+		boolean otherUser=self!=null && !isSelf;
+
+		// Everything below only depends on the user and the viewer, so it's loaded in parallel
+		ParallelLoader.Subtask<Boolean> canPostTask, canMessageTask;
+		ParallelLoader.Subtask<ProfileWall> wallTask;
+		ParallelLoader.Subtask<PaginatedList<User>> friendsTask, onlineFriendsTask, mutualFriendsTask, followingTask, followersTask;
+		ParallelLoader.Subtask<User> partnerTask;
+		ParallelLoader.Subtask<FriendshipStatus> friendshipStatusTask;
+		ParallelLoader.Subtask<Boolean> isBlockedTask, isSelfBlockedTask, isBookmarkedTask;
+		ParallelLoader.Subtask<ProfileAlbums> albumsTask;
+		ParallelLoader.Subtask<List<Group>> groupsTask;
+		ParallelLoader.Subtask<Photo> avatarPhotoTask;
+		ParallelLoader.Subtask<PhotoAlbum> taggedPhotosTask;
+		ParallelLoader.Subtask<UserPresence> presenceTask;
+		try(ParallelLoader loader=new ParallelLoader()){
+			canPostTask=loader.fork(()->canSeeOthers && self!=null && ctx.getPrivacyController().checkUserPrivacy(self.user, user, UserPrivacySettingKey.WALL_POSTING));
+			canMessageTask=loader.fork(()->self!=null && ctx.getPrivacyController().checkUserPrivacy(self.user, user, UserPrivacySettingKey.PRIVATE_MESSAGES));
+			wallTask=loader.fork(()->loadProfileWall(ctx, self!=null ? self.user : null, user, !canSeeOthers, offset, viewType, loadCommentPreviews));
+			friendsTask=loader.fork(()->ctx.getFriendsController().getFriends(user, 0, 6, FriendsController.SortOrder.RANDOM));
+			onlineFriendsTask=mobile ? null : loader.fork(()->ctx.getFriendsController().getFriends(user, 0, 6, FriendsController.SortOrder.RANDOM, true, 0));
+			mutualFriendsTask=otherUser ? loader.fork(()->ctx.getFriendsController().getMutualFriends(user, self.user, 0, 3, FriendsController.SortOrder.RANDOM)) : null;
+			partnerTask=user.relationship!=null && user.relationshipPartnerID!=0 ? loader.fork(()->{
+				try{
+					return ctx.getUsersController().getUserOrThrow(user.relationshipPartnerID);
+				}catch(ObjectNotFoundException x){
+					return null;
+				}
+			}) : null;
+			if(otherUser){
+				friendshipStatusTask=loader.fork(()->ctx.getFriendsController().getFriendshipStatus(self.user, user));
+				isBlockedTask=loader.fork(()->ctx.getUsersController().isUserBlocked(self.user, user));
+				isSelfBlockedTask=loader.fork(()->ctx.getUsersController().isUserBlocked(user, self.user));
+				isBookmarkedTask=loader.fork(()->ctx.getBookmarksController().isUserBookmarked(self.user, user));
+			}else{
+				friendshipStatusTask=null;
+				isBlockedTask=isSelfBlockedTask=isBookmarkedTask=null;
+			}
+			albumsTask=loader.fork(()->{
+				PaginatedList<PhotoAlbum> albums;
+				if(mobile)
+					albums=ctx.getPhotosController().getMostRecentAlbums(user, self!=null ? self.user : null, 1, true);
+				else
+					albums=ctx.getPhotosController().getRandomAlbumsForProfile(user, self!=null ? self.user : null, 2);
+				return new ProfileAlbums(albums, ctx.getPhotosController().getPhotosIgnoringPrivacy(albums.list.stream().map(a->a.coverID).filter(id->id!=0).collect(Collectors.toSet())));
+			});
+			groupsTask=loader.fork(()->ctx.getGroupsController().getUserGroups(user, self!=null ? self.user : null, 0, 100).list);
+			avatarPhotoTask=loader.fork(()->{
+				try{
+					return switch(user.getAvatarImage()){
+						case LocalImage li when li.photoID!=0 -> ctx.getPhotosController().getPhotoIgnoringPrivacy(li.photoID);
+						case Image img when img.photoApID!=null -> ctx.getObjectLinkResolver().resolveLocally(img.photoApID, Photo.class);
+						case null, default -> null;
+					};
+				}catch(ObjectNotFoundException x){
+					return null;
+				}
+			});
+			followingTask=loader.fork(()->ctx.getFriendsController().getFollows(user, 0, 6));
+			followersTask=loader.fork(()->ctx.getFriendsController().getFollowers(user, 0, 6));
+			taggedPhotosTask=mobile ? null : loader.fork(()->{
+				try{
+					return ctx.getPhotosController().getUserTaggedPhotosPseudoAlbum(self!=null ? self.user : null, user);
+				}catch(UserActionNotAllowedException x){
+					return null;
+				}
+			});
+			presenceTask=loader.fork(()->ctx.getUsersController().getUserPresence(user));
+			loader.join();
+		}
 
-		PaginatedList<PostViewModel> wall=PostViewModel.wrap(ctx.getWallController().getWallPosts(self!=null ? self.user : null, user, !canSeeOthers, offset, 20));
+		ProfileWall profileWall=wallTask.get();
+		PaginatedList<PostViewModel> wall=profileWall.wall();
+		List<PostViewModel> pinnedPosts=profileWall.pinnedPosts();
 
 		RenderedTemplateResponse model=new RenderedTemplateResponse("profile", req)
 				.pageTitle(user.getFullName())
 				.with("user", user)
 				.with("own", self!=null && self.user.id==user.id)
 				.with("postCount", wall.total)
-				.with("canPostOnWall", canPost)
+				.with("canPostOnWall", canPostTask.get())
 				.with("canSeeOthersPosts", canSeeOthers)
-				.with("canMessage", canMessage)
+				.with("canMessage", canMessageTask.get())
 				.paginate(wall, "/users/"+user.id+"/wall"+(canSeeOthers ? "" : "/own")+"?offset=", null);
-
-		List<Post> rawPinnedPosts=ctx.getWallController().getPinnedPosts(self==null ? null : self.user, user);
-		List<PostViewModel> pinnedPosts=null;
-		if(offset==0){
-			pinnedPosts=rawPinnedPosts.stream().map(PostViewModel::new).toList();
+		if(pinnedPosts!=null)
 			model.with("pinnedPosts", pinnedPosts);
-		}
-		if(!rawPinnedPosts.isEmpty()){
-			Set<Integer> pinnedPostIDs=rawPinnedPosts.stream().map(p->p.id).collect(Collectors.toSet());
-			wall.list.removeIf(p->pinnedPostIDs.contains(p.post.id));
-		}
 
 		if(user.banStatus!=UserBanStatus.NONE && user.banInfo!=null){
 			if(user.banStatus==UserBanStatus.SUSPENDED || user.banStatus==UserBanStatus.FROZEN)
@@ -136,22 +203,7 @@ public class ProfileRoutes{
 				needUsers.add(user.banInfo.moderatorID());
 		}
 
-		ctx.getWallController().populateReposts(self!=null ? self.user : null, wall.list, 2);
-		if(pinnedPosts!=null)
-			ctx.getWallController().populateReposts(self!=null ? self.user : null, pinnedPosts, 2);
-		CommentViewType viewType=self!=null ? self.prefs.commentViewType : CommentViewType.THREADED;
-		if(req.attribute("mobile")==null){
-			ctx.getWallController().populateCommentPreviews(self!=null ? self.user : null, wall.list, viewType);
-			if(pinnedPosts!=null)
-				ctx.getWallController().populateCommentPreviews(self!=null ? self.user : null, pinnedPosts, viewType);
-		}
-
-		Map<Integer, UserInteractions> interactions=ctx.getWallController().getUserInteractions(wall.list, self!=null ? self.user : null);
-		if(pinnedPosts!=null){
-			interactions=new HashMap<>(interactions);
-			interactions.putAll(ctx.getWallController().getUserInteractions(pinnedPosts, self!=null ? self.user : null));
-		}
-		model.with("postInteractions", interactions);
+		model.with("postInteractions", profileWall.interactions());
 		model.with("maxReplyDepth", PostRoutes.getMaxReplyDepth(self)).with("commentViewType", viewType);
 
 		PostViewModel.collectActorIDs(wall.list, needUsers, needGroups);
@@ -159,16 +211,16 @@ public class ProfileRoutes{
 			PostViewModel.collectActorIDs(pinnedPosts, needUsers, needGroups);
 		model.with("users", ctx.getUsersController().getUsers(needUsers, true));
 
-		PaginatedList<User> friends=ctx.getFriendsController().getFriends(user, 0, 6, FriendsController.SortOrder.RANDOM);
+		PaginatedList<User> friends=friendsTask.get();
 		model.with("friendCount", friends.total).with("friends", friends.list);
 
-		if(!isMobile(req)){
-			PaginatedList<User> onlineFriends=ctx.getFriendsController().getFriends(user, 0, 6, FriendsController.SortOrder.RANDOM, true, 0);
+		if(onlineFriendsTask!=null){
+			PaginatedList<User> onlineFriends=onlineFriendsTask.get();
 			model.with("onlineFriendCount", onlineFriends.total).with("onlineFriends", onlineFriends.list);
 		}
 
-		if(self!=null && user.id!=self.user.id){
-			PaginatedList<User> mutualFriends=ctx.getFriendsController().getMutualFriends(user, self.user, 0, 3, FriendsController.SortOrder.RANDOM);
+		if(mutualFriendsTask!=null){
+			PaginatedList<User> mutualFriends=mutualFriendsTask.get();
 			model.with("mutualFriendCount", mutualFriends.total).with("mutualFriends", mutualFriends.list);
 		}
 
@@ -184,12 +236,7 @@ public class ProfileRoutes{
 		if(StringUtils.isNotEmpty(user.hometown))
 			mainFields.add(Map.of("name", l.get("profile_hometown"), "value", user.hometown));
 		if(user.relationship!=null){
-			User partner=null;
-			if(user.relationshipPartnerID!=0){
-				try{
-					partner=ctx.getUsersController().getUserOrThrow(user.relationshipPartnerID);
-				}catch(ObjectNotFoundException ignore){}
-			}
+			User partner=partnerTask!=null ? partnerTask.get() : null;
 			String relationValue;
 			if(partner==null || (user.relationship.needsPartnerApproval() && partner.relationshipPartnerID!=user.id)){
 				relationValue=l.get(user.relationship.getLangKey(), Map.of("ownGender", user.gender));
@@ -302,7 +349,7 @@ public class ProfileRoutes{
 						"update_avatar_crop_explanation2", "update_avatar_thumb_title", "update_avatar_thumb_explanation1", "update_avatar_thumb_explanation2", "choose_file", "save_and_continue", "go_back",
 						"remove_profile_picture", "confirm_remove_profile_picture");
 			}else{
-				FriendshipStatus status=ctx.getFriendsController().getFriendshipStatus(self.user, user);
+				FriendshipStatus status=friendshipStatusTask.get();
 				if(status==FriendshipStatus.FRIENDS){
 					ctx.getFriendsController().incrementHintsRank(self.user, user, 1);
 					model.with("isFriend", true);
@@ -323,9 +370,9 @@ public class ProfileRoutes{
 					model.with("followRequested", true);
 					model.with("friendshipStatusText", lang(req).get("waiting_for_X_to_accept_follow_req", Map.of("gender", user.gender, "name", user.firstName)));
 				}
-				model.with("isBlocked", ctx.getUsersController().isUserBlocked(self.user, user));
-				model.with("isSelfBlocked", ctx.getUsersController().isUserBlocked(user, self.user));
-				model.with("isBookmarked", ctx.getBookmarksController().isUserBookmarked(self.user, user));
+				model.with("isBlocked", isBlockedTask.get());
+				model.with("isSelfBlocked", isSelfBlockedTask.get());
+				model.with("isBookmarked", isBookmarkedTask.get());
 				if(status==FriendshipStatus.FRIENDS || status==FriendshipStatus.FOLLOWING){
 					model.with("isMuted", ctx.getFriendsController().isUserMuted(self.user, user))
 							.with("canMute", true);
@@ -376,6 +423,7 @@ public class ProfileRoutes{
 
 		if(user instanceof ForeignUser)
 			model.with("noindex", true);
+		ctx.getActorRefreshWorker().scheduleRefreshIfNeeded(user, ActorRefreshWorker.Priority.VIEWED);
 		model.with("activityPubURL", user.activityPubID);
 
 		if(user.movedTo>0){
@@ -383,52 +431,70 @@ public class ProfileRoutes{
 			model.with("movedTo", newProfile);
 		}
 
-		PaginatedList<PhotoAlbum> albums;
-		if(isMobile(req))
-			albums=ctx.getPhotosController().getMostRecentAlbums(user, self!=null ? self.user : null, 1, true);
-		else
-			albums=ctx.getPhotosController().getRandomAlbumsForProfile(user, self!=null ? self.user : null, 2);
-		model.with("albums", albums.list)
-				.with("photoAlbumCount", albums.total)
-				.with("covers", ctx.getPhotosController().getPhotosIgnoringPrivacy(albums.list.stream().map(a->a.coverID).filter(id->id!=0).collect(Collectors.toSet())));
+		ProfileAlbums albums=albumsTask.get();
+		model.with("albums", albums.albums().list)
+				.with("photoAlbumCount", albums.albums().total)
+				.with("covers", albums.covers());
 
 		model.addNavBarItem(user.getFullName(), null, isSelf ? l.get("this_is_you") : null);
 
-		model.with("groups", ctx.getGroupsController().getUserGroups(user, self!=null ? self.user : null, 0, 100).list);
+		model.with("groups", groupsTask.get());
 		jsLangKey(req, "yes", "no", "delete_post", "delete_post_confirm", "delete_reply", "delete_reply_confirm", "remove_friend", "cancel", "delete",
 				"mail_tab_compose", "send");
 		Templates.addJsLangForNewPostForm(req);
 
-		try{
-			Photo photo=switch(user.getAvatarImage()){
-				case LocalImage li when li.photoID!=0 -> ctx.getPhotosController().getPhotoIgnoringPrivacy(li.photoID);
-				case Image img when img.photoApID!=null -> ctx.getObjectLinkResolver().resolveLocally(img.photoApID, Photo.class);
-				case null, default -> null;
-			};
-			if(photo!=null){
-				model.with("avatarPvInfo", new PhotoViewerInlineData(0, "albums/"+XTEA.encodeObjectID(photo.albumID, ObfuscatedObjectIDType.PHOTO_ALBUM), photo.image.getURLsForPhotoViewer()))
-						.with("avatarPhoto", photo);
-			}
-		}catch(ObjectNotFoundException ignore){}
-
-		PaginatedList<User> following=ctx.getFriendsController().getFollows(user, 0, 6);
-		PaginatedList<User> followers=ctx.getFriendsController().getFollowers(user, 0, 6);
-		model.with("followees", following)
-				.with("followers", followers);
-
-		if(!isMobile(req)){
-			try{
-				PhotoAlbum taggedPhotos=ctx.getPhotosController().getUserTaggedPhotosPseudoAlbum(self!=null ? self.user : null, user);
-				if(taggedPhotos!=null)
-					model.with("taggedPhotoCount", taggedPhotos.numPhotos);
-			}catch(UserActionNotAllowedException ignore){}
+		Photo photo=avatarPhotoTask.get();
+		if(photo!=null){
+			model.with("avatarPvInfo", new PhotoViewerInlineData(0, "albums/"+XTEA.encodeObjectID(photo.albumID, ObfuscatedObjectIDType.PHOTO_ALBUM), photo.image.getURLsForPhotoViewer()))
+					.with("avatarPhoto", photo);
+		}
+
+		model.with("followees", followingTask.get())
+				.with("followers", followersTask.get());
+
+		if(taggedPhotosTask!=null){
+			PhotoAlbum taggedPhotos=taggedPhotosTask.get();
+			if(taggedPhotos!=null)
+				model.with("taggedPhotoCount", taggedPhotos.numPhotos);
 		}
 
-		model.with("presence", ctx.getUsersController().getUserPresence(user));
+		model.with("presence", presenceTask.get());
 
 		return model;
 	}
 
+	private static ProfileWall loadProfileWall(ApplicationContext ctx, @Nullable User self, User user, boolean ownPostsOnly, int offset, CommentViewType viewType, boolean loadCommentPreviews){
+		PaginatedList<PostViewModel> wall=PostViewModel.wrap(ctx.getWallController().getWallPosts(self, user, ownPostsOnly, offset, 20));
+		List<Post> rawPinnedPosts=ctx.getWallController().getPinnedPosts(self, user);
+		List<PostViewModel> pinnedPosts=null;
+		if(offset==0)
+			pinnedPosts=rawPinnedPosts.stream().map(PostViewModel::new).toList();
+		if(!rawPinnedPosts.isEmpty()){
+			Set<Integer> pinnedPostIDs=rawPinnedPosts.stream().map(p->p.id).collect(Collectors.toSet());
+			wall.list.removeIf(p->pinnedPostIDs.contains(p.post.id));
+		}
+
+		ctx.getWallController().populateReposts(self, wall.list, 2);
+		if(pinnedPosts!=null)
+			ctx.getWallController().populateReposts(self, pinnedPosts, 2);
+		if(loadCommentPreviews){
+			ctx.getWallController().populateCommentPreviews(self, wall.list, viewType);
+			if(pinnedPosts!=null)
+				ctx.getWallController().populateCommentPreviews(self, pinnedPosts, viewType);
+		}
+
+		Map<Integer, UserInteractions> interactions=ctx.getWallController().getUserInteractions(wall.list, self);
+		if(pinnedPosts!=null){
+			interactions=new HashMap<>(interactions);
+			interactions.putAll(ctx.getWallController().getUserInteractions(pinnedPosts, self));
+		}
+		return new ProfileWall(wall, pinnedPosts, interactions);
+	}
+
+	private record ProfileWall(PaginatedList<PostViewModel> wall, @Nullable List<PostViewModel> pinnedPosts, Map<Integer, UserInteractions> interactions){}
+
+	private record ProfileAlbums(PaginatedList<PhotoAlbum> albums, Map<Long, Photo> covers){}
+
 	public static Object confirmBlockUser(Request req, Response resp, Account self, ApplicationContext ctx){
 		User user=getUserOrThrow(req);
 		Lang l=lang(req);
@@ -915,7 +915,7 @@ public class SettingsRoutes{
 			throw new UserErrorException("email_unsubscribe_invalid", x);
 		}
 		Account self=ud.account();
-		boolean all=req.queryParams("all")!=null;
+		boolean all=req.queryParams("all")!=null || ud.type()==null;
 		if(all){
 			self.prefs.emailNotificationFrequency=EmailNotificationFrequency.DISABLED;
 		}else{
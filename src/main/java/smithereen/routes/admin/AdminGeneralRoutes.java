@@ -3,6 +3,7 @@ package smithereen.routes.admin;
 import com.google.gson.reflect.TypeToken;
 
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -39,8 +40,10 @@ import smithereen.model.admin.UserRole;
 import smithereen.model.groups.GroupBanInfo;
 import smithereen.model.groups.GroupBanStatus;
 import smithereen.model.viewmodel.AuditLogEntryViewModel;
+import smithereen.storage.MaintenanceJobStorage;
 import smithereen.templates.RenderedTemplateResponse;
 import smithereen.text.TextProcessor;
+import smithereen.util.MaintenanceScheduler;
 import spark.Request;
 import spark.Response;
 import spark.utils.StringUtils;
@@ -117,6 +120,7 @@ public class AdminGeneralRoutes{
 				.with("smtpUser", Config.smtpUsername)
 				.with("smtpPassword", Config.smtpPassword)
 				.with("smtpUseTLS", Config.smtpUseTLS)
+				.with("notificationDigestMinutes", Config.emailNotificationDigestMinutes)
 				.with("userExportCooldown", Config.userExportCooldownDays)
 				.with("userExportRetention", Config.userExportRetentionDays)
 				.with("unconfirmedFaspRequests", ctx.getFaspController().getUnconfirmedProviderCount())
@@ -126,6 +130,31 @@ public class AdminGeneralRoutes{
 		return model;
 	}
 
+	public static Object maintenanceJobs(Request req, Response resp, Account self, ApplicationContext ctx) throws SQLException{
+		Lang l=lang(req);
+		RenderedTemplateResponse model=new RenderedTemplateResponse("admin_maintenance_jobs", req);
+		List<MaintenanceScheduler.Job> jobs=MaintenanceScheduler.getJobs();
+		Map<String, String> intervals=new HashMap<>();
+		for(MaintenanceScheduler.Job job:jobs){
+			Duration interval=job.getInterval();
+			String text;
+			if(interval.toDaysPart()>0 && interval.equals(Duration.ofDays(interval.toDays())))
+				text=l.get("admin_maintenance_every_X_days", Map.of("count", interval.toDays()));
+			else if(interval.toHoursPart()>0 && interval.equals(Duration.ofHours(interval.toHours())))
+				text=l.get("admin_maintenance_every_X_hours", Map.of("count", interval.toHours()));
+			else
+				text=l.get("admin_maintenance_every_X_minutes", Map.of("count", interval.toMinutes()));
+			intervals.put(job.getName(), text);
+		}
+		model.paginate(MaintenanceJobStorage.getJobRuns(offset(req), 100));
+		model.with("title", l.get("admin_maintenance")+" | "+l.get("menu_admin")).with("toolbarTitle", l.get("menu_admin"))
+				.with("jobs", jobs)
+				.with("intervals", intervals)
+				.with("lastRuns", MaintenanceJobStorage.getLastJobRuns())
+				.with("unconfirmedFaspRequests", ctx.getFaspController().getUnconfirmedProviderCount());
+		return model;
+	}
+
 	public static Object saveEmailSettings(Request req, Response resp, Account self, ApplicationContext ctx) throws SQLException{
 		String from=req.queryParams("from");
 		int smtpPort=parseIntOrDefault(req.queryParams("smtp_port"), 25);
@@ -133,6 +162,7 @@ public class AdminGeneralRoutes{
 		String smtpUser=req.queryParams("smtp_user");
 		String smtpPassword=req.queryParams("smtp_password");
 		boolean smtpUseTLS="on".equals(req.queryParams("smtp_use_tls"));
+		int digestMinutes=Math.max(0, parseIntOrDefault(req.queryParams("notification_digest_minutes"), 0));
 
 		if(smtpPort<1 || smtpPort>65535)
 			smtpPort=25;
@@ -147,6 +177,7 @@ public class AdminGeneralRoutes{
 			Config.smtpUsername=smtpUser;
 			Config.smtpPassword=smtpPassword;
 			Config.smtpUseTLS=smtpUseTLS;
+			Config.emailNotificationDigestMinutes=digestMinutes;
 
 			Config.updateInDatabase(Map.of(
 					"MailFrom", from,
@@ -154,7 +185,8 @@ public class AdminGeneralRoutes{
 					"Mail_SMTP_ServerAddress", smtpServer,
 					"Mail_SMTP_Username", smtpUser,
 					"Mail_SMTP_Password", smtpPassword,
-					"Mail_SMTP_UseTLS", smtpUseTLS ? "1" : "0"
+					"Mail_SMTP_UseTLS", smtpUseTLS ? "1" : "0",
+					"Mail_NotificationDigestMinutes", digestMinutes+""
 			));
 
 			Mailer.getInstance().updateSession();
@@ -81,7 +81,7 @@ public class CommentStorage{
 						.value("object_type", mappedType)
 						.value("object_id", parentID.id())
 						.executeNoResult();
-				BackgroundTaskRunner.getInstance().submit(new UpdateCommentBookmarksRunnable(parentID));
+				conn.runAfterCommit(()->BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, new UpdateCommentBookmarksRunnable(parentID)));
 			}
 
 			if(parentID.type()==CommentableObjectType.BOARD_TOPIC){
@@ -339,7 +339,7 @@ public class CommentStorage{
 						.value("last_comment_author_id", lastAuthorID)
 						.executeNoResult();
 			}
-			BackgroundTaskRunner.getInstance().submit(new UpdateCommentBookmarksRunnable(comment.parentObjectID));
+			conn.runAfterCommit(()->BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, new UpdateCommentBookmarksRunnable(comment.parentObjectID)));
 		}
 	}
 
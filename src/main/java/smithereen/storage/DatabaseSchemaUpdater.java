@@ -40,7 +40,7 @@ import smithereen.util.Passwords;
 import smithereen.util.XTEA;
 
 public class DatabaseSchemaUpdater{
-	public static final int SCHEMA_VERSION=87;
+	public static final int SCHEMA_VERSION=93;
 	private static final Logger LOG=LoggerFactory.getLogger(DatabaseSchemaUpdater.class);
 
 	public static void maybeUpdate() throws SQLException{
@@ -1098,6 +1098,61 @@ public class DatabaseSchemaUpdater{
 				conn.createStatement().execute("ALTER TABLE notifications ADD KEY `object_type` (`object_type`,`object_id`), ADD KEY `type` (`type`), ADD KEY `related_object_type` (`related_object_type`,`related_object_id`), ADD KEY `actor_id` (`actor_id`)");
 			}
 			case 87 -> conn.createStatement().execute("ALTER TABLE `wall_posts` ADD `extra` json DEFAULT NULL");
+			case 88 -> conn.createStatement().execute("""
+					CREATE TABLE `actor_refresh_queue` (
+					  `actor_id` int NOT NULL,
+					  `domain` varchar(100) NOT NULL,
+					  `priority` tinyint unsigned NOT NULL,
+					  `attempts` int unsigned NOT NULL DEFAULT '0',
+					  `next_attempt_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+					  PRIMARY KEY (`actor_id`),
+					  KEY `next_attempt_at` (`next_attempt_at`)
+					) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;""");
+			case 89 -> conn.createStatement().execute("""
+					CREATE TABLE `collection_crawl_state` (
+					  `collection_id` varchar(300) CHARACTER SET ascii COLLATE ascii_general_ci NOT NULL,
+					  `task_type` varchar(100) NOT NULL,
+					  `next_page` varchar(300) CHARACTER SET ascii COLLATE ascii_general_ci NOT NULL,
+					  `processed_items` int unsigned NOT NULL,
+					  `updated_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+					  PRIMARY KEY (`collection_id`,`task_type`),
+					  KEY `updated_at` (`updated_at`)
+					) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;""");
+			case 90 -> conn.createStatement().execute("""
+					CREATE TABLE `email_outbox` (
+					  `id` bigint unsigned NOT NULL AUTO_INCREMENT,
+					  `recipient` varchar(300) NOT NULL,
+					  `message` mediumblob NOT NULL,
+					  `attempts` int unsigned NOT NULL DEFAULT '0',
+					  `next_attempt_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+					  `created_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+					  PRIMARY KEY (`id`),
+					  KEY `next_attempt_at` (`next_attempt_at`)
+					) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;""");
+			case 91 -> conn.createStatement().execute("ALTER TABLE `user_data_exports` ADD `progress` json DEFAULT NULL");
+			case 92 -> {
+				conn.createStatement().execute("""
+						CREATE TABLE `maintenance_job_leases` (
+						  `job` varchar(100) NOT NULL,
+						  `node_id` varchar(300) NOT NULL,
+						  `expires_at` timestamp NOT NULL,
+						  PRIMARY KEY (`job`)
+						) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;""");
+				conn.createStatement().execute("""
+						CREATE TABLE `maintenance_job_runs` (
+						  `id` bigint unsigned NOT NULL AUTO_INCREMENT,
+						  `job` varchar(100) NOT NULL,
+						  `node` varchar(300) NOT NULL,
+						  `started_at` timestamp NOT NULL,
+						  `duration` bigint unsigned NOT NULL,
+						  `outcome` tinyint unsigned NOT NULL,
+						  `error` text,
+						  PRIMARY KEY (`id`),
+						  KEY `job` (`job`),
+						  KEY `started_at` (`started_at`)
+						) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;""");
+			}
+			case 93 -> conn.createStatement().execute("ALTER TABLE `email_outbox` ADD `locked_by` varchar(300) DEFAULT NULL, ADD `locked_until` timestamp NULL DEFAULT NULL");
 		}
 	}
 
@@ -227,11 +227,11 @@ public class DatabaseUtils{
 	public static void doWithTransaction(DatabaseConnection conn, SQLRunnable r) throws SQLException{
 		boolean success=false;
 		try{
-			conn.createStatement().execute("START TRANSACTION");
+			conn.beginTransaction();
 			r.run();
 			success=true;
 		}finally{
-			conn.createStatement().execute(success ? "COMMIT" : "ROLLBACK");
+			conn.endTransaction(success);
 		}
 	}
 
@@ -0,0 +1,303 @@
+package smithereen.storage;
+
+import java.net.URI;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import smithereen.LruCache;
+import smithereen.model.ForeignUser;
+import smithereen.model.User;
+import smithereen.storage.sql.DatabaseConnection;
+import smithereen.storage.sql.DatabaseConnectionManager;
+import smithereen.storage.sql.SQLQueryBuilder;
+
+/**
+ * Keeps the distinct inboxes of remote followers of users and remote members of groups in memory, so that sending an
+ * activity to all of them doesn't need to go through the followings or group_memberships tables every time.
+ * <p>
+ * A set is loaded from the database the first time it's needed and is then updated by {@link UserStorage} and
+ * {@link GroupStorage} whenever someone follows, unfollows, joins or leaves, or a remote user's inbox changes.
+ * Local users have no inboxes and aren't tracked at all. Sets are loaded again after {@link #SET_TTL} to pick up changes
+ * made by other servers that use the same database.
+ */
+public class DeliveryInboxCache{
+	private static final LruCache<Integer, InboxSet> followerInboxes=new LruCache<>(1000);
+	private static final LruCache<Integer, InboxSet> groupMemberInboxes=new LruCache<>(500);
+	private static final long SET_TTL=5*60_000;
+
+	/**
+	 * Same as {@code SELECT DISTINCT IFNULL(ap_shared_inbox, ap_inbox)} for all followers of the user.
+	 * @param except IDs of followers to skip, an inbox shared with other followers is still included
+	 * @param friendsOnly only include followers that are also followed back
+	 */
+	public static List<URI> getFollowerInboxes(int userID, Set<Integer> except, boolean friendsOnly) throws SQLException{
+		return getOrLoad(followerInboxes, userID, set->{
+			try(DatabaseConnection conn=DatabaseConnectionManager.getConnection();
+				ResultSet res=new SQLQueryBuilder(conn)
+					.selectFrom("followings")
+					.selectExpr("users.id, IFNULL(ap_shared_inbox, ap_inbox), mutual")
+					.join("JOIN users ON follower_id=users.id")
+					.where("followee_id=? AND ap_inbox IS NOT NULL", userID)
+					.execute()){
+				while(res.next()){
+					set.put(res.getInt(1), URI.create(res.getString(2)), res.getBoolean(3));
+				}
+			}
+		}).getInboxes(except, friendsOnly);
+	}
+
+	public static List<URI> getGroupMemberInboxes(int groupID) throws SQLException{
+		return getOrLoad(groupMemberInboxes, groupID, set->{
+			try(DatabaseConnection conn=DatabaseConnectionManager.getConnection();
+				ResultSet res=new SQLQueryBuilder(conn)
+					.selectFrom("group_memberships")
+					.selectExpr("users.id, IFNULL(ap_shared_inbox, ap_inbox)")
+					.join("JOIN users ON user_id=users.id")
+					.where("group_id=? AND accepted=1 AND ap_inbox IS NOT NULL", groupID)
+					.execute()){
+				while(res.next()){
+					set.put(res.getInt(1), URI.create(res.getString(2)), false);
+				}
+			}
+		}).getInboxes(Set.of(), false);
+	}
+
+	// region Updates
+
+	/**
+	 * Runs after the transaction commits, so instead of failing if the follower can't be loaded, drops the set to have it loaded again.
+	 */
+	static void putFollower(int followeeID, int followerID, boolean mutual){
+		InboxSet set=followerInboxes.get(followeeID);
+		if(set==null)
+			return;
+		try{
+			URI inbox=getInbox(followerID);
+			if(inbox!=null)
+				set.update(s->s.put(followerID, inbox, mutual));
+		}catch(SQLException x){
+			followerInboxes.remove(followeeID);
+		}
+	}
+
+	static void removeFollower(int followeeID, int followerID){
+		InboxSet set=followerInboxes.get(followeeID);
+		if(set!=null)
+			set.update(s->s.remove(followerID));
+	}
+
+	static void setFollowerMutual(int followeeID, int followerID, boolean mutual){
+		InboxSet set=followerInboxes.get(followeeID);
+		if(set!=null)
+			set.update(s->s.setFriend(followerID, mutual));
+	}
+
+	/**
+	 * Same as {@link #putFollower(int, int, boolean)}, drops the set if the member can't be loaded.
+	 */
+	static void putGroupMember(int groupID, int userID){
+		InboxSet set=groupMemberInboxes.get(groupID);
+		if(set==null)
+			return;
+		try{
+			URI inbox=getInbox(userID);
+			if(inbox!=null)
+				set.update(s->s.put(userID, inbox, false));
+		}catch(SQLException x){
+			groupMemberInboxes.remove(groupID);
+		}
+	}
+
+	static void removeGroupMember(int groupID, int userID){
+		InboxSet set=groupMemberInboxes.get(groupID);
+		if(set!=null)
+			set.update(s->s.remove(userID));
+	}
+
+	/**
+	 * Called when a remote user's inbox or shared inbox changes.
+	 */
+	static void updateUserInbox(int userID, URI inbox){
+		for(InboxSet set:followerInboxes.snapshot().values()){
+			set.update(s->s.replaceInbox(userID, inbox));
+		}
+		for(InboxSet set:groupMemberInboxes.snapshot().values()){
+			set.update(s->s.replaceInbox(userID, inbox));
+		}
+	}
+
+	static void removeUser(int userID){
+		followerInboxes.remove(userID);
+		for(InboxSet set:followerInboxes.snapshot().values()){
+			set.update(s->s.remove(userID));
+		}
+		for(InboxSet set:groupMemberInboxes.snapshot().values()){
+			set.update(s->s.remove(userID));
+		}
+	}
+
+	static void removeGroup(int groupID){
+		groupMemberInboxes.remove(groupID);
+	}
+
+	// endregion
+
+	private static URI getInbox(int userID) throws SQLException{
+		if(UserStorage.getById(userID) instanceof ForeignUser fu)
+			return getInbox(fu);
+		return null;
+	}
+
+	static URI getInbox(User user){
+		if(user instanceof ForeignUser fu)
+			return fu.sharedInbox!=null ? fu.sharedInbox : fu.inbox;
+		return null;
+	}
+
+	private static InboxSet getOrLoad(LruCache<Integer, InboxSet> cache, int id, InboxSetLoader loader) throws SQLException{
+		InboxSet set;
+		boolean needLoad=false;
+		synchronized(cache){
+			set=cache.get(id);
+			if(set==null || set.isExpired()){
+				set=new InboxSet();
+				cache.put(id, set);
+				needLoad=true;
+			}
+		}
+		if(needLoad){
+			InboxSet loadingSet=new InboxSet();
+			try{
+				loader.load(loadingSet);
+			}catch(SQLException|RuntimeException x){
+				synchronized(cache){
+					if(cache.get(id)==set)
+						cache.remove(id);
+				}
+				set.loaded.completeExceptionally(x);
+				throw x;
+			}
+			set.finishLoading(loadingSet);
+			return set;
+		}
+		try{
+			set.loaded.get();
+		}catch(InterruptedException x){
+			throw new RuntimeException(x);
+		}catch(ExecutionException x){
+			if(x.getCause() instanceof SQLException sx)
+				throw sx;
+			throw new RuntimeException(x.getCause());
+		}
+		return set;
+	}
+
+	@FunctionalInterface
+	private interface InboxSetLoader{
+		void load(InboxSet set) throws SQLException;
+	}
+
+	private static class InboxSet{
+		private final HashMap<Integer, Member> members=new HashMap<>();
+		// How many members use each inbox, to know when the last one leaves
+		private final HashMap<URI, Integer> inboxCounts=new HashMap<>(), friendInboxCounts=new HashMap<>();
+		private final CompletableFuture<Void> loaded=new CompletableFuture<>();
+		// Updates that came in while this set was being loaded. They're all idempotent, so it doesn't matter if the loaded state already includes them.
+		private List<Consumer<InboxSet>> pendingUpdates=new ArrayList<>();
+		private volatile long loadedAt;
+
+		private synchronized void update(Consumer<InboxSet> update){
+			if(pendingUpdates!=null)
+				pendingUpdates.add(update);
+			else
+				update.accept(this);
+		}
+
+		private void finishLoading(InboxSet loadedSet){
+			synchronized(this){
+				for(Map.Entry<Integer, Member> e:loadedSet.members.entrySet()){
+					put(e.getKey(), e.getValue().inbox, e.getValue().friend);
+				}
+				for(Consumer<InboxSet> update:pendingUpdates){
+					update.accept(this);
+				}
+				pendingUpdates=null;
+			}
+			loadedAt=System.currentTimeMillis();
+			loaded.complete(null);
+		}
+
+		/**
+		 * A set that's still loading never expires, the threads waiting for it would load it again otherwise.
+		 */
+		private boolean isExpired(){
+			long time=loadedAt;
+			return time>0 && System.currentTimeMillis()-time>SET_TTL;
+		}
+
+		private synchronized List<URI> getInboxes(Set<Integer> except, boolean friendsOnly){
+			HashMap<URI, Integer> counts=friendsOnly ? friendInboxCounts : inboxCounts;
+			if(except==null || except.isEmpty())
+				return new ArrayList<>(counts.keySet());
+			HashMap<URI, Integer> excludedCounts=new HashMap<>();
+			for(int id:except){
+				Member m=members.get(id);
+				if(m!=null && (m.friend || !friendsOnly))
+					excludedCounts.merge(m.inbox, 1, Integer::sum);
+			}
+			ArrayList<URI> result=new ArrayList<>(counts.size());
+			for(Map.Entry<URI, Integer> e:counts.entrySet()){
+				if(e.getValue()>excludedCounts.getOrDefault(e.getKey(), 0))
+					result.add(e.getKey());
+			}
+			return result;
+		}
+
+		private void put(int userID, URI inbox, boolean friend){
+			remove(userID);
+			members.put(userID, new Member(inbox, friend));
+			inboxCounts.merge(inbox, 1, Integer::sum);
+			if(friend)
+				friendInboxCounts.merge(inbox, 1, Integer::sum);
+		}
+
+		private void remove(int userID){
+			Member m=members.remove(userID);
+			if(m==null)
+				return;
+			decrement(inboxCounts, m.inbox);
+			if(m.friend)
+				decrement(friendInboxCounts, m.inbox);
+		}
+
+		private void setFriend(int userID, boolean friend){
+			Member m=members.get(userID);
+			if(m!=null && m.friend!=friend)
+				put(userID, m.inbox, friend);
+		}
+
+		private void replaceInbox(int userID, URI inbox){
+			Member m=members.get(userID);
+			if(m==null || m.inbox.equals(inbox))
+				return;
+			if(inbox==null)
+				remove(userID);
+			else
+				put(userID, inbox, m.friend);
+		}
+
+		private static void decrement(HashMap<URI, Integer> counts, URI inbox){
+			counts.computeIfPresent(inbox, (k, v)->v==1 ? null : v-1);
+		}
+	}
+
+	private record Member(URI inbox, boolean friend){}
+}
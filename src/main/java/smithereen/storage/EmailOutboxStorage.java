@@ -0,0 +1,96 @@
+package smithereen.storage;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+
+import smithereen.storage.sql.DatabaseConnection;
+import smithereen.storage.sql.DatabaseConnectionManager;
+import smithereen.storage.sql.SQLQueryBuilder;
+
+public class EmailOutboxStorage{
+	/**
+	 * Saves a new email that is already claimed by {@code nodeID} until {@code lockedUntil}.
+	 */
+	public static long putEmail(String recipient, byte[] message, String nodeID, Instant lockedUntil) throws SQLException{
+		return new SQLQueryBuilder()
+				.insertInto("email_outbox")
+				.value("recipient", recipient)
+				.value("message", message)
+				.value("locked_by", nodeID)
+				.value("locked_until", lockedUntil)
+				.executeAndGetIDLong();
+	}
+
+	/**
+	 * @return emails that are due and not claimed by any node. They need to be claimed with {@link #tryClaimEmail(long, String, Instant)} before sending.
+	 */
+	public static List<OutboxEmail> getDueEmails(int count) throws SQLException{
+		return new SQLQueryBuilder()
+				.selectFrom("email_outbox")
+				.columns("id", "message", "attempts")
+				.where("next_attempt_at<=CURRENT_TIMESTAMP() AND (locked_until IS NULL OR locked_until<CURRENT_TIMESTAMP())")
+				.orderBy("id ASC")
+				.limit(count, 0)
+				.executeAsStream(res->new OutboxEmail(res.getLong(1), res.getBytes(2), res.getInt(3)))
+				.toList();
+	}
+
+	/**
+	 * Claims an email for sending, or extends this node's claim on it. A claim that belongs to another node can only be
+	 * taken once it expires.
+	 * @return true if this node now holds the claim
+	 */
+	public static boolean tryClaimEmail(long id, String nodeID, Instant lockedUntil) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			new SQLQueryBuilder(conn)
+					.update("email_outbox")
+					.value("locked_by", nodeID)
+					.value("locked_until", lockedUntil)
+					.where("id=? AND (locked_by=? OR locked_until IS NULL OR locked_until<CURRENT_TIMESTAMP())", id, nodeID)
+					.executeNoResult();
+			// The number of affected rows would be 0 if the claim is renewed with the same values, so check who holds it instead
+			String holder=new SQLQueryBuilder(conn)
+					.selectFrom("email_outbox")
+					.columns("locked_by")
+					.where("id=?", id)
+					.executeAndGetSingleObject(res->res.getString(1));
+			return nodeID.equals(holder);
+		}
+	}
+
+	/**
+	 * Lets any node send the email right away.
+	 */
+	public static void releaseEmail(long id) throws SQLException{
+		new SQLQueryBuilder()
+				.update("email_outbox")
+				.value("locked_by", null)
+				.value("locked_until", null)
+				.where("id=?", id)
+				.executeNoResult();
+	}
+
+	public static void deleteEmail(long id) throws SQLException{
+		new SQLQueryBuilder()
+				.deleteFrom("email_outbox")
+				.where("id=?", id)
+				.executeNoResult();
+	}
+
+	public static void setEmailNextAttempt(long id, int attempts, Instant nextAttemptAt) throws SQLException{
+		new SQLQueryBuilder()
+				.update("email_outbox")
+				.value("attempts", attempts)
+				.value("next_attempt_at", nextAttemptAt)
+				.value("locked_by", null)
+				.value("locked_until", null)
+				.where("id=?", id)
+				.executeNoResult();
+	}
+
+	/**
+	 * @param message the complete message in RFC 822 format
+	 */
+	public record OutboxEmail(long id, byte[] message, int attempts){}
+}
@@ -3,12 +3,17 @@ package smithereen.storage;
 import org.jetbrains.annotations.Nullable;
 
 import java.net.URI;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.EnumSet;
 import java.util.List;
 
 import smithereen.Utils;
+import smithereen.controllers.ActorRefreshWorker;
 import smithereen.controllers.ObjectLinkResolver;
 import smithereen.model.PaginatedList;
 import smithereen.model.Server;
@@ -123,4 +128,100 @@ public class FederationStorage{
 				.where("id=?", id)
 				.executeNoResult();
 	}
+
+	public static void enqueueActorRefresh(int actorID, String domain, int priority) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			SQLQueryBuilder.prepareStatement(conn, "INSERT INTO `actor_refresh_queue` (`actor_id`, `domain`, `priority`) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `priority`=GREATEST(`priority`, VALUES(`priority`))",
+					actorID, domain, priority).execute();
+		}
+	}
+
+	/**
+	 * @return actors due for a refresh, the most important ones first, no more than {@code maxPerDomain} from any one server
+	 */
+	public static List<ActorRefreshWorker.QueuedRefresh> getDueActorRefreshes(int maxPerDomain, int limit) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			PreparedStatement stmt=SQLQueryBuilder.prepareStatement(conn, """
+					SELECT `actor_id`, `domain`, `attempts` FROM (
+						SELECT *, ROW_NUMBER() OVER (PARTITION BY `domain` ORDER BY `priority` DESC, `next_attempt_at`) AS `domain_rank`
+						FROM `actor_refresh_queue` WHERE `next_attempt_at`<=CURRENT_TIMESTAMP()
+					) AS `q` WHERE `domain_rank`<=? ORDER BY `priority` DESC, `next_attempt_at` LIMIT ?""", maxPerDomain, limit);
+			return DatabaseUtils.resultSetToObjectStream(stmt.executeQuery(), ActorRefreshWorker.QueuedRefresh::fromResultSet, null).toList();
+		}
+	}
+
+	public static void postponeActorRefresh(int actorID, int attempts, Instant nextAttemptAt) throws SQLException{
+		new SQLQueryBuilder()
+				.update("actor_refresh_queue")
+				.value("attempts", attempts)
+				.value("next_attempt_at", nextAttemptAt)
+				.where("actor_id=?", actorID)
+				.executeNoResult();
+	}
+
+	public static void deleteActorRefresh(int actorID) throws SQLException{
+		new SQLQueryBuilder()
+				.deleteFrom("actor_refresh_queue")
+				.where("actor_id=?", actorID)
+				.executeNoResult();
+	}
+
+	/**
+	 * @param actorID a user ID, or a negative group ID
+	 * @return whether any local users follow this user or are members of this group
+	 */
+	public static boolean isActorFollowedLocally(int actorID) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			PreparedStatement stmt=actorID>0
+					? SQLQueryBuilder.prepareStatement(conn, "SELECT 1 FROM `followings` JOIN `users` ON `followings`.`follower_id`=`users`.`id` WHERE `followee_id`=? AND `users`.`domain`='' LIMIT 1", actorID)
+					: SQLQueryBuilder.prepareStatement(conn, "SELECT 1 FROM `group_memberships` JOIN `users` ON `group_memberships`.`user_id`=`users`.`id` WHERE `group_id`=? AND `users`.`domain`='' LIMIT 1", -actorID);
+			try(ResultSet res=stmt.executeQuery()){
+				return res.next();
+			}
+		}
+	}
+
+	public static CollectionCrawlState getCollectionCrawlState(URI collectionID, String taskType) throws SQLException{
+		return new SQLQueryBuilder()
+				.selectFrom("collection_crawl_state")
+				.columns("next_page", "processed_items")
+				.where("collection_id=? AND task_type=? AND updated_at>?", collectionID.toString(), taskType, Instant.now().minus(CollectionCrawlState.MAX_AGE))
+				.executeAndGetSingleObject(res->new CollectionCrawlState(URI.create(res.getString(1)), res.getInt(2)));
+	}
+
+	public static void saveCollectionCrawlState(URI collectionID, String taskType, URI nextPage, int processedItems) throws SQLException{
+		new SQLQueryBuilder()
+				.insertInto("collection_crawl_state")
+				.value("collection_id", collectionID.toString())
+				.value("task_type", taskType)
+				.value("next_page", nextPage.toString())
+				.value("processed_items", processedItems)
+				.valueExpr("updated_at", "CURRENT_TIMESTAMP()")
+				.onDuplicateKeyUpdate()
+				.executeNoResult();
+	}
+
+	public static void deleteCollectionCrawlState(URI collectionID, String taskType) throws SQLException{
+		new SQLQueryBuilder()
+				.deleteFrom("collection_crawl_state")
+				.where("collection_id=? AND task_type=?", collectionID.toString(), taskType)
+				.executeNoResult();
+	}
+
+	public static void deleteStaleCollectionCrawlStates() throws SQLException{
+		new SQLQueryBuilder()
+				.deleteFrom("collection_crawl_state")
+				.where("updated_at<?", Instant.now().minus(CollectionCrawlState.MAX_AGE))
+				.executeNoResult();
+	}
+
+	/**
+	 * Where a partially completed fetch of a remote collection left off
+	 */
+	public record CollectionCrawlState(URI nextPage, int processedItems){
+		/**
+		 * Pagination cursors might not stay valid forever, and the collection will have changed anyway
+		 */
+		public static final Duration MAX_AGE=Duration.ofDays(3);
+	}
 }
@@ -0,0 +1,466 @@
+package smithereen.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import smithereen.Utils;
+import smithereen.model.friends.FriendshipStatus;
+import smithereen.storage.sql.DatabaseConnection;
+import smithereen.storage.sql.DatabaseConnectionManager;
+import smithereen.storage.sql.SQLQueryBuilder;
+
+/**
+ * An in-memory mirror of the followings table, local and remote users alike, that answers friendship status and
+ * mutual friend queries without going to MySQL. Every user's edges are kept in sorted int arrays, so that mutual
+ * friends are a merge of two arrays.
+ * <p>
+ * The arrays are never modified in place: updates replace the whole {@link Node}, so reads don't need any locking.
+ * {@link UserStorage} calls the update methods after every change to the followings table it commits.
+ * Until the initial load completes, {@link UserStorage} keeps using SQL.
+ */
+public class FollowGraph{
+	private static final Logger LOG=LoggerFactory.getLogger(FollowGraph.class);
+	private static final int LOAD_CHUNK_SIZE=10_000;
+	static final byte FLAG_MUTUAL=1;
+	static final byte FLAG_ACCEPTED=2;
+	private static final int[] EMPTY=new int[0];
+	private static final Node EMPTY_NODE=new Node(EMPTY, new byte[0], EMPTY, EMPTY);
+
+	private static volatile ConcurrentHashMap<Integer, Node> nodes=new ConcurrentHashMap<>();
+	private static final Object writeLock=new Object();
+	// Guarded by writeLock. Updates that happen while loading are applied again afterwards, they all set absolute states so that's safe
+	private static List<Runnable> updatesDuringLoad;
+	private static volatile boolean ready;
+
+	/**
+	 * @return whether the initial load has completed and the graph can be used instead of querying the followings table
+	 */
+	public static boolean isReady(){
+		return ready;
+	}
+
+	/**
+	 * Loads the graph from the database on a background thread. Until this completes for the first time, {@link UserStorage}
+	 * keeps using MySQL. Calling this again rebuilds the graph while the current one keeps serving queries.
+	 */
+	public static void loadInBackground(){
+		Thread.ofPlatform().name("FollowGraphLoader").daemon().start(()->{
+			try{
+				long start=System.currentTimeMillis();
+				Map<Integer, Node> newNodes=load(FollowGraph::loadFromDatabase);
+				if(newNodes!=null){
+					int edgeCount=newNodes.values().stream().mapToInt(n->n.following.length).sum();
+					LOG.info("Loaded {} follow relationships between {} users into the follow graph in {} ms", edgeCount, newNodes.size(), System.currentTimeMillis()-start);
+				}
+			}catch(SQLException x){
+				LOG.error("Failed to load the follow graph", x);
+			}
+		});
+	}
+
+	/**
+	 * Replaces the graph with what the loader returns. Updates made while the loader runs are applied to the new graph too.
+	 * @return the loaded nodes, or null if another load is already in progress
+	 */
+	static Map<Integer, Node> load(Loader loader) throws SQLException{
+		synchronized(writeLock){
+			if(updatesDuringLoad!=null)
+				return null;
+			updatesDuringLoad=new ArrayList<>();
+		}
+		ConcurrentHashMap<Integer, Node> newNodes;
+		try{
+			newNodes=loader.load();
+		}catch(SQLException x){
+			synchronized(writeLock){
+				updatesDuringLoad=null;
+			}
+			throw x;
+		}
+		synchronized(writeLock){
+			nodes=newNodes;
+			for(Runnable update:updatesDuringLoad){
+				update.run();
+			}
+			updatesDuringLoad=null;
+			ready=true;
+		}
+		return newNodes;
+	}
+
+	// region Queries
+
+	public static FriendshipStatus getSimpleFriendshipStatus(int selfUserID, int targetUserID){
+		Node self=getNode(selfUserID);
+		int index=Arrays.binarySearch(self.following, targetUserID);
+		if(index>=0){
+			byte flags=self.followingFlags[index];
+			if((flags & FLAG_MUTUAL)!=0)
+				return FriendshipStatus.FRIENDS;
+			return (flags & FLAG_ACCEPTED)!=0 ? FriendshipStatus.FOLLOWING : FriendshipStatus.FOLLOW_REQUESTED;
+		}
+		Node target=getNode(targetUserID);
+		index=Arrays.binarySearch(target.following, selfUserID);
+		if(index>=0)
+			return (target.followingFlags[index] & FLAG_MUTUAL)!=0 ? FriendshipStatus.FRIENDS : FriendshipStatus.FOLLOWED_BY;
+		return FriendshipStatus.NONE;
+	}
+
+	public static boolean isFriend(int userID, int otherUserID){
+		return Arrays.binarySearch(getNode(userID).friends, otherUserID)>=0;
+	}
+
+	public static int getMutualFriendsCount(int userID, int otherUserID){
+		int[] a=getNode(userID).friends, b=getNode(otherUserID).friends;
+		int count=0;
+		for(int i=0, j=0;i<a.length && j<b.length;){
+			if(a[i]<b[j]){
+				i++;
+			}else if(a[i]>b[j]){
+				j++;
+			}else{
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return IDs of the users that are friends with both users, in ascending order
+	 */
+	public static int[] getMutualFriendIDs(int userID, int otherUserID){
+		int[] a=getNode(userID).friends, b=getNode(otherUserID).friends;
+		int[] result=new int[Math.min(a.length, b.length)];
+		int count=0;
+		for(int i=0, j=0;i<a.length && j<b.length;){
+			if(a[i]<b[j]){
+				i++;
+			}else if(a[i]>b[j]){
+				j++;
+			}else{
+				result[count++]=a[i];
+				i++;
+				j++;
+			}
+		}
+		return count==result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	public static boolean haveMutualFriends(int userID, int otherUserID){
+		int[] a=getNode(userID).friends, b=getNode(otherUserID).friends;
+		// Binary search the smaller array's elements in the larger one when they're very different in size
+		if(a.length>b.length){
+			int[] tmp=a;
+			a=b;
+			b=tmp;
+		}
+		if(a.length*16<b.length){
+			for(int id:a){
+				if(Arrays.binarySearch(b, id)>=0)
+					return true;
+			}
+			return false;
+		}
+		for(int i=0, j=0;i<a.length && j<b.length;){
+			if(a[i]<b[j])
+				i++;
+			else if(a[i]>b[j])
+				j++;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	// endregion
+	// region Updates
+
+	/**
+	 * Records that a row for this pair was inserted into followings, or replaced.
+	 */
+	static void putFollow(int followerID, int followeeID, boolean mutual, boolean accepted){
+		update(()->{
+			Node follower=getNode(followerID), followee=getNode(followeeID);
+			byte flags=(byte)((mutual ? FLAG_MUTUAL : 0) | (accepted ? FLAG_ACCEPTED : 0));
+			nodes.put(followerID, follower.withFollowing(followeeID, flags));
+			nodes.put(followeeID, followee.withFollower(followerID));
+		});
+	}
+
+	static void removeFollow(int followerID, int followeeID){
+		update(()->{
+			Node follower=nodes.get(followerID), followee=nodes.get(followeeID);
+			if(follower!=null)
+				putOrRemove(followerID, follower.withoutFollowing(followeeID));
+			if(followee!=null)
+				putOrRemove(followeeID, followee.withoutFollower(followerID));
+		});
+	}
+
+	static void setMutual(int followerID, int followeeID, boolean mutual){
+		update(()->{
+			Node follower=nodes.get(followerID);
+			if(follower==null)
+				return;
+			int index=Arrays.binarySearch(follower.following, followeeID);
+			if(index<0)
+				return;
+			byte flags=follower.followingFlags[index];
+			nodes.put(followerID, follower.withFollowing(followeeID, (byte)(mutual ? flags | FLAG_MUTUAL : flags & ~FLAG_MUTUAL)));
+		});
+	}
+
+	static void setAccepted(int followerID, int followeeID, boolean accepted){
+		update(()->{
+			Node follower=nodes.get(followerID);
+			if(follower==null)
+				return;
+			int index=Arrays.binarySearch(follower.following, followeeID);
+			if(index<0)
+				return;
+			byte flags=follower.followingFlags[index];
+			nodes.put(followerID, follower.withFollowing(followeeID, (byte)(accepted ? flags | FLAG_ACCEPTED : flags & ~FLAG_ACCEPTED)));
+		});
+	}
+
+	/**
+	 * Records that a user was deleted along with all their rows in followings.
+	 */
+	static void removeUser(int userID){
+		update(()->{
+			Node node=nodes.remove(userID);
+			if(node==null)
+				return;
+			for(int id:node.following){
+				Node other=nodes.get(id);
+				if(other!=null)
+					putOrRemove(id, other.withoutFollower(userID));
+			}
+			for(int id:node.followers){
+				Node other=nodes.get(id);
+				if(other!=null)
+					putOrRemove(id, other.withoutFollowing(userID));
+			}
+		});
+	}
+
+	private static void update(Runnable update){
+		synchronized(writeLock){
+			if(updatesDuringLoad!=null)
+				updatesDuringLoad.add(update);
+			if(ready)
+				update.run();
+		}
+	}
+
+	private static void putOrRemove(int userID, Node node){
+		if(node.following.length==0 && node.followers.length==0)
+			nodes.remove(userID);
+		else
+			nodes.put(userID, node);
+	}
+
+	// endregion
+
+	private static Node getNode(int userID){
+		return nodes.getOrDefault(userID, EMPTY_NODE);
+	}
+
+	private static ConcurrentHashMap<Integer, Node> loadFromDatabase() throws SQLException{
+		int maxUserID;
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			maxUserID=new SQLQueryBuilder(conn).selectFrom("followings").selectExpr("IFNULL(MAX(follower_id), 0)").executeAndGetInt();
+		}
+		// Leave some connections for request handling since this runs while the server is already up
+		int threads=Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+		ExecutorService executor=Executors.newFixedThreadPool(threads);
+		Map<Integer, int[]> following=new ConcurrentHashMap<>();
+		Map<Integer, byte[]> followingFlags=new ConcurrentHashMap<>();
+		try{
+			ArrayList<Future<Integer>> futures=new ArrayList<>();
+			for(int i=0;i<=maxUserID;i+=LOAD_CHUNK_SIZE){
+				int from=i, to=i+LOAD_CHUNK_SIZE-1;
+				futures.add(executor.submit(()->loadRange(from, to, following, followingFlags)));
+			}
+			for(Future<Integer> f:futures){
+				f.get();
+			}
+		}catch(Exception x){
+			throw x instanceof SQLException sx ? sx : new SQLException(x);
+		}finally{
+			Utils.stopExecutorBlocking(executor, LOG);
+		}
+		return buildNodes(following, followingFlags);
+	}
+
+	/**
+	 * @param following for each user that follows anyone, the sorted IDs of the users they follow
+	 * @param followingFlags flags for the corresponding entries in {@code following}
+	 */
+	static ConcurrentHashMap<Integer, Node> buildNodes(Map<Integer, int[]> following, Map<Integer, byte[]> followingFlags){
+		// Invert the edges to get everyone's followers. Iterating followers in ascending order keeps every array sorted.
+		HashMap<Integer, Integer> followerCounts=new HashMap<>();
+		for(int[] followees:following.values()){
+			for(int id:followees){
+				followerCounts.merge(id, 1, Integer::sum);
+			}
+		}
+		HashMap<Integer, int[]> followers=new HashMap<>(followerCounts.size());
+		for(Map.Entry<Integer, Integer> e:followerCounts.entrySet()){
+			followers.put(e.getKey(), new int[e.getValue()]);
+		}
+		HashMap<Integer, Integer> fillPositions=new HashMap<>(followerCounts.size());
+		for(int followerID:following.keySet().stream().sorted().toList()){
+			for(int id:following.get(followerID)){
+				int pos=fillPositions.merge(id, 1, Integer::sum)-1;
+				followers.get(id)[pos]=followerID;
+			}
+		}
+
+		ConcurrentHashMap<Integer, Node> newNodes=new ConcurrentHashMap<>(following.size()+followers.size());
+		for(Map.Entry<Integer, int[]> e:following.entrySet()){
+			int[] f=followers.remove(e.getKey());
+			newNodes.put(e.getKey(), Node.create(e.getValue(), followingFlags.get(e.getKey()), f==null ? EMPTY : f));
+		}
+		for(Map.Entry<Integer, int[]> e:followers.entrySet()){
+			newNodes.put(e.getKey(), Node.create(EMPTY, new byte[0], e.getValue()));
+		}
+		return newNodes;
+	}
+
+	private static int loadRange(int from, int to, Map<Integer, int[]> following, Map<Integer, byte[]> followingFlags) throws SQLException{
+		int count=0;
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection();
+			ResultSet res=new SQLQueryBuilder(conn)
+				.selectFrom("followings")
+				.columns("follower_id", "followee_id", "mutual", "accepted")
+				.where("follower_id BETWEEN ? AND ?", from, to)
+				.orderBy("follower_id ASC, followee_id ASC")
+				.execute()){
+			int currentID=0, size=0;
+			int[] ids=new int[16];
+			byte[] flags=new byte[16];
+			while(res.next()){
+				int followerID=res.getInt(1);
+				if(followerID!=currentID){
+					if(size>0){
+						following.put(currentID, Arrays.copyOf(ids, size));
+						followingFlags.put(currentID, Arrays.copyOf(flags, size));
+					}
+					currentID=followerID;
+					size=0;
+				}
+				if(size==ids.length){
+					ids=Arrays.copyOf(ids, size*2);
+					flags=Arrays.copyOf(flags, size*2);
+				}
+				ids[size]=res.getInt(2);
+				flags[size]=(byte)((res.getBoolean(3) ? FLAG_MUTUAL : 0) | (res.getBoolean(4) ? FLAG_ACCEPTED : 0));
+				size++;
+				count++;
+			}
+			if(size>0){
+				following.put(currentID, Arrays.copyOf(ids, size));
+				followingFlags.put(currentID, Arrays.copyOf(flags, size));
+			}
+		}
+		return count;
+	}
+
+	@FunctionalInterface
+	interface Loader{
+		ConcurrentHashMap<Integer, Node> load() throws SQLException;
+	}
+
+	/**
+	 * @param following IDs of the users this user follows, sorted
+	 * @param followingFlags flags for the corresponding entries in {@code following}
+	 * @param followers IDs of the users that follow this user, sorted
+	 * @param friends the subset of {@code following} where the relationship is mutual, sorted
+	 */
+	record Node(int[] following, byte[] followingFlags, int[] followers, int[] friends){
+		static Node create(int[] following, byte[] followingFlags, int[] followers){
+			int friendCount=0;
+			for(byte f:followingFlags){
+				if((f & FLAG_MUTUAL)!=0)
+					friendCount++;
+			}
+			int[] friends=new int[friendCount];
+			for(int i=0, j=0;i<following.length;i++){
+				if((followingFlags[i] & FLAG_MUTUAL)!=0)
+					friends[j++]=following[i];
+			}
+			return new Node(following, followingFlags, followers, friends);
+		}
+
+		Node withFollowing(int id, byte flags){
+			int index=Arrays.binarySearch(following, id);
+			if(index>=0){
+				if(followingFlags[index]==flags)
+					return this;
+				byte[] newFlags=followingFlags.clone();
+				newFlags[index]=flags;
+				return create(following, newFlags, followers);
+			}
+			index=-index-1;
+			int[] newFollowing=new int[following.length+1];
+			byte[] newFlags=new byte[following.length+1];
+			System.arraycopy(following, 0, newFollowing, 0, index);
+			System.arraycopy(followingFlags, 0, newFlags, 0, index);
+			newFollowing[index]=id;
+			newFlags[index]=flags;
+			System.arraycopy(following, index, newFollowing, index+1, following.length-index);
+			System.arraycopy(followingFlags, index, newFlags, index+1, following.length-index);
+			return create(newFollowing, newFlags, followers);
+		}
+
+		Node withoutFollowing(int id){
+			int index=Arrays.binarySearch(following, id);
+			if(index<0)
+				return this;
+			int[] newFollowing=new int[following.length-1];
+			byte[] newFlags=new byte[following.length-1];
+			System.arraycopy(following, 0, newFollowing, 0, index);
+			System.arraycopy(followingFlags, 0, newFlags, 0, index);
+			System.arraycopy(following, index+1, newFollowing, index, following.length-index-1);
+			System.arraycopy(followingFlags, index+1, newFlags, index, following.length-index-1);
+			return create(newFollowing, newFlags, followers);
+		}
+
+		Node withFollower(int id){
+			int index=Arrays.binarySearch(followers, id);
+			if(index>=0)
+				return this;
+			index=-index-1;
+			int[] newFollowers=new int[followers.length+1];
+			System.arraycopy(followers, 0, newFollowers, 0, index);
+			newFollowers[index]=id;
+			System.arraycopy(followers, index, newFollowers, index+1, followers.length-index);
+			return new Node(following, followingFlags, newFollowers, friends);
+		}
+
+		Node withoutFollower(int id){
+			int index=Arrays.binarySearch(followers, id);
+			if(index<0)
+				return this;
+			int[] newFollowers=new int[followers.length-1];
+			System.arraycopy(followers, 0, newFollowers, 0, index);
+			System.arraycopy(followers, index+1, newFollowers, index, followers.length-index-1);
+			return new Node(following, followingFlags, newFollowers, friends);
+		}
+	}
+}
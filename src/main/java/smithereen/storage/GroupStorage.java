@@ -129,10 +129,24 @@ public class GroupStorage{
 			}
 			SessionStorage.removeFromUserPermissionsCache(userID);
 			conn.createStatement().execute("COMMIT");
+			QuickSearchIndex.putGroup(id, TextProcessor.transliterate(name)+" "+(isEvent ? "event" : "club")+id);
+			QuickSearchIndex.invalidateViewerHints(userID);
 		}
 		return id;
 	}
 
+	/**
+	 * Marks a foreign group as up to date without changing anything else, for when a refetch finds that it hasn't changed.
+	 */
+	public static void setForeignGroupLastUpdated(ForeignGroup group) throws SQLException{
+		new SQLQueryBuilder()
+				.update("groups")
+				.valueExpr("last_updated", "CURRENT_TIMESTAMP()")
+				.where("id=?", group.id)
+				.executeNoResult();
+		removeFromCache(group);
+	}
+
 	public static void putOrUpdateForeignGroup(ForeignGroup group) throws SQLException{
 		String key=group.activityPubID.toString().toLowerCase();
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
@@ -193,6 +207,7 @@ public class GroupStorage{
 						.where("group_id=?", existingGroupID)
 						.executeNoResult();
 			}
+			QuickSearchIndex.putGroup(group.id, getQSearchStringForGroup(group));
 			removeFromCache(group);
 			synchronized(adminUpdateLock){
 				List<GroupAdmin> existingAdmins;
@@ -529,6 +544,11 @@ public class GroupStorage{
 
 				deleteInvitation(userID, group.id, group.isEvent());
 				removeFromCache(group);
+				conn.runAfterCommit(()->{
+					QuickSearchIndex.invalidateViewerHints(userID);
+					if(accepted)
+						DeliveryInboxCache.putGroupMember(group.id, userID);
+				});
 			});
 		}
 	}
@@ -573,6 +593,10 @@ public class GroupStorage{
 				}
 
 				removeFromCache(group);
+				conn.runAfterCommit(()->{
+					QuickSearchIndex.invalidateViewerHints(userID);
+					DeliveryInboxCache.removeGroupMember(group.id, userID);
+				});
 			});
 		}
 	}
@@ -684,17 +708,7 @@ public class GroupStorage{
 	}
 
 	public static List<URI> getGroupMemberInboxes(int groupID) throws SQLException{
-		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
-			PreparedStatement stmt=conn.prepareStatement("SELECT DISTINCT IFNULL(ap_shared_inbox, ap_inbox) FROM `users` WHERE id IN (SELECT user_id FROM group_memberships WHERE group_id=? AND accepted=1) AND ap_inbox IS NOT NULL");
-			stmt.setInt(1, groupID);
-			ArrayList<URI> inboxes=new ArrayList<>();
-			try(ResultSet res=stmt.executeQuery()){
-				while(res.next()){
-					inboxes.add(URI.create(res.getString(1)));
-				}
-				return inboxes;
-			}
-		}
+		return DeliveryInboxCache.getGroupMemberInboxes(groupID);
 	}
 
 	public static Group.AdminLevel getGroupMemberAdminLevel(int groupID, int userID) throws SQLException{
@@ -731,6 +745,10 @@ public class GroupStorage{
 					.where("id=?", groupID)
 					.executeNoResult();
 			removeFromCache(group);
+			if(accepted)
+				DeliveryInboxCache.putGroupMember(groupID, userID);
+			else
+				DeliveryInboxCache.removeGroupMember(groupID, userID);
 		}
 	}
 
@@ -879,6 +897,7 @@ public class GroupStorage{
 				.value("string", getQSearchStringForGroup(group))
 				.where("group_id=?", group.id)
 				.executeNoResult();
+		QuickSearchIndex.putGroup(group.id, getQSearchStringForGroup(group));
 
 		removeFromCache(group);
 	}
@@ -911,6 +930,7 @@ public class GroupStorage{
 					.deleteFrom("group_memberships")
 					.where("user_id=? AND group_id=?", targetID, selfID)
 					.executeNoResult();
+			DeliveryInboxCache.removeGroupMember(selfID, targetID);
 		}
 	}
 
@@ -1292,6 +1312,8 @@ public class GroupStorage{
 					.where("id=?", group.id)
 					.executeNoResult();
 			removeFromCache(group);
+			QuickSearchIndex.removeGroup(group.id);
+			DeliveryInboxCache.removeGroup(group.id);
 		}
 	}
 
@@ -1316,6 +1338,7 @@ public class GroupStorage{
 				.value("string", getQSearchStringForGroup(group))
 				.where("group_id=?", group.id)
 				.executeNoResult();
+		QuickSearchIndex.putGroup(group.id, getQSearchStringForGroup(group));
 		removeFromCache(group);
 	}
 
@@ -21,6 +21,7 @@ import smithereen.model.UserInteractions;
 import smithereen.storage.sql.DatabaseConnection;
 import smithereen.storage.sql.DatabaseConnectionManager;
 import smithereen.storage.sql.SQLQueryBuilder;
+import smithereen.storage.utils.Pair;
 
 public class LikeStorage{
 
@@ -190,6 +191,35 @@ public class LikeStorage{
 		}
 	}
 
+	/**
+	 * Same as {@link #getLikedObjectIDs(int, int, int)}, but paginated by like ID instead of offset.
+	 * @param beforeID only return likes with IDs less than this, or 0 to start from the newest one
+	 * @param total if not null, the total number of likes is put here
+	 * @return pairs of like IDs and liked objects
+	 */
+	public static List<Pair<Integer, LikedObjectID>> getLikedObjectIDsBeforeID(int ownerID, int beforeID, int count, int[] total) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			if(total!=null){
+				total[0]=new SQLQueryBuilder(conn)
+						.selectFrom("likes")
+						.count()
+						.where("user_id=?", ownerID)
+						.executeAndGetInt();
+			}
+			SQLQueryBuilder b=new SQLQueryBuilder(conn)
+					.selectFrom("likes")
+					.columns("id", "object_type", "object_id");
+			if(beforeID>0)
+				b.where("user_id=? AND id<?", ownerID, beforeID);
+			else
+				b.where("user_id=?", ownerID);
+			return b.orderBy("id DESC")
+					.limit(count, 0)
+					.executeAsStream(res->new Pair<>(res.getInt("id"), new LikedObjectID(Like.ObjectType.values()[res.getInt("object_type")], res.getLong("object_id"))))
+					.toList();
+		}
+	}
+
 	public static PaginatedList<Integer> getLikedPostsTopLevelOnly(int ownerID, int offset, int count) throws SQLException{
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			int total=DatabaseUtils.oneFieldToInt(SQLQueryBuilder.prepareStatement(conn,
@@ -75,6 +75,37 @@ public class MailStorage{
 		}
 	}
 
+	/**
+	 * Messages in the inbox or outbox, newest first, paginated by ID instead of offset.
+	 * @param beforeID only return messages with IDs less than this, or 0 to start from the newest one
+	 * @param total if not null, the total number of messages is put here
+	 */
+	public static List<MailMessage> getMessagesBeforeID(int ownerID, boolean outbox, long beforeID, int count, int[] total) throws SQLException{
+		String where=outbox ? "owner_id=? AND sender_id=? AND deleted_at IS NULL" : "owner_id=? AND sender_id<>? AND deleted_at IS NULL";
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			if(total!=null){
+				total[0]=new SQLQueryBuilder(conn)
+						.selectFrom("mail_messages")
+						.count()
+						.where(where, ownerID, ownerID)
+						.executeAndGetInt();
+			}
+			SQLQueryBuilder b=new SQLQueryBuilder(conn)
+					.selectFrom("mail_messages")
+					.allColumns();
+			if(beforeID>0)
+				b.where(where+" AND id<?", ownerID, ownerID, beforeID);
+			else
+				b.where(where, ownerID, ownerID);
+			List<MailMessage> messages=b.orderBy("id DESC")
+					.limit(count, 0)
+					.executeAsStream(MailMessage::fromResultSet)
+					.toList();
+			postprocessMessages(messages);
+			return messages;
+		}
+	}
+
 	public static long createMessage(String text, String subject, String attachments, int senderID, Set<Integer> to, Set<Integer> cc, Set<Integer> localOwners, URI apID, Map<Integer, MailMessage.ReplyInfo> replyInfos, Map<Integer, Long> allIDs) throws SQLException{
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			long[] _id={0};
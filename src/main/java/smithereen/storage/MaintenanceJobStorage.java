@@ -0,0 +1,105 @@
+package smithereen.storage;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import smithereen.model.PaginatedList;
+import smithereen.model.admin.MaintenanceJobRun;
+import smithereen.storage.sql.DatabaseConnection;
+import smithereen.storage.sql.DatabaseConnectionManager;
+import smithereen.storage.sql.SQLQueryBuilder;
+
+public class MaintenanceJobStorage{
+	/**
+	 * Takes or renews the lease on a job. A lease that belongs to another node can only be taken once it expires.
+	 * @return true if this node now holds the lease
+	 */
+	public static boolean tryAcquireLease(String job, String nodeID, long durationSeconds) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			// node_id is assigned first, so the expires_at condition sees the new value
+			SQLQueryBuilder.prepareStatement(conn, """
+					INSERT INTO maintenance_job_leases (job, node_id, expires_at) VALUES (?, ?, DATE_ADD(CURRENT_TIMESTAMP(), INTERVAL ? SECOND))
+					ON DUPLICATE KEY UPDATE node_id=IF(node_id=VALUES(node_id) OR expires_at<CURRENT_TIMESTAMP(), VALUES(node_id), node_id),
+					expires_at=IF(node_id=VALUES(node_id), VALUES(expires_at), expires_at)""", job, nodeID, durationSeconds).execute();
+			String holder=new SQLQueryBuilder(conn)
+					.selectFrom("maintenance_job_leases")
+					.columns("node_id")
+					.where("job=?", job)
+					.executeAndGetSingleObject(res->res.getString(1));
+			return nodeID.equals(holder);
+		}
+	}
+
+	/**
+	 * Gives up this node's lease on a job once its run ends. The lease is kept until {@code notBefore} so that other nodes
+	 * don't repeat the run before it's due again, but it's never extended.
+	 */
+	public static void releaseLease(String job, String nodeID, Instant notBefore) throws SQLException{
+		new SQLQueryBuilder()
+				.update("maintenance_job_leases")
+				.valueExpr("expires_at", "LEAST(expires_at, ?)", notBefore)
+				.where("job=? AND node_id=?", job, nodeID)
+				.executeNoResult();
+	}
+
+	public static void releaseLeases(String nodeID) throws SQLException{
+		new SQLQueryBuilder()
+				.deleteFrom("maintenance_job_leases")
+				.where("node_id=?", nodeID)
+				.executeNoResult();
+	}
+
+	public static void putJobRun(String job, String nodeID, Instant startedAt, long durationMillis, MaintenanceJobRun.Outcome outcome, String error) throws SQLException{
+		new SQLQueryBuilder()
+				.insertInto("maintenance_job_runs")
+				.value("job", job)
+				.value("node", nodeID)
+				.value("started_at", startedAt)
+				.value("duration", durationMillis)
+				.value("outcome", outcome)
+				.value("error", error)
+				.executeNoResult();
+	}
+
+	public static PaginatedList<MaintenanceJobRun> getJobRuns(int offset, int count) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			int total=new SQLQueryBuilder(conn)
+					.selectFrom("maintenance_job_runs")
+					.count()
+					.executeAndGetInt();
+			if(total==0)
+				return PaginatedList.emptyList(count);
+			List<MaintenanceJobRun> runs=new SQLQueryBuilder(conn)
+					.selectFrom("maintenance_job_runs")
+					.allColumns()
+					.orderBy("id DESC")
+					.limit(count, offset)
+					.executeAsStream(MaintenanceJobRun::fromResultSet)
+					.toList();
+			return new PaginatedList<>(runs, total, offset, count);
+		}
+	}
+
+	/**
+	 * @return the latest run of every job that has ever run, on any node
+	 */
+	public static Map<String, MaintenanceJobRun> getLastJobRuns() throws SQLException{
+		return new SQLQueryBuilder()
+				.selectFrom("maintenance_job_runs")
+				.allColumns()
+				.where("id IN (SELECT MAX(id) FROM maintenance_job_runs GROUP BY job)")
+				.executeAsStream(MaintenanceJobRun::fromResultSet)
+				.collect(Collectors.toMap(MaintenanceJobRun::job, Function.identity()));
+	}
+
+	public static void deleteJobRunsOlderThan(Instant time) throws SQLException{
+		new SQLQueryBuilder()
+				.deleteFrom("maintenance_job_runs")
+				.where("started_at<?", time)
+				.executeNoResult();
+	}
+}
@@ -42,6 +42,7 @@ import smithereen.Config;
 import smithereen.LruCache;
 import smithereen.Utils;
 import smithereen.activitypub.ActivityPub;
+import smithereen.http.SizeLimitingBodySubscriber;
 import smithereen.libvips.VipsImage;
 import smithereen.storage.sql.DatabaseConnection;
 import smithereen.storage.sql.DatabaseConnectionManager;
@@ -203,7 +204,7 @@ public class MediaCache{
 		Item result=null;
 		File tmp=File.createTempFile(keyHex, null);
 		try{
-			HttpResponse<Path> resp=ActivityPub.httpClient.send(req, responseInfo->{
+			HttpResponse<Path> resp=ActivityPub.mediaHttpClient.send(req, responseInfo->{
 				int status=responseInfo.statusCode()/100;
 				if(status==4 || status==5){
 					return new HttpResponse.BodySubscriber<>(){
@@ -225,7 +226,7 @@ public class MediaCache{
 						public void onComplete(){}
 					};
 				}
-				return new SizeLimitingBodySubscriber(HttpResponse.BodySubscribers.ofFile(tmp.toPath()));
+				return new SizeLimitingBodySubscriber<>(HttpResponse.BodySubscribers.ofFile(tmp.toPath()), Config.mediaCacheMaxSize);
 			});
 			if(resp.statusCode()/100!=2){
 				return null;
@@ -416,47 +417,6 @@ public class MediaCache{
 		}
 	}
 
-	private static class SizeLimitingBodySubscriber implements HttpResponse.BodySubscriber<Path>{
-		private final HttpResponse.BodySubscriber<Path> parent;
-		private long size=0;
-
-		private SizeLimitingBodySubscriber(HttpResponse.BodySubscriber<Path> parent){
-			this.parent=parent;
-		}
-
-		@Override
-		public CompletionStage<Path> getBody(){
-			return parent.getBody();
-		}
-
-		@Override
-		public void onSubscribe(Flow.Subscription subscription){
-			parent.onSubscribe(subscription);
-		}
-
-		@Override
-		public void onNext(List<ByteBuffer> item){
-			for(ByteBuffer buf:item){
-				size+=buf.remaining();
-				if(size>Config.mediaCacheMaxSize){
-					parent.onError(new IOException("File too large"));
-					return;
-				}
-			}
-			parent.onNext(item);
-		}
-
-		@Override
-		public void onError(Throwable throwable){
-			parent.onError(throwable);
-		}
-
-		@Override
-		public void onComplete(){
-			parent.onComplete();
-		}
-	}
-
 	private record CacheKey(byte[] value){
 		@Override
 		public boolean equals(Object o){
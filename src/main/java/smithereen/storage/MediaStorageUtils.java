@@ -298,7 +298,7 @@ public class MediaStorageUtils{
 					.build();
 			HttpResponse<InputStream> resp;
 			try{
-				resp=ActivityPub.httpClient.send(req, HttpResponse.BodyHandlers.ofInputStream());
+				resp=ActivityPub.mediaHttpClient.send(req, HttpResponse.BodyHandlers.ofInputStream());
 			}catch(InterruptedException e){
 				throw new RuntimeException(e);
 			}
@@ -51,6 +51,7 @@ import smithereen.storage.sql.DatabaseConnection;
 import smithereen.storage.sql.DatabaseConnectionManager;
 import smithereen.storage.sql.SQLQueryBuilder;
 import smithereen.storage.utils.Pair;
+import smithereen.templates.TemplateFragmentCache;
 import smithereen.text.FormattedTextFormat;
 import smithereen.util.BackgroundTaskRunner;
 import smithereen.util.NamedMutexCollection;
@@ -95,7 +96,7 @@ public class PostStorage{
 						.executeNoResult();
 
 				SQLQueryBuilder.prepareStatement(conn, "INSERT INTO newsfeed_comments (user_id, object_type, object_id) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE object_id=object_id", userID, 0, replyKey.getFirst()).execute();
-				BackgroundTaskRunner.getInstance().submit(new UpdateCommentBookmarksRunnable(replyKey.getFirst()));
+				conn.runAfterCommit(()->BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, new UpdateCommentBookmarksRunnable(replyKey.getFirst())));
 			}
 			return id;
 		}
@@ -114,6 +115,7 @@ public class PostStorage{
 				.valueExpr("updated_at", "CURRENT_TIMESTAMP()")
 				.where("id=?", id)
 				.executeNoResult();
+		TemplateFragmentCache.invalidatePost(id);
 	}
 
 	public static void updateWallPostCW(int id, String contentWarning) throws SQLException{
@@ -281,11 +283,12 @@ public class PostStorage{
 								.valueExpr("reply_count", "reply_count+1")
 								.whereIn("id", post.replyKey)
 								.executeNoResult();
-						BackgroundTaskRunner.getInstance().submit(new UpdateCommentBookmarksRunnable(post.replyKey.getFirst()));
+						conn.runAfterCommit(()->BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, new UpdateCommentBookmarksRunnable(post.replyKey.getFirst())));
 					}
 				}else{
 					stmt.execute();
 					post.id=existing.id;
+					TemplateFragmentCache.invalidatePost(existing.id);
 				}
 			});
 		}finally{
@@ -420,6 +423,64 @@ public class PostStorage{
 		}
 	}
 
+	/**
+	 * Top-level posts on a user's wall regardless of privacy, newest first, paginated by ID instead of offset.
+	 * @param beforeID only return posts with IDs less than this, or 0 to start from the newest one
+	 * @param total if not null, the total number of posts is put here
+	 */
+	public static List<Post> getAllWallPostsBeforeID(int ownerID, int beforeID, int count, int[] total) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			if(total!=null){
+				total[0]=new SQLQueryBuilder(conn)
+						.selectFrom("wall_posts")
+						.count()
+						.where("owner_user_id=? AND reply_key IS NULL", ownerID)
+						.executeAndGetInt();
+			}
+			SQLQueryBuilder b=new SQLQueryBuilder(conn)
+					.selectFrom("wall_posts")
+					.allColumns();
+			if(beforeID>0)
+				b.where("owner_user_id=? AND reply_key IS NULL AND id<?", ownerID, beforeID);
+			else
+				b.where("owner_user_id=? AND reply_key IS NULL", ownerID);
+			List<Post> posts=b.orderBy("id DESC")
+					.limit(count, 0)
+					.executeAsStream(Post::fromResultSet)
+					.toList();
+			postprocessPosts(posts);
+			return posts;
+		}
+	}
+
+	/**
+	 * Same as {@link #getWallComments(int, int, int)}, but paginated by ID instead of offset.
+	 * @param afterID only return comments with IDs greater than this
+	 * @param total if not null, the total number of comments is put here
+	 */
+	public static List<Post> getWallCommentsAfterID(int ownerID, int afterID, int count, int[] total) throws SQLException{
+		String ownerField=ownerID<0 ? "owner_group_id" : "owner_user_id";
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			if(total!=null){
+				total[0]=new SQLQueryBuilder(conn)
+						.selectFrom("wall_posts")
+						.count()
+						.where(ownerField+"=? AND reply_key IS NOT NULL", Math.abs(ownerID))
+						.executeAndGetInt();
+			}
+			List<Post> posts=new SQLQueryBuilder(conn)
+					.selectFrom("wall_posts")
+					.allColumns()
+					.where(ownerField+"=? AND reply_key IS NOT NULL AND id>?", Math.abs(ownerID), afterID)
+					.orderBy("id ASC")
+					.limit(count, 0)
+					.executeAsStream(Post::fromResultSet)
+					.toList();
+			postprocessPosts(posts);
+			return posts;
+		}
+	}
+
 	public static List<Post> getWallToWall(int userID, int otherUserID, int offset, int count, int[] total) throws SQLException{
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			PreparedStatement stmt;
@@ -587,10 +648,11 @@ public class PostStorage{
 
 			if(post.getReplyLevel()>0){
 				conn.createStatement().execute("UPDATE wall_posts SET reply_count=GREATEST(1, reply_count)-1 WHERE id IN ("+post.replyKey.stream().map(String::valueOf).collect(Collectors.joining(","))+")");
-				BackgroundTaskRunner.getInstance().submit(new UpdateCommentBookmarksRunnable(post.replyKey.get(0)));
+				conn.runAfterCommit(()->BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, new UpdateCommentBookmarksRunnable(post.replyKey.get(0))));
 			}else{
-				BackgroundTaskRunner.getInstance().submit(new DeleteCommentBookmarksRunnable(id));
+				conn.runAfterCommit(()->BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.BULK, new DeleteCommentBookmarksRunnable(id)));
 			}
+			TemplateFragmentCache.invalidatePost(id);
 		}
 	}
 
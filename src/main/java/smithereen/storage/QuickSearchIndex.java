@@ -0,0 +1,487 @@
+package smithereen.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import smithereen.LruCache;
+import smithereen.Utils;
+import smithereen.model.Group;
+import smithereen.model.PaginatedList;
+import smithereen.model.SearchResult;
+import smithereen.model.User;
+import smithereen.storage.sql.DatabaseConnection;
+import smithereen.storage.sql.DatabaseConnectionManager;
+import smithereen.storage.sql.SQLQueryBuilder;
+import smithereen.text.TextProcessor;
+
+/**
+ * An in-memory mirror of the qsearch_index table that answers prefix queries without going to MySQL.
+ * Every query word has to be a prefix of some word of the indexed string, same as the <code>+(>w <(w*))</code>
+ * boolean mode query that {@link SearchStorage} used to send. Results the viewer follows or is a member of
+ * come first and are ordered by hints_rank, everything else is appended after them, exact word matches first.
+ */
+public class QuickSearchIndex{
+	private static final Logger LOG=LoggerFactory.getLogger(QuickSearchIndex.class);
+	private static final Pattern WORD_SEPARATOR=Pattern.compile("[^\\p{L}\\p{N}_]+");
+	private static final int LOAD_CHUNK_SIZE=10_000;
+	private static final long VIEWER_HINTS_TTL=TimeUnit.MINUTES.toMillis(1);
+
+	private static volatile Index index=new Index();
+	private static final LruCache<Integer, ViewerHints> viewerHintsCache=new LruCache<>(1000);
+	private static final Object writeLock=new Object();
+	// Guarded by writeLock. Updates that happen while loading are applied again afterwards, they all set absolute states so that's safe
+	private static List<Consumer<Index>> updatesDuringLoad;
+	private static volatile boolean ready;
+
+	/**
+	 * @return whether the initial load has completed and the index can be used instead of the fulltext index in MySQL
+	 */
+	public static boolean isReady(){
+		return ready;
+	}
+
+	/**
+	 * Loads the index from the database on a background thread. Until this completes for the first time, {@link SearchStorage}
+	 * keeps using MySQL. Calling this again reloads the index into fresh maps while the current one keeps serving queries.
+	 */
+	public static void loadInBackground(){
+		Thread.ofPlatform().name("QuickSearchIndexLoader").daemon().start(()->{
+			try{
+				long start=System.currentTimeMillis();
+				Index newIndex=load();
+				if(newIndex!=null)
+					LOG.info("Loaded {} users and {} groups into the quick search index in {} ms", newIndex.userWords.size(), newIndex.groupWords.size(), System.currentTimeMillis()-start);
+			}catch(SQLException x){
+				LOG.error("Failed to load the quick search index", x);
+			}
+		});
+	}
+
+	/**
+	 * Replaces the index with one freshly loaded from the database. Updates made while loading are applied to the new index too.
+	 * @return the new index, or null if another load is already in progress
+	 */
+	private static Index load() throws SQLException{
+		synchronized(writeLock){
+			if(updatesDuringLoad!=null)
+				return null;
+			updatesDuringLoad=new ArrayList<>();
+		}
+		Index newIndex;
+		try{
+			newIndex=loadFromDatabase();
+		}catch(SQLException x){
+			synchronized(writeLock){
+				updatesDuringLoad=null;
+			}
+			throw x;
+		}
+		synchronized(writeLock){
+			index=newIndex;
+			for(Consumer<Index> update:updatesDuringLoad){
+				update.accept(newIndex);
+			}
+			updatesDuringLoad=null;
+			ready=true;
+		}
+		return newIndex;
+	}
+
+	static void putUser(int id, String string){
+		update(idx->idx.put(idx.userWords, id, string, false));
+	}
+
+	static void putGroup(int id, String string){
+		update(idx->idx.put(idx.groupWords, id, string, true));
+	}
+
+	static void removeUser(int id){
+		update(idx->idx.remove(idx.userWords, id, false));
+		viewerHintsCache.remove(id);
+	}
+
+	static void removeGroup(int id){
+		update(idx->idx.remove(idx.groupWords, id, true));
+	}
+
+	private static void update(Consumer<Index> update){
+		synchronized(writeLock){
+			if(updatesDuringLoad!=null)
+				updatesDuringLoad.add(update);
+			if(ready)
+				update.accept(index);
+		}
+	}
+
+	/**
+	 * Drops the cached follow and membership lists of these users so that their next search sees the changes.
+	 */
+	static void invalidateViewerHints(int... userIDs){
+		for(int id:userIDs)
+			viewerHintsCache.remove(id);
+	}
+
+	static List<SearchResult> search(String query, int selfID, int maxCount) throws SQLException{
+		String[] words=splitQuery(query);
+		LinkedHashSet<Hit> results=new LinkedHashSet<>();
+		if(words.length==0)
+			return List.of();
+		Index idx=index;
+		for(Hint hint:getViewerHints(selfID).all){
+			if(matches(hint.type==SearchResult.Type.USER ? idx.userWords.get(hint.id) : idx.groupWords.get(hint.id), words)){
+				results.add(new Hit(hint.type, hint.id));
+				if(results.size()==maxCount)
+					break;
+			}
+		}
+		if(results.size()<maxCount)
+			idx.collectGlobalMatches(words, maxCount, results, true, true);
+		return results.stream().map(h->new SearchResult(h.type, h.id)).collect(Collectors.toCollection(ArrayList::new));
+	}
+
+	static List<Integer> searchUsers(String query, int selfID, int count) throws SQLException{
+		String[] words=splitQuery(query);
+		LinkedHashSet<Hit> results=new LinkedHashSet<>();
+		if(words.length==0)
+			return List.of();
+		Index idx=index;
+		for(Hint hint:getViewerHints(selfID).users){
+			if(matches(idx.userWords.get(hint.id), words)){
+				results.add(new Hit(SearchResult.Type.USER, hint.id));
+				if(results.size()==count)
+					break;
+			}
+		}
+		if(results.size()<count)
+			idx.collectGlobalMatches(words, count, results, true, false);
+		return results.stream().map(r->r.id).toList();
+	}
+
+	static PaginatedList<Integer> searchFriends(String query, int selfID, int offset, int count, boolean useHints) throws SQLException{
+		String[] words=splitQuery(query);
+		if(words.length==0)
+			return PaginatedList.emptyList(count);
+		ArrayList<Integer> matching=new ArrayList<>();
+		Index idx=index;
+		for(Hint hint:getViewerHints(selfID).users){
+			if(hint.friend && matches(idx.userWords.get(hint.id), words))
+				matching.add(hint.id);
+		}
+		if(matching.isEmpty())
+			return PaginatedList.emptyList(count);
+		if(!useHints)
+			matching.sort(Comparator.naturalOrder());
+		return new PaginatedList<>(matching.subList(Math.min(offset, matching.size()), Math.min(offset+count, matching.size())), matching.size(), offset, count);
+	}
+
+	/**
+	 * Recomputes the qsearch_index strings for all users and groups from their current names. Ranges of IDs are processed in parallel.
+	 * This is meant to be run from the command line. Running servers pick up the new strings with their next periodic
+	 * {@link #loadInBackground()}, and if this process has the index loaded, it's reloaded right away.
+	 * @param threads the number of threads to use
+	 */
+	public static void rebuild(int threads) throws SQLException{
+		int maxUserID, maxGroupID;
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			maxUserID=new SQLQueryBuilder(conn).selectFrom("users").selectExpr("IFNULL(MAX(id), 0)").executeAndGetInt();
+			maxGroupID=new SQLQueryBuilder(conn).selectFrom("groups").selectExpr("IFNULL(MAX(id), 0)").executeAndGetInt();
+		}
+		ExecutorService executor=Executors.newFixedThreadPool(threads);
+		try{
+			ArrayList<Future<Integer>> futures=new ArrayList<>();
+			for(int i=0;i<=maxUserID;i+=LOAD_CHUNK_SIZE){
+				int from=i, to=i+LOAD_CHUNK_SIZE-1;
+				futures.add(executor.submit(()->rebuildUsers(from, to)));
+			}
+			for(int i=0;i<=maxGroupID;i+=LOAD_CHUNK_SIZE){
+				int from=i, to=i+LOAD_CHUNK_SIZE-1;
+				futures.add(executor.submit(()->rebuildGroups(from, to)));
+			}
+			int total=0;
+			for(Future<Integer> f:futures){
+				total+=f.get();
+			}
+			LOG.info("Rebuilt {} quick search index entries", total);
+			if(ready)
+				loadInBackground();
+		}catch(Exception x){
+			throw x instanceof SQLException sx ? sx : new SQLException(x);
+		}finally{
+			Utils.stopExecutorBlocking(executor, LOG);
+		}
+	}
+
+	private static Index loadFromDatabase() throws SQLException{
+		int maxUserID, maxGroupID;
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			maxUserID=new SQLQueryBuilder(conn).selectFrom("qsearch_index").selectExpr("IFNULL(MAX(user_id), 0)").executeAndGetInt();
+			maxGroupID=new SQLQueryBuilder(conn).selectFrom("qsearch_index").selectExpr("IFNULL(MAX(group_id), 0)").executeAndGetInt();
+		}
+		// Leave some connections for request handling since this runs while the server is already up
+		int threads=Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+		ExecutorService executor=Executors.newFixedThreadPool(threads);
+		Index newIndex=new Index();
+		try{
+			ArrayList<Future<?>> futures=new ArrayList<>();
+			for(int i=0;i<=maxUserID;i+=LOAD_CHUNK_SIZE){
+				int from=i, to=i+LOAD_CHUNK_SIZE-1;
+				futures.add(executor.submit(()->{
+					loadRange(newIndex, "user_id", from, to, false);
+					return null;
+				}));
+			}
+			for(int i=0;i<=maxGroupID;i+=LOAD_CHUNK_SIZE){
+				int from=i, to=i+LOAD_CHUNK_SIZE-1;
+				futures.add(executor.submit(()->{
+					loadRange(newIndex, "group_id", from, to, true);
+					return null;
+				}));
+			}
+			for(Future<?> f:futures){
+				f.get();
+			}
+			return newIndex;
+		}catch(Exception x){
+			throw x instanceof SQLException sx ? sx : new SQLException(x);
+		}finally{
+			Utils.stopExecutorBlocking(executor, LOG);
+		}
+	}
+
+	private static void loadRange(Index idx, String column, int from, int to, boolean groups) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection();
+			ResultSet res=new SQLQueryBuilder(conn)
+				.selectFrom("qsearch_index")
+				.columns(column, "string")
+				.where(column+" BETWEEN ? AND ?", from, to)
+				.execute()){
+			while(res.next()){
+				idx.put(groups ? idx.groupWords : idx.userWords, res.getInt(1), res.getString(2), groups);
+			}
+		}
+	}
+
+	private static int rebuildUsers(int from, int to) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			List<Integer> ids=new SQLQueryBuilder(conn)
+					.selectFrom("users")
+					.columns("id")
+					.where("id BETWEEN ? AND ?", from, to)
+					.executeAndGetIntList();
+			if(ids.isEmpty())
+				return 0;
+			Map<Integer, User> users=UserStorage.getById(ids, true);
+			return rewriteRows(conn, "user_id", users.values().stream().collect(Collectors.toMap(u->u.id, UserStorage::getQSearchStringForUser)));
+		}
+	}
+
+	private static int rebuildGroups(int from, int to) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			List<Integer> ids=new SQLQueryBuilder(conn)
+					.selectFrom("groups")
+					.columns("id")
+					.where("id BETWEEN ? AND ?", from, to)
+					.executeAndGetIntList();
+			if(ids.isEmpty())
+				return 0;
+			Map<Integer, Group> groups=GroupStorage.getById(ids);
+			return rewriteRows(conn, "group_id", groups.values().stream().collect(Collectors.toMap(g->g.id, GroupStorage::getQSearchStringForGroup)));
+		}
+	}
+
+	private static int rewriteRows(DatabaseConnection conn, String column, Map<Integer, String> strings) throws SQLException{
+		DatabaseUtils.doWithTransaction(conn, ()->{
+			new SQLQueryBuilder(conn)
+					.deleteFrom("qsearch_index")
+					.whereIn(column, strings.keySet())
+					.executeNoResult();
+			PreparedStatement stmt=conn.prepareStatement("INSERT INTO qsearch_index (`string`, `"+column+"`) VALUES (?, ?)");
+			for(Map.Entry<Integer, String> e:strings.entrySet()){
+				stmt.setString(1, e.getValue());
+				stmt.setInt(2, e.getKey());
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		});
+		return strings.size();
+	}
+
+	private static boolean matches(String[] indexedWords, String[] queryWords){
+		if(indexedWords==null)
+			return false;
+		for(String q:queryWords){
+			boolean found=false;
+			for(String w:indexedWords){
+				if(w.startsWith(q)){
+					found=true;
+					break;
+				}
+			}
+			if(!found)
+				return false;
+		}
+		return true;
+	}
+
+	private static String[] splitIndexedString(String s){
+		return Arrays.stream(WORD_SEPARATOR.split(s.toLowerCase(Locale.ROOT))).filter(w->!w.isEmpty()).distinct().sorted().toArray(String[]::new);
+	}
+
+	private static String[] splitQuery(String query){
+		String transliterated=TextProcessor.transliterate(query);
+		if(transliterated==null)
+			return new String[0];
+		return Arrays.stream(WORD_SEPARATOR.split(transliterated.toLowerCase(Locale.ROOT))).filter(w->!w.isEmpty()).distinct().toArray(String[]::new);
+	}
+
+	private static ViewerHints getViewerHints(int userID) throws SQLException{
+		ViewerHints hints=viewerHintsCache.get(userID);
+		if(hints!=null && System.currentTimeMillis()-hints.loadedAt<VIEWER_HINTS_TTL)
+			return hints;
+		ArrayList<Hint> users=new ArrayList<>(), all=new ArrayList<>();
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			try(ResultSet res=new SQLQueryBuilder(conn)
+					.selectFrom("followings")
+					.columns("followee_id", "hints_rank", "mutual", "accepted")
+					.where("follower_id=?", userID)
+					.orderBy("hints_rank DESC")
+					.execute()){
+				while(res.next()){
+					users.add(new Hint(SearchResult.Type.USER, res.getInt(1), res.getInt(2), res.getBoolean(3) && res.getBoolean(4)));
+				}
+			}
+			all.addAll(users);
+			try(ResultSet res=new SQLQueryBuilder(conn)
+					.selectFrom("group_memberships")
+					.columns("group_id", "hints_rank")
+					.where("user_id=?", userID)
+					.execute()){
+				while(res.next()){
+					all.add(new Hint(SearchResult.Type.GROUP, res.getInt(1), res.getInt(2), false));
+				}
+			}
+		}
+		all.sort(Comparator.comparingInt(Hint::rank).reversed());
+		hints=new ViewerHints(users, all, System.currentTimeMillis());
+		viewerHintsCache.put(userID, hints);
+		return hints;
+	}
+
+	/**
+	 * The words of every user and group and the dictionary built from them. Swapped as a whole when the index is reloaded.
+	 */
+	private static class Index{
+		private final ConcurrentHashMap<Integer, String[]> userWords=new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<Integer, String[]> groupWords=new ConcurrentHashMap<>();
+		private final ConcurrentSkipListMap<String, Postings> dictionary=new ConcurrentSkipListMap<>();
+
+		private void put(ConcurrentHashMap<Integer, String[]> entries, int id, String string, boolean group){
+			String[] words=splitIndexedString(string);
+			synchronized(this){
+				String[] oldWords=entries.put(id, words);
+				if(oldWords!=null){
+					for(String word:oldWords){
+						if(Arrays.binarySearch(words, word)<0)
+							removePosting(word, id, group);
+					}
+				}
+				for(String word:words){
+					dictionary.computeIfAbsent(word, w->new Postings()).get(group).add(id);
+				}
+			}
+		}
+
+		private void remove(ConcurrentHashMap<Integer, String[]> entries, int id, boolean group){
+			synchronized(this){
+				String[] oldWords=entries.remove(id);
+				if(oldWords==null)
+					return;
+				for(String word:oldWords){
+					removePosting(word, id, group);
+				}
+			}
+		}
+
+		private void removePosting(String word, int id, boolean group){
+			Postings postings=dictionary.get(word);
+			if(postings==null)
+				return;
+			postings.get(group).remove(id);
+			if(postings.users.isEmpty() && postings.groups.isEmpty())
+				dictionary.remove(word, postings);
+		}
+
+		private void collectGlobalMatches(String[] words, int maxCount, Set<Hit> results, boolean wantUsers, boolean wantGroups){
+			// The longest word is usually the most selective one, so candidates are taken from its dictionary range
+			String pivot=words[0];
+			for(String word:words){
+				if(word.length()>pivot.length())
+					pivot=word;
+			}
+			Postings exact=dictionary.get(pivot);
+			if(exact!=null && addMatching(exact, words, maxCount, results, wantUsers, wantGroups))
+				return;
+			NavigableMap<String, Postings> range=dictionary.subMap(pivot, false, pivot+Character.MAX_VALUE, false);
+			for(Postings postings:range.values()){
+				if(addMatching(postings, words, maxCount, results, wantUsers, wantGroups))
+					return;
+			}
+		}
+
+		/**
+		 * @return true if the result set is full
+		 */
+		private boolean addMatching(Postings postings, String[] words, int maxCount, Set<Hit> results, boolean wantUsers, boolean wantGroups){
+			if(wantUsers){
+				for(int id:postings.users){
+					if(matches(userWords.get(id), words) && results.add(new Hit(SearchResult.Type.USER, id)) && results.size()==maxCount)
+						return true;
+				}
+			}
+			if(wantGroups){
+				for(int id:postings.groups){
+					if(matches(groupWords.get(id), words) && results.add(new Hit(SearchResult.Type.GROUP, id)) && results.size()==maxCount)
+						return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class Postings{
+		private final Set<Integer> users=ConcurrentHashMap.newKeySet();
+		private final Set<Integer> groups=ConcurrentHashMap.newKeySet();
+
+		private Set<Integer> get(boolean group){
+			return group ? groups : users;
+		}
+	}
+
+	private record Hit(SearchResult.Type type, int id){}
+
+	private record Hint(SearchResult.Type type, int id, int rank, boolean friend){}
+
+	private record ViewerHints(List<Hint> users, List<Hint> all, long loadedAt){}
+}
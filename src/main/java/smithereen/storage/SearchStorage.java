@@ -50,6 +50,18 @@ public class SearchStorage{
 	}
 
 	public static List<SearchResult> search(String query, int selfID, int maxCount) throws SQLException{
+		if(QuickSearchIndex.isReady()){
+			List<SearchResult> results=QuickSearchIndex.search(query, selfID, maxCount);
+			Set<Integer> needUsers=new HashSet<>(), needGroups=new HashSet<>();
+			for(SearchResult sr:results){
+				switch(sr.type){
+					case USER -> needUsers.add(sr.id);
+					case GROUP -> needGroups.add(sr.id);
+				}
+			}
+			fillObjects(results, needUsers, needGroups);
+			return results;
+		}
 		query=prepareQuery(query);
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			ArrayList<SearchResult> results=new ArrayList<>();
@@ -70,20 +82,25 @@ public class SearchStorage{
 				}
 			}
 
-			Map<Integer, User> users=UserStorage.getById(needUsers, false);
-			Map<Integer, Group> groups=GroupStorage.getById(needGroups);
-			for(SearchResult sr: results){
-				switch(sr.type){
-					case USER -> sr.user=users.get(sr.id);
-					case GROUP -> sr.group=groups.get(sr.id);
-				}
-			}
-
+			fillObjects(results, needUsers, needGroups);
 			return results;
 		}
 	}
 
+	private static void fillObjects(List<SearchResult> results, Set<Integer> needUsers, Set<Integer> needGroups) throws SQLException{
+		Map<Integer, User> users=UserStorage.getById(needUsers, false);
+		Map<Integer, Group> groups=GroupStorage.getById(needGroups);
+		for(SearchResult sr: results){
+			switch(sr.type){
+				case USER -> sr.user=users.get(sr.id);
+				case GROUP -> sr.group=groups.get(sr.id);
+			}
+		}
+	}
+
 	public static List<Integer> searchUsers(String query, int selfID, int count) throws SQLException{
+		if(QuickSearchIndex.isReady())
+			return QuickSearchIndex.searchUsers(query, selfID, count);
 		query=prepareQuery(query);
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			ArrayList<Integer> results=new ArrayList<>();
@@ -103,6 +120,8 @@ public class SearchStorage{
 	}
 
 	public static PaginatedList<Integer> searchFriends(String query, int selfID, int offset, int count, boolean useHints) throws SQLException{
+		if(QuickSearchIndex.isReady())
+			return QuickSearchIndex.searchFriends(query, selfID, offset, count, useHints);
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			query=prepareQuery(query);
 			int total=DatabaseUtils.oneFieldToInt(SQLQueryBuilder.prepareStatement(conn,
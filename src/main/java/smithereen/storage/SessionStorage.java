@@ -256,11 +256,13 @@ public class SessionStorage{
 					ctx.getNotificationsController().createNotification(UserStorage.getById(inviterUserID), Notification.Type.INVITE_SIGNUP, null, null, UserStorage.getById(userID));
 				}
 
+				String qsearchString=UserStorage.getQSearchStringForUser(Objects.requireNonNull(UserStorage.getById(userID)));
 				new SQLQueryBuilder(conn)
 						.insertInto("qsearch_index")
 						.value("user_id", userID)
-						.value("string", UserStorage.getQSearchStringForUser(Objects.requireNonNull(UserStorage.getById(userID))))
+						.value("string", qsearchString)
 						.executeNoResult();
+				conn.runAfterCommit(()->QuickSearchIndex.putUser(userID, qsearchString));
 			});
 		}
 		return result[0];
@@ -315,11 +317,13 @@ public class SessionStorage{
 				stmt.execute();
 
 				conn.createStatement().execute("COMMIT");
+				String qsearchString=UserStorage.getQSearchStringForUser(Objects.requireNonNull(UserStorage.getById(userID)));
 				new SQLQueryBuilder(conn)
 						.insertInto("qsearch_index")
 						.value("user_id", userID)
-						.value("string", UserStorage.getQSearchStringForUser(Objects.requireNonNull(UserStorage.getById(userID))))
+						.value("string", qsearchString)
 						.executeNoResult();
+				conn.runAfterCommit(()->QuickSearchIndex.putUser(userID, qsearchString));
 			});
 		}
 		return SignupResult.SUCCESS;
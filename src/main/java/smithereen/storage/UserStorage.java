@@ -28,6 +28,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import smithereen.Config;
 import smithereen.LruCache;
@@ -270,6 +271,8 @@ public class UserStorage{
 	}
 
 	public static FriendshipStatus getSimpleFriendshipStatus(int selfUserID, int targetUserID) throws SQLException{
+		if(FollowGraph.isReady())
+			return FollowGraph.getSimpleFriendshipStatus(selfUserID, targetUserID);
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection();
 			ResultSet res=new SQLQueryBuilder(conn)
 				.selectFrom("followings")
@@ -294,7 +297,56 @@ public class UserStorage{
 		}
 	}
 
+	/**
+	 * Same as {@link #getSimpleFriendshipStatus(int, int)}, but for many users at once, in one query.
+	 * Users that have no relationship with {@code selfUserID} are not included in the returned map.
+	 */
+	public static Map<Integer, FriendshipStatus> getSimpleFriendshipStatuses(int selfUserID, Collection<Integer> userIDs) throws SQLException{
+		if(userIDs.isEmpty())
+			return Map.of();
+		if(FollowGraph.isReady()){
+			HashMap<Integer, FriendshipStatus> statuses=new HashMap<>();
+			for(int id:userIDs){
+				FriendshipStatus status=FollowGraph.getSimpleFriendshipStatus(selfUserID, id);
+				if(status!=FriendshipStatus.NONE)
+					statuses.put(id, status);
+			}
+			return statuses;
+		}
+		String placeholders=String.join(",", Collections.nCopies(userIDs.size(), "?"));
+		ArrayList<Object> args=new ArrayList<>(userIDs.size()*2+2);
+		args.add(selfUserID);
+		args.addAll(userIDs);
+		args.add(selfUserID);
+		args.addAll(userIDs);
+		HashMap<Integer, FriendshipStatus> statuses=new HashMap<>();
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection();
+			ResultSet res=new SQLQueryBuilder(conn)
+				.selectFrom("followings")
+				.columns("follower_id", "followee_id", "mutual", "accepted")
+				.where("(follower_id=? AND followee_id IN ("+placeholders+")) OR (followee_id=? AND follower_id IN ("+placeholders+"))", args.toArray())
+				.execute()){
+			while(res.next()){
+				int follower=res.getInt(1);
+				int followee=res.getInt(2);
+				boolean mutual=res.getBoolean(3);
+				boolean accepted=res.getBoolean(4);
+				if(mutual){
+					statuses.put(follower==selfUserID ? followee : follower, FriendshipStatus.FRIENDS);
+				}else if(follower==selfUserID){
+					FriendshipStatus status=accepted ? FriendshipStatus.FOLLOWING : FriendshipStatus.FOLLOW_REQUESTED;
+					statuses.merge(followee, status, (s1, s2)->s1==FriendshipStatus.FRIENDS ? s1 : s2);
+				}else{
+					statuses.putIfAbsent(follower, FriendshipStatus.FOLLOWED_BY);
+				}
+			}
+		}
+		return statuses;
+	}
+
 	public static Set<Integer> intersectWithFriendIDs(int selfUserID, Collection<Integer> userIDs) throws SQLException{
+		if(FollowGraph.isReady())
+			return userIDs.stream().filter(id->FollowGraph.isFriend(selfUserID, id)).collect(Collectors.toSet());
 		return new SQLQueryBuilder()
 				.selectFrom("followings")
 				.columns("followee_id")
@@ -333,6 +385,10 @@ public class UserStorage{
 							.where("id=?", targetUserID)
 							.executeNoResult();
 					cache.remove(targetUserID);
+					conn.runAfterCommit(()->{
+						FollowGraph.putFollow(selfUserID, targetUserID, false, followAccepted);
+						DeliveryInboxCache.putFollower(targetUserID, selfUserID, false);
+					});
 				}
 				UserNotifications res=NotificationsStorage.getNotificationsFromCache(targetUserID);
 				if(res!=null)
@@ -445,6 +501,8 @@ public class UserStorage{
 	}
 
 	public static int getMutualFriendsCount(int userID, int otherUserID) throws SQLException{
+		if(FollowGraph.isReady())
+			return FollowGraph.getMutualFriendsCount(userID, otherUserID);
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			PreparedStatement stmt=conn.prepareStatement("SELECT COUNT(*) FROM followings AS friends1 INNER JOIN followings AS friends2 ON friends1.followee_id=friends2.followee_id WHERE friends1.follower_id=? AND friends2.follower_id=? AND friends1.mutual=1 AND friends2.mutual=1");
 			stmt.setInt(1, userID);
@@ -453,7 +511,34 @@ public class UserStorage{
 		}
 	}
 
+	/**
+	 * @return the subset of {@code otherUserIDs} that have at least one friend in common with {@code userID}
+	 */
+	public static Set<Integer> getUsersWithMutualFriends(int userID, Collection<Integer> otherUserIDs) throws SQLException{
+		if(otherUserIDs.isEmpty())
+			return Set.of();
+		if(FollowGraph.isReady())
+			return otherUserIDs.stream().filter(id->FollowGraph.haveMutualFriends(userID, id)).collect(Collectors.toSet());
+		String placeholders=String.join(",", Collections.nCopies(otherUserIDs.size(), "?"));
+		ArrayList<Object> args=new ArrayList<>(otherUserIDs.size()+1);
+		args.add(userID);
+		args.addAll(otherUserIDs);
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			PreparedStatement stmt=SQLQueryBuilder.prepareStatement(conn, "SELECT DISTINCT friends2.follower_id FROM followings AS friends1 INNER JOIN followings AS friends2 ON friends1.followee_id=friends2.followee_id "+
+					"WHERE friends1.follower_id=? AND friends1.mutual=1 AND friends2.mutual=1 AND friends2.follower_id IN ("+placeholders+")", args.toArray());
+			try(ResultSet res=stmt.executeQuery()){
+				return new HashSet<>(DatabaseUtils.intResultSetToList(res));
+			}
+		}
+	}
+
 	public static PaginatedList<User> getRandomMutualFriendsForProfile(int userID, int otherUserID, int count) throws SQLException{
+		if(FollowGraph.isReady()){
+			List<Integer> ids=IntStream.of(FollowGraph.getMutualFriendIDs(userID, otherUserID)).boxed().collect(Collectors.toCollection(ArrayList::new));
+			int total=ids.size();
+			Collections.shuffle(ids);
+			return new PaginatedList<>(getByIdAsList(ids.subList(0, Math.min(count, total))), total, 0, count);
+		}
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			int total=DatabaseUtils.oneFieldToInt(SQLQueryBuilder.prepareStatement(conn, "SELECT COUNT(*) FROM followings AS friends1 INNER JOIN followings AS friends2 ON friends1.followee_id=friends2.followee_id WHERE friends1.follower_id=? AND friends2.follower_id=? AND friends1.mutual=1 AND friends2.mutual=1", userID, otherUserID).executeQuery());
 			PreparedStatement stmt=SQLQueryBuilder.prepareStatement(conn, "SELECT friends1.followee_id FROM followings AS friends1 INNER JOIN followings AS friends2 ON friends1.followee_id=friends2.followee_id WHERE friends1.follower_id=? AND friends2.follower_id=? AND friends1.mutual=1 AND friends2.mutual=1 ORDER BY RAND() LIMIT ?", userID, otherUserID, count);
@@ -464,6 +549,9 @@ public class UserStorage{
 	}
 
 	public static List<Integer> getMutualFriendIDsForUser(int userID, int otherUserID, int offset, int count, boolean useHints) throws SQLException{
+		// Hints ranks aren't part of the in-memory graph
+		if(!useHints && FollowGraph.isReady())
+			return IntStream.of(FollowGraph.getMutualFriendIDs(userID, otherUserID)).skip(offset).limit(count).boxed().toList();
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			String orderBy=useHints ? "friends1.hints_rank DESC, friends1.followee_id ASC" : "friends1.followee_id ASC";
 			PreparedStatement stmt=SQLQueryBuilder.prepareStatement(conn, "SELECT friends1.followee_id FROM followings AS friends1 INNER JOIN followings AS friends2 ON friends1.followee_id=friends2.followee_id " +
@@ -503,6 +591,33 @@ public class UserStorage{
 		}
 	}
 
+	/**
+	 * Same as {@link #getNonMutualFollowers(int, boolean, boolean, int, int, boolean)} for accepted follows, but returns
+	 * only IDs, sorted by ID and paginated by ID instead of offset.
+	 * @param afterID only return users with IDs greater than this
+	 * @param total if not null, the total number of users is put here
+	 */
+	public static List<Integer> getNonMutualFollowerIDsAfterID(int userID, boolean followers, int afterID, int count, int[] total) throws SQLException{
+		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
+			String fld1=followers ? "follower_id" : "followee_id";
+			String fld2=followers ? "followee_id" : "follower_id";
+			if(total!=null){
+				total[0]=new SQLQueryBuilder(conn)
+						.selectFrom("followings")
+						.count()
+						.where(fld2+"=? AND accepted=1 AND mutual=0", userID)
+						.executeAndGetInt();
+			}
+			return new SQLQueryBuilder(conn)
+					.selectFrom("followings")
+					.columns(fld1)
+					.where(fld2+"=? AND accepted=1 AND mutual=0 AND "+fld1+">?", userID, afterID)
+					.orderBy(fld1+" ASC")
+					.limit(count, 0)
+					.executeAndGetIntList();
+		}
+	}
+
 	public static PaginatedList<FriendRequest> getIncomingFriendRequestsForUser(int userID, int offset, int count) throws SQLException{
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			int total=new SQLQueryBuilder(conn)
@@ -609,6 +724,13 @@ public class UserStorage{
 				if(n!=null)
 					n.incNewFriendRequestCount(-1);
 				removeBirthdayReminderFromCache(List.of(userID, targetUserID));
+				conn.runAfterCommit(()->{
+					QuickSearchIndex.invalidateViewerHints(userID, targetUserID);
+					FollowGraph.putFollow(userID, targetUserID, true, followAccepted);
+					FollowGraph.setMutual(targetUserID, userID, true);
+					DeliveryInboxCache.putFollower(targetUserID, userID, true);
+					DeliveryInboxCache.setFollowerMutual(userID, targetUserID, true);
+				});
 			});
 		}
 		return result[0];
@@ -660,6 +782,13 @@ public class UserStorage{
 				cache.remove(targetUserID);
 				cache.remove(userID);
 				removeBirthdayReminderFromCache(List.of(userID, targetUserID));
+				conn.runAfterCommit(()->{
+					QuickSearchIndex.invalidateViewerHints(userID, targetUserID);
+					FollowGraph.removeFollow(userID, targetUserID);
+					FollowGraph.setMutual(targetUserID, userID, false);
+					DeliveryInboxCache.removeFollower(targetUserID, userID);
+					DeliveryInboxCache.setFollowerMutual(userID, targetUserID, false);
+				});
 			});
 		}
 	}
@@ -727,6 +856,13 @@ public class UserStorage{
 				cache.remove(userID);
 
 				conn.createStatement().execute("COMMIT");
+				QuickSearchIndex.invalidateViewerHints(userID, targetUserID);
+				FollowGraph.putFollow(userID, targetUserID, mutual, accepted);
+				DeliveryInboxCache.putFollower(targetUserID, userID, mutual);
+				if(mutual){
+					FollowGraph.setMutual(targetUserID, userID, true);
+					DeliveryInboxCache.setFollowerMutual(userID, targetUserID, true);
+				}
 			}catch(SQLException x){
 				conn.createStatement().execute("ROLLBACK");
 				throw new SQLException(x);
@@ -846,6 +982,7 @@ public class UserStorage{
 					.where("ap_id=?", Objects.toString(user.activityPubID))
 					.executeAndGetInt();
 			boolean isNew=existingUserID==-1;
+			User cachedUser=isNew ? null : cache.get(existingUserID);
 			SQLQueryBuilder bldr=new SQLQueryBuilder(conn);
 			if(!isNew){
 				bldr.update("users").where("id=?", existingUserID);
@@ -903,13 +1040,18 @@ public class UserStorage{
 			putIntoCache(user);
 
 			if(isNew){
+				String qsearchString=getQSearchStringForUser(user);
 				new SQLQueryBuilder(conn)
 						.insertInto("qsearch_index")
 						.value("user_id", existingUserID)
-						.value("string", getQSearchStringForUser(user))
+						.value("string", qsearchString)
 						.executeNoResult();
+				QuickSearchIndex.putUser(existingUserID, qsearchString);
 			}else{
 				updateQSearchIndex(user);
+				URI inbox=DeliveryInboxCache.getInbox(user);
+				if(cachedUser==null || !Objects.equals(DeliveryInboxCache.getInbox(cachedUser), inbox))
+					DeliveryInboxCache.updateUserInbox(existingUserID, inbox);
 			}
 
 			return existingUserID;
@@ -973,35 +1115,11 @@ public class UserStorage{
 	}
 
 	public static List<URI> getFollowerInboxes(int userID, Set<Integer> except) throws SQLException{
-		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
-			String query="SELECT DISTINCT IFNULL(`ap_shared_inbox`, `ap_inbox`) FROM `users` WHERE `id` IN (SELECT `follower_id` FROM `followings` WHERE `followee_id`=?)";
-			if(except!=null && !except.isEmpty()){
-				query+=" AND `id` NOT IN ("+except.stream().map(Object::toString).collect(Collectors.joining(", "))+")";
-			}
-			PreparedStatement stmt=SQLQueryBuilder.prepareStatement(conn, query, userID);
-			return DatabaseUtils.resultSetToObjectStream(stmt.executeQuery(), r->{
-				String url=r.getString(1);
-				if(url==null)
-					return null;
-				return URI.create(url);
-			}, null).filter(Objects::nonNull).collect(Collectors.toList());
-		}
+		return DeliveryInboxCache.getFollowerInboxes(userID, except, false);
 	}
 
 	public static List<URI> getFriendInboxes(int userID, Set<Integer> except) throws SQLException{
-		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
-			String query="SELECT DISTINCT IFNULL(`ap_shared_inbox`, `ap_inbox`) FROM `users` WHERE `id` IN (SELECT `follower_id` FROM `followings` WHERE `followee_id`=? AND mutual=1)";
-			if(except!=null && !except.isEmpty()){
-				query+=" AND `id` NOT IN ("+except.stream().map(Object::toString).collect(Collectors.joining(", "))+")";
-			}
-			PreparedStatement stmt=SQLQueryBuilder.prepareStatement(conn, query, userID);
-			return DatabaseUtils.resultSetToObjectStream(stmt.executeQuery(), r->{
-				String url=r.getString(1);
-				if(url==null)
-					return null;
-				return URI.create(url);
-			}, null).filter(Objects::nonNull).collect(Collectors.toList());
-		}
+		return DeliveryInboxCache.getFollowerInboxes(userID, except, true);
 	}
 
 	public static List<URI> getUserFollowerURIs(int userID, boolean followers, int offset, int count, int[] total) throws SQLException{
@@ -1057,6 +1175,7 @@ public class UserStorage{
 				.value("accepted", accepted)
 				.where("follower_id=? AND followee_id=?", followerID, followeeID)
 				.executeNoResult();
+		FollowGraph.setAccepted(followerID, followeeID, accepted);
 	}
 
 	public static Account getAccount(int id) throws SQLException{
@@ -1189,6 +1308,38 @@ public class UserStorage{
 				.executeAndGetInt()==1;
 	}
 
+	/**
+	 * @return the subset of {@code ownerIDs} that have blocked {@code userID}
+	 */
+	public static Set<Integer> getUsersBlockingUser(int userID, Collection<Integer> ownerIDs) throws SQLException{
+		if(ownerIDs.isEmpty())
+			return Set.of();
+		return new SQLQueryBuilder()
+				.selectFrom("blocks_user_user")
+				.columns("owner_id")
+				.whereIn("owner_id", ownerIDs)
+				.andWhere("user_id=?", userID)
+				.executeAndGetIntStream()
+				.boxed()
+				.collect(Collectors.toSet());
+	}
+
+	/**
+	 * @return the subset of {@code ownerIDs} that have blocked {@code domain}
+	 */
+	public static Set<Integer> getUsersBlockingDomain(String domain, Collection<Integer> ownerIDs) throws SQLException{
+		if(ownerIDs.isEmpty())
+			return Set.of();
+		return new SQLQueryBuilder()
+				.selectFrom("blocks_user_domain")
+				.columns("owner_id")
+				.whereIn("owner_id", ownerIDs)
+				.andWhere("domain=?", domain)
+				.executeAndGetIntStream()
+				.boxed()
+				.collect(Collectors.toSet());
+	}
+
 	public static List<String> getBlockedDomains(int selfID) throws SQLException{
 		return new SQLQueryBuilder()
 				.selectFrom("blocks_user_domain")
@@ -1251,11 +1402,13 @@ public class UserStorage{
 	}
 
 	static void updateQSearchIndex(User user) throws SQLException{
+		String qsearchString=getQSearchStringForUser(user);
 		new SQLQueryBuilder()
 				.update("qsearch_index")
-				.value("string", getQSearchStringForUser(user))
+				.value("string", qsearchString)
 				.where("user_id=?", user.id)
 				.executeNoResult();
+		QuickSearchIndex.putUser(user.id, qsearchString);
 	}
 
 	public static void removeBirthdayReminderFromCache(List<Integer> userIDs){
@@ -1404,6 +1557,18 @@ public class UserStorage{
 		}
 	}
 
+	/**
+	 * Marks a foreign user as up to date without changing anything else, for when a refetch finds that it hasn't changed.
+	 */
+	public static void setForeignUserLastUpdated(ForeignUser user) throws SQLException{
+		new SQLQueryBuilder()
+				.update("users")
+				.valueExpr("last_updated", "CURRENT_TIMESTAMP()")
+				.where("id=?", user.id)
+				.executeNoResult();
+		removeFromCache(user);
+	}
+
 	public static void deleteForeignUser(ForeignUser user) throws SQLException{
 		try(DatabaseConnection conn=DatabaseConnectionManager.getConnection()){
 			new SQLQueryBuilder(conn)
@@ -1420,6 +1585,9 @@ public class UserStorage{
 						.executeNoResult();
 			}
 			removeFromCache(user);
+			QuickSearchIndex.removeUser(user.id);
+			FollowGraph.removeUser(user.id);
+			DeliveryInboxCache.removeUser(user.id);
 		}
 	}
 
@@ -1448,6 +1616,9 @@ public class UserStorage{
 						.executeNoResult();
 			}
 			removeFromCache(account.user);
+			QuickSearchIndex.removeUser(account.user.id);
+			FollowGraph.removeUser(account.user.id);
+			DeliveryInboxCache.removeUser(account.user.id);
 			accountCache.remove(account.id);
 		}
 	}
@@ -1716,10 +1887,35 @@ public class UserStorage{
 				.value("file_id", fileID==0 ? null : fileID)
 				.value("state", state)
 				.value("size", fileSize)
+				.value("progress", null)
+				.where("id=?", id)
+				.executeNoResult();
+	}
+
+	public static void setUserDataExportProgress(long id, String progress) throws SQLException{
+		new SQLQueryBuilder()
+				.update("user_data_exports")
+				.value("progress", progress)
 				.where("id=?", id)
 				.executeNoResult();
 	}
 
+	public static String getUserDataExportProgress(long id) throws SQLException{
+		return new SQLQueryBuilder()
+				.selectFrom("user_data_exports")
+				.columns("progress")
+				.where("id=?", id)
+				.executeAndGetSingleObject(res->res.getString(1));
+	}
+
+	public static List<UserDataExport> getUnfinishedUserDataExports() throws SQLException{
+		return new SQLQueryBuilder()
+				.selectFrom("user_data_exports")
+				.where("state=?", UserDataExport.State.PREPARING)
+				.executeAsStream(UserDataExport::fromResultSet)
+				.toList();
+	}
+
 	public static List<UserDataExport> getUserDataExportsToExpire() throws SQLException{
 		return new SQLQueryBuilder()
 				.selectFrom("user_data_exports")
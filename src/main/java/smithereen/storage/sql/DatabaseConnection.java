@@ -5,12 +5,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 
 public class DatabaseConnection implements Closeable{
 	public final Connection actualConnection;
 	long lastUsed=System.nanoTime();
 	int useDepth=0;
 	Thread ownerThread;
+	/**
+	 * Actions to run once the current transaction commits, or null if there's no transaction
+	 */
+	private ArrayList<Runnable> afterCommitActions;
 
 	public DatabaseConnection(Connection actualConnection){
 		this.actualConnection=actualConnection;
@@ -32,4 +37,34 @@ public class DatabaseConnection implements Closeable{
 	public Statement createStatement() throws SQLException{
 		return actualConnection.createStatement();
 	}
+
+	/**
+	 * Use this to update in-memory state that mirrors the database, so that it doesn't get ahead of the database if the
+	 * transaction is rolled back.
+	 * @param action runs once the current transaction commits and is discarded if it's rolled back; runs right away if there's no transaction
+	 */
+	public void runAfterCommit(Runnable action){
+		if(afterCommitActions!=null)
+			afterCommitActions.add(action);
+		else
+			action.run();
+	}
+
+	public void beginTransaction() throws SQLException{
+		createStatement().execute("START TRANSACTION");
+		// MySQL doesn't nest transactions, starting one implicitly commits the current one, whose actions will then run with this one's
+		if(afterCommitActions==null)
+			afterCommitActions=new ArrayList<>();
+	}
+
+	public void endTransaction(boolean commit) throws SQLException{
+		ArrayList<Runnable> actions=afterCommitActions;
+		afterCommitActions=null;
+		createStatement().execute(commit ? "COMMIT" : "ROLLBACK");
+		if(commit && actions!=null){
+			for(Runnable action:actions){
+				action.run();
+			}
+		}
+	}
 }
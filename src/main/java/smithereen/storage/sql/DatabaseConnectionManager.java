@@ -8,6 +8,8 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import smithereen.Config;
 
@@ -18,6 +20,9 @@ public class DatabaseConnectionManager{
 	private static final ArrayList<DatabaseConnection> connectionsInUse=new ArrayList<>();
 	private static final boolean DEBUG_CONNECTION_LEAKS=System.getProperty("smithereen.debugDatabaseConnections")!=null;
 	private static final Semaphore semaphore=new Semaphore(Config.dbMaxConnections);
+	// Locks rather than synchronized blocks because this is called on virtual threads
+	private static final ReentrantLock poolLock=new ReentrantLock(), connectionsInUseLock=new ReentrantLock();
+	private static final Condition connectionAvailable=poolLock.newCondition();
 
 	public static DatabaseConnection getConnection() throws SQLException{
 		DatabaseConnection conn;
@@ -26,33 +31,40 @@ public class DatabaseConnectionManager{
 			conn.useDepth++;
 			return conn;
 		}
-		synchronized(pool){
-			conn=pool.isEmpty() ? null : pool.removeLast();
-		}
-		if(conn==null){
-			if(Config.DEBUG || DEBUG_CONNECTION_LEAKS)
-				conn=new DebugDatabaseConnection(newConnection());
-			else
-				conn=new DatabaseConnection(newConnection());
-		}else{
+		while(true){
+			conn=takeFromPoolOrReservePermit();
+			if(conn==null){
+				Connection actualConn;
+				try{
+					actualConn=newConnection();
+				}catch(SQLException|RuntimeException x){
+					releasePermit();
+					throw x;
+				}
+				if(Config.DEBUG || DEBUG_CONNECTION_LEAKS)
+					conn=new DebugDatabaseConnection(actualConn);
+				else
+					conn=new DatabaseConnection(actualConn);
+				break;
+			}
 			try{
 				validateConnection(conn.actualConnection);
 				conn.lastUsed=System.nanoTime();
+				break;
 			}catch(SQLException x){
 				LOG.debug("Failed to validate database connection, reopening");
 				closeConnection(conn);
-				if(Config.DEBUG || DEBUG_CONNECTION_LEAKS)
-					conn=new DebugDatabaseConnection(newConnection());
-				else
-					conn=new DatabaseConnection(newConnection());
 			}
 		}
 
 		conn.useDepth++;
 		conn.ownerThread=Thread.currentThread();
 		currentThreadConnection.set(conn);
-		synchronized(connectionsInUse){
+		connectionsInUseLock.lock();
+		try{
 			connectionsInUse.add(conn);
+		}finally{
+			connectionsInUseLock.unlock();
 		}
 		if(DEBUG_CONNECTION_LEAKS && conn instanceof DebugDatabaseConnection ddc)
 			ddc.throwableForStack=new Exception().fillInStackTrace();
@@ -66,22 +78,60 @@ public class DatabaseConnectionManager{
 		if(conn.useDepth==0){
 			conn.ownerThread=null;
 			currentThreadConnection.remove();
-			synchronized(connectionsInUse){
+			connectionsInUseLock.lock();
+			try{
 				connectionsInUse.remove(conn);
+			}finally{
+				connectionsInUseLock.unlock();
 			}
-			synchronized(pool){
+			poolLock.lock();
+			try{
 				pool.add(conn);
+				connectionAvailable.signal();
 				LOG.trace("Reusing database connection. Pool size is {}", pool.size());
+			}finally{
+				poolLock.unlock();
 			}
 		}
 	}
 
-	private static Connection newConnection() throws SQLException{
+	/**
+	 * Waits until there's either an idle connection in the pool or a free slot for a new one.
+	 * Waiting for either, and not just for a slot, matters when all {@link Config#dbMaxConnections} connections are open:
+	 * slots are only freed when connections are closed, while busy connections are returned to the pool all the time.
+	 * @return a connection from the pool, or null if a slot was reserved and a new connection needs to be opened
+	 */
+	private static DatabaseConnection takeFromPoolOrReservePermit() throws SQLException{
+		poolLock.lock();
 		try{
-			semaphore.acquire();
-		}catch(InterruptedException x){
-			throw new RuntimeException(x);
+			while(true){
+				if(!pool.isEmpty())
+					return pool.removeLast();
+				if(semaphore.tryAcquire())
+					return null;
+				try{
+					connectionAvailable.await();
+				}catch(InterruptedException x){
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for a database connection", x);
+				}
+			}
+		}finally{
+			poolLock.unlock();
+		}
+	}
+
+	private static void releasePermit(){
+		poolLock.lock();
+		try{
+			semaphore.release();
+			connectionAvailable.signal();
+		}finally{
+			poolLock.unlock();
 		}
+	}
+
+	private static Connection newConnection() throws SQLException{
 		LOG.trace("Opening new database connection");
 		Connection conn=DriverManager.getConnection("jdbc:mysql://"+Config.dbHost+"/"+Config.dbName+"?serverTimezone=GMT&connectionTimeZone=GMT&useUnicode=true&characterEncoding=UTF-8&forceConnectionTimeZoneToSession=true&useSSL=false&allowPublicKeyRetrieval=true",
 				Config.dbUser, Config.dbPassword);
@@ -94,7 +144,7 @@ public class DatabaseConnectionManager{
 		try{
 			conn.actualConnection.close();
 		}catch(SQLException ignore){}
-		semaphore.release();
+		releasePermit();
 	}
 
 	private static void validateConnection(Connection conn) throws SQLException{
@@ -103,7 +153,8 @@ public class DatabaseConnectionManager{
 
 	public static void closeUnusedConnections(){
 		LOG.trace("Closing unused connections");
-		synchronized(pool){
+		poolLock.lock();
+		try{
 			int size=pool.size();
 			boolean removedAny=pool.removeIf(conn->{
 				if(System.nanoTime()-conn.lastUsed>5*60_000_000_000L){
@@ -117,8 +168,11 @@ public class DatabaseConnectionManager{
 			if(removedAny){
 				LOG.debug("Closed {} connections, pool size is {}", size-pool.size(), pool.size());
 			}
+		}finally{
+			poolLock.unlock();
 		}
-		synchronized(connectionsInUse){
+		connectionsInUseLock.lock();
+		try{
 			for(DatabaseConnection conn: connectionsInUse){
 				if(System.nanoTime()-conn.lastUsed>60_000_000_000L){
 					LOG.warn("Database connection {} was not closed! Owner: {}", conn, conn.ownerThread);
@@ -126,6 +180,8 @@ public class DatabaseConnectionManager{
 						LOG.warn("Last opened at:", ddc.throwableForStack);
 				}
 			}
+		}finally{
+			connectionsInUseLock.unlock();
 		}
 	}
 }
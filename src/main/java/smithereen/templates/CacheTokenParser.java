@@ -0,0 +1,183 @@
+package smithereen.templates;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import io.pebbletemplates.pebble.error.ParserException;
+import io.pebbletemplates.pebble.extension.NodeVisitor;
+import io.pebbletemplates.pebble.lexer.Token;
+import io.pebbletemplates.pebble.lexer.TokenStream;
+import io.pebbletemplates.pebble.node.AbstractRenderableNode;
+import io.pebbletemplates.pebble.node.BodyNode;
+import io.pebbletemplates.pebble.node.RenderableNode;
+import io.pebbletemplates.pebble.node.expression.Expression;
+import io.pebbletemplates.pebble.parser.Parser;
+import io.pebbletemplates.pebble.template.EvaluationContext;
+import io.pebbletemplates.pebble.template.EvaluationContextImpl;
+import io.pebbletemplates.pebble.template.PebbleTemplateImpl;
+import io.pebbletemplates.pebble.template.Scope;
+import io.pebbletemplates.pebble.tokenParser.TokenParser;
+import smithereen.Utils;
+import smithereen.templates.functions.AddExtraScriptFunction;
+import spark.Request;
+
+/**
+ * {@code {% cache key [ttlSeconds] %}...{% endcache %}}
+ * <p>
+ * Reuses the output of the body across requests. The key must capture everything the output depends on apart from
+ * the language, the time zone and the UI type, which are added automatically. If the key is a list, its first element
+ * is what {@link TemplateFragmentCache#invalidate(String)} takes, and the rest tell apart different renderings of the
+ * same object. A null key disables caching for that render.
+ * <p>
+ * Element IDs inside the body must come from {@code randomID} or {@link #uniqueElementID(EvaluationContext)}, because
+ * the same fragment can appear several times on one page. While the body is rendered for the cache, these are
+ * placeholders that are replaced with new random strings every time the fragment is output.
+ */
+public class CacheTokenParser implements TokenParser{
+	private static final int DEFAULT_TTL=600;
+	// Random so that post texts can't contain it
+	private static final String ID_PLACEHOLDER_PREFIX="fragmentID"+Utils.randomAlphanumericString(10)+"_";
+	private static final Pattern ID_PLACEHOLDER=Pattern.compile(ID_PLACEHOLDER_PREFIX+"\\d+_");
+
+	/**
+	 * @return a random string for an element ID, or a placeholder for one inside a {@code {% cache %}} block
+	 */
+	public static String uniqueElementID(EvaluationContext context){
+		if(context.getVariable("_fragmentIDCounter") instanceof int[] counter)
+			return ID_PLACEHOLDER_PREFIX+(counter[0]++)+"_";
+		return Utils.randomAlphanumericString(15);
+	}
+
+	@Override
+	public String getTag(){
+		return "cache";
+	}
+
+	@Override
+	public RenderableNode parse(Token token, Parser parser){
+		TokenStream stream=parser.getStream();
+		int lineNumber=token.getLineNumber();
+		stream.next();
+
+		Expression<?> key=parser.getExpressionParser().parseExpression();
+		Expression<?> ttl=null;
+		if(!stream.current().test(Token.Type.EXECUTE_END)){
+			ttl=parser.getExpressionParser().parseExpression();
+		}
+
+		stream.expect(Token.Type.EXECUTE_END);
+		BodyNode body=parser.subparse(tkn->tkn.test(Token.Type.NAME, "endcache"));
+		Token endblock=stream.current();
+		if(!endblock.test(Token.Type.NAME, "endcache")){
+			throw new ParserException(null,
+					"endcache tag should be present with cache tag starting line number ",
+					token.getLineNumber(), stream.getFilename());
+		}
+
+		stream.next();
+		stream.expect(Token.Type.EXECUTE_END);
+		return new Node(lineNumber, body, key, ttl);
+	}
+
+	private static class Node extends AbstractRenderableNode{
+		private final BodyNode content;
+		private final Expression<?> key, ttl;
+
+		public Node(int lineNumber, BodyNode content, Expression<?> key, Expression<?> ttl){
+			super(lineNumber);
+			this.content=content;
+			this.key=key;
+			this.ttl=ttl;
+		}
+
+		@Override
+		public void render(PebbleTemplateImpl self, Writer writer, EvaluationContextImpl context) throws IOException{
+			Object keyValue=key.evaluate(self, context);
+			Request req=Templates.getVariableRegardless(context, "_request");
+			if(keyValue==null || req==null){
+				content.render(self, writer, context);
+				return;
+			}
+			String groupKey, variant;
+			if(keyValue instanceof List<?> list && !list.isEmpty()){
+				groupKey=Objects.toString(list.getFirst());
+				variant=list.subList(1, list.size()).toString();
+			}else{
+				groupKey=keyValue.toString();
+				variant="";
+			}
+			ZoneId timeZone=Templates.getVariableRegardless(context, "timeZone");
+			variant+="|"+(req.attribute("popup")!=null ? "popup" : req.attribute("mobile")!=null ? "mobile" : "desktop")
+					+"|"+context.getLocale().toLanguageTag()
+					+"|"+(timeZone==null ? "" : timeZone.getId());
+
+			Scope globalScope=context.getScopeChain().getGlobalScopes().getLast();
+			TemplateFragmentCache.Fragment fragment=TemplateFragmentCache.get(groupKey, variant);
+			if(fragment==null){
+				String scriptsBefore=(String) Objects.requireNonNullElse(globalScope.get("_bottomScripts"), "");
+				Map<String, String> scriptFilesBefore=getExtraScriptFiles(globalScope);
+				StringWriter sw=new StringWriter();
+				context.getScopeChain().pushScope();
+				try{
+					int[] idCounter={0};
+					context.getScopeChain().put("_fragmentIDCounter", idCounter);
+					context.getScopeChain().put("randomID", uniqueElementID(context));
+					content.render(self, sw, context);
+				}finally{
+					context.getScopeChain().popScope();
+				}
+				String scriptsAfter=(String) Objects.requireNonNullElse(globalScope.get("_bottomScripts"), "");
+				String addedScripts=scriptsAfter.length()>scriptsBefore.length() && scriptsAfter.startsWith(scriptsBefore) ? scriptsAfter.substring(scriptsBefore.length()) : null;
+				HashMap<String, String> addedScriptFiles=new HashMap<>(getExtraScriptFiles(globalScope));
+				addedScriptFiles.keySet().removeAll(scriptFilesBefore.keySet());
+				// The block's own additions are put back below, together with the actual IDs
+				if(addedScripts!=null)
+					globalScope.put("_bottomScripts", scriptsBefore);
+
+				int ttlSeconds=DEFAULT_TTL;
+				if(ttl!=null && ttl.evaluate(self, context) instanceof Number n)
+					ttlSeconds=n.intValue();
+				fragment=new TemplateFragmentCache.Fragment(sw.toString(), addedScripts, Map.copyOf(addedScriptFiles), Instant.now().plusSeconds(ttlSeconds));
+				TemplateFragmentCache.put(groupKey, variant, fragment);
+			}
+
+			HashMap<String, String> ids=new HashMap<>();
+			writer.write(replaceIDPlaceholders(fragment.html(), ids));
+			if(fragment.bottomScripts()!=null){
+				String bottomScripts=(String) Objects.requireNonNullElse(globalScope.get("_bottomScripts"), "");
+				globalScope.put("_bottomScripts", bottomScripts+replaceIDPlaceholders(fragment.bottomScripts(), ids));
+			}
+			for(Map.Entry<String, String> e:fragment.extraScriptFiles().entrySet()){
+				AddExtraScriptFunction.addExtraScript(context, e.getKey(), e.getValue());
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private static Map<String, String> getExtraScriptFiles(Scope globalScope){
+			return globalScope.get("_extraScriptFiles") instanceof Map<?, ?> map ? (Map<String, String>) map : Map.of();
+		}
+
+		/**
+		 * Each placeholder gets a new random string, the same one everywhere it appears in this output of the fragment
+		 */
+		private static String replaceIDPlaceholders(String s, Map<String, String> ids){
+			if(!s.contains(ID_PLACEHOLDER_PREFIX))
+				return s;
+			return ID_PLACEHOLDER.matcher(s).replaceAll(m->ids.computeIfAbsent(m.group(), k->Utils.randomAlphanumericString(15)));
+		}
+
+		@Override
+		public void accept(NodeVisitor visitor){
+			visitor.visit(this);
+			visitor.visit(content);
+		}
+	}
+}
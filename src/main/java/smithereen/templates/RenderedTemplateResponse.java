@@ -186,12 +186,20 @@ public class RenderedTemplateResponse{
 
 	public String renderBlock(String name){
 		StringWriter writer=new StringWriter();
+		try{
+			renderBlockToWriter(name, writer);
+		}catch(IOException ignore){}
+		return writer.toString();
+	}
+
+	public void renderBlockToWriter(String name, Writer writer) throws IOException{
 		try{
 			if(template==null)
 				template=getAndPrepareTemplate(req);
 			template.evaluateBlock(name, writer, model, locale);
-		}catch(IOException ignore){}
-		return writer.toString();
+		}catch(EofException ignored){
+			// The client went away, same as in renderToWriter()
+		}
 	}
 
 	public Object get(String key){
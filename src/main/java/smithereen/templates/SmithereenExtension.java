@@ -78,6 +78,6 @@ public class SmithereenExtension extends AbstractExtension{
 
 	@Override
 	public List<TokenParser> getTokenParsers(){
-		return List.of(new EnqueueScriptTokenParser());
+		return List.of(new EnqueueScriptTokenParser(), new CacheTokenParser());
 	}
 }
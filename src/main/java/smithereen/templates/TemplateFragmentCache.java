@@ -0,0 +1,85 @@
+package smithereen.templates;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import smithereen.LruCache;
+
+/**
+ * Storage for the output of {@code {% cache %}} blocks. Fragments are grouped by the key used in the template, so that
+ * all language, time zone and UI variants of something can be dropped at once when the underlying object changes.
+ */
+public class TemplateFragmentCache{
+	// In chars, so about 32 MB
+	private static final int MAX_SIZE=16*1024*1024;
+
+	private static final LruCache<String, Map<String, Fragment>> cache=new LruCache<>(MAX_SIZE){
+		@Override
+		protected int sizeOf(String key, Map<String, Fragment> value){
+			int size=key.length();
+			for(Map.Entry<String, Fragment> e:value.entrySet()){
+				size+=e.getKey().length()+e.getValue().html.length()+(e.getValue().bottomScripts==null ? 0 : e.getValue().bottomScripts.length());
+				for(String script:e.getValue().extraScriptFiles.keySet()){
+					size+=script.length();
+				}
+			}
+			return size;
+		}
+	};
+
+	public static Fragment get(String key, String variant){
+		Map<String, Fragment> variants=cache.get(key);
+		if(variants==null)
+			return null;
+		Fragment fragment=variants.get(variant);
+		if(fragment==null || fragment.expiresAt.isBefore(Instant.now()))
+			return null;
+		return fragment;
+	}
+
+	public static void put(String key, String variant, Fragment fragment){
+		if(fragment.html.length()>MAX_SIZE/64)
+			return;
+		synchronized(cache){
+			Map<String, Fragment> existing=cache.get(key);
+			HashMap<String, Fragment> variants=new HashMap<>();
+			if(existing!=null){
+				Instant now=Instant.now();
+				for(Map.Entry<String, Fragment> e:existing.entrySet()){
+					if(e.getValue().expiresAt.isAfter(now))
+						variants.put(e.getKey(), e.getValue());
+				}
+			}
+			variants.put(variant, fragment);
+			// Maps in the cache are never modified because LruCache requires entry sizes to stay the same
+			cache.put(key, Map.copyOf(variants));
+		}
+	}
+
+	/**
+	 * Drops every cached variant of the fragments with this key. Called from the storage layer when objects change.
+	 */
+	public static void invalidate(String key){
+		cache.remove(key);
+	}
+
+	/**
+	 * Templates that cache post content use {@code 'post' ~ post.id} as the key.
+	 */
+	public static void invalidatePost(int id){
+		invalidate("post"+id);
+	}
+
+	public static void invalidateAll(){
+		cache.evictAll();
+	}
+
+	/**
+	 * @param html the rendered output
+	 * @param bottomScripts the scripts that rendering this fragment added via {@code {% script %}}, to be added again
+	 *                      every time the fragment is reused
+	 * @param extraScriptFiles the script files that rendering this fragment added via {@code addExtraScript()}, with their hashes
+	 */
+	public record Fragment(String html, String bottomScripts, Map<String, String> extraScriptFiles, Instant expiresAt){}
+}
@@ -17,8 +17,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import smithereen.Utils;
 import smithereen.lang.Lang;
+import smithereen.templates.CacheTokenParser;
 
 public class TruncateTextFilter implements Filter{
 	@Override
@@ -89,7 +89,7 @@ public class TruncateTextFilter implements Filter{
 		if(truncated.text().equals(full))
 			return new SafeString(input);
 
-		String randomID=Utils.randomAlphanumericString(15);
+		String randomID=CacheTokenParser.uniqueElementID(context);
 		return new SafeString("<input type=\"checkbox\" id=\"textExpander_"+randomID+"\" class=\"textExpander\"/>" +
 				"<div class=\"expandableText\">" +
 				"<div class=\"full\">"+doc.body().html()+"</div>" +
@@ -20,7 +20,12 @@ public class AddExtraScriptFunction implements Function{
 		String hash=Templates.staticHashes.get(name);
 		if(hash==null)
 			throw new IllegalArgumentException("Static file hash for "+name+" is not known. "+self.getName()+":"+lineNumber);
-		Scope lastScope=((EvaluationContextImpl)context).getScopeChain().getGlobalScopes().getLast();
+		addExtraScript((EvaluationContextImpl) context, name, hash);
+		return null;
+	}
+
+	public static void addExtraScript(EvaluationContextImpl context, String name, String hash){
+		Scope lastScope=context.getScopeChain().getGlobalScopes().getLast();
 		if(!lastScope.containsKey("_extraScriptFiles"))
 			lastScope.put("_extraScriptFiles", new HashMap<String, String>());
 		HashMap<String, String> extraScriptFiles=(HashMap<String, String>) lastScope.get("_extraScriptFiles");
@@ -30,7 +35,6 @@ public class AddExtraScriptFunction implements Function{
 			req.attribute("extraScriptFiles", new HashSet<String>());
 		HashSet<String> requestExtraScripts=req.attribute("extraScriptFiles");
 		requestExtraScripts.add(name);
-		return null;
 	}
 
 	@Override
@@ -3,21 +3,42 @@ package smithereen.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import smithereen.Utils;
 
+/**
+ * Runs short tasks in the background, off the request or activity processing thread.
+ * <p>
+ * Tasks are submitted to one of several {@link Lane}s. Each lane has its own executor with a bounded queue and a fixed
+ * concurrency limit, so a burst of bulk work can neither create an unbounded number of threads nor delay the tasks
+ * in other lanes. What happens when a lane's queue is full depends on the lane, see {@link RejectionPolicy}.
+ * <p>
+ * {@link Lane#INTERACTIVE}, {@link Lane#FEDERATION} and {@link Lane#BULK} run the task on the submitting thread when
+ * their queue is full, so code that holds a database transaction should submit its tasks after the transaction
+ * commits, see {@link smithereen.storage.sql.DatabaseConnection#runAfterCommit(Runnable)}.
+ */
 public class BackgroundTaskRunner{
-	private final ExecutorService executor;
+	private static final Logger LOG=LoggerFactory.getLogger(BackgroundTaskRunner.class);
+	private static final long DELAYED_TASK_RETRY_MILLIS=1000;
+
+	private final EnumMap<Lane, LaneExecutor> executors=new EnumMap<>(Lane.class);
 	private final ScheduledExecutorService scheduledExecutor;
 
 	private static BackgroundTaskRunner instance;
-	private static final Logger LOG=LoggerFactory.getLogger(BackgroundTaskRunner.class);
 
-	public static BackgroundTaskRunner getInstance(){
+	public static synchronized BackgroundTaskRunner getInstance(){
 		if(instance==null){
 			instance=new BackgroundTaskRunner();
 		}
@@ -25,24 +46,185 @@ public class BackgroundTaskRunner{
 	}
 
 	private BackgroundTaskRunner(){
-		executor=Executors.newCachedThreadPool();
-		scheduledExecutor=Executors.newSingleThreadScheduledExecutor();
+		scheduledExecutor=Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("BackgroundTaskScheduler").daemon().factory());
+		for(Lane lane:Lane.values()){
+			executors.put(lane, new LaneExecutor(lane, scheduledExecutor));
+		}
 	}
 
-	public void submit(Runnable r){
-		executor.submit(r);
+	/**
+	 * Queues a task. If the lane's queue is full and its policy is {@link RejectionPolicy#CALLER_RUNS}, runs it right here.
+	 */
+	public void submit(Lane lane, Runnable r){
+		executors.get(lane).submit(r, false);
 	}
 
-	public void submitDelayed(Runnable r, long delay, TimeUnit unit){
-		scheduledExecutor.schedule(()->submit(r), delay, unit);
+	/**
+	 * Queues a task after a delay. It never runs on the scheduler thread: if the lane's queue is full at that point
+	 * and the lane's policy is {@link RejectionPolicy#CALLER_RUNS}, it waits for space instead.
+	 */
+	public void submitDelayed(Lane lane, Runnable r, long delay, TimeUnit unit){
+		scheduledExecutor.schedule(()->executors.get(lane).submit(r, true), delay, unit);
+	}
+
+	public List<LaneStats> getStats(){
+		return executors.values().stream().map(LaneExecutor::getStats).toList();
+	}
+
+	public static void logStats(){
+		if(instance==null || !LOG.isInfoEnabled())
+			return;
+		for(LaneStats s:instance.getStats()){
+			LOG.info("{}: {} queued, {} running, {} completed, {} failed, {} rejected, {} ran in caller, {} delayed tasks waited for space, {} ms average wait, {} ms max wait, {} ms average run time",
+					s.lane(), s.queued(), s.running(), s.completed(), s.failed(), s.rejected(), s.ranInCaller(), s.delayedRetries(), TimeUnit.NANOSECONDS.toMillis(s.totalWaitNanos()/Math.max(1, s.completed())),
+					TimeUnit.NANOSECONDS.toMillis(s.maxWaitNanos()), TimeUnit.NANOSECONDS.toMillis(s.totalRunNanos()/Math.max(1, s.completed())));
+		}
 	}
 
 	public static void shutDown(){
 		if(instance==null)
 			return;
-		LOG.info("Stopping thread pool");
-		Utils.stopExecutorBlocking(instance.executor, LOG);
+		LOG.info("Stopping thread pools");
 		Utils.stopExecutorBlocking(instance.scheduledExecutor, LOG);
+		for(LaneExecutor executor:instance.executors.values()){
+			Utils.stopExecutorBlocking(executor.executor, LOG);
+		}
 		LOG.info("Stopped");
 	}
+
+	public enum Lane{
+		/**
+		 * Side effects of user actions that the user might notice if they're late: last active times, email notifications, message permissions.
+		 */
+		INTERACTIVE(true, 64, 1000, RejectionPolicy.CALLER_RUNS),
+		/**
+		 * Federation follow-ups: fetching collections, sending activities that don't need to go out right away.
+		 */
+		FEDERATION(true, 32, 10_000, RejectionPolicy.CALLER_RUNS),
+		/**
+		 * Periodic housekeeping that will be retried the next time it runs if it gets dropped.
+		 */
+		MAINTENANCE(false, 1, 100, RejectionPolicy.DISCARD),
+		/**
+		 * High-volume database updates that nobody is waiting for: statistics, bookmark updates, reminders.
+		 */
+		BULK(false, 2, 10_000, RejectionPolicy.CALLER_RUNS);
+
+		private final boolean virtualThreads;
+		private final int concurrency;
+		private final int queueCapacity;
+		private final RejectionPolicy rejectionPolicy;
+
+		/**
+		 * @param virtualThreads whether to run tasks on virtual threads, for lanes where tasks mostly wait for I/O
+		 * @param concurrency how many tasks can run at the same time
+		 * @param queueCapacity how many tasks can wait to run
+		 */
+		Lane(boolean virtualThreads, int concurrency, int queueCapacity, RejectionPolicy rejectionPolicy){
+			this.virtualThreads=virtualThreads;
+			this.concurrency=concurrency;
+			this.queueCapacity=queueCapacity;
+			this.rejectionPolicy=rejectionPolicy;
+		}
+	}
+
+	public enum RejectionPolicy{
+		/**
+		 * Run the task on the submitting thread, slowing the producer down.
+		 * Tasks from {@link BackgroundTaskRunner#submitDelayed(Lane, Runnable, long, TimeUnit)} are retried a bit later instead.
+		 */
+		CALLER_RUNS,
+		/**
+		 * Drop the task and log a warning.
+		 */
+		DISCARD
+	}
+
+	/**
+	 * @param delayedRetries how many times a delayed task found the queue full and was put back into the scheduler
+	 */
+	public record LaneStats(Lane lane, int queued, int running, long completed, long failed, long rejected, long ranInCaller, long delayedRetries, long totalWaitNanos, long maxWaitNanos, long totalRunNanos){}
+
+	private static class LaneExecutor{
+		private final Lane lane;
+		private final ThreadPoolExecutor executor;
+		private final ScheduledExecutorService scheduledExecutor;
+		private final LongAdder completed=new LongAdder(), failed=new LongAdder(), rejected=new LongAdder(), ranInCaller=new LongAdder(), delayedRetries=new LongAdder();
+		private final LongAdder totalWaitNanos=new LongAdder(), totalRunNanos=new LongAdder();
+		private final AtomicLong maxWaitNanos=new AtomicLong();
+
+		private LaneExecutor(Lane lane, ScheduledExecutorService scheduledExecutor){
+			this.lane=lane;
+			this.scheduledExecutor=scheduledExecutor;
+			String threadName="BackgroundTask-"+lane.name().toLowerCase()+"-";
+			ThreadFactory threadFactory=lane.virtualThreads ? Thread.ofVirtual().name(threadName, 0).factory() : Thread.ofPlatform().name(threadName, 0).daemon().factory();
+			RejectedExecutionHandler rejectionHandler=switch(lane.rejectionPolicy){
+				case CALLER_RUNS -> (r, e)->{
+					if(e.isShutdown())
+						return;
+					if(((TimedTask)r).delayed){
+						// Running it here would hold up every other delayed task
+						retryDelayed((TimedTask)r);
+						return;
+					}
+					ranInCaller.increment();
+					r.run();
+				};
+				case DISCARD -> (r, e)->{
+					rejected.increment();
+					LOG.warn("Queue for lane {} is full, dropping task {}", lane, ((TimedTask)r).task);
+				};
+			};
+			executor=new ThreadPoolExecutor(lane.concurrency, lane.concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(lane.queueCapacity), threadFactory, rejectionHandler);
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		private void submit(Runnable r, boolean delayed){
+			executor.execute(new TimedTask(r, System.nanoTime(), delayed));
+		}
+
+		private void retryDelayed(TimedTask task){
+			delayedRetries.increment();
+			try{
+				scheduledExecutor.schedule(()->executor.execute(task), DELAYED_TASK_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+			}catch(RejectedExecutionException x){
+				rejected.increment();
+				LOG.warn("Scheduler is shut down, dropping delayed task {} in lane {}", task.task, lane);
+			}
+		}
+
+		private LaneStats getStats(){
+			return new LaneStats(lane, executor.getQueue().size(), executor.getActiveCount(), completed.sum(), failed.sum(), rejected.sum(), ranInCaller.sum(),
+					delayedRetries.sum(), totalWaitNanos.sum(), maxWaitNanos.get(), totalRunNanos.sum());
+		}
+
+		private class TimedTask implements Runnable{
+			private final Runnable task;
+			private final long submittedAt;
+			private final boolean delayed;
+
+			private TimedTask(Runnable task, long submittedAt, boolean delayed){
+				this.task=task;
+				this.submittedAt=submittedAt;
+				this.delayed=delayed;
+			}
+
+			@Override
+			public void run(){
+				long startedAt=System.nanoTime();
+				long wait=startedAt-submittedAt;
+				totalWaitNanos.add(wait);
+				maxWaitNanos.accumulateAndGet(wait, Math::max);
+				try{
+					task.run();
+				}catch(Throwable x){
+					failed.increment();
+					LOG.error("Background task {} in lane {} failed", task, lane, x);
+				}finally{
+					totalRunNanos.add(System.nanoTime()-startedAt);
+					completed.increment();
+				}
+			}
+		}
+	}
 }
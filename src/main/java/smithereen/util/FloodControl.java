@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 import smithereen.Utils;
@@ -29,6 +30,7 @@ public class FloodControl<K>{
 	private int count;
 	private HashMap<String, ActionTracker> trackers=new HashMap<>();
 	private Function<K, String> keyFunction;
+	private final ReentrantLock lock=new ReentrantLock();
 
 	private FloodControl(int count, long time, TimeUnit unit, Function<K, String> keyFunction){
 		this.count=count;
@@ -64,21 +66,36 @@ public class FloodControl<K>{
 		return trackers.computeIfAbsent(k, _k -> new ActionTracker());
 	}
 
-	public synchronized void incrementOrThrow(K key){
-		tracker(key).tryPerformAction();
+	public void incrementOrThrow(K key){
+		lock.lock();
+		try{
+			tracker(key).tryPerformAction();
+		}finally{
+			lock.unlock();
+		}
 	}
 
-	public synchronized void reset(K key){
-		trackers.remove(keyFunction.apply(key));
+	public void reset(K key){
+		lock.lock();
+		try{
+			trackers.remove(keyFunction.apply(key));
+		}finally{
+			lock.unlock();
+		}
 	}
 
-	public synchronized void gc(){
-		Iterator<Map.Entry<String, ActionTracker>> itr=trackers.entrySet().iterator();
-		while(itr.hasNext()){
-			Map.Entry<String, ActionTracker> e=itr.next();
-			e.getValue().removeExpired();
-			if(e.getValue().isEmpty())
-				itr.remove();
+	public void gc(){
+		lock.lock();
+		try{
+			Iterator<Map.Entry<String, ActionTracker>> itr=trackers.entrySet().iterator();
+			while(itr.hasNext()){
+				Map.Entry<String, ActionTracker> e=itr.next();
+				e.getValue().removeExpired();
+				if(e.getValue().isEmpty())
+					itr.remove();
+			}
+		}finally{
+			lock.unlock();
 		}
 	}
 
@@ -0,0 +1,95 @@
+package smithereen.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes everything it receives into another writer, escaped for the inside of a JSON string literal.
+ * Doesn't write the surrounding quotes. Escapes the same characters as Gson does with HTML escaping disabled.
+ */
+public class JsonStringEscapingWriter extends Writer{
+	private static final String[] REPLACEMENTS=new String[128];
+
+	static{
+		for(int i=0;i<0x20;i++){
+			REPLACEMENTS[i]=String.format("\\u%04x", i);
+		}
+		REPLACEMENTS['"']="\\\"";
+		REPLACEMENTS['\\']="\\\\";
+		REPLACEMENTS['\t']="\\t";
+		REPLACEMENTS['\b']="\\b";
+		REPLACEMENTS['\n']="\\n";
+		REPLACEMENTS['\r']="\\r";
+		REPLACEMENTS['\f']="\\f";
+	}
+
+	private final Writer out;
+
+	public JsonStringEscapingWriter(Writer out){
+		this.out=out;
+	}
+
+	private static String replacementFor(char c){
+		if(c<128)
+			return REPLACEMENTS[c];
+		if(c=='\u2028')
+			return "\\u2028";
+		if(c=='\u2029')
+			return "\\u2029";
+		return null;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException{
+		int last=off, end=off+len;
+		for(int i=off;i<end;i++){
+			String replacement=replacementFor(cbuf[i]);
+			if(replacement==null)
+				continue;
+			if(last<i)
+				out.write(cbuf, last, i-last);
+			out.write(replacement);
+			last=i+1;
+		}
+		if(last<end)
+			out.write(cbuf, last, end-last);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException{
+		int last=off, end=off+len;
+		for(int i=off;i<end;i++){
+			String replacement=replacementFor(str.charAt(i));
+			if(replacement==null)
+				continue;
+			if(last<i)
+				out.write(str, last, i-last);
+			out.write(replacement);
+			last=i+1;
+		}
+		if(last<end)
+			out.write(str, last, end-last);
+	}
+
+	@Override
+	public void write(int c) throws IOException{
+		String replacement=replacementFor((char)c);
+		if(replacement==null)
+			out.write(c);
+		else
+			out.write(replacement);
+	}
+
+	@Override
+	public void flush() throws IOException{
+		out.flush();
+	}
+
+	/**
+	 * Does not close the underlying writer since more JSON will usually follow.
+	 */
+	@Override
+	public void close() throws IOException{
+		flush();
+	}
+}
@@ -3,27 +3,256 @@ package smithereen.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import smithereen.Utils;
+import smithereen.model.admin.MaintenanceJobRun;
+import smithereen.storage.MaintenanceJobStorage;
 
+/**
+ * Runs periodic maintenance jobs.
+ * <p>
+ * Jobs are triggered by one scheduler thread but run in {@link Lane}s, each with its own threads, so that a slow job
+ * doesn't delay the frequent ones. A job never overlaps with itself: if it's still running when it's due again, that
+ * run is skipped. Jobs with {@link Scope#ONE_NODE} only run on the server that holds the job's lease in the
+ * maintenance_job_leases table, so that they run once even if there are several servers using the same database. The lease
+ * is renewed while the job runs and released when it ends.
+ * Every run is recorded in maintenance_job_runs.
+ */
 public class MaintenanceScheduler{
-	private static ScheduledExecutorService executor=Executors.newSingleThreadScheduledExecutor();
 	private static final Logger LOG=LoggerFactory.getLogger(MaintenanceScheduler.class);
+	/**
+	 * Identifies this server in job leases and run history.
+	 */
+	public static final String NODE_ID=makeNodeID();
 
-	public static void runDaily(Runnable r){
-		executor.scheduleAtFixedRate(r, 0, 1, TimeUnit.DAYS);
+	private static final ScheduledExecutorService executor=Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("MaintenanceScheduler").daemon().factory());
+	/**
+	 * Separate from {@link #executor} so that slow lease renewals don't delay triggering jobs.
+	 */
+	private static final ScheduledExecutorService leaseExecutor=Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("MaintenanceLeaseHeartbeat").daemon().factory());
+	private static final EnumMap<Lane, ExecutorService> laneExecutors=new EnumMap<>(Lane.class);
+	private static final List<Job> jobs=new CopyOnWriteArrayList<>();
+	private static volatile boolean stopped;
+
+	static{
+		for(Lane lane:Lane.values()){
+			laneExecutors.put(lane, Executors.newFixedThreadPool(lane.threads, Thread.ofPlatform().name("MaintenanceJob-"+lane.name().toLowerCase()+"-", 0).daemon().factory()));
+		}
+	}
+
+	/**
+	 * Runs the job right away and then once a day.
+	 */
+	public static void runDaily(String name, Lane lane, Scope scope, Runnable r){
+		Job job=new Job(name, lane, scope, r, Duration.ofDays(1));
+		jobs.add(job);
+		executor.scheduleAtFixedRate(()->trigger(job), 0, 1, TimeUnit.DAYS);
 	}
 
-	public static void runPeriodically(Runnable r, long time, TimeUnit unit){
-		executor.scheduleAtFixedRate(r, time, time, unit);
+	/**
+	 * Runs the job every {@code time} {@code unit}s, starting after the first interval passes.
+	 */
+	public static void runPeriodically(String name, Lane lane, Scope scope, Runnable r, long time, TimeUnit unit){
+		Job job=new Job(name, lane, scope, r, Duration.of(time, unit.toChronoUnit()));
+		jobs.add(job);
+		executor.scheduleAtFixedRate(()->trigger(job), time, time, unit);
+	}
+
+	public static List<Job> getJobs(){
+		return List.copyOf(jobs);
 	}
 
 	public static void shutDown(){
-		LOG.info("Stopping thread");
+		LOG.info("Stopping threads");
+		stopped=true;
 		Utils.stopExecutorBlocking(executor, LOG);
+		Utils.stopExecutorBlocking(leaseExecutor, LOG);
+		for(ExecutorService laneExecutor:laneExecutors.values()){
+			Utils.stopExecutorBlocking(laneExecutor, LOG);
+		}
+		try{
+			// Let other servers take over right away instead of waiting for the leases to expire
+			MaintenanceJobStorage.releaseLeases(NODE_ID);
+		}catch(SQLException x){
+			LOG.warn("Failed to release maintenance job leases", x);
+		}
 		LOG.info("Stopped");
 	}
+
+	private static void trigger(Job job){
+		if(stopped)
+			return;
+		if(!job.running.compareAndSet(false, true)){
+			job.skippedRuns.increment();
+			LOG.debug("Skipping maintenance job {} because its previous run is still in progress", job.name);
+			return;
+		}
+		try{
+			laneExecutors.get(job.lane).execute(()->run(job));
+		}catch(RejectedExecutionException x){
+			job.running.set(false);
+		}
+	}
+
+	private static void run(Job job){
+		ScheduledFuture<?> heartbeat=null;
+		Instant startedAt=Instant.now();
+		try{
+			if(job.scope==Scope.ONE_NODE){
+				long leaseSeconds=Math.max(60, job.interval.toSeconds()*3/2);
+				try{
+					if(!MaintenanceJobStorage.tryAcquireLease(job.name, NODE_ID, leaseSeconds)){
+						LOG.trace("Not running maintenance job {} because another server holds its lease", job.name);
+						return;
+					}
+				}catch(SQLException x){
+					LOG.warn("Failed to acquire lease for maintenance job {}", job.name, x);
+					return;
+				}
+				// A run may take longer than the lease, so keep renewing it until the run ends
+				long renewSeconds=leaseSeconds/3;
+				heartbeat=leaseExecutor.scheduleWithFixedDelay(()->renewLease(job, leaseSeconds), renewSeconds, renewSeconds, TimeUnit.SECONDS);
+			}
+			long startTime=System.nanoTime();
+			MaintenanceJobRun.Outcome outcome=MaintenanceJobRun.Outcome.SUCCESS;
+			String error=null;
+			try{
+				job.task.run();
+			}catch(Throwable x){
+				// An exception would otherwise cancel all future runs of this job
+				LOG.error("Maintenance job {} failed", job.name, x);
+				outcome=MaintenanceJobRun.Outcome.FAILED;
+				error=x.toString();
+			}
+			long duration=TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-startTime);
+			try{
+				MaintenanceJobStorage.putJobRun(job.name, NODE_ID, startedAt, duration, outcome, error);
+			}catch(SQLException x){
+				LOG.warn("Failed to record a run of maintenance job {}", job.name, x);
+			}
+		}finally{
+			if(heartbeat!=null){
+				heartbeat.cancel(false);
+				try{
+					// Other nodes can take over once the next run is due
+					MaintenanceJobStorage.releaseLease(job.name, NODE_ID, startedAt.plus(job.interval));
+				}catch(SQLException x){
+					LOG.warn("Failed to release lease for maintenance job {}", job.name, x);
+				}
+			}
+			job.running.set(false);
+		}
+	}
+
+	private static void renewLease(Job job, long leaseSeconds){
+		try{
+			if(!MaintenanceJobStorage.tryAcquireLease(job.name, NODE_ID, leaseSeconds))
+				LOG.warn("Lost lease for maintenance job {} while it was running", job.name);
+		}catch(SQLException x){
+			LOG.warn("Failed to renew lease for maintenance job {}", job.name, x);
+		}
+	}
+
+	private static String makeNodeID(){
+		String host;
+		try{
+			host=InetAddress.getLocalHost().getHostName();
+		}catch(UnknownHostException x){
+			host="unknown";
+		}
+		return host+"/"+ProcessHandle.current().pid();
+	}
+
+	public enum Lane{
+		/**
+		 * Short jobs that run every few minutes, like flushing buffered updates to the database.
+		 */
+		FREQUENT(2),
+		/**
+		 * Cleanups that may take a while, like deleting abandoned files.
+		 */
+		HOUSEKEEPING(2),
+		/**
+		 * Logging of statistics.
+		 */
+		REPORTING(1);
+
+		private final int threads;
+
+		Lane(int threads){
+			this.threads=threads;
+		}
+	}
+
+	public enum Scope{
+		/**
+		 * The job works with this server's in-memory state and needs to run on every server.
+		 */
+		EVERY_NODE,
+		/**
+		 * The job only works with the database or file storage and needs to run on one server.
+		 */
+		ONE_NODE
+	}
+
+	public static class Job{
+		private final String name;
+		private final Lane lane;
+		private final Scope scope;
+		private final Runnable task;
+		private final Duration interval;
+		private final AtomicBoolean running=new AtomicBoolean();
+		private final LongAdder skippedRuns=new LongAdder();
+
+		private Job(String name, Lane lane, Scope scope, Runnable task, Duration interval){
+			this.name=name;
+			this.lane=lane;
+			this.scope=scope;
+			this.task=task;
+			this.interval=interval;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public Lane getLane(){
+			return lane;
+		}
+
+		public Scope getScope(){
+			return scope;
+		}
+
+		public Duration getInterval(){
+			return interval;
+		}
+
+		public boolean isRunning(){
+			return running.get();
+		}
+
+		/**
+		 * @return how many times this job was due while its previous run was still in progress
+		 */
+		public long getSkippedRuns(){
+			return skippedRuns.sum();
+		}
+	}
 }
@@ -1,8 +1,14 @@
 package smithereen.util;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -10,51 +16,124 @@ import java.util.concurrent.locks.ReentrantLock;
  * Useful for when you want only one copy of some task to run at a time.
  * For example, when downloading files in response to a user request, you want any other potential tasks to download the same file to wait
  * for the first one to complete, and then use the already downloaded file rather than download it multiple times in parallel.
+ * <p>
+ * There's no global lock: a mutex is created when someone first asks for it and removed once nobody holds or waits for it,
+ * with the bookkeeping done atomically per name by {@link ConcurrentHashMap#compute}.
  */
 public class NamedMutexCollection{
-	private final LinkedList<RefCountedReentrantLock> reusePool=new LinkedList<>();
-	private final HashMap<String, RefCountedReentrantLock> heldLocks=new HashMap<>();
+	private static final Logger LOG=LoggerFactory.getLogger(NamedMutexCollection.class);
+	private static final List<NamedMutexCollection> namedInstances=new CopyOnWriteArrayList<>();
+
+	private final String statsName;
+	private final ConcurrentHashMap<String, RefCountedReentrantLock> heldLocks=new ConcurrentHashMap<>();
+	private final LongAdder acquisitions=new LongAdder(), contendedAcquisitions=new LongAdder(), waitNanos=new LongAdder(), timedOutAcquisitions=new LongAdder();
+
+	public NamedMutexCollection(){
+		statsName=null;
+	}
+
+	/**
+	 * @param statsName if not null, contention statistics for this collection will be included in {@link #logStats()}
+	 */
+	public NamedMutexCollection(String statsName){
+		this.statsName=statsName;
+		if(statsName!=null)
+			namedInstances.add(this);
+	}
 
 	public void acquire(String name){
-		ReentrantLock lock;
-		synchronized(this){
-			lock=heldLocks.computeIfAbsent(name, k->reusePool.isEmpty() ? new RefCountedReentrantLock() : reusePool.pop());
+		RefCountedReentrantLock lock=retain(name);
+		if(lock.tryLock()){
+			acquisitions.increment();
+			return;
 		}
+		long startTime=System.nanoTime();
 		lock.lock();
+		acquisitions.increment();
+		contendedAcquisitions.increment();
+		waitNanos.add(System.nanoTime()-startTime);
+	}
+
+	/**
+	 * Same as {@link #acquire(String)}, but gives up after waiting for {@code timeout}.
+	 * @return true if the mutex was acquired and needs to be released, false if it's still held by someone else
+	 */
+	public boolean tryAcquire(String name, Duration timeout) throws InterruptedException{
+		RefCountedReentrantLock lock=retain(name);
+		if(lock.tryLock()){
+			acquisitions.increment();
+			return true;
+		}
+		long startTime=System.nanoTime();
+		boolean locked;
+		try{
+			locked=lock.tryLock(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		}catch(InterruptedException x){
+			dispose(name);
+			throw x;
+		}
+		contendedAcquisitions.increment();
+		waitNanos.add(System.nanoTime()-startTime);
+		if(locked){
+			acquisitions.increment();
+		}else{
+			timedOutAcquisitions.increment();
+			dispose(name);
+		}
+		return locked;
 	}
 
-	public synchronized void release(String name){
+	public void release(String name){
 		RefCountedReentrantLock lock=heldLocks.get(name);
-		if(lock==null)
+		if(lock==null || !lock.isHeldByCurrentThread())
 			throw new IllegalStateException("Mutex for name '"+name+"' not held");
 		lock.unlock();
-		if(lock.getRefCount()==0){
-			heldLocks.remove(name);
-			reusePool.push(lock);
-		}
+		dispose(name);
 	}
 
-	public synchronized int getHeldLockCount(){
+	public int getHeldLockCount(){
 		return heldLocks.size();
 	}
 
-	private static class RefCountedReentrantLock extends ReentrantLock{
-		private AtomicInteger refCount=new AtomicInteger();
+	public Stats getStats(){
+		return new Stats(acquisitions.sum(), contendedAcquisitions.sum(), timedOutAcquisitions.sum(), waitNanos.sum());
+	}
 
-		@Override
-		public void lock(){
-			refCount.incrementAndGet();
-			super.lock();
+	public static void logStats(){
+		if(!LOG.isInfoEnabled())
+			return;
+		for(NamedMutexCollection mutexes:namedInstances){
+			Stats s=mutexes.getStats();
+			LOG.info("{}: {} held, {} acquisitions, {} contended, {} timed out, {} ms spent waiting", mutexes.statsName, mutexes.getHeldLockCount(), s.acquisitions(),
+					s.contendedAcquisitions(), s.timedOutAcquisitions(), TimeUnit.NANOSECONDS.toMillis(s.waitNanos()));
 		}
+	}
 
-		@Override
-		public void unlock(){
-			super.unlock();
-			refCount.decrementAndGet();
-		}
+	private RefCountedReentrantLock retain(String name){
+		return heldLocks.compute(name, (k, lock)->{
+			if(lock==null)
+				lock=new RefCountedReentrantLock();
+			lock.refCount++;
+			return lock;
+		});
+	}
 
-		public int getRefCount(){
-			return refCount.get();
-		}
+	private void dispose(String name){
+		heldLocks.computeIfPresent(name, (k, lock)->--lock.refCount==0 ? null : lock);
 	}
+
+	private static class RefCountedReentrantLock extends ReentrantLock{
+		/**
+		 * The number of threads holding or waiting for this lock, counting reentrant acquisitions separately.
+		 * Only modified from inside ConcurrentHashMap.compute for this lock's name.
+		 */
+		private int refCount;
+	}
+
+	/**
+	 * @param contendedAcquisitions how many times a thread had to wait because someone else was holding the mutex
+	 * @param timedOutAcquisitions how many times {@link #tryAcquire(String, Duration)} gave up
+	 * @param waitNanos the total time spent waiting in contended acquisitions
+	 */
+	public record Stats(long acquisitions, long contendedAcquisitions, long timedOutAcquisitions, long waitNanos){}
 }
@@ -0,0 +1,168 @@
+package smithereen.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import smithereen.Config;
+import smithereen.debug.DebugLog;
+import smithereen.exceptions.InternalServerErrorException;
+
+/**
+ * Runs independent loads for one request at the same time, each on its own virtual thread, so that the request takes as long
+ * as the slowest of them instead of all of them combined.
+ * <p>
+ * Works like {@code StructuredTaskScope.ShutdownOnFailure}, which is still a preview API in Java 21: {@link #fork(Supplier)}
+ * the loads, then {@link #join()}. If any load throws, or they don't all finish before the deadline, the rest are interrupted
+ * and the exception is rethrown from {@code join()} on the request thread, so it's handled the same way as if the load
+ * had been done there. Closing the loader interrupts anything still running and waits for it to stop.
+ * <p>
+ * Every load that touches the database takes its own connection from the pool. To keep one page from taking a large share
+ * of the pool, at most {@link #MAX_CONCURRENT_LOADS} loads of the same loader run at a time.
+ * <p>
+ * Loads must not touch the request or the response; read what they need from them before forking.
+ */
+public class ParallelLoader implements AutoCloseable{
+	public static final Duration DEFAULT_DEADLINE=Duration.ofSeconds(10);
+	private static final int MAX_CONCURRENT_LOADS=4;
+	private static final ThreadFactory THREAD_FACTORY=Thread.ofVirtual().name("ParallelLoader-", 0).factory();
+
+	private final long deadline;
+	private final Semaphore permits=new Semaphore(MAX_CONCURRENT_LOADS);
+	private final ArrayList<Subtask<?>> subtasks=new ArrayList<>();
+	private final LinkedBlockingQueue<Subtask<?>> finishedSubtasks=new LinkedBlockingQueue<>();
+	private final Thread ownerThread=Thread.currentThread();
+	private int joinedCount;
+
+	public ParallelLoader(){
+		this(DEFAULT_DEADLINE);
+	}
+
+	/**
+	 * @param timeout how long {@link #join()} waits for the loads, counting from now
+	 */
+	public ParallelLoader(Duration timeout){
+		deadline=System.nanoTime()+timeout.toNanos();
+	}
+
+	public <T> Subtask<T> fork(Supplier<T> task){
+		ensureOwnerThread();
+		Subtask<T> subtask=new Subtask<>(task);
+		subtasks.add(subtask);
+		subtask.thread=THREAD_FACTORY.newThread(()->run(subtask));
+		subtask.thread.start();
+		return subtask;
+	}
+
+	/**
+	 * Waits for all forked loads to finish.
+	 * @throws RuntimeException the first exception thrown by any of the loads
+	 * @throws InternalServerErrorException if the deadline passes first
+	 */
+	public void join(){
+		ensureOwnerThread();
+		try{
+			while(joinedCount<subtasks.size()){
+				long remaining=deadline-System.nanoTime();
+				Subtask<?> subtask=remaining>0 ? finishedSubtasks.poll(remaining, TimeUnit.NANOSECONDS) : null;
+				if(subtask==null){
+					cancelAll();
+					throw new InternalServerErrorException("Parallel loads did not finish before the deadline");
+				}
+				joinedCount++;
+				if(subtask.debugLog!=null)
+					DebugLog.get().addQueriesFrom(subtask.debugLog);
+				if(subtask.exception!=null){
+					cancelAll();
+					switch(subtask.exception){
+						case RuntimeException x -> throw x;
+						case Error x -> throw x;
+						default -> throw new InternalServerErrorException(subtask.exception);
+					}
+				}
+			}
+		}catch(InterruptedException x){
+			cancelAll();
+			Thread.currentThread().interrupt();
+			throw new InternalServerErrorException(x);
+		}
+	}
+
+	@Override
+	public void close(){
+		ensureOwnerThread();
+		cancelAll();
+		for(Subtask<?> subtask:subtasks){
+			boolean interrupted=false;
+			while(true){
+				try{
+					subtask.thread.join();
+					break;
+				}catch(InterruptedException x){
+					interrupted=true;
+				}
+			}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void cancelAll(){
+		for(Subtask<?> subtask:subtasks){
+			if(!subtask.finished){
+				subtask.cancelled=true;
+				subtask.thread.interrupt();
+			}
+		}
+	}
+
+	private <T> void run(Subtask<T> subtask){
+		try{
+			permits.acquire();
+			try{
+				subtask.result=subtask.task.get();
+			}finally{
+				permits.release();
+			}
+		}catch(Throwable x){
+			subtask.exception=x;
+		}finally{
+			if(Config.DEBUG)
+				subtask.debugLog=DebugLog.get();
+			subtask.finished=true;
+			finishedSubtasks.add(subtask);
+		}
+	}
+
+	private void ensureOwnerThread(){
+		if(Thread.currentThread()!=ownerThread)
+			throw new IllegalStateException("ParallelLoader can only be used from the thread that created it");
+	}
+
+	public static class Subtask<T>{
+		private final Supplier<T> task;
+		private Thread thread;
+		private volatile boolean finished, cancelled;
+		private T result;
+		private Throwable exception;
+		private DebugLog debugLog;
+
+		private Subtask(Supplier<T> task){
+			this.task=task;
+		}
+
+		/**
+		 * @return the value returned by the load
+		 * @throws IllegalStateException if called before {@link ParallelLoader#join()} returned, or if the load failed or was cancelled
+		 */
+		public T get(){
+			if(!finished || cancelled || exception!=null)
+				throw new IllegalStateException("Subtask has not completed successfully");
+			return result;
+		}
+	}
+}
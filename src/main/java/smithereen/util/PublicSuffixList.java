@@ -31,7 +31,7 @@ public class PublicSuffixList{
 
 	public static void updateIfNeeded(){
 		if(System.currentTimeMillis()-lastUpdatedTime>3600_000L*24*7){ // update once every 7 days
-			BackgroundTaskRunner.getInstance().submit(()->{
+			BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.MAINTENANCE, ()->{
 				try{
 					HttpRequest req=HttpRequest.newBuilder(URI.create("https://publicsuffix.org/list/public_suffix_list.dat"))
 							.timeout(Duration.ofSeconds(30))
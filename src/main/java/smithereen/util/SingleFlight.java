@@ -0,0 +1,152 @@
+package smithereen.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Makes sure that only one task runs at a time for any given key. If a task with the same key is already running,
+ * callers get the future of that task instead of starting another one.
+ * <p>
+ * The returned futures are shared between all callers that asked for the same key, so cancelling one cancels the task
+ * for everyone. The task is removed from the registry before its future completes, so that anything waiting for it
+ * can start a new one right away if it needs to.
+ */
+public class SingleFlight<K, V>{
+	private static final Logger LOG=LoggerFactory.getLogger(SingleFlight.class);
+	private static final List<SingleFlight<?, ?>> allInstances=new CopyOnWriteArrayList<>();
+
+	private final String name;
+	private final Duration timeout;
+	private final ConcurrentHashMap<K, Flight> inFlight=new ConcurrentHashMap<>();
+	private final LongAdder started=new LongAdder(), joined=new LongAdder(), failed=new LongAdder(), cancelled=new LongAdder(), timedOut=new LongAdder(), totalNanos=new LongAdder();
+
+	/**
+	 * @param name what to call this in the logs
+	 * @param timeout tasks that take longer than this are interrupted and their futures fail with a {@link TimeoutException}, can be null
+	 */
+	public SingleFlight(String name, Duration timeout){
+		this.name=name;
+		this.timeout=timeout;
+		allInstances.add(this);
+	}
+
+	public CompletableFuture<V> run(K key, Executor executor, Callable<V> task){
+		Flight existing=inFlight.get(key);
+		if(existing!=null){
+			joined.increment();
+			return existing;
+		}
+		Flight flight=new Flight();
+		long startTime=System.nanoTime();
+		flight.task=new FutureTask<>(task){
+			@Override
+			protected void done(){
+				inFlight.remove(key, flight);
+				totalNanos.add(System.nanoTime()-startTime);
+				if(isCancelled()){
+					flight.cancel(false);
+					return;
+				}
+				try{
+					flight.complete(get());
+				}catch(ExecutionException x){
+					failed.increment();
+					flight.completeExceptionally(x.getCause());
+				}catch(InterruptedException x){
+					flight.completeExceptionally(x);
+				}
+			}
+		};
+		existing=inFlight.putIfAbsent(key, flight);
+		if(existing!=null){
+			joined.increment();
+			return existing;
+		}
+		started.increment();
+		if(timeout!=null){
+			flight.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((v, x)->{
+				if(x instanceof TimeoutException){
+					LOG.debug("{} for {} timed out after {}", name, key, timeout);
+					timedOut.increment();
+					inFlight.remove(key, flight);
+					flight.task.cancel(true);
+				}
+			});
+		}
+		executor.execute(flight.task);
+		return flight;
+	}
+
+	/**
+	 * Same as {@link #run(Object, Executor, Callable)}, and also runs {@code action} on {@code executor} with the result
+	 * once the task completes successfully, regardless of whether this call started the task or joined an existing one.
+	 */
+	public CompletableFuture<V> runAndThen(K key, Executor executor, Callable<V> task, Consumer<V> action){
+		CompletableFuture<V> future=run(key, executor, task);
+		future.thenAcceptAsync(result->{
+			try{
+				action.accept(result);
+			}catch(Throwable x){
+				LOG.warn("{}: continuation for {} failed", name, key, x);
+			}
+		}, executor);
+		return future;
+	}
+
+	public boolean isRunning(K key){
+		return inFlight.containsKey(key);
+	}
+
+	/**
+	 * @return true if there was a task with this key and it was cancelled
+	 */
+	public boolean cancel(K key){
+		Flight flight=inFlight.get(key);
+		return flight!=null && flight.cancel(true);
+	}
+
+	public Stats getStats(){
+		return new Stats(name, inFlight.size(), started.sum(), joined.sum(), failed.sum(), cancelled.sum(), timedOut.sum(), totalNanos.sum());
+	}
+
+	public static void logStats(){
+		if(!LOG.isInfoEnabled())
+			return;
+		for(SingleFlight<?, ?> sf:allInstances){
+			Stats s=sf.getStats();
+			LOG.info("{}: {} running, {} started, {} joined, {} failed, {} cancelled, {} timed out, {} ms average", s.name(), s.running(), s.started(), s.joined(),
+					s.failed(), s.cancelled(), s.timedOut(), TimeUnit.NANOSECONDS.toMillis(s.totalNanos()/Math.max(1, s.started())));
+		}
+	}
+
+	private class Flight extends CompletableFuture<V>{
+		private FutureTask<V> task;
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning){
+			// CompletableFuture.cancel() also returns true if it was already cancelled, which would count it again
+			boolean result=!isDone() && super.cancel(mayInterruptIfRunning);
+			if(result){
+				cancelled.increment();
+				task.cancel(true);
+			}
+			return result;
+		}
+	}
+
+	public record Stats(String name, int running, long started, long joined, long failed, long cancelled, long timedOut, long totalNanos){}
+}
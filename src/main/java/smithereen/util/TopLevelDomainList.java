@@ -27,7 +27,7 @@ public class TopLevelDomainList{
 
 	public static void updateIfNeeded(){
 		if(System.currentTimeMillis()-lastUpdatedTime>3600_000L*24*14){ // update once every 14 days
-			BackgroundTaskRunner.getInstance().submit(()->{
+			BackgroundTaskRunner.getInstance().submit(BackgroundTaskRunner.Lane.MAINTENANCE, ()->{
 				try{
 					HttpRequest req=HttpRequest.newBuilder(URI.create("https://data.iana.org/TLD/tlds-alpha-by-domain.txt"))
 							.timeout(Duration.ofSeconds(30))
@@ -0,0 +1,43 @@
+package smithereen.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Logs the places where virtual threads block while pinned to their carrier thread, e.g. when they wait for I/O or a lock
+ * inside a {@code synchronized} block. Such places limit how many requests can be handled at the same time.
+ * <p>
+ * Uses JFR, so it has some overhead and is only enabled in debug mode or with {@code -Dsmithereen.debugVirtualThreadPinning}.
+ */
+public class VirtualThreadPinningMonitor{
+	private static final Logger LOG=LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+	private static final String EVENT_NAME="jdk.VirtualThreadPinned";
+
+	public static void start(Duration threshold){
+		RecordingStream stream=new RecordingStream();
+		stream.enable(EVENT_NAME).withThreshold(threshold).withStackTrace();
+		stream.onEvent(EVENT_NAME, VirtualThreadPinningMonitor::logEvent);
+		stream.startAsync();
+		LOG.info("Logging virtual threads pinned for longer than {} ms", threshold.toMillis());
+	}
+
+	public static String formatStackTrace(RecordedEvent event){
+		if(event.getStackTrace()==null)
+			return "(no stack trace)";
+		return event.getStackTrace().getFrames().stream()
+				.filter(RecordedFrame::isJavaFrame)
+				.map(f->"\tat "+f.getMethod().getType().getName()+"."+f.getMethod().getName()+"("+f.getLineNumber()+")")
+				.collect(Collectors.joining("\n"));
+	}
+
+	private static void logEvent(RecordedEvent event){
+		LOG.warn("Virtual thread {} was pinned for {} ms\n{}", event.getThread()==null ? null : event.getThread().getJavaName(), event.getDuration().toMillis(), formatStackTrace(event));
+	}
+}
@@ -6,6 +6,8 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -69,6 +71,90 @@ public class NamedMutexCollectionTest{
 		});
 	}
 
+	@Test
+	public void testConcurrentStress(){
+		NamedMutexCollection mutex=new NamedMutexCollection();
+		int threadCount=64, iterations=2000, nameCount=8;
+		assertTimeoutPreemptively(Duration.ofSeconds(30), ()->{
+			int[] counters=new int[nameCount];
+			int[] holders=new int[nameCount];
+			AtomicBoolean overlapDetected=new AtomicBoolean();
+			CountDownLatch start=new CountDownLatch(1);
+			ArrayList<Thread> threads=new ArrayList<>(threadCount);
+			for(int i=0;i<threadCount;i++){
+				int seed=i;
+				Thread thread=new Thread(()->{
+					try{start.await();}catch(InterruptedException ignore){}
+					for(int j=0;j<iterations;j++){
+						int n=(seed+j)%nameCount;
+						String name="name"+n;
+						mutex.acquire(name);
+						try{
+							// Reentrant acquisition must not break the reference counting
+							if(j%10==0){
+								mutex.acquire(name);
+								mutex.release(name);
+							}
+							if(++holders[n]!=1)
+								overlapDetected.set(true);
+							counters[n]++;
+							holders[n]--;
+						}finally{
+							mutex.release(name);
+						}
+					}
+				}, "StressThread-"+i);
+				threads.add(thread);
+				thread.start();
+			}
+			start.countDown();
+			for(Thread t:threads){
+				t.join();
+			}
+			assertFalse(overlapDetected.get());
+			int total=0;
+			for(int c:counters)
+				total+=c;
+			assertEquals(threadCount*iterations, total);
+			for(int c:counters)
+				assertEquals(threadCount*iterations/nameCount, c);
+			assertEquals(0, mutex.getHeldLockCount());
+			NamedMutexCollection.Stats stats=mutex.getStats();
+			assertEquals(threadCount*iterations+threadCount*iterations/10, stats.acquisitions());
+			assertTrue(stats.contendedAcquisitions()>0);
+		});
+	}
+
+	@Test
+	public void testTryAcquire(){
+		NamedMutexCollection mutex=new NamedMutexCollection();
+		assertTimeoutPreemptively(Duration.ofSeconds(10), ()->{
+			CountDownLatch acquired=new CountDownLatch(1), done=new CountDownLatch(1);
+			Thread holder=new Thread(()->{
+				mutex.acquire("test");
+				acquired.countDown();
+				try{done.await();}catch(InterruptedException ignore){}
+				mutex.release("test");
+			});
+			holder.start();
+			acquired.await();
+
+			assertFalse(mutex.tryAcquire("test", Duration.ofMillis(100)));
+			assertEquals(1, mutex.getStats().timedOutAcquisitions());
+			assertEquals(1, mutex.getHeldLockCount());
+			assertThrows(IllegalStateException.class, ()->mutex.release("test"));
+
+			assertTrue(mutex.tryAcquire("other", Duration.ofMillis(100)));
+			mutex.release("other");
+
+			done.countDown();
+			assertTrue(mutex.tryAcquire("test", Duration.ofSeconds(5)));
+			mutex.release("test");
+			holder.join();
+			assertEquals(0, mutex.getHeldLockCount());
+		});
+	}
+
 	private static class CounterTask implements Runnable{
 		private final NamedMutexCollection mutex;
 		private final String name;
@@ -0,0 +1,86 @@
+package smithereen;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import smithereen.exceptions.InternalServerErrorException;
+import smithereen.exceptions.ObjectNotFoundException;
+import smithereen.util.ParallelLoader;
+
+public class ParallelLoaderTest{
+	@Test
+	public void testRunsConcurrently(){
+		assertTimeoutPreemptively(Duration.ofSeconds(2), ()->{
+			// Each load waits for the other one, so this only finishes if they run at the same time
+			CountDownLatch latch=new CountDownLatch(2);
+			ParallelLoader.Subtask<String> a, b;
+			try(ParallelLoader loader=new ParallelLoader()){
+				a=loader.fork(()->{
+					latch.countDown();
+					await(latch);
+					return "a";
+				});
+				b=loader.fork(()->{
+					latch.countDown();
+					await(latch);
+					return "b";
+				});
+				loader.join();
+			}
+			assertEquals("a", a.get());
+			assertEquals("b", b.get());
+		});
+	}
+
+	@Test
+	public void testFirstFailureCancelsOthers(){
+		assertTimeoutPreemptively(Duration.ofSeconds(2), ()->{
+			AtomicBoolean interrupted=new AtomicBoolean();
+			try(ParallelLoader loader=new ParallelLoader()){
+				loader.fork(()->{
+					try{
+						Thread.sleep(10_000);
+					}catch(InterruptedException x){
+						interrupted.set(true);
+					}
+					return null;
+				});
+				loader.fork(()->{
+					throw new ObjectNotFoundException();
+				});
+				assertThrows(ObjectNotFoundException.class, loader::join);
+			}
+			assertTrue(interrupted.get());
+		});
+	}
+
+	@Test
+	public void testDeadline(){
+		assertTimeoutPreemptively(Duration.ofSeconds(2), ()->{
+			ParallelLoader.Subtask<String> slow;
+			try(ParallelLoader loader=new ParallelLoader(Duration.ofMillis(100))){
+				slow=loader.fork(()->{
+					try{
+						Thread.sleep(10_000);
+					}catch(InterruptedException ignore){}
+					return "slow";
+				});
+				assertThrows(InternalServerErrorException.class, loader::join);
+			}
+			assertThrows(IllegalStateException.class, slow::get);
+		});
+	}
+
+	private static void await(CountDownLatch latch){
+		try{
+			latch.await();
+		}catch(InterruptedException x){
+			throw new RuntimeException(x);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package smithereen;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import smithereen.util.SingleFlight;
+
+public class SingleFlightTest{
+	private static final Executor NEW_THREAD=r->new Thread(r).start();
+
+	@Test
+	public void testJoinsRunningTask(){
+		SingleFlight<String, String> sf=new SingleFlight<>("Test", null);
+		assertTimeoutPreemptively(Duration.ofSeconds(5), ()->{
+			CountDownLatch release=new CountDownLatch(1);
+			AtomicInteger invocations=new AtomicInteger();
+			CompletableFuture<String> first=sf.run("test", NEW_THREAD, ()->{
+				invocations.incrementAndGet();
+				release.await();
+				return "result";
+			});
+			CompletableFuture<String> second=sf.run("test", NEW_THREAD, ()->{
+				invocations.incrementAndGet();
+				return "other result";
+			});
+			assertSame(first, second);
+			assertTrue(sf.isRunning("test"));
+
+			CompletableFuture<String> other=sf.run("other", NEW_THREAD, ()->"other");
+			assertNotSame(first, other);
+			assertEquals("other", other.get());
+
+			release.countDown();
+			assertEquals("result", first.get());
+			assertEquals("result", second.get());
+			assertEquals(1, invocations.get());
+			assertFalse(sf.isRunning("test"));
+			SingleFlight.Stats stats=sf.getStats();
+			assertEquals(2, stats.started());
+			assertEquals(1, stats.joined());
+			assertEquals(0, stats.running());
+		});
+	}
+
+	@Test
+	public void testRemovedBeforeCompletion(){
+		SingleFlight<String, String> sf=new SingleFlight<>("Test", null);
+		assertTimeoutPreemptively(Duration.ofSeconds(5), ()->{
+			CountDownLatch release=new CountDownLatch(1);
+			CompletableFuture<String> first=sf.run("test", NEW_THREAD, ()->{
+				release.await();
+				return "first";
+			});
+			// Runs on the thread that completes the future, before anyone else can see the result
+			AtomicBoolean runningOnCompletion=new AtomicBoolean(true);
+			CompletableFuture<CompletableFuture<String>> rerun=first.thenApply(v->{
+				runningOnCompletion.set(sf.isRunning("test"));
+				return sf.run("test", NEW_THREAD, ()->"second");
+			});
+			release.countDown();
+			CompletableFuture<String> second=rerun.get();
+			assertEquals("first", first.get());
+			assertFalse(runningOnCompletion.get());
+			assertNotSame(first, second);
+			assertEquals("second", second.get());
+			assertEquals(2, sf.getStats().started());
+			assertEquals(0, sf.getStats().joined());
+		});
+	}
+
+	@Test
+	public void testFailure(){
+		SingleFlight<String, String> sf=new SingleFlight<>("Test", null);
+		assertTimeoutPreemptively(Duration.ofSeconds(5), ()->{
+			CompletableFuture<String> future=sf.run("test", NEW_THREAD, ()->{
+				throw new IOException("test");
+			});
+			ExecutionException x=assertThrows(ExecutionException.class, future::get);
+			assertInstanceOf(IOException.class, x.getCause());
+			assertFalse(sf.isRunning("test"));
+			assertEquals(1, sf.getStats().failed());
+		});
+	}
+
+	@Test
+	public void testTimeout(){
+		SingleFlight<String, String> sf=new SingleFlight<>("Test", Duration.ofMillis(100));
+		assertTimeoutPreemptively(Duration.ofSeconds(5), ()->{
+			CountDownLatch interrupted=new CountDownLatch(1);
+			CompletableFuture<String> future=sf.run("test", NEW_THREAD, ()->{
+				try{
+					Thread.sleep(10_000);
+				}catch(InterruptedException x){
+					interrupted.countDown();
+					throw x;
+				}
+				return "result";
+			});
+			ExecutionException x=assertThrows(ExecutionException.class, future::get);
+			assertInstanceOf(TimeoutException.class, x.getCause());
+			interrupted.await();
+			assertFalse(sf.isRunning("test"));
+			assertEquals(1, sf.getStats().timedOut());
+
+			// A new task can start right away
+			assertEquals("result", sf.run("test", NEW_THREAD, ()->"result").get());
+		});
+	}
+
+	@Test
+	public void testCancel(){
+		SingleFlight<String, String> sf=new SingleFlight<>("Test", null);
+		assertTimeoutPreemptively(Duration.ofSeconds(5), ()->{
+			CountDownLatch started=new CountDownLatch(1), interrupted=new CountDownLatch(1);
+			CompletableFuture<String> future=sf.run("test", NEW_THREAD, ()->{
+				started.countDown();
+				try{
+					Thread.sleep(10_000);
+				}catch(InterruptedException x){
+					interrupted.countDown();
+					throw x;
+				}
+				return "result";
+			});
+			CompletableFuture<String> joined=sf.run("test", NEW_THREAD, ()->"other");
+			started.await();
+
+			assertFalse(sf.cancel("other"));
+			assertTrue(sf.cancel("test"));
+			interrupted.await();
+			// Cancelling is shared between everyone who asked for the same key
+			assertTrue(joined.isCancelled());
+			assertThrows(CancellationException.class, future::get);
+			assertFalse(sf.isRunning("test"));
+			assertEquals(1, sf.getStats().cancelled());
+			assertFalse(sf.cancel("test"));
+		});
+	}
+}
@@ -0,0 +1,120 @@
+package smithereen;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import smithereen.exceptions.FloodControlViolationException;
+import smithereen.util.FloodControl;
+import smithereen.util.NamedMutexCollection;
+import smithereen.util.VirtualThreadPinningMonitor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Makes sure that the locks used on request handling paths don't pin virtual threads to their carriers. Each test blocks
+ * while holding the lock, which JFR reports as a jdk.VirtualThreadPinned event if the lock is a monitor.
+ */
+public class VirtualThreadPinningTest{
+	private static final int THREADS=8;
+
+	@Test
+	public void testDetectsPinning(){
+		// Makes sure the other tests can actually fail
+		Object monitor=new Object();
+		List<RecordedEvent> events=recordPinning(i->{
+			synchronized(monitor){
+				sleep();
+			}
+		});
+		assertFalse(events.isEmpty());
+	}
+
+	@Test
+	public void testLruCache(){
+		LruCache<Integer, String> cache=new LruCache<>(4){
+			@Override
+			protected int sizeOf(Integer key, String value){
+				// Called with the lock held
+				sleep();
+				return 1;
+			}
+		};
+		assertNoPinning(recordPinning(i->{
+			cache.put(i, "value"+i);
+			cache.get(i);
+			cache.remove(i);
+		}));
+	}
+
+	@Test
+	public void testFloodControl(){
+		FloodControl<Integer> floodControl=FloodControl.ofObjectKey(2, 1, TimeUnit.MINUTES, key->{
+			// Called with the lock held
+			sleep();
+			return "key"+key%2;
+		});
+		assertNoPinning(recordPinning(i->{
+			try{
+				floodControl.incrementOrThrow(i);
+			}catch(FloodControlViolationException ignore){}
+			floodControl.reset(i);
+		}));
+	}
+
+	@Test
+	public void testNamedMutexCollection(){
+		NamedMutexCollection mutexes=new NamedMutexCollection();
+		assertNoPinning(recordPinning(i->{
+			mutexes.acquire("test");
+			try{
+				sleep();
+			}finally{
+				mutexes.release("test");
+			}
+		}));
+	}
+
+	private static List<RecordedEvent> recordPinning(IntConsumer task){
+		CopyOnWriteArrayList<RecordedEvent> events=new CopyOnWriteArrayList<>();
+		try(RecordingStream stream=new RecordingStream()){
+			stream.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+			stream.onEvent("jdk.VirtualThreadPinned", events::add);
+			stream.startAsync();
+			assertTimeoutPreemptively(Duration.ofSeconds(10), ()->{
+				ArrayList<Thread> threads=new ArrayList<>();
+				for(int i=0;i<THREADS;i++){
+					int index=i;
+					threads.add(Thread.ofVirtual().name("PinningTest-"+i).start(()->task.accept(index)));
+				}
+				for(Thread t:threads){
+					t.join();
+				}
+			});
+			// Waits for all recorded events to be delivered
+			stream.stop();
+		}
+		return events;
+	}
+
+	private static void assertNoPinning(List<RecordedEvent> events){
+		if(!events.isEmpty()){
+			fail("Virtual threads were pinned "+events.size()+" times, first at:\n"+VirtualThreadPinningMonitor.formatStackTrace(events.getFirst()));
+		}
+	}
+
+	private static void sleep(){
+		try{
+			Thread.sleep(5);
+		}catch(InterruptedException x){
+			throw new RuntimeException(x);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package smithereen;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import smithereen.model.filtering.FilterContext;
+import smithereen.model.filtering.WordFilter;
+import smithereen.model.filtering.WordFilterMatcher;
+import smithereen.text.TextProcessor;
+
+public class WordFilterMatcherTest{
+	private static final String[] ASCII_ALPHABET={"a", "b", "A", "B", "k", "K", "s", "1", "_", " ", ".", ",", "-", "&", "<", ">", "\n"};
+	private static final String[] UNICODE_ALPHABET={"a", "b", "A", "k", "s", "1", "_", " ", ".", "&", "<", "к", "о", "т", "К", "О", "Т", "ё", "Ё", "е",
+			"́", "ı", "İ", "i", "I", "ſ", "K", "ß", "٣", "😀", " ", "‍"};
+
+	@Test
+	public void testMatchesWholeWords(){
+		WordFilterMatcher matcher=matcher(List.of("cat"));
+		assertNotNull(matcher.findMatchingFilter("a cat sat"));
+		assertNotNull(matcher.findMatchingFilter("Cat"));
+		assertNotNull(matcher.findMatchingFilter("CAT!"));
+		assertNull(matcher.findMatchingFilter("concatenate"));
+		assertNull(matcher.findMatchingFilter("cats"));
+		assertNull(matcher.findMatchingFilter("cat_"));
+		assertNull(matcher.findMatchingFilter("dog"));
+	}
+
+	@Test
+	public void testMatchesNonAsciiWords(){
+		WordFilterMatcher matcher=matcher(List.of("кот"));
+		assertNotNull(matcher.findMatchingFilter("мой кот спит"));
+		assertNotNull(matcher.findMatchingFilter("КОТ"));
+		assertNull(matcher.findMatchingFilter("котлета"));
+		assertNull(matcher.findMatchingFilter("скот"));
+	}
+
+	@Test
+	public void testMatchesHtmlEscapedWords(){
+		WordFilterMatcher matcher=matcher(List.of("a&b"));
+		assertNotNull(matcher.findMatchingFilter("<p>a&amp;b</p>"));
+		assertNull(matcher.findMatchingFilter("<p>a&b</p>"));
+	}
+
+	@Test
+	public void testReturnsFirstMatchingFilter(){
+		WordFilter first=filter(1, List.of("dog", "bird")), second=filter(2, List.of("cat", "dog"));
+		WordFilterMatcher matcher=new WordFilterMatcher(List.of(first, second));
+		assertSame(first, matcher.findMatchingFilter("cat and dog"));
+		assertSame(second, matcher.findMatchingFilter("just a cat"));
+		assertSame(first, matcher.findMatchingFilter("a bird"));
+		assertNull(matcher.findMatchingFilter("a fish"));
+	}
+
+	@Test
+	public void testOverlappingWords(){
+		WordFilter a=filter(1, List.of("abcd")), b=filter(2, List.of("bc")), c=filter(3, List.of("b c"));
+		WordFilterMatcher matcher=new WordFilterMatcher(List.of(a, b, c));
+		assertSame(b, matcher.findMatchingFilter("abc bc"));
+		assertSame(c, matcher.findMatchingFilter("a b c"));
+		assertNull(matcher.findMatchingFilter("ab c"));
+		assertSame(a, matcher.findMatchingFilter("abcd bc"));
+	}
+
+	@Test
+	public void testEquivalentToRegexForAscii(){
+		Random rand=new Random(1);
+		for(int i=0;i<20000;i++){
+			List<WordFilter> filters=randomFilters(rand, ASCII_ALPHABET);
+			WordFilterMatcher matcher=new WordFilterMatcher(filters);
+			List<Pattern> patterns=filters.stream().map(f->compile(f, Pattern.CASE_INSENSITIVE)).toList();
+			for(int j=0;j<5;j++){
+				String text=randomString(rand, ASCII_ALPHABET, 30);
+				assertSame(findWithRegex(filters, patterns, text), matcher.findMatchingFilter(text), ()->describe(filters, text));
+			}
+		}
+	}
+
+	@Test
+	public void testEquivalentToUnicodeRegex(){
+		Random rand=new Random(2);
+		for(int i=0;i<20000;i++){
+			List<WordFilter> filters=randomFilters(rand, UNICODE_ALPHABET);
+			WordFilterMatcher matcher=new WordFilterMatcher(filters);
+			List<Pattern> patterns=filters.stream().map(f->compile(f, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.UNICODE_CHARACTER_CLASS)).toList();
+			for(int j=0;j<5;j++){
+				String text=randomString(rand, UNICODE_ALPHABET, 30);
+				assertSame(findWithRegex(filters, patterns, text), matcher.findMatchingFilter(text), ()->describe(filters, text));
+			}
+		}
+	}
+
+	/**
+	 * The way {@link WordFilter} used to compile its words
+	 */
+	private static Pattern compile(WordFilter filter, int flags){
+		return Pattern.compile("\\b("+filter.words.stream().map(TextProcessor::escapeHTML).map(Pattern::quote).collect(Collectors.joining("|"))+")\\b", flags);
+	}
+
+	private static WordFilter findWithRegex(List<WordFilter> filters, List<Pattern> patterns, String text){
+		for(int i=0;i<filters.size();i++){
+			if(patterns.get(i).matcher(text).find())
+				return filters.get(i);
+		}
+		return null;
+	}
+
+	private static List<WordFilter> randomFilters(Random rand, String[] alphabet){
+		int count=rand.nextInt(1, 4);
+		ArrayList<WordFilter> filters=new ArrayList<>();
+		for(int i=0;i<count;i++){
+			int wordCount=rand.nextInt(1, 4);
+			ArrayList<String> words=new ArrayList<>();
+			for(int j=0;j<wordCount;j++){
+				words.add(randomString(rand, alphabet, 4));
+			}
+			filters.add(filter(i, words));
+		}
+		return filters;
+	}
+
+	private static String randomString(Random rand, String[] alphabet, int maxLength){
+		int length=rand.nextInt(1, maxLength+1);
+		StringBuilder sb=new StringBuilder();
+		for(int i=0;i<length;i++){
+			sb.append(alphabet[rand.nextInt(alphabet.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static String describe(List<WordFilter> filters, String text){
+		return "words "+filters.stream().map(f->f.words.toString()).collect(Collectors.joining(", "))+", text '"+text+"'";
+	}
+
+	private static WordFilterMatcher matcher(List<String> words){
+		return new WordFilterMatcher(List.of(filter(1, words)));
+	}
+
+	private static WordFilter filter(int id, List<String> words){
+		return new WordFilter(id, "filter"+id, words, EnumSet.of(FilterContext.FRIENDS_FEED), null);
+	}
+}
@@ -3,7 +3,13 @@ package smithereen.jsonld;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import com.google.gson.JsonElement;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static smithereen.jsonld.TestUtils.*;
@@ -692,4 +698,29 @@ class URDNA2015Tests{
 		assertLinesMatch(expect, strResult);
 	}
 
-}
\ No newline at end of file
+	@Test
+	@DisplayName("canonicalize() matches normalizing the output of toRDF()")
+	void testCanonicalizeMatchesToRDF() throws Exception{
+		int checked=0;
+		try(Stream<Path> files=Files.list(Path.of(getClass().getResource("/toRdf").toURI()))){
+			for(Path file:files.filter(p->p.getFileName().toString().endsWith("-in.jsonld")).sorted().toList()){
+				JsonElement input=readResourceAsJSON("/toRdf/"+file.getFileName());
+				if(!input.isJsonObject())
+					continue;
+				URI base=URI.create("https://w3c.github.io/json-ld-api/tests/toRdf/"+file.getFileName());
+				List<String> expect;
+				try{
+					expect=eachToString(URDNA2015.normalize(JLDProcessor.toRDF(input, base)));
+				}catch(Exception x){
+					continue;
+				}
+				Collections.sort(expect);
+				List<String> actual=new ArrayList<>(Arrays.asList(URDNA2015.canonicalize(input.getAsJsonObject(), base).split("\n")));
+				actual.removeIf(String::isEmpty);
+				assertLinesMatch(expect.stream().distinct().toList(), actual, file.getFileName().toString());
+				checked++;
+			}
+		}
+		assertTrue(checked>100);
+	}
+}
@@ -0,0 +1,183 @@
+package smithereen.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import smithereen.model.friends.FriendshipStatus;
+
+public class FollowGraphTest{
+	private static final byte FRIEND=FollowGraph.FLAG_MUTUAL | FollowGraph.FLAG_ACCEPTED;
+
+	@Test
+	public void testFriendshipStatus() throws SQLException{
+		load(new int[][]{
+				{1, 2, FRIEND},
+				{2, 1, FRIEND},
+				{3, 1, FollowGraph.FLAG_ACCEPTED},
+				{4, 1, 0},
+		});
+		assertTrue(FollowGraph.isReady());
+		assertEquals(FriendshipStatus.FRIENDS, FollowGraph.getSimpleFriendshipStatus(1, 2));
+		assertEquals(FriendshipStatus.FRIENDS, FollowGraph.getSimpleFriendshipStatus(2, 1));
+		assertEquals(FriendshipStatus.FOLLOWING, FollowGraph.getSimpleFriendshipStatus(3, 1));
+		assertEquals(FriendshipStatus.FOLLOWED_BY, FollowGraph.getSimpleFriendshipStatus(1, 3));
+		assertEquals(FriendshipStatus.FOLLOW_REQUESTED, FollowGraph.getSimpleFriendshipStatus(4, 1));
+		assertEquals(FriendshipStatus.NONE, FollowGraph.getSimpleFriendshipStatus(3, 4));
+		assertEquals(FriendshipStatus.NONE, FollowGraph.getSimpleFriendshipStatus(5, 6));
+		assertTrue(FollowGraph.isFriend(1, 2));
+		assertFalse(FollowGraph.isFriend(1, 3));
+	}
+
+	@Test
+	public void testMutualFriends() throws SQLException{
+		// 1 and 2 are both friends with 3, 4 and 5, 1 is also friends with 6 and 2 with 7
+		load(friendships(new int[][]{{1, 3}, {1, 4}, {1, 5}, {1, 6}, {2, 3}, {2, 4}, {2, 5}, {2, 7}}));
+		assertEquals(3, FollowGraph.getMutualFriendsCount(1, 2));
+		assertArrayEquals(new int[]{3, 4, 5}, FollowGraph.getMutualFriendIDs(1, 2));
+		assertArrayEquals(new int[]{3, 4, 5}, FollowGraph.getMutualFriendIDs(2, 1));
+		assertTrue(FollowGraph.haveMutualFriends(1, 2));
+		assertEquals(0, FollowGraph.getMutualFriendsCount(6, 7));
+		assertArrayEquals(new int[0], FollowGraph.getMutualFriendIDs(6, 7));
+		assertFalse(FollowGraph.haveMutualFriends(6, 7));
+		assertEquals(0, FollowGraph.getMutualFriendsCount(1, 100));
+	}
+
+	@Test
+	public void testHaveMutualFriendsWithVeryDifferentSizes() throws SQLException{
+		// 1 has 100 friends, 2 has one, which takes the binary search path
+		int[][] pairs=new int[101][];
+		for(int i=0;i<100;i++){
+			pairs[i]=new int[]{1, 1000+i*2};
+		}
+		pairs[100]=new int[]{2, 1050};
+		load(friendships(pairs));
+		assertTrue(FollowGraph.haveMutualFriends(1, 2));
+		assertTrue(FollowGraph.haveMutualFriends(2, 1));
+
+		pairs[100]=new int[]{2, 1051};
+		load(friendships(pairs));
+		assertFalse(FollowGraph.haveMutualFriends(1, 2));
+		assertFalse(FollowGraph.haveMutualFriends(2, 1));
+	}
+
+	@Test
+	public void testUpdatesKeepArraysSorted() throws SQLException{
+		load(friendships(new int[][]{{1, 10}, {1, 30}, {2, 10}, {2, 30}}));
+		FollowGraph.putFollow(1, 20, true, true);
+		FollowGraph.putFollow(20, 1, true, true);
+		FollowGraph.putFollow(2, 20, true, true);
+		FollowGraph.putFollow(20, 2, true, true);
+		FollowGraph.putFollow(1, 5, false, true);
+		assertArrayEquals(new int[]{10, 20, 30}, FollowGraph.getMutualFriendIDs(1, 2));
+		assertEquals(FriendshipStatus.FOLLOWING, FollowGraph.getSimpleFriendshipStatus(1, 5));
+		assertEquals(FriendshipStatus.FOLLOWED_BY, FollowGraph.getSimpleFriendshipStatus(5, 1));
+
+		FollowGraph.removeFollow(1, 10);
+		FollowGraph.setMutual(10, 1, false);
+		assertArrayEquals(new int[]{20, 30}, FollowGraph.getMutualFriendIDs(1, 2));
+		assertEquals(FriendshipStatus.FOLLOWED_BY, FollowGraph.getSimpleFriendshipStatus(1, 10));
+		assertEquals(FriendshipStatus.FOLLOWING, FollowGraph.getSimpleFriendshipStatus(10, 1));
+
+		FollowGraph.setAccepted(1, 5, false);
+		assertEquals(FriendshipStatus.FOLLOW_REQUESTED, FollowGraph.getSimpleFriendshipStatus(1, 5));
+		FollowGraph.setMutual(1, 5, true);
+		assertTrue(FollowGraph.isFriend(1, 5));
+		assertArrayEquals(new int[]{20, 30}, FollowGraph.getMutualFriendIDs(1, 2));
+
+		FollowGraph.removeUser(20);
+		assertArrayEquals(new int[]{30}, FollowGraph.getMutualFriendIDs(1, 2));
+		assertEquals(FriendshipStatus.NONE, FollowGraph.getSimpleFriendshipStatus(1, 20));
+		assertEquals(FriendshipStatus.NONE, FollowGraph.getSimpleFriendshipStatus(20, 2));
+	}
+
+	@Test
+	public void testUpdatesDuringLoadAreApplied() throws SQLException{
+		int[][] edges=friendships(new int[][]{{1, 2}});
+		Map<Integer, FollowGraph.Node> loaded=FollowGraph.load(()->{
+			// These happen after the loader has read the table, so they aren't in what it returns
+			FollowGraph.putFollow(1, 3, true, true);
+			FollowGraph.putFollow(3, 1, true, true);
+			FollowGraph.removeFollow(1, 2);
+			FollowGraph.setMutual(2, 1, false);
+			return FollowGraph.buildNodes(following(edges), flags(edges));
+		});
+		assertNotNull(loaded);
+		assertTrue(FollowGraph.isFriend(1, 3));
+		assertTrue(FollowGraph.isFriend(3, 1));
+		assertFalse(FollowGraph.isFriend(1, 2));
+		assertEquals(FriendshipStatus.FOLLOWED_BY, FollowGraph.getSimpleFriendshipStatus(1, 2));
+	}
+
+	@Test
+	public void testOnlyOneLoadAtATime() throws SQLException{
+		AtomicReference<Map<Integer, FollowGraph.Node>> nested=new AtomicReference<>(Map.of());
+		assertNotNull(FollowGraph.load(()->{
+			nested.set(FollowGraph.load(()->FollowGraph.buildNodes(Map.of(), Map.of())));
+			return FollowGraph.buildNodes(Map.of(), Map.of());
+		}));
+		assertNull(nested.get());
+	}
+
+	@Test
+	public void testFailedLoadCanBeRetried() throws SQLException{
+		assertThrows(SQLException.class, ()->FollowGraph.load(()->{
+			throw new SQLException("test");
+		}));
+		load(friendships(new int[][]{{1, 2}}));
+		assertTrue(FollowGraph.isFriend(1, 2));
+	}
+
+	/**
+	 * @param edges follower ID, followee ID, flags
+	 */
+	private static void load(int[][] edges) throws SQLException{
+		assertNotNull(FollowGraph.load(()->FollowGraph.buildNodes(following(edges), flags(edges))));
+	}
+
+	/**
+	 * @return edges in both directions for each pair
+	 */
+	private static int[][] friendships(int[][] pairs){
+		int[][] edges=new int[pairs.length*2][];
+		for(int i=0;i<pairs.length;i++){
+			edges[i*2]=new int[]{pairs[i][0], pairs[i][1], FRIEND};
+			edges[i*2+1]=new int[]{pairs[i][1], pairs[i][0], FRIEND};
+		}
+		return edges;
+	}
+
+	private static Map<Integer, int[]> following(int[][] edges){
+		HashMap<Integer, int[]> result=new HashMap<>();
+		for(Map.Entry<Integer, TreeMap<Integer, Byte>> e:group(edges).entrySet()){
+			result.put(e.getKey(), e.getValue().keySet().stream().mapToInt(Integer::intValue).toArray());
+		}
+		return result;
+	}
+
+	private static Map<Integer, byte[]> flags(int[][] edges){
+		HashMap<Integer, byte[]> result=new HashMap<>();
+		for(Map.Entry<Integer, TreeMap<Integer, Byte>> e:group(edges).entrySet()){
+			byte[] flags=new byte[e.getValue().size()];
+			int i=0;
+			for(byte f:e.getValue().values()){
+				flags[i++]=f;
+			}
+			result.put(e.getKey(), flags);
+		}
+		return result;
+	}
+
+	private static Map<Integer, TreeMap<Integer, Byte>> group(int[][] edges){
+		HashMap<Integer, TreeMap<Integer, Byte>> result=new HashMap<>();
+		Arrays.stream(edges).forEach(e->result.computeIfAbsent(e[0], k->new TreeMap<>()).put(e[1], (byte)e[2]));
+		return result;
+	}
+}